@@ -21,6 +21,12 @@ package com.ebay.myriad.executor;
  */
 public class ContainerTaskStatusRequest {
     public static final String YARN_CONTAINER_TASK_ID_PREFIX = "yarn_";
+    /**
+     * Prefix of the tasks that hold the resources of several containers at once. The task's
+     * data lists the ids of its containers, separated by LEASE_CONTAINER_ID_SEPARATOR.
+     */
+    public static final String YARN_LEASE_TASK_ID_PREFIX = YARN_CONTAINER_TASK_ID_PREFIX + "lease_";
+    public static final String LEASE_CONTAINER_ID_SEPARATOR = ",";
     private String mesosTaskId; // YARN_CONTAINER_TASK_ID_PREFIX + <container_id>
     private String state; // Protos.TaskState.name()
 
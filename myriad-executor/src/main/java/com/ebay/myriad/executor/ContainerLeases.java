@@ -0,0 +1,112 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.executor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.mesos.Protos.TaskID;
+import org.apache.mesos.Protos.TaskInfo;
+
+/**
+ * Lease tasks launched by the Myriad scheduler, each holding the Mesos resources of several
+ * YARN containers. A lease is finished once all its containers have stopped. While leases
+ * are in use, the executor sends no status updates for single containers.
+ */
+public class ContainerLeases {
+  /**
+   * Containers that stopped before any lease listed them, kept in case their lease is still
+   * on its way. Containers funded by the NM's own capacity never get a lease, so only the
+   * latest ones are kept.
+   */
+  private static final int MAX_UNLEASED_STOPS = 10000;
+
+  private final Map<String, TaskID> leaseByContainer = new HashMap<>();
+  private final Map<TaskID, Integer> runningByLease = new HashMap<>();
+  private final Set<String> unleasedStops = new LinkedHashSet<>();
+  private boolean inUse;
+
+  public static boolean isLeaseTask(TaskID taskId) {
+    return taskId.getValue().startsWith(ContainerTaskStatusRequest.YARN_LEASE_TASK_ID_PREFIX);
+  }
+
+  /**
+   * @return true if the scheduler has launched any lease on this executor
+   */
+  public synchronized boolean isInUse() {
+    return inUse;
+  }
+
+  /**
+   * Records a lease task and the containers it holds resources for.
+   *
+   * @return true if all its containers have stopped already, so the lease is finished
+   */
+  public synchronized boolean addLease(TaskInfo task) {
+    inUse = true;
+    int running = 0;
+    String containerIds = task.getData().toStringUtf8();
+    for (String containerId : containerIds.split(ContainerTaskStatusRequest.LEASE_CONTAINER_ID_SEPARATOR)) {
+      if (containerId.isEmpty() || unleasedStops.remove(containerId)) {
+        continue;
+      }
+      leaseByContainer.put(containerId, task.getTaskId());
+      running++;
+    }
+    if (running == 0) {
+      return true;
+    }
+    runningByLease.put(task.getTaskId(), running);
+    return false;
+  }
+
+  /**
+   * Records a stopped container.
+   *
+   * @return the lease the container was the last running container of, or null
+   */
+  public synchronized TaskID containerStopped(String containerId) {
+    TaskID leaseId = leaseByContainer.remove(containerId);
+    if (leaseId == null) {
+      unleasedStops.add(containerId);
+      if (unleasedStops.size() > MAX_UNLEASED_STOPS) {
+        Iterator<String> eldest = unleasedStops.iterator();
+        eldest.next();
+        eldest.remove();
+      }
+      return null;
+    }
+    int running = runningByLease.get(leaseId) - 1;
+    if (running > 0) {
+      runningByLease.put(leaseId, running);
+      return null;
+    }
+    runningByLease.remove(leaseId);
+    return leaseId;
+  }
+
+  /**
+   * @return the leases that have containers running
+   */
+  public synchronized List<TaskID> getRunningLeases() {
+    return new ArrayList<>(runningByLease.keySet());
+  }
+}
@@ -40,9 +40,11 @@ public class MyriadExecutor implements Executor {
   private static final Logger LOGGER = LoggerFactory.getLogger(MyriadExecutor.class);
 
   private Set<String> containerIds;
+  private ContainerLeases leases;
 
-  public MyriadExecutor(Set<String> containerTaskIds) {
+  public MyriadExecutor(Set<String> containerTaskIds, ContainerLeases leases) {
     this.containerIds = containerTaskIds;
+    this.leases = leases;
   }
 
   @Override
@@ -69,6 +71,14 @@ public class MyriadExecutor implements Executor {
       .setState(TaskState.TASK_RUNNING)
       .build();
       driver.sendStatusUpdate(status);
+
+    if (ContainerLeases.isLeaseTask(task.getTaskId()) && leases.addLease(task)) {
+      // its containers stopped before the lease arrived
+      driver.sendStatusUpdate(TaskStatus.newBuilder()
+        .setTaskId(task.getTaskId())
+        .setState(TaskState.TASK_FINISHED)
+        .build());
+    }
   }
 
   @Override
@@ -91,6 +101,11 @@ public class MyriadExecutor implements Executor {
             driver.sendStatusUpdate(status);
         }
       }
+      for (TaskID leaseId : leases.getRunningLeases()) {
+        driver.sendStatusUpdate(TaskStatus.newBuilder().setTaskId(leaseId)
+          .setState(TaskState.TASK_KILLED)
+          .build());
+      }
 
       // Now kill the node manager task
       status = TaskStatus.newBuilder()
@@ -52,6 +52,7 @@ public class MyriadExecutorAuxService  extends AuxiliaryService {
   // Storing container id strings as it is difficult to get access to
   // NodeManager's NMContext object from an auxiliary service.
   private Set<String> containerIds = new HashSet<>();
+  private ContainerLeases leases = new ContainerLeases();
 
   protected MyriadExecutorAuxService() {
     super(SERVICE_NAME);
@@ -63,7 +64,7 @@ public class MyriadExecutorAuxService  extends AuxiliaryService {
 
     myriadExecutorThread = new Thread(new Runnable() {
       public void run() {
-        driver = new MesosExecutorDriver(new MyriadExecutor(containerIds));
+        driver = new MesosExecutorDriver(new MyriadExecutor(containerIds, leases));
         LOGGER.error("MyriadExecutor exit with status " +
         Integer.toString(driver.run() == Status.DRIVER_STOPPED ? 0 : 1));
       }
@@ -94,7 +95,10 @@ public class MyriadExecutorAuxService  extends AuxiliaryService {
     synchronized (containerIds) {
       containerIds.add(containerId.toString());
     }
-    sendStatus(containerId, TaskState.TASK_RUNNING);
+    // a lease reports running when it is launched, not per container
+    if (!leases.isInUse()) {
+      sendStatus(containerId, TaskState.TASK_RUNNING);
+    }
   }
 
   @Override
@@ -103,14 +107,23 @@ public class MyriadExecutorAuxService  extends AuxiliaryService {
     synchronized (containerIds) {
       containerIds.remove(containerId.toString());
     }
-    sendStatus(stopContainerContext.getContainerId(), TaskState.TASK_FINISHED);
+    // the lease finishes with the last of its containers. A stop is recorded even before
+    // the first lease arrives, in case the container turns out to be in it.
+    Protos.TaskID leaseId = leases.containerStopped(containerId.toString());
+    if (leaseId != null) {
+      sendStatus(leaseId, TaskState.TASK_FINISHED);
+    } else if (!leases.isInUse()) {
+      sendStatus(stopContainerContext.getContainerId(), TaskState.TASK_FINISHED);
+    }
   }
 
   private void sendStatus(ContainerId containerId, TaskState taskState) {
-    Protos.TaskID taskId = Protos.TaskID.newBuilder()
+    sendStatus(Protos.TaskID.newBuilder()
       .setValue(YARN_CONTAINER_TASK_ID_PREFIX + containerId.toString())
-      .build();
+      .build(), taskState);
+  }
 
+  private void sendStatus(Protos.TaskID taskId, TaskState taskState) {
     TaskStatus status = TaskStatus.newBuilder()
       .setTaskId(taskId)
       .setState(taskState)
@@ -0,0 +1,112 @@
+package com.ebay.myriad.executor
+
+import com.google.protobuf.ByteString
+import org.apache.mesos.Protos
+import spock.lang.Specification
+
+/**
+ *
+ * Tests for ContainerLeases
+ *
+ */
+class ContainerLeasesSpec extends Specification {
+
+    def leases = new ContainerLeases()
+
+    def "a lease is finished by the stop of its last container"() {
+        given:
+        def lease = lease("c1", "c2", "c3")
+
+        when:
+        def finished = leases.addLease(lease)
+
+        then:
+        !finished
+        leases.isInUse()
+        leases.getRunningLeases() == [lease.taskId]
+
+        when:
+        def stopped = ["c2", "c1"].collect { leases.containerStopped(it) }
+
+        then:
+        stopped == [null, null]
+        leases.getRunningLeases() == [lease.taskId]
+
+        when:
+        def lastStopped = leases.containerStopped("c3")
+
+        then:
+        lastStopped == lease.taskId
+        leases.getRunningLeases().isEmpty()
+        leases.isInUse()
+    }
+
+    def "a container stopped before its lease arrives is not waited for"() {
+        when: "one container of the lease stops before the lease is launched"
+        def stopped = leases.containerStopped("c1")
+        def finished = leases.addLease(lease("c1", "c2"))
+
+        then:
+        stopped == null
+        !finished
+        leases.containerStopped("c2") == lease("c1", "c2").taskId
+
+        when: "all containers of a lease stop before the lease is launched"
+        leases.containerStopped("c3")
+        leases.containerStopped("c4")
+
+        then: "the lease is finished as soon as it arrives"
+        leases.addLease(lease("c3", "c4"))
+        leases.getRunningLeases().isEmpty()
+    }
+
+    def "only the latest stops of containers without a lease are kept"() {
+        given:
+        def max = ContainerLeases.MAX_UNLEASED_STOPS
+
+        when:
+        (0..max).each { leases.containerStopped("c" + it) }
+
+        then: "the eldest stop is forgotten, so its lease waits for it"
+        !leases.addLease(lease("c0"))
+        leases.addLease(lease("c1"))
+        leases.addLease(lease("c" + max))
+        leases.getRunningLeases() == [lease("c0").taskId]
+    }
+
+    def "a stopped container is not counted twice"() {
+        given:
+        def lease = lease("c1", "c2")
+        leases.addLease(lease)
+
+        when:
+        def first = leases.containerStopped("c1")
+        def again = leases.containerStopped("c1")
+
+        then:
+        first == null
+        again == null
+        leases.getRunningLeases() == [lease.taskId]
+        leases.containerStopped("c2") == lease.taskId
+    }
+
+    def "lease tasks are told apart from container tasks"() {
+        expect:
+        ContainerLeases.isLeaseTask(taskId("yarn_lease_c1"))
+        !ContainerLeases.isLeaseTask(taskId("yarn_c1"))
+        !leases.isInUse()
+    }
+
+    private static Protos.TaskInfo lease(String... containerIds) {
+        Protos.TaskInfo.newBuilder()
+                .setName("lease")
+                .setTaskId(taskId(ContainerTaskStatusRequest.YARN_LEASE_TASK_ID_PREFIX + containerIds[0]))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-1"))
+                .setData(ByteString.copyFromUtf8(containerIds.join(ContainerTaskStatusRequest.LEASE_CONTAINER_ID_SEPARATOR)))
+                .build()
+    }
+
+    private static Protos.TaskID taskId(String value) {
+        Protos.TaskID.newBuilder().setValue(value).build()
+    }
+}
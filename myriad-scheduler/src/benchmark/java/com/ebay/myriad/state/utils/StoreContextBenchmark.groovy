@@ -0,0 +1,97 @@
+package com.ebay.myriad.state.utils
+
+import com.ebay.myriad.scheduler.NMProfile
+import com.ebay.myriad.state.NodeTask
+import org.apache.mesos.Protos
+import spock.lang.Specification
+
+/**
+ *
+ * Benchmark of the binary format of the Myriad state against the legacy layout
+ *
+ */
+class StoreContextBenchmark extends Specification {
+
+    static final int TASKS = 10000
+    static final int WARMUP_RUNS = 5
+    static final int MEASURED_RUNS = 20
+
+    def frameworkId = Protos.FrameworkID.newBuilder().setValue("framework").build()
+
+    def "encode and decode of 10k tasks in the binary format and the legacy layout"() {
+        given:
+        def context = newContext(TASKS)
+        def results = [:]
+
+        when: "each layout is encoded and decoded, every task included, the first runs warming up"
+        [legacy: { encodeLegacy(context) }, binary: { encode(context) }].each { name, encoder ->
+            byte[] bytes = null
+            long encodeNanos = time { bytes = encoder() }
+            long decodeNanos = time { decodeAll(bytes) }
+            results[name] = [bytes.length, encodeNanos.intdiv(1000), decodeNanos.intdiv(1000)]
+        }
+        results.each { name, result ->
+            println "${TASKS} tasks, ${name}: ${result[0]} bytes, encode ${result[1]} us, decode ${result[2]} us " +
+                    "(mean of ${MEASURED_RUNS} runs)"
+        }
+
+        then:
+        results.binary[0] < results.legacy[0]
+    }
+
+    /*
+     * Reads every task, so that the lazily decoded binary format is timed in full.
+     */
+    private static void decodeAll(byte[] bytes) {
+        def decoded = StoreContext.fromSerializedBytes(bytes)
+        assert decoded.tasks.values().count { it.hostname != null } == TASKS
+    }
+
+    private static long time(Closure closure) {
+        WARMUP_RUNS.times { closure() }
+        long start = System.nanoTime()
+        MEASURED_RUNS.times { closure() }
+        return (System.nanoTime() - start).intdiv(MEASURED_RUNS)
+    }
+
+    private StoreContext newContext(int count) {
+        def tasks = [:]
+        def pending = [] as Set
+        def active = [] as Set
+        count.times { i ->
+            def id = Protos.TaskID.newBuilder().setValue("task-${i}").build()
+            def nodeTask = new NodeTask(new NMProfile("medium", 2, 2048), null)
+            nodeTask.hostname = "host-task-${i}"
+            nodeTask.slaveId = Protos.SlaveID.newBuilder().setValue("slave-${i}").build()
+            tasks[id] = nodeTask
+            (i % 2 == 0 ? pending : active) << id
+        }
+        return new StoreContext(frameworkId, tasks, pending, [] as Set, active, [] as Set, [] as Set)
+    }
+
+    private static byte[] encode(StoreContext context) {
+        def encoder = StateEncoder.acquire()
+        context.writeTo(encoder)
+        return encoder.toByteArray()
+    }
+
+    /*
+     * Writes the layout of earlier versions, as they did.
+     */
+    private static byte[] encodeLegacy(StoreContext context) {
+        def bytes = new ByteArrayOutputStream()
+        def taskIds = []
+        def taskNodes = []
+        context.tasks.each { id, nodeTask ->
+            taskIds << ByteBufferSupport.toByteBuffer(id)
+            taskNodes << ByteBufferSupport.toByteBuffer(nodeTask)
+        }
+        ByteBufferSupport.addByteBuffer(ByteBufferSupport.toByteBuffer(context.frameworkId), bytes)
+        ByteBufferSupport.addByteBuffers(taskIds, bytes)
+        ByteBufferSupport.addByteBuffers(taskNodes, bytes)
+        [context.pendingTasks, context.stagingTasks, context.activeTasks, context.lostTasks, context.killableTasks].each { ids ->
+            ByteBufferSupport.addByteBuffers(ids.collect { ByteBufferSupport.toByteBuffer(it) }, bytes)
+        }
+        return bytes.toByteArray()
+    }
+}
@@ -0,0 +1,92 @@
+package org.apache.hadoop.yarn.server.resourcemanager.recovery
+
+import com.ebay.myriad.scheduler.NMProfile
+import com.ebay.myriad.state.NodeTask
+import com.ebay.myriad.state.SchedulerState
+import com.ebay.myriad.state.utils.StoreContext
+import org.apache.hadoop.yarn.conf.YarnConfiguration
+import org.apache.mesos.Protos
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ *
+ * Benchmark of the Myriad state recovery of MyriadFileSystemRMStateStore
+ *
+ */
+class MyriadFileSystemRMStateStoreBenchmark extends Specification {
+
+    static final int WARMUP_RUNS = 3
+    static final int MEASURED_RUNS = 5
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+    def stores = []
+
+    def cleanup() {
+        stores*.close()
+    }
+
+    @Unroll
+    def "recovery time of #count tasks"() {
+        given:
+        def store = newStore()
+        store.storeMyriadState(newStoreContext(count))
+        def loadNanos = []
+        def indexNanos = []
+
+        when: "the store is reopened and the scheduler state rebuilt, the first runs warming up"
+        (WARMUP_RUNS + MEASURED_RUNS).times { run ->
+            store.close()
+            long start = System.nanoTime()
+            store = newStore()
+            long loaded = System.nanoTime()
+            def state = new SchedulerState(store)
+            long indexed = System.nanoTime()
+            assert state.getActiveTaskIds().size() == count
+            if (run >= WARMUP_RUNS) {
+                loadNanos << loaded - start
+                indexNanos << indexed - loaded
+            }
+        }
+        println "Myriad state recovery of ${count} tasks: load ${millis(loadNanos)} ms, " +
+                "decode and index ${millis(indexNanos)} ms (mean of ${MEASURED_RUNS} runs)"
+
+        then:
+        loadNanos.size() == MEASURED_RUNS
+
+        where:
+        count << [1000, 10000, 50000]
+    }
+
+    private static String millis(List<Long> nanos) {
+        String.format("%.1f", (nanos.sum() as long) / (nanos.size() * 1000000d))
+    }
+
+    private static StoreContext newStoreContext(int count) {
+        def tasks = [:]
+        count.times { i ->
+            def id = Protos.TaskID.newBuilder().setValue("task-${i}").build()
+            def nodeTask = new NodeTask(new NMProfile("medium", 2, 2048), null)
+            nodeTask.hostname = "host-${i}"
+            nodeTask.slaveId = Protos.SlaveID.newBuilder().setValue("slave-${i}").build()
+            nodeTask.taskStatus = Protos.TaskStatus.newBuilder().setTaskId(id).setState(Protos.TaskState.TASK_RUNNING).build()
+            tasks[id] = nodeTask
+        }
+        new StoreContext(Protos.FrameworkID.newBuilder().setValue("framework").build(), tasks,
+                [] as Set, [] as Set, tasks.keySet(), [] as Set, [] as Set)
+    }
+
+    private MyriadFileSystemRMStateStore newStore() {
+        def conf = new YarnConfiguration()
+        conf.set(YarnConfiguration.FS_RM_STATE_STORE_URI, folder.root.toURI().toString())
+        def store = new MyriadFileSystemRMStateStore()
+        store.init(conf)
+        store.start()
+        store.loadState()
+        stores << store
+        store
+    }
+}
@@ -0,0 +1,91 @@
+package org.apache.hadoop.yarn.server.resourcemanager.recovery
+
+import com.ebay.myriad.scheduler.NMProfile
+import com.ebay.myriad.state.NodeTask
+import com.ebay.myriad.state.SchedulerState
+import com.ebay.myriad.state.StateTransition
+import org.apache.hadoop.yarn.conf.YarnConfiguration
+import org.apache.mesos.Protos
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ *
+ * Benchmark of transition heavy and recovery heavy workloads on MyriadLeveldbRMStateStore
+ * and MyriadFileSystemRMStateStore
+ *
+ */
+class MyriadLeveldbRMStateStoreBenchmark extends Specification {
+
+    static final int TASKS = 5000
+    static final int WARMUP_RUNS = 2
+    static final int MEASURED_RUNS = 3
+
+    def profile = new NMProfile("small", 1, 1024)
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+    def stores = []
+
+    def cleanup() {
+        stores*.close()
+    }
+
+    @Unroll
+    def "#name store: 5000 tasks added, made pending and made active one transition at a time, then recovered"() {
+        given:
+        def taskIds = (0..<TASKS).collect { Protos.TaskID.newBuilder().setValue("nm.small.${it}").build() }
+        def storeNanos = []
+        def recoverNanos = []
+
+        when: "each run starts from an empty store, the first runs warming up"
+        (WARMUP_RUNS + MEASURED_RUNS).times { run ->
+            def root = folder.newFolder()
+            def store = newStore(name, root)
+            long start = System.nanoTime()
+            taskIds.each {
+                store.storeMyriadStateTransitions([StateTransition.putTask(it, new NodeTask(profile, null))])
+                store.storeMyriadStateTransitions([StateTransition.makeTask(StateTransition.Type.MAKE_PENDING, it)])
+                store.storeMyriadStateTransitions([StateTransition.makeTask(StateTransition.Type.MAKE_ACTIVE, it)])
+            }
+            long stored = System.nanoTime()
+            store.close()
+            long reopened = System.nanoTime()
+            def state = new SchedulerState(newStore(name, root))
+            long recovered = System.nanoTime()
+            assert state.getActiveTaskIds().size() == TASKS
+            if (run >= WARMUP_RUNS) {
+                storeNanos << stored - start
+                recoverNanos << recovered - reopened
+            }
+        }
+        long meanStoreNanos = (storeNanos.sum() as long).intdiv(MEASURED_RUNS)
+        long meanRecoverNanos = (recoverNanos.sum() as long).intdiv(MEASURED_RUNS)
+        println "Myriad ${name} store: ${(3L * TASKS * 1000000000L).intdiv(meanStoreNanos)} transitions/s, " +
+                "recovery of ${TASKS} tasks in ${meanRecoverNanos.intdiv(1000000)} ms (mean of ${MEASURED_RUNS} runs)"
+
+        then:
+        storeNanos.size() == MEASURED_RUNS
+
+        where:
+        name << ["leveldb", "file"]
+    }
+
+    private RMStateStore newStore(String name, File root) {
+        def conf = new YarnConfiguration()
+        def store
+        if (name == "file") {
+            conf.set(YarnConfiguration.FS_RM_STATE_STORE_URI, root.toURI().toString())
+            store = new MyriadFileSystemRMStateStore()
+        } else {
+            conf.set(YarnConfiguration.RM_LEVELDB_STORE_PATH, root.path)
+            store = new MyriadLeveldbRMStateStore()
+        }
+        store.init(conf)
+        store.start()
+        store.loadState()
+        stores << store
+        store
+    }
+}
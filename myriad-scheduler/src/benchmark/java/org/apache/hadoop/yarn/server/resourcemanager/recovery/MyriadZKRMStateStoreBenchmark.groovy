@@ -0,0 +1,93 @@
+package org.apache.hadoop.yarn.server.resourcemanager.recovery
+
+import com.ebay.myriad.scheduler.NMProfile
+import com.ebay.myriad.state.NodeTask
+import com.ebay.myriad.state.StateTransition
+import org.apache.curator.test.TestingServer
+import org.apache.hadoop.yarn.conf.YarnConfiguration
+import org.apache.hadoop.yarn.event.AsyncDispatcher
+import org.apache.mesos.Protos
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ *
+ * Benchmark of MyriadZKRMStateStore against MyriadFileSystemRMStateStore at 5k tasks
+ *
+ */
+class MyriadZKRMStateStoreBenchmark extends Specification {
+
+    static final int TASKS = 5000
+    static final int WARMUP_RUNS = 1
+    static final int MEASURED_RUNS = 3
+
+    def profile = new NMProfile("small", 1, 1024)
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+    TestingServer server
+    def stores = []
+
+    def setup() {
+        server = new TestingServer()
+    }
+
+    def cleanup() {
+        stores*.close()
+        server.close()
+    }
+
+    @Unroll
+    def "#name store: 5000 tasks added one at a time, then made active in a single batch"() {
+        given:
+        def taskIds = (0..<TASKS).collect { Protos.TaskID.newBuilder().setValue("nm.small.${it}").build() }
+        def addNanos = []
+        def batchNanos = []
+
+        when: "each run starts from an empty store, the first runs warming up"
+        (WARMUP_RUNS + MEASURED_RUNS).times { run ->
+            def store = newStore(name, run)
+            long start = System.nanoTime()
+            taskIds.each { store.storeMyriadStateTransitions([StateTransition.putTask(it, new NodeTask(profile, null))]) }
+            long added = System.nanoTime()
+            store.storeMyriadStateTransitions(taskIds.collect { StateTransition.makeTask(StateTransition.Type.MAKE_ACTIVE, it) })
+            long activated = System.nanoTime()
+            assert store.loadMyriadState().getActiveTasks().size() == TASKS
+            store.close()
+            if (run >= WARMUP_RUNS) {
+                addNanos << added - start
+                batchNanos << activated - added
+            }
+        }
+        long meanAddNanos = (addNanos.sum() as long).intdiv(MEASURED_RUNS)
+        long meanBatchNanos = (batchNanos.sum() as long).intdiv(MEASURED_RUNS)
+        println "Myriad ${name} store: ${(TASKS * 1000000000L).intdiv(meanAddNanos)} single transition writes/s, " +
+                "batch of ${TASKS} in ${meanBatchNanos.intdiv(1000000)} ms (mean of ${MEASURED_RUNS} runs)"
+
+        then:
+        addNanos.size() == MEASURED_RUNS
+
+        where:
+        name << ["zk", "file"]
+    }
+
+    private RMStateStore newStore(String name, int run) {
+        def conf = new YarnConfiguration()
+        def store
+        if (name == "zk") {
+            conf.set(YarnConfiguration.RM_ZK_ADDRESS, server.connectString)
+            conf.set(YarnConfiguration.ZK_RM_STATE_STORE_PARENT_PATH, "/rmstore-${run}")
+            store = new MyriadZKRMStateStore()
+            store.setRMDispatcher(new AsyncDispatcher())
+        } else {
+            conf.set(YarnConfiguration.FS_RM_STATE_STORE_URI, folder.newFolder().toURI().toString())
+            store = new MyriadFileSystemRMStateStore()
+        }
+        store.init(conf)
+        store.start()
+        store.loadState()
+        stores << store
+        store
+    }
+}
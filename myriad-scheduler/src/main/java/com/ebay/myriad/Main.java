@@ -90,7 +90,7 @@ public class Main {
             LOGGER.debug("Bindings: " + injector.getAllBindings());
         }
 
-        JmxReporter.forRegistry(new MetricRegistry()).build().start();
+        JmxReporter.forRegistry(injector.getInstance(MetricRegistry.class)).build().start();
 
         initWebApp(injector);
         initHealthChecks(injector);
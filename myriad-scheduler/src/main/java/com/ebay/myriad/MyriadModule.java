@@ -15,14 +15,18 @@
  */
 package com.ebay.myriad;
 
+import com.codahale.metrics.MetricRegistry;
 import com.ebay.myriad.configuration.MyriadConfiguration;
 import com.ebay.myriad.configuration.MyriadExecutorConfiguration;
 import com.ebay.myriad.policy.LeastAMNodesFirstPolicy;
 import com.ebay.myriad.policy.NodeScaleDownPolicy;
+import com.ebay.myriad.scheduler.GangManager;
 import com.ebay.myriad.scheduler.MyriadDriverManager;
 import com.ebay.myriad.scheduler.MyriadScheduler;
 import com.ebay.myriad.scheduler.fgs.NMHeartBeatHandler;
 import com.ebay.myriad.scheduler.NMProfileManager;
+import com.ebay.myriad.scheduler.fgs.ContainerTaskRegistry;
+import com.ebay.myriad.scheduler.fgs.ContainerTaskTracker;
 import com.ebay.myriad.scheduler.fgs.NodeStore;
 import com.ebay.myriad.scheduler.fgs.OfferLifecycleManager;
 import com.ebay.myriad.scheduler.DownloadNMExecutorCLGenImpl;
@@ -31,7 +35,13 @@ import com.ebay.myriad.scheduler.NMExecutorCLGenImpl;
 import com.ebay.myriad.scheduler.ReconcileService;
 import com.ebay.myriad.scheduler.TaskFactory;
 import com.ebay.myriad.scheduler.TaskFactory.NMTaskFactoryImpl;
+import com.ebay.myriad.scheduler.event.handlers.ResourceOffersEventHandler;
 import com.ebay.myriad.scheduler.fgs.YarnNodeCapacityManager;
+import com.ebay.myriad.scheduler.placement.AttributeSpreadStrategy;
+import com.ebay.myriad.scheduler.placement.BestFitStrategy;
+import com.ebay.myriad.scheduler.placement.FirstFitStrategy;
+import com.ebay.myriad.scheduler.placement.PlacementStrategy;
+import com.ebay.myriad.scheduler.placement.WorstFitStrategy;
 import com.ebay.myriad.scheduler.yarn.interceptor.InterceptorRegistry;
 import com.ebay.myriad.state.MyriadStateStore;
 import com.ebay.myriad.state.SchedulerState;
@@ -79,6 +89,7 @@ public class MyriadModule extends AbstractModule {
         bind(RMContext.class).toInstance(rmContext);
         bind(AbstractYarnScheduler.class).toInstance(yarnScheduler);
         bind(InterceptorRegistry.class).toInstance(interceptorRegistry);
+        bind(MetricRegistry.class).in(Scopes.SINGLETON);
         bind(MyriadDriverManager.class).in(Scopes.SINGLETON);
         bind(MyriadScheduler.class).in(Scopes.SINGLETON);
         bind(NMProfileManager.class).in(Scopes.SINGLETON);
@@ -89,6 +100,10 @@ public class MyriadModule extends AbstractModule {
         bind(YarnNodeCapacityManager.class).in(Scopes.SINGLETON);
         bind(NodeStore.class).in(Scopes.SINGLETON);
         bind(OfferLifecycleManager.class).in(Scopes.SINGLETON);
+        bind(ContainerTaskRegistry.class).in(Scopes.SINGLETON);
+        bind(ContainerTaskTracker.class).in(Scopes.SINGLETON);
+        bind(ResourceOffersEventHandler.class).in(Scopes.SINGLETON);
+        bind(GangManager.class).in(Scopes.SINGLETON);
         bind(NMHeartBeatHandler.class).asEagerSingleton();
 
         //TODO(Santosh): Should be configurable as well
@@ -97,7 +112,7 @@ public class MyriadModule extends AbstractModule {
 
     @Provides
     @Singleton
-    SchedulerState providesSchedulerState(MyriadConfiguration cfg) {
+    SchedulerState providesSchedulerState(MyriadConfiguration cfg, MetricRegistry metricRegistry) {
         LOGGER.debug("Configuring SchedulerState provider");
         MyriadStateStore myriadStateStore = null;
         if (cfg.isHAEnabled()) {
@@ -107,10 +122,11 @@ public class MyriadModule extends AbstractModule {
                     " implementation for Myriad. The 'yarn.resourcemanager.store.class'" +
                     " property should be set to a class implementing the" +
                     " MyriadStateStore interface. For e.g." +
-                    " org.apache.hadoop.yarn.server.resourcemanager.recovery.MyriadFileSystemRMStateStore");
+                    " org.apache.hadoop.yarn.server.resourcemanager.recovery.MyriadFileSystemRMStateStore" +
+                    " or org.apache.hadoop.yarn.server.resourcemanager.recovery.MyriadZKRMStateStore");
             }
         }
-        return new SchedulerState(myriadStateStore);
+        return new SchedulerState(myriadStateStore, cfg.getStateStoreCommitWindowMs(), metricRegistry);
     }
 
     private MyriadStateStore providesMyriadStateStore() {
@@ -122,6 +138,26 @@ public class MyriadModule extends AbstractModule {
         return null;
     }
 
+    @Provides
+    @Singleton
+    PlacementStrategy providesPlacementStrategy(MyriadConfiguration cfg) {
+        String strategy = cfg.getPlacementStrategy();
+        switch (strategy) {
+            case FirstFitStrategy.NAME:
+                return new FirstFitStrategy();
+            case BestFitStrategy.NAME:
+                return new BestFitStrategy();
+            case WorstFitStrategy.NAME:
+                return new WorstFitStrategy();
+            case AttributeSpreadStrategy.NAME:
+                return new AttributeSpreadStrategy(cfg.getPlacementSpreadAttribute());
+            default:
+                throw new IllegalArgumentException("Unknown placement strategy '" + strategy + "'. The" +
+                    " 'placementStrategy' property should be one of " + FirstFitStrategy.NAME + ", " +
+                    BestFitStrategy.NAME + ", " + WorstFitStrategy.NAME + " or " + AttributeSpreadStrategy.NAME);
+        }
+    }
+
     @Provides
     @Singleton
     ExecutorCommandLineGenerator providesCLIGenerator(MyriadConfiguration cfg) {
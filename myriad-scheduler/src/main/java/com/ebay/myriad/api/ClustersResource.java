@@ -23,6 +23,7 @@ import com.ebay.myriad.scheduler.NMProfile;
 import com.ebay.myriad.scheduler.NMProfileManager;
 import com.ebay.myriad.scheduler.constraints.ConstraintFactory;
 import com.ebay.myriad.state.SchedulerState;
+import com.ebay.myriad.state.SchedulerStateSnapshot;
 import com.google.common.base.Preconditions;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -72,19 +73,27 @@ public class ClustersResource {
         Integer instances = request.getInstances();
         String profile = request.getProfile();
         List<String> constraints = request.getConstraints();
-        LOGGER.info("Received flexup request. Profile: {}, Instances: {}, Constraints: {}",
-            profile, instances, constraints);
+        boolean gang = Boolean.TRUE.equals(request.getGang());
+        Long gangTimeoutMs = request.getGangTimeoutMs();
+        LOGGER.info("Received flexup request. Profile: {}, Instances: {}, Constraints: {}, Gang: {}",
+            profile, instances, constraints, gang);
 
         Response.ResponseBuilder response = Response.status(Response.Status.ACCEPTED);
         boolean isValidRequest = validateProfile(profile, response);
         isValidRequest = isValidRequest && validateInstances(instances, response);
         isValidRequest = isValidRequest && validateConstraints(constraints, response);
+        isValidRequest = isValidRequest && validateGangTimeout(gangTimeoutMs, response);
 
         Response returnResponse = response.build();
         if (returnResponse.getStatus() == Response.Status.ACCEPTED.getStatusCode()) {
           String constraint = constraints != null && !constraints.isEmpty() ? constraints.get(0) : null;
-          this.myriadOperations.flexUpCluster(this.profileManager.get(profile), instances,
-              ConstraintFactory.createConstraint(constraint));
+          if (gang) {
+            this.myriadOperations.flexUpGang(this.profileManager.get(profile), instances,
+                ConstraintFactory.createConstraint(constraint), gangTimeoutMs);
+          } else {
+            this.myriadOperations.flexUpCluster(this.profileManager.get(profile), instances,
+                ConstraintFactory.createConstraint(constraint));
+          }
         }
 
         return returnResponse;
@@ -156,6 +165,15 @@ public class ClustersResource {
       return true;
     }
 
+    private boolean validateGangTimeout(Long gangTimeoutMs, ResponseBuilder response) {
+      if (gangTimeoutMs != null && gangTimeoutMs <= 0) {
+        response.status(Response.Status.BAD_REQUEST).entity("Invalid gang timeout: " + gangTimeoutMs);
+        LOGGER.error("Invalid gang timeout " + gangTimeoutMs);
+        return false;
+      }
+      return true;
+    }
+
     private boolean validateConstraints(List<String> constraints, ResponseBuilder response) {
       if (constraints != null && !constraints.isEmpty()) {
         boolean valid = validateConstraintsSize(constraints, response);
@@ -206,9 +224,10 @@ public class ClustersResource {
 
     private Integer getNumFlexedupNMs(String profile) {
       NMProfile nmProfile = profileManager.get(profile);
-      return this.schedulerState.getActiveTaskIDsForProfile(nmProfile).size()
-                + this.schedulerState.getStagingTaskIDsForProfile(nmProfile).size()
-                + this.schedulerState.getPendingTaskIDsForProfile(nmProfile).size();
+      SchedulerStateSnapshot snapshot = this.schedulerState.getSnapshot();
+      return snapshot.getActiveTasksForProfile(nmProfile.getName()).size()
+                + snapshot.getStagingTasksForProfile(nmProfile.getName()).size()
+                + snapshot.getPendingTasksForProfile(nmProfile.getName()).size();
     }
 
 }
@@ -19,6 +19,7 @@ import com.codahale.metrics.annotation.Timed;
 import com.ebay.myriad.api.model.GetSchedulerStateResponse;
 import com.ebay.myriad.configuration.MyriadConfiguration;
 import com.ebay.myriad.state.SchedulerState;
+import com.ebay.myriad.state.SchedulerStateSnapshot;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.mesos.Protos;
 
@@ -50,9 +51,10 @@ public class SchedulerStateResource {
     @Timed
     @GET
     public GetSchedulerStateResponse getState() {
-        return new GetSchedulerStateResponse(toStringCollection(state.getPendingTaskIds()),
-                toStringCollection(state.getStagingTaskIds()), toStringCollection(state.getActiveTaskIds()),
-                toStringCollection(state.getKillableTasks()));
+        SchedulerStateSnapshot snapshot = state.getSnapshot();
+        return new GetSchedulerStateResponse(toStringCollection(snapshot.getPendingTasks()),
+                toStringCollection(snapshot.getStagingTasks()), toStringCollection(snapshot.getActiveTasks()),
+                toStringCollection(snapshot.getKillableTasks()));
     }
 
     private Collection<String> toStringCollection(Collection<Protos.TaskID> collection) {
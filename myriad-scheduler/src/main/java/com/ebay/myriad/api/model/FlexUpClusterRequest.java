@@ -31,6 +31,10 @@ public class FlexUpClusterRequest {
 
     public List<String> constraints;
 
+    public Boolean gang;
+
+    public Long gangTimeoutMs;
+
     public FlexUpClusterRequest() {
     }
     
@@ -64,6 +68,28 @@ public class FlexUpClusterRequest {
       this.constraints = constraints;
     }
 
+    /**
+     * @return true if the NMs are to be launched all at once, or not at all
+     */
+    public Boolean getGang() {
+      return gang;
+    }
+
+    public void setGang(Boolean gang) {
+      this.gang = gang;
+    }
+
+    /**
+     * @return how long to wait for offers for all the NMs of a gang, null for the configured default
+     */
+    public Long getGangTimeoutMs() {
+      return gangTimeoutMs;
+    }
+
+    public void setGangTimeoutMs(Long gangTimeoutMs) {
+      this.gangTimeoutMs = gangTimeoutMs;
+    }
+
     public String toString() {
         Gson gson = new Gson();
         return gson.toJson(this);
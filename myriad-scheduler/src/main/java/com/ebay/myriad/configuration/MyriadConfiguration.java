@@ -42,6 +42,7 @@ import java.util.Map;
  * cpu: 4
  * mem: 4096
  * rebalancer: false
+ * placementStrategy: firstfit
  * nodemanager:
  * jvmMaxMemoryMB: 1024
  * user: hduser
@@ -82,6 +83,72 @@ public class MyriadConfiguration {
 
   public static final Integer DEFAULT_REST_API_PORT = 8192;
 
+  /**
+   * By default mutations of the Myriad state are written to the state store in batches
+   * spanning at most 50 ms.
+   */
+  public static final Integer DEFAULT_STATE_STORE_COMMIT_WINDOW_MS = 50;
+
+  /**
+   * By default NMs are not launched if their staging state is not stored within 10 seconds.
+   */
+  public static final Integer DEFAULT_STATE_STORE_COMMIT_TIMEOUT_MS = 10000;
+
+  /**
+   * By default offers are used as soon as they are received.
+   */
+  public static final Integer DEFAULT_OFFER_WINDOW_MS = 0;
+
+  /**
+   * By default the NMs of a gang flex up are released if they can not all be launched within a minute.
+   */
+  public static final Long DEFAULT_GANG_TIMEOUT_MS = 60000L;
+
+  /**
+   * By default offers held for fine grained scaling are declined after 30 seconds.
+   */
+  public static final Long DEFAULT_FGS_OFFER_TTL_MS = 30000L;
+
+  /**
+   * By default offers for fine grained scaling are turned into capacity on the NM's next heartbeat.
+   */
+  public static final Boolean DEFAULT_FGS_EAGER_CAPACITY = false;
+
+  /**
+   * By default offers for fine grained scaling that no application needs are refused for 5 seconds.
+   */
+  public static final Double DEFAULT_FGS_DECLINE_REFUSE_SECONDS = 5.0;
+
+  /**
+   * By default offers left unused by a scheduler run are held for up to 3 more runs of the node.
+   */
+  public static final Integer DEFAULT_FGS_OFFER_RETAIN_RUNS = 3;
+
+  /**
+   * By default offers left unused by a scheduler run are held for up to 3 seconds.
+   */
+  public static final Long DEFAULT_FGS_OFFER_RETAIN_MS = 3000L;
+
+  /**
+   * By default only NMs launched with the zero profile take part in fine grained scaling.
+   */
+  public static final Boolean DEFAULT_FGS_HYBRID = false;
+
+  /**
+   * By default every container funded by Mesos offers gets a Mesos task of its own.
+   */
+  public static final Boolean DEFAULT_FGS_LEASE_TASKS = false;
+
+  /**
+   * By default NMs are launched in the order they became pending, each on the first offer that fits.
+   */
+  public static final String DEFAULT_PLACEMENT_STRATEGY = "firstfit";
+
+  /**
+   * By default the attributespread placement strategy spreads NMs across racks.
+   */
+  public static final String DEFAULT_PLACEMENT_SPREAD_ATTRIBUTE = "rack";
+
   @JsonProperty
   @NotEmpty
   private String mesosMaster;
@@ -118,6 +185,45 @@ public class MyriadConfiguration {
   @JsonProperty
   private Boolean haEnabled;
 
+  @JsonProperty
+  private Integer stateStoreCommitWindowMs;
+
+  @JsonProperty
+  private Integer stateStoreCommitTimeoutMs;
+
+  @JsonProperty
+  private Integer offerWindowMs;
+
+  @JsonProperty
+  private Long gangTimeoutMs;
+
+  @JsonProperty
+  private Long fgsOfferTtlMs;
+
+  @JsonProperty
+  private Boolean fgsEagerCapacity;
+
+  @JsonProperty
+  private Double fgsDeclineRefuseSeconds;
+
+  @JsonProperty
+  private Integer fgsOfferRetainRuns;
+
+  @JsonProperty
+  private Long fgsOfferRetainMs;
+
+  @JsonProperty
+  private Boolean fgsHybrid;
+
+  @JsonProperty
+  private Boolean fgsLeaseTasks;
+
+  @JsonProperty
+  private String placementStrategy;
+
+  @JsonProperty
+  private String placementSpreadAttribute;
+
   @JsonProperty
   private NodeManagerConfiguration nodemanager;
 
@@ -199,6 +305,98 @@ public class MyriadConfiguration {
     return haEnabled != null ? haEnabled : DEFAULT_HA_ENABLED;
   }
 
+  public Integer getStateStoreCommitWindowMs() {
+    return stateStoreCommitWindowMs != null ? stateStoreCommitWindowMs : DEFAULT_STATE_STORE_COMMIT_WINDOW_MS;
+  }
+
+  public Integer getStateStoreCommitTimeoutMs() {
+    return stateStoreCommitTimeoutMs != null ? stateStoreCommitTimeoutMs : DEFAULT_STATE_STORE_COMMIT_TIMEOUT_MS;
+  }
+
+  /**
+   * @return how long offers are held so that pending NMs are placed across the offers of
+   * several events at once, 0 to use offers as soon as they are received
+   */
+  public Integer getOfferWindowMs() {
+    return offerWindowMs != null ? offerWindowMs : DEFAULT_OFFER_WINDOW_MS;
+  }
+
+  /**
+   * @return how long offers are awaited for all the NMs of a gang flex up, when the request does not say
+   */
+  public Long getGangTimeoutMs() {
+    return gangTimeoutMs != null ? gangTimeoutMs : DEFAULT_GANG_TIMEOUT_MS;
+  }
+
+  /**
+   * @return how long an offer waits for a NM heartbeat to turn it into YARN capacity before it
+   * is declined, 0 to hold offers until they are used
+   */
+  public Long getFgsOfferTtlMs() {
+    return fgsOfferTtlMs != null ? fgsOfferTtlMs : DEFAULT_FGS_OFFER_TTL_MS;
+  }
+
+  /**
+   * @return true if an offer for fine grained scaling is turned into capacity as soon as it
+   * arrives, and the scheduler runs for the node without waiting for its next heartbeat
+   */
+  public Boolean isFgsEagerCapacity() {
+    return fgsEagerCapacity != null ? fgsEagerCapacity : DEFAULT_FGS_EAGER_CAPACITY;
+  }
+
+  /**
+   * @return how long Mesos holds back the resources of an offer declined because no YARN
+   * application has pending requests for it
+   */
+  public Double getFgsDeclineRefuseSeconds() {
+    return fgsDeclineRefuseSeconds != null ? fgsDeclineRefuseSeconds : DEFAULT_FGS_DECLINE_REFUSE_SECONDS;
+  }
+
+  /**
+   * @return how many scheduler runs of a node may leave its offers unused, while YARN
+   * applications are still waiting for containers, before the offers are declined. 0 declines
+   * them after the first run
+   */
+  public Integer getFgsOfferRetainRuns() {
+    return fgsOfferRetainRuns != null ? fgsOfferRetainRuns : DEFAULT_FGS_OFFER_RETAIN_RUNS;
+  }
+
+  /**
+   * @return how long a node may hold offers left unused by its scheduler runs before they are
+   * declined, 0 to decline them after the first run
+   */
+  public Long getFgsOfferRetainMs() {
+    return fgsOfferRetainMs != null ? fgsOfferRetainMs : DEFAULT_FGS_OFFER_RETAIN_MS;
+  }
+
+  /**
+   * @return true if NMs launched with a non-zero profile also take part in fine grained
+   * scaling, keeping their profile as base capacity and adding Mesos offers on top of it
+   */
+  public Boolean isFgsHybrid() {
+    return fgsHybrid != null ? fgsHybrid : DEFAULT_FGS_HYBRID;
+  }
+
+  /**
+   * @return true if the containers a scheduler run funds on a node with Mesos offers share one
+   * lease task, rather than getting a Mesos task each
+   */
+  public Boolean isFgsLeaseTasks() {
+    return fgsLeaseTasks != null ? fgsLeaseTasks : DEFAULT_FGS_LEASE_TASKS;
+  }
+
+  /**
+   * @return one of firstfit, bestfit, worstfit or attributespread
+   */
+  public String getPlacementStrategy() {
+    return Strings.isNullOrEmpty(placementStrategy) ? DEFAULT_PLACEMENT_STRATEGY : placementStrategy;
+  }
+
+  public String getPlacementSpreadAttribute() {
+    return Strings.isNullOrEmpty(placementSpreadAttribute) ? DEFAULT_PLACEMENT_SPREAD_ATTRIBUTE
+        : placementSpreadAttribute;
+  }
+
   public NodeManagerConfiguration getNodeManagerConfiguration() {
     return this.nodemanager;
   }
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.scheduler;
+
+import com.ebay.myriad.configuration.MyriadConfiguration;
+import org.apache.mesos.Protos;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Tracks the NMs flexed up as gangs. The NMs of a gang are launched all at once, when offers
+ * for all of them are at hand, or not at all if that does not happen before the gang's deadline.
+ *
+ * Gangs are kept in memory only. After the RM restarts, the NMs of a gang that was not
+ * launched yet are launched on their own.
+ */
+public class GangManager {
+    private final long defaultTimeoutMs;
+    private final Map<String, Gang> gangs = new LinkedHashMap<>();
+    private final Map<Protos.TaskID, Gang> gangsByTask = new HashMap<>();
+
+    @Inject
+    public GangManager(MyriadConfiguration cfg) {
+        this.defaultTimeoutMs = cfg.getGangTimeoutMs();
+    }
+
+    /**
+     * Registers a gang. Must be called before its tasks are made pending, so that they are
+     * never launched on their own.
+     *
+     * @param timeoutMs how long to wait for offers for the whole gang, or null for the configured default
+     */
+    public synchronized Gang create(Collection<Protos.TaskID> taskIds, Long timeoutMs) {
+        long deadline = System.currentTimeMillis() + (timeoutMs != null ? timeoutMs : defaultTimeoutMs);
+        Gang gang = new Gang(UUID.randomUUID().toString(), taskIds, deadline);
+        gangs.put(gang.getId(), gang);
+        for (Protos.TaskID taskId : gang.getTaskIds()) {
+            gangsByTask.put(taskId, gang);
+        }
+        return gang;
+    }
+
+    public synchronized boolean isGangTask(Protos.TaskID taskId) {
+        return gangsByTask.containsKey(taskId);
+    }
+
+    /**
+     * @return the gangs, oldest first
+     */
+    public synchronized List<Gang> getGangs() {
+        return new ArrayList<>(gangs.values());
+    }
+
+    /**
+     * Forgets a gang, once it has been launched or released.
+     *
+     * @return false if the gang was already removed
+     */
+    public synchronized boolean remove(Gang gang) {
+        if (gangs.remove(gang.getId()) == null) {
+            return false;
+        }
+        gangsByTask.keySet().removeAll(gang.getTaskIds());
+        return true;
+    }
+
+    /**
+     * NMs that are launched all at once.
+     */
+    public static final class Gang {
+        private final String id;
+        private final Set<Protos.TaskID> taskIds;
+        private final long deadline;
+
+        Gang(String id, Collection<Protos.TaskID> taskIds, long deadline) {
+            this.id = id;
+            this.taskIds = Collections.unmodifiableSet(new LinkedHashSet<>(taskIds));
+            this.deadline = deadline;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Set<Protos.TaskID> getTaskIds() {
+            return taskIds;
+        }
+
+        /**
+         * @return the time, in ms since the epoch, after which the gang is released
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        @Override
+        public String toString() {
+            return "gang " + id + " of " + taskIds.size() + " NMs";
+        }
+    }
+}
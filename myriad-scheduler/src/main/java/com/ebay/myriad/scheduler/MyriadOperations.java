@@ -28,7 +28,9 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Myriad scheduler operations
@@ -37,12 +39,15 @@ public class MyriadOperations {
     private static final Logger LOGGER = LoggerFactory.getLogger(MyriadOperations.class);
     private final SchedulerState schedulerState;
     private NodeScaleDownPolicy nodeScaleDownPolicy;
+    private final GangManager gangManager;
 
     @Inject
     public MyriadOperations(SchedulerState schedulerState,
-                            NodeScaleDownPolicy nodeScaleDownPolicy) {
+                            NodeScaleDownPolicy nodeScaleDownPolicy,
+                            GangManager gangManager) {
       this.schedulerState = schedulerState;
       this.nodeScaleDownPolicy = nodeScaleDownPolicy;
+      this.gangManager = gangManager;
     }
 
     public void flexUpCluster(NMProfile profile, int instances, Constraint constraint) {
@@ -54,6 +59,23 @@ public class MyriadOperations {
         this.schedulerState.addNodes(nodes);
     }
 
+    /**
+     * Flexes up NMs that are launched all at once, or released if offers for all of them
+     * are not at hand within the timeout.
+     *
+     * @param timeoutMs how long to wait for offers, or null for the configured default
+     */
+    public void flexUpGang(NMProfile profile, int instances, Constraint constraint, Long timeoutMs) {
+        Map<Protos.TaskID, NodeTask> nodes = new LinkedHashMap<>();
+        for (int i = 0; i < instances; i++) {
+            nodes.put(SchedulerState.newTaskId(profile), new NodeTask(profile, constraint));
+        }
+
+        GangManager.Gang gang = gangManager.create(nodes.keySet(), timeoutMs);
+        LOGGER.info("Flexing up {} with profile '{}'", gang, profile.getName());
+        this.schedulerState.addNodes(nodes);
+    }
+
     public void flexDownCluster(NMProfile profile, Constraint constraint, int numInstancesToScaleDown) {
         // Flex down Pending tasks, if any
         int numPendingTasksScaledDown = flexDownPendingTasks(
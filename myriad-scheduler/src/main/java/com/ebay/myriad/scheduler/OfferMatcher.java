@@ -0,0 +1,140 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.scheduler;
+
+import com.ebay.myriad.scheduler.constraints.Constraint;
+import com.ebay.myriad.scheduler.constraints.LikeConstraint;
+import com.ebay.myriad.scheduler.placement.PlacementStrategy;
+import org.apache.mesos.Protos.Offer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Matches decoded offers against the NM profiles and constraints of pending tasks. The
+ * resources a profile requires are computed once per profile rather than for every
+ * offer and task pair. Of the offers a task matches, the {@link PlacementStrategy} picks
+ * the one it is launched on.
+ *
+ * Not thread safe.
+ */
+public class OfferMatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OfferMatcher.class);
+
+    private final TaskUtils taskUtils;
+    private final PlacementStrategy placementStrategy;
+    private final Map<String, Requirements> requirementsByProfile = new HashMap<>();
+
+    @Inject
+    public OfferMatcher(TaskUtils taskUtils, PlacementStrategy placementStrategy) {
+        this.taskUtils = taskUtils;
+        this.placementStrategy = placementStrategy;
+    }
+
+    /**
+     * Finds the offer with the highest placement score among the offers a task matches.
+     *
+     * @param offers the offers, null for those no longer available
+     * @param resources the resources of each offer
+     * @return the index of the best offer, or -1 if the task matches none
+     */
+    public int bestOffer(Offer[] offers, OfferResources[] resources, NMProfile profile, Constraint constraint) {
+        Requirements requirements = getRequirements(profile);
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < offers.length; i++) {
+            if (offers[i] != null && matches(offers[i], resources[i], requirements, constraint)) {
+                double score = placementStrategy.score(offers[i], resources[i], requirements.cpus, requirements.mem);
+                if (best < 0 || score > bestScore) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param resources the resources of the offer, see {@link OfferResources#fromOffer(Offer)}
+     */
+    public boolean matches(Offer offer, OfferResources resources, NMProfile profile, Constraint constraint) {
+        return matches(offer, resources, getRequirements(profile), constraint);
+    }
+
+    private boolean matches(Offer offer, OfferResources resources, Requirements requirements, Constraint constraint) {
+        if (!meetsConstraint(offer, constraint)) {
+            return false;
+        }
+        if (resources.satisfies(requirements.cpus, requirements.mem, requirements.ports)) {
+            return true;
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Offer not sufficient for launching task. Task requires cpu: {}, memory: {}, # of ports: {}. " +
+                "Offer has {}", requirements.cpus, requirements.mem, requirements.ports, resources);
+        }
+        return false;
+    }
+
+    private boolean meetsConstraint(Offer offer, Constraint constraint) {
+        if (constraint != null && constraint.getType() == Constraint.Type.LIKE) {
+            LikeConstraint likeConstraint = (LikeConstraint) constraint;
+            if (likeConstraint.isConstraintOnHostName()) {
+                return likeConstraint.matchesHostName(offer.getHostname());
+            } else {
+                return likeConstraint.matchesSlaveAttributes(offer.getAttributesList());
+            }
+        }
+        return true;
+    }
+
+    private Requirements getRequirements(NMProfile profile) {
+        Requirements requirements = requirementsByProfile.get(profile.getName());
+        if (requirements == null || !requirements.isFor(profile)) {
+            requirements = new Requirements(profile, taskUtils.getAggregateCpus(profile),
+                taskUtils.getAggregateMemory(profile), NMPorts.expectedNumPorts());
+            requirementsByProfile.put(profile.getName(), requirements);
+        }
+        return requirements;
+    }
+
+    /**
+     * Resources required to launch a NM of a profile. Remembers the profile's size, since a
+     * profile of the same name may be defined again with another size.
+     */
+    private static final class Requirements {
+        private final Long profileCpus;
+        private final Long profileMemory;
+        private final double cpus;
+        private final double mem;
+        private final int ports;
+
+        Requirements(NMProfile profile, double cpus, double mem, int ports) {
+            this.profileCpus = profile.getCpus();
+            this.profileMemory = profile.getMemory();
+            this.cpus = cpus;
+            this.mem = mem;
+            this.ports = ports;
+        }
+
+        boolean isFor(NMProfile profile) {
+            return Objects.equals(profileCpus, profile.getCpus()) && Objects.equals(profileMemory, profile.getMemory());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.scheduler;
+
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The cpus, memory and number of ports of a Mesos offer, decoded once so that the offer
+ * can be matched against many tasks without walking its resources again.
+ */
+public final class OfferResources {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OfferResources.class);
+
+    private final double cpus;
+    private final double mem;
+    private final int ports;
+
+    public OfferResources(double cpus, double mem, int ports) {
+        this.cpus = cpus;
+        this.mem = mem;
+        this.ports = ports;
+    }
+
+    public static OfferResources fromOffer(Offer offer) {
+        double cpus = 0;
+        double mem = 0;
+        int ports = 0;
+        for (int i = 0; i < offer.getResourcesCount(); i++) {
+            Resource resource = offer.getResources(i);
+            switch (resource.getName()) {
+                case "cpus":
+                    cpus += scalar(resource);
+                    break;
+                case "mem":
+                    mem += scalar(resource);
+                    break;
+                case "ports":
+                    ports += ports(resource);
+                    break;
+                case "disk":
+                    break;
+                default:
+                    LOGGER.warn("Ignoring unknown resource type: {}", resource.getName());
+            }
+        }
+        return new OfferResources(cpus, mem, ports);
+    }
+
+    public double getCpus() {
+        return cpus;
+    }
+
+    public double getMem() {
+        return mem;
+    }
+
+    public int getPorts() {
+        return ports;
+    }
+
+    /**
+     * @return true if the offer has at least the given resources.
+     */
+    public boolean satisfies(double requiredCpus, double requiredMem, int requiredPorts) {
+        return requiredCpus <= cpus && requiredMem <= mem && requiredPorts <= ports;
+    }
+
+    /**
+     * @return the larger of the shares of the offer's cpus and memory taken by the given
+     * resources, where a resource the offer has none of counts as a share of 0.
+     */
+    public double dominantShare(double requiredCpus, double requiredMem) {
+        double cpuShare = cpus > 0 ? requiredCpus / cpus : 0;
+        double memShare = mem > 0 ? requiredMem / mem : 0;
+        return Math.max(cpuShare, memShare);
+    }
+
+    @Override
+    public String toString() {
+        return "cpu: " + cpus + ", memory: " + mem + ", # of ports: " + ports;
+    }
+
+    private static double scalar(Resource resource) {
+        if (resource.getType() != Value.Type.SCALAR) {
+            LOGGER.error("{} resource was not a scalar: {}", resource.getName(), resource.getType());
+            return 0;
+        }
+        return resource.getScalar().getValue();
+    }
+
+    private static int ports(Resource resource) {
+        if (resource.getType() != Value.Type.RANGES) {
+            LOGGER.error("ports resource was not Ranges: {}", resource.getType());
+            return 0;
+        }
+        int ports = 0;
+        Value.Ranges ranges = resource.getRanges();
+        for (int i = 0; i < ranges.getRangeCount(); i++) {
+            Value.Range range = ranges.getRange(i);
+            if (range.getBegin() <= range.getEnd()) {
+                ports += range.getEnd() - range.getBegin() + 1;
+            }
+        }
+        return ports;
+    }
+}
@@ -1,6 +1,7 @@
 package com.ebay.myriad.scheduler;
 
 import com.ebay.myriad.configuration.MyriadConfiguration;
+import com.ebay.myriad.scheduler.fgs.ContainerTaskRegistry;
 import com.ebay.myriad.state.SchedulerState;
 import org.apache.mesos.Protos;
 import org.apache.mesos.SchedulerDriver;
@@ -23,15 +24,19 @@ public class ReconcileService {
 
     private SchedulerState state;
     private MyriadConfiguration cfg;
+    private ContainerTaskRegistry containerTaskRegistry;
     private Date lastReconcileTime;
 
     @Inject
-    public ReconcileService(SchedulerState state, MyriadConfiguration cfg) {
+    public ReconcileService(SchedulerState state, MyriadConfiguration cfg, ContainerTaskRegistry containerTaskRegistry) {
         this.state = state;
         this.cfg = cfg;
+        this.containerTaskRegistry = containerTaskRegistry;
     }
 
     public void reconcile(SchedulerDriver driver) {
+        reconcileContainerTasks(driver);
+
         Collection<Protos.TaskStatus> taskStatuses = state.getTaskStatuses();
 
         if (taskStatuses.size() == 0) {
@@ -64,4 +69,18 @@ public class ReconcileService {
             attempt++;
         }
     }
+
+    /**
+     * Container tasks are reconciled once. With none recorded, e.g. after a restart, Mesos is
+     * asked for all the framework's tasks, and the statuses it sends back rebuild the registry.
+     */
+    private void reconcileContainerTasks(SchedulerDriver driver) {
+        Collection<Protos.TaskStatus> containerTaskStatuses = containerTaskRegistry.getTaskStatuses();
+        if (containerTaskStatuses.isEmpty()) {
+            LOGGER.info("No container tasks recorded, reconciling all tasks.");
+        } else {
+            LOGGER.info("Reconciling {} container tasks.", containerTaskStatuses.size());
+        }
+        driver.reconcileTasks(containerTaskStatuses);
+    }
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.scheduler;
+
+import com.google.common.base.Preconditions;
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.Value;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The resources of a Mesos offer by role, from which the resources of a task and its executor
+ * are taken. An offer combined from several offers of a slave may hold a resource in several
+ * roles, and Mesos only launches a task whose resources are offered in the roles the task
+ * names. Reserved roles are taken first, and the unreserved role last.
+ *
+ * Not thread safe.
+ */
+public final class RoleResources {
+    public static final String UNRESERVED_ROLE = "*";
+
+    /**
+     * Amounts below this are rounding errors of adding up and taking away scalars.
+     */
+    private static final double EPSILON = 1e-6;
+
+    private final List<RoleScalar> scalars = new ArrayList<>();
+    private final List<Resource> ports = new ArrayList<>();
+
+    public RoleResources(Offer offer) {
+        List<RoleScalar> unreserved = new ArrayList<>();
+        for (Resource resource : offer.getResourcesList()) {
+            if (resource.getType() == Value.Type.SCALAR) {
+                RoleScalar scalar = new RoleScalar(resource);
+                (scalar.role.equals(UNRESERVED_ROLE) ? unreserved : scalars).add(scalar);
+            } else if (resource.getName().equals("ports") && resource.getType() == Value.Type.RANGES) {
+                ports.add(resource);
+            }
+        }
+        scalars.addAll(unreserved);
+    }
+
+    /**
+     * Takes the given amount of a scalar resource from the roles that have it left.
+     *
+     * @return the resources taken, one per role
+     */
+    public List<Resource> takeScalar(String name, double amount) {
+        List<Resource> taken = new ArrayList<>(1);
+        double needed = amount;
+        for (RoleScalar scalar : scalars) {
+            if (needed < EPSILON) {
+                break;
+            }
+            if (scalar.name.equals(name) && scalar.amount >= EPSILON) {
+                double share = scalar.amount + EPSILON >= needed ? needed : scalar.amount;
+                scalar.amount -= share;
+                needed -= share;
+                taken.add(scalar(name, scalar.role, share));
+            }
+        }
+        Preconditions.checkState(needed < EPSILON, "Not enough %s in offer", name);
+        if (taken.isEmpty()) {
+            taken.add(scalar(name, UNRESERVED_ROLE, amount));
+        }
+        return taken;
+    }
+
+    /**
+     * @return the resources holding the given ports, one per role, each port a range of its own
+     */
+    public List<Resource> getPortResources(long... taskPorts) {
+        Map<String, Value.Ranges.Builder> rangesByRole = new LinkedHashMap<>();
+        for (long port : taskPorts) {
+            String role = getPortRole(port);
+            Value.Ranges.Builder ranges = rangesByRole.get(role);
+            if (ranges == null) {
+                ranges = Value.Ranges.newBuilder();
+                rangesByRole.put(role, ranges);
+            }
+            ranges.addRange(Value.Range.newBuilder().setBegin(port).setEnd(port));
+        }
+        List<Resource> resources = new ArrayList<>(rangesByRole.size());
+        for (Map.Entry<String, Value.Ranges.Builder> entry : rangesByRole.entrySet()) {
+            resources.add(Resource.newBuilder().setName("ports").setType(Value.Type.RANGES)
+                .setRole(entry.getKey()).setRanges(entry.getValue()).build());
+        }
+        return resources;
+    }
+
+    private String getPortRole(long port) {
+        for (Resource resource : ports) {
+            for (Value.Range range : resource.getRanges().getRangeList()) {
+                if (range.getBegin() <= port && port <= range.getEnd()) {
+                    return resource.getRole();
+                }
+            }
+        }
+        return UNRESERVED_ROLE;
+    }
+
+    private static Resource scalar(String name, String role, double amount) {
+        return Resource.newBuilder().setName(name).setType(Value.Type.SCALAR).setRole(role)
+            .setScalar(Value.Scalar.newBuilder().setValue(amount)).build();
+    }
+
+    /**
+     * What is left of a scalar resource of one role.
+     */
+    private static final class RoleScalar {
+        private final String name;
+        private final String role;
+        private double amount;
+
+        RoleScalar(Resource resource) {
+            this.name = resource.getName();
+            this.role = resource.getRole();
+            this.amount = resource.getScalar().getValue();
+        }
+    }
+}
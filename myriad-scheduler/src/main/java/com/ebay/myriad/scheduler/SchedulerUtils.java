@@ -23,7 +23,11 @@ import org.apache.mesos.Protos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Provides utilities for scheduling with the mesos offers
@@ -49,6 +53,45 @@ public class SchedulerUtils {
         return uniqueHostname;
     }
 
+    /**
+     * Groups offers by the slave they come from, keeping the order in which each slave's
+     * first offer appears.
+     */
+    public static Map<Protos.SlaveID, List<Protos.Offer>> groupOffersBySlave(Collection<Protos.Offer> offers) {
+        Map<Protos.SlaveID, List<Protos.Offer>> offersBySlave = new LinkedHashMap<>();
+        for (Protos.Offer offer : offers) {
+            List<Protos.Offer> slaveOffers = offersBySlave.get(offer.getSlaveId());
+            if (slaveOffers == null) {
+                slaveOffers = new ArrayList<>(1);
+                offersBySlave.put(offer.getSlaveId(), slaveOffers);
+            }
+            slaveOffers.add(offer);
+        }
+        return offersBySlave;
+    }
+
+    /**
+     * Combines offers from a single slave into one offer holding all of their resources, so
+     * that a task can be matched against and built from the slave's combined resources.
+     * The id, hostname and attributes are those of the first offer. Resources keep their role,
+     * see {@link RoleResources} for how a task takes each role's share.
+     */
+    public static Protos.Offer combineOffers(List<Protos.Offer> slaveOffers) {
+        Preconditions.checkArgument(!slaveOffers.isEmpty());
+        Protos.Offer first = slaveOffers.get(0);
+        if (slaveOffers.size() == 1) {
+            return first;
+        }
+        Protos.Offer.Builder combined = first.toBuilder();
+        for (int i = 1; i < slaveOffers.size(); i++) {
+            Protos.Offer offer = slaveOffers.get(i);
+            Preconditions.checkArgument(offer.getSlaveId().equals(first.getSlaveId()),
+                "Offers %s and %s are from different slaves", first.getId().getValue(), offer.getId().getValue());
+            combined.addAllResources(offer.getResourcesList());
+        }
+        return combined.build();
+    }
+
   /**
      * Determines if a given host has a nodemanager running with zero profile. Node Managers
      * launched with zero profile (zero cpu & memory) are eligible for fine grained scaling.
@@ -58,13 +101,30 @@ public class SchedulerUtils {
      * @return
      */
     public static boolean isEligibleForFineGrainedScaling(String hostName, SchedulerState state) {
-      for (NodeTask activeNMTask : state.getActiveTasks()) {
+      for (NodeTask activeNMTask : state.getActiveTasksForHostname(hostName)) {
         if (activeNMTask.getProfile().getCpus() == 0 &&
-            activeNMTask.getProfile().getMemory() == 0 &&
-            activeNMTask.getHostname().equals(hostName)) {
+            activeNMTask.getProfile().getMemory() == 0) {
           return true;
         }
       }
       return false;
     }
+
+    /**
+     * Determines if a given host has a nodemanager taking part in fine grained scaling. Without
+     * hybrid scaling these are the Node Managers launched with zero profile. With hybrid scaling
+     * any Node Manager launched by Myriad takes part, and a non-zero profile serves as the base
+     * capacity the Mesos offers for its host are added to.
+     *
+     * @param hostName
+     * @param state
+     * @param hybrid whether hybrid scaling is on
+     * @return
+     */
+    public static boolean isEligibleForFineGrainedScaling(String hostName, SchedulerState state, boolean hybrid) {
+      if (hybrid) {
+        return state.hasActiveTaskOnHostname(hostName);
+      }
+      return isEligibleForFineGrainedScaling(hostName, state);
+    }
 }
\ No newline at end of file
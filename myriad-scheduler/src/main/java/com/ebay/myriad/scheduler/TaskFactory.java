@@ -15,7 +15,6 @@ import org.apache.mesos.Protos.Resource;
 import org.apache.mesos.Protos.TaskInfo;
 import org.apache.mesos.Protos.TaskID;
 import org.apache.mesos.Protos.Value;
-import org.apache.mesos.Protos.Value.Scalar;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -160,15 +159,10 @@ public interface TaskFactory {
       LOGGER.debug(ports.toString());
 
       NMProfile profile = nodeTask.getProfile();
-      Scalar taskMemory = Scalar.newBuilder()
-          .setValue(taskUtils.getTaskMemory(profile))
-          .build();
-      Scalar taskCpus = Scalar.newBuilder()
-          .setValue(taskUtils.getTaskCpus(profile))
-          .build();
-
       CommandInfo commandInfo = getCommandInfo(profile, ports);
-      ExecutorInfo executorInfo = getExecutorInfoForSlave(frameworkId, offer, commandInfo);
+      // A combined offer may hold resources in several roles, the task asks for each role's share
+      RoleResources resources = new RoleResources(offer);
+      ExecutorInfo executorInfo = getExecutorInfoForSlave(frameworkId, offer, commandInfo, resources);
 
       TaskInfo.Builder taskBuilder = TaskInfo.newBuilder()
           .setName("task-" + taskId.getValue())
@@ -176,47 +170,21 @@ public interface TaskFactory {
           .setSlaveId(offer.getSlaveId());
 
       return taskBuilder
-          .addResources(
-              Resource.newBuilder().setName("cpus")
-                  .setType(Value.Type.SCALAR)
-                  .setScalar(taskCpus)
-                  .build())
-          .addResources(
-              Resource.newBuilder().setName("mem")
-                  .setType(Value.Type.SCALAR)
-                  .setScalar(taskMemory)
-                  .build())
-          .addResources(
-              Resource.newBuilder().setName("ports")
-                  .setType(Value.Type.RANGES)
-                  .setRanges(Value.Ranges.newBuilder()
-                      .addRange(Value.Range.newBuilder()
-                          .setBegin(ports.getRpcPort())
-                          .setEnd(ports.getRpcPort())
-                          .build())
-                      .addRange(Value.Range.newBuilder()
-                          .setBegin(ports.getLocalizerPort())
-                          .setEnd(ports.getLocalizerPort())
-                          .build())
-                      .addRange(Value.Range.newBuilder()
-                          .setBegin(ports.getWebAppHttpPort())
-                          .setEnd(ports.getWebAppHttpPort())
-                          .build())
-                      .addRange(Value.Range.newBuilder()
-                          .setBegin(ports.getShufflePort())
-                          .setEnd(ports.getShufflePort())
-                          .build())))
+          .addAllResources(resources.takeScalar("cpus", taskUtils.getTaskCpus(profile)))
+          .addAllResources(resources.takeScalar("mem", taskUtils.getTaskMemory(profile)))
+          .addAllResources(resources.getPortResources(ports.getRpcPort(), ports.getLocalizerPort(),
+              ports.getWebAppHttpPort(), ports.getShufflePort()))
           .setExecutor(executorInfo).build();
     }
 
     @Override
     public ExecutorInfo getExecutorInfoForSlave(FrameworkID frameworkId, Offer offer,
       CommandInfo commandInfo) {
-      Scalar executorMemory = Scalar.newBuilder()
-          .setValue(taskUtils.getExecutorMemory()).build();
-      Scalar executorCpus = Scalar.newBuilder()
-          .setValue(taskUtils.getExecutorCpus()).build();
+      return getExecutorInfoForSlave(frameworkId, offer, commandInfo, new RoleResources(offer));
+    }
 
+    private ExecutorInfo getExecutorInfoForSlave(FrameworkID frameworkId, Offer offer,
+      CommandInfo commandInfo, RoleResources resources) {
       ExecutorID executorId = ExecutorID.newBuilder()
           .setValue(EXECUTOR_PREFIX + frameworkId.getValue() +
               offer.getId().getValue() + offer.getSlaveId().getValue())
@@ -225,14 +193,8 @@ public interface TaskFactory {
           .newBuilder()
           .setCommand(commandInfo)
           .setName(EXECUTOR_NAME)
-          .addResources(
-              Resource.newBuilder().setName("cpus")
-                  .setType(Value.Type.SCALAR)
-                  .setScalar(executorCpus).build())
-          .addResources(
-              Resource.newBuilder().setName("mem")
-                  .setType(Value.Type.SCALAR)
-                  .setScalar(executorMemory).build())
+          .addAllResources(resources.takeScalar("cpus", taskUtils.getExecutorCpus()))
+          .addAllResources(resources.takeScalar("mem", taskUtils.getExecutorMemory()))
           .setExecutorId(executorId).build();
     }
   }
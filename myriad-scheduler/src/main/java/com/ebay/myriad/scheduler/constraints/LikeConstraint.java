@@ -24,6 +24,14 @@ public class LikeConstraint implements Constraint {
     this.pattern = Pattern.compile(rhsRegex);
   }
 
+  public String getLhs() {
+    return lhs;
+  }
+
+  public String getRhsRegex() {
+    return pattern.pattern();
+  }
+
   public boolean isConstraintOnHostName() {
     return lhs.equalsIgnoreCase(HOSTNAME);
   }
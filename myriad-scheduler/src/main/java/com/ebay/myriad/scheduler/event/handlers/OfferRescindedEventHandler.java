@@ -16,19 +16,30 @@
 package com.ebay.myriad.scheduler.event.handlers;
 
 import com.ebay.myriad.scheduler.event.OfferRescindedEvent;
+import com.ebay.myriad.scheduler.fgs.OfferLifecycleManager;
 import com.lmax.disruptor.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Inject;
+
 /**
  * handles and logs offer rescinded events
  */
 public class OfferRescindedEventHandler implements EventHandler<OfferRescindedEvent> {
     private static final Logger LOGGER = LoggerFactory.getLogger(OfferRescindedEventHandler.class);
 
+    @Inject
+    private ResourceOffersEventHandler resourceOffersEventHandler;
+
+    @Inject
+    private OfferLifecycleManager offerLifecycleManager;
+
     @Override
     public void onEvent(OfferRescindedEvent event, long sequence, boolean endOfBatch) throws Exception {
         LOGGER.info("OfferRescinded event: {}", event);
+        resourceOffersEventHandler.offerRescinded(event.getOfferId());
+        offerLifecycleManager.offerRescinded(event.getOfferId());
     }
 
 }
@@ -15,27 +15,29 @@
  */
 package com.ebay.myriad.scheduler.event.handlers;
 
-import com.ebay.myriad.scheduler.NMPorts;
+import com.ebay.myriad.configuration.MyriadConfiguration;
+import com.ebay.myriad.scheduler.GangManager;
+import com.ebay.myriad.scheduler.GangManager.Gang;
 import com.ebay.myriad.scheduler.NMProfile;
+import com.ebay.myriad.scheduler.OfferMatcher;
+import com.ebay.myriad.scheduler.OfferResources;
 import com.ebay.myriad.scheduler.SchedulerUtils;
 import com.ebay.myriad.scheduler.TaskFactory;
-import com.ebay.myriad.scheduler.TaskUtils;
-import com.ebay.myriad.scheduler.constraints.Constraint;
-import com.ebay.myriad.scheduler.constraints.LikeConstraint;
 import com.ebay.myriad.scheduler.event.ResourceOffersEvent;
 import com.ebay.myriad.scheduler.fgs.OfferLifecycleManager;
+import com.ebay.myriad.scheduler.fgs.YarnNodeCapacityManager;
+import com.ebay.myriad.scheduler.placement.PlacementStrategy;
 import com.ebay.myriad.state.NodeTask;
 import com.ebay.myriad.state.SchedulerState;
+import com.ebay.myriad.state.SchedulerStateSnapshot;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lmax.disruptor.EventHandler;
 
-import java.util.Iterator;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.mesos.Protos;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
-import org.apache.mesos.Protos.Resource;
 import org.apache.mesos.Protos.TaskInfo;
-import org.apache.mesos.Protos.Value;
 import org.apache.mesos.SchedulerDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,15 +45,26 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * handles and logs resource offers events
+ * handles and logs resource offers events. With an offer window, the offers of consecutive events
+ * are held for the window and the pending tasks are placed across all of them at once.
  */
 public class ResourceOffersEventHandler implements EventHandler<ResourceOffersEvent> {
   private static final Logger LOGGER = LoggerFactory.getLogger(ResourceOffersEventHandler.class);
@@ -65,10 +78,42 @@ public class ResourceOffersEventHandler implements EventHandler<ResourceOffersEv
   private TaskFactory taskFactory;
 
   @Inject
-  private TaskUtils taskUtils;
+  private OfferLifecycleManager offerLifecycleMgr;
 
   @Inject
-  private OfferLifecycleManager offerLifecycleMgr;
+  private YarnNodeCapacityManager yarnNodeCapacityMgr;
+
+  @Inject
+  private OfferMatcher offerMatcher;
+
+  @Inject
+  private PlacementStrategy placementStrategy;
+
+  @Inject
+  private MyriadConfiguration cfg;
+
+  @Inject
+  private GangManager gangManager;
+
+  /**
+   * Offers held until the offer window closes, guarded by the driver operation lock.
+   */
+  private final List<Offer> heldOffers = new ArrayList<>();
+  private boolean windowOpen;
+  private ScheduledExecutorService windowExecutor;
+
+  /**
+   * Offers reserved for gangs, by gang id, and the gangs whose release is scheduled. Guarded
+   * by the driver operation lock.
+   */
+  private final Map<String, List<Offer>> reservedOffers = new HashMap<>();
+  private final Set<String> releaseScheduled = new HashSet<>();
+
+  /**
+   * The driver of the latest offers.
+   */
+  private SchedulerDriver offersDriver;
+
 
   @Override
   public void onEvent(ResourceOffersEvent event, long sequence,
@@ -90,62 +135,48 @@ public class ResourceOffersEventHandler implements EventHandler<ResourceOffersEv
     LOGGER.debug("Pending tasks: {}", this.schedulerState.getPendingTaskIds());
     driverOperationLock.lock();
     try {
-      for (Iterator<Offer> iterator = offers.iterator(); iterator.hasNext();) {
-        Offer offer = iterator.next();
-        NodeTask nodeTask = schedulerState.getNodeTask(offer.getSlaveId());
-        if (nodeTask != null) {
-          nodeTask.setSlaveAttributes(offer.getAttributesList());
-        }
-        Set<Protos.TaskID> pendingTasks = schedulerState.getPendingTaskIds();
-        if (CollectionUtils.isNotEmpty(pendingTasks)) {
-          for (Protos.TaskID pendingTaskId : pendingTasks) {
-            NodeTask taskToLaunch = schedulerState
-                .getTask(pendingTaskId);
-            NMProfile profile = taskToLaunch.getProfile();
-            Constraint constraint = taskToLaunch.getConstraint();
-
-            if (matches(offer, profile, constraint)
-                && SchedulerUtils.isUniqueHostname(offer,
-                schedulerState.getActiveTasks())) {
-              TaskInfo task = taskFactory.createTask(offer, schedulerState.getFrameworkID(), pendingTaskId,
-                  taskToLaunch);
-
-              List<OfferID> offerIds = new ArrayList<>();
-              offerIds.add(offer.getId());
-              List<TaskInfo> tasks = new ArrayList<>();
-              tasks.add(task);
-              LOGGER.info("Launching task: {} using offer: {}", task.getTaskId().getValue(), offer.getId());
-              LOGGER.debug("Launching task: {} with profile: {} using offer: {}", task, profile, offer);
-              driver.launchTasks(offerIds, tasks);
-              schedulerState.makeTaskStaging(pendingTaskId);
-
-              // For every NM Task that we launch, we currently
-              // need to backup the ExecutorInfo for that NM Task in the State Store.
-              // Without this, we will not be able to launch tasks corresponding to yarn
-              // containers. This is specially important in case the RM restarts.
-              taskToLaunch.setExecutorInfo(task.getExecutor());
-              taskToLaunch.setHostname(offer.getHostname());
-              taskToLaunch.setSlaveId(offer.getSlaveId());
-              schedulerState.addTask(pendingTaskId, taskToLaunch);
-              iterator.remove(); // remove the used offer from offers list
-              break;
-            }
+      int offerWindowMs = cfg.getOfferWindowMs();
+      if (offerWindowMs <= 0) {
+        launchTasks(driver, offers);
+        return;
+      }
+      // Hold the offers so that pending tasks are placed across all the offers of the window
+      if (!windowOpen) {
+        windowOpen = true;
+        getWindowExecutor().schedule(new Runnable() {
+          @Override
+          public void run() {
+            launchHeldOffers();
           }
-        }
+        }, offerWindowMs, TimeUnit.MILLISECONDS);
       }
+      heldOffers.addAll(offers);
+      offersDriver = driver;
+    } finally {
+      driverOperationLock.unlock();
+    }
+  }
 
-      for (Offer offer : offers) {
-        if (SchedulerUtils.isEligibleForFineGrainedScaling(offer.getHostname(), schedulerState)) {
-          if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Picking an offer from slave with hostname {} for fine grained scaling.",
-                offer.getHostname());
-          }
-          offerLifecycleMgr.addOffers(offer);
-        } else {
-          if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Declining offer {} from slave {}.", offer, offer.getHostname());
+  /**
+   * Stops holding or reserving a rescinded offer.
+   */
+  public void offerRescinded(OfferID offerId) {
+    driverOperationLock.lock();
+    try {
+      for (Iterator<Offer> iterator = heldOffers.iterator(); iterator.hasNext();) {
+        if (iterator.next().getId().equals(offerId)) {
+          iterator.remove();
+          LOGGER.info("Rescinded offer {} is no longer held", offerId.getValue());
+          return;
+        }
+      }
+      for (List<Offer> reserved : reservedOffers.values()) {
+        for (Iterator<Offer> iterator = reserved.iterator(); iterator.hasNext();) {
+          if (iterator.next().getId().equals(offerId)) {
+            iterator.remove();
+            LOGGER.info("Rescinded offer {} is no longer reserved", offerId.getValue());
+            return;
           }
-          driver.declineOffer(offer.getId());
         }
       }
     } finally {
@@ -153,121 +184,309 @@ public class ResourceOffersEventHandler implements EventHandler<ResourceOffersEv
     }
   }
 
-  private boolean matches(Offer offer, NMProfile profile, Constraint constraint) {
-
-    if (!meetsConstraint(offer, constraint)) {
-      return false;
+  private void launchHeldOffers() {
+    driverOperationLock.lock();
+    try {
+      windowOpen = false;
+      List<Offer> offers = new ArrayList<>(heldOffers);
+      heldOffers.clear();
+      LOGGER.info("Placing pending tasks on {} offers held for {} ms", offers.size(), cfg.getOfferWindowMs());
+      launchTasks(offersDriver, offers);
+    } catch (RuntimeException e) {
+      LOGGER.error("Failed to place pending tasks on the held offers", e);
+    } finally {
+      driverOperationLock.unlock();
     }
+  }
 
-    Map<String, Object> results = new HashMap<String, Object>(5);
+  private synchronized ScheduledExecutorService getWindowExecutor() {
+    if (windowExecutor == null) {
+      windowExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("MyriadOfferWindow-%d").setDaemon(true).build());
+    }
+    return windowExecutor;
+  }
 
-    for (Resource resource : offer.getResourcesList()) {
-      if (resourceEvaluators.containsKey(resource.getName())) {
-        resourceEvaluators.get(resource.getName()).eval(resource, results);
-      } else {
-        LOGGER.warn("Ignoring unknown resource type: {}",
-            resource.getName());
+  /**
+   * Launches pending tasks on the offers, then hands the unused offers to fine grained scaling
+   * or declines them. Must be called holding the driver operation lock.
+   */
+  private void launchTasks(SchedulerDriver driver, List<Offer> newOffers) {
+    offersDriver = driver;
+    // Offers reserved for gangs are placed again along with the new ones
+    List<Offer> offers = new ArrayList<>(newOffers);
+    for (List<Offer> reserved : reservedOffers.values()) {
+      offers.addAll(reserved);
+    }
+    reservedOffers.clear();
+
+    // A slave's free resources may be split across several offers, match against all of them.
+    List<List<Offer>> offersBySlave = new ArrayList<>(SchedulerUtils.groupOffersBySlave(offers).values());
+    int slaveCount = offersBySlave.size();
+    Offer[] combinedOffers = new Offer[slaveCount];
+    Offer[] slaveOffers = new Offer[slaveCount];
+    OfferResources[] slaveResources = new OfferResources[slaveCount];
+    for (int i = 0; i < slaveCount; i++) {
+      Offer offer = SchedulerUtils.combineOffers(offersBySlave.get(i));
+      schedulerState.updateSlaveAttributes(offer.getSlaveId(), offer.getAttributesList());
+      combinedOffers[i] = offer;
+      if (!schedulerState.hasActiveTaskOnHostname(offer.getHostname())) {
+        slaveOffers[i] = offer;
+        slaveResources[i] = OfferResources.fromOffer(offer);
       }
     }
-    double cpus = (Double) results.get("cpus");
-    double mem = (Double) results.get("mem");
-    int ports = (Integer) results.get("ports");
-
-    checkResource(cpus < 0, "cpus");
-    checkResource(mem < 0, "mem");
-    checkResource(ports < 0, "port");
-
-    return checkAggregates(profile, ports, cpus, mem);
-  }
 
-  private boolean meetsConstraint(Offer offer, Constraint constraint) {
-    if (constraint != null) {
-      switch (constraint.getType()) {
-        case LIKE:
-        {
-          LikeConstraint likeConstraint = (LikeConstraint) constraint;
-          if (likeConstraint.isConstraintOnHostName()) {
-            return likeConstraint.matchesHostName(offer.getHostname());
+    // Pending tasks may be flexed down meanwhile, so the tasks are all read from one snapshot
+    SchedulerStateSnapshot state = schedulerState.getSnapshot();
+    boolean[] accepted = new boolean[slaveCount];
+    Gang[] reservedFor = new Gang[slaveCount];
+    List<Integer> acceptedSlaves = new ArrayList<>();
+    List<TaskInfo> tasksToLaunch = new ArrayList<>();
+    List<Gang> launchedGangs = new ArrayList<>();
+    if (CollectionUtils.isNotEmpty(state.getPendingTasks())) {
+      placementStrategy.prepare(schedulerState);
+
+      // A gang is launched only once all of its NMs can be placed. Until then it holds on
+      // to the offers it would be launched on.
+      for (Gang gang : gangManager.getGangs()) {
+        if (gang.getDeadline() <= System.currentTimeMillis()) {
+          releaseGang(gang);
+          continue;
+        }
+        scheduleRelease(gang);
+        if (!state.getPendingTasks().containsAll(gang.getTaskIds())) {
+          continue;
+        }
+        List<Protos.TaskID> gangTasks = new ArrayList<>(gang.getTaskIds());
+        if (placementStrategy.isLargestFirst()) {
+          Collections.sort(gangTasks, largestProfileFirst(state));
+        }
+        int[] gangSlaves = new int[gangTasks.size()];
+        int placed = 0;
+        for (; placed < gangTasks.size(); placed++) {
+          NodeTask taskToLaunch = state.getTasks().get(gangTasks.get(placed));
+          int slave = offerMatcher.bestOffer(slaveOffers, slaveResources, taskToLaunch.getProfile(),
+              taskToLaunch.getConstraint());
+          if (slave < 0) {
+            break;
+          }
+          gangSlaves[placed] = slave;
+          slaveOffers[slave] = null;
+        }
+        for (int i = 0; i < placed; i++) {
+          int slave = gangSlaves[i];
+          if (placed == gangTasks.size()) {
+            Protos.TaskID taskId = gangTasks.get(i);
+            TaskInfo task = stageTask(taskId, state.getTasks().get(taskId), combinedOffers[slave]);
+            if (task != null) {
+              accepted[slave] = true;
+              acceptedSlaves.add(slave);
+              tasksToLaunch.add(task);
+            }
           } else {
-            return likeConstraint.matchesSlaveAttributes(offer.getAttributesList());
+            reservedFor[slave] = gang;
           }
         }
+        if (placed == gangTasks.size()) {
+          LOGGER.info("Launching {}", gang);
+          launchedGangs.add(gang);
+        } else {
+          LOGGER.info("Offers for {} of {} are at hand, holding on to them", placed, gang);
+        }
       }
-    }
-    return true;
-  }
 
-  private void checkResource(boolean fail, String resource) {
-    if (fail) {
-      LOGGER.info("No " + resource + " resources present");
+      // Placing the largest NMs first keeps them from starving behind smaller ones, unless the
+      // strategy places them in the order they became pending
+      List<Protos.TaskID> pendingTasks = new ArrayList<>();
+      for (Protos.TaskID pendingTaskId : state.getPendingTasks()) {
+        if (!gangManager.isGangTask(pendingTaskId)) {
+          pendingTasks.add(pendingTaskId);
+        }
+      }
+      if (placementStrategy.isLargestFirst()) {
+        Collections.sort(pendingTasks, largestProfileFirst(state));
+      }
+      for (Protos.TaskID pendingTaskId : pendingTasks) {
+        NodeTask taskToLaunch = state.getTasks().get(pendingTaskId);
+        int slave = offerMatcher.bestOffer(slaveOffers, slaveResources, taskToLaunch.getProfile(),
+            taskToLaunch.getConstraint());
+        if (slave < 0) {
+          continue;
+        }
+        TaskInfo task = stageTask(pendingTaskId, taskToLaunch, combinedOffers[slave]);
+        if (task == null) {
+          continue;
+        }
+        slaveOffers[slave] = null; // a slave runs at most one NM
+        accepted[slave] = true;
+        acceptedSlaves.add(slave);
+        tasksToLaunch.add(task);
+      }
     }
-  }
 
-  private boolean checkAggregates(NMProfile profile, int ports, double cpus, double mem) {
-
-    if (taskUtils.getAggregateCpus(profile) <= cpus
-        && taskUtils.getAggregateMemory(profile) <= mem
-        && NMPorts.expectedNumPorts() <= ports) {
-      return true;
-    } else {
-      LOGGER.info("Offer not sufficient for launching task. Task requires cpu: {}, memory: {}, # of ports: {}. " +
-          "Offer has cpu: {}, memory: {}, # of ports: {}", taskUtils.getAggregateCpus(profile),
-          taskUtils.getAggregateMemory(profile), NMPorts.expectedNumPorts(), cpus, mem, ports);
-      return false;
+    // The staging tasks must be durable before they are launched, otherwise
+    // a restarted RM would not know about them.
+    if (!tasksToLaunch.isEmpty() && !isCommitted()) {
+      for (TaskInfo task : tasksToLaunch) {
+        schedulerState.makeTaskPending(task.getTaskId());
+      }
+      Arrays.fill(accepted, false);
+      acceptedSlaves.clear();
+      tasksToLaunch.clear();
+      launchedGangs.clear();
+    }
+    for (Gang gang : launchedGangs) {
+      gangManager.remove(gang);
+    }
+    for (int i = 0; i < tasksToLaunch.size(); i++) {
+      TaskInfo task = tasksToLaunch.get(i);
+      List<Offer> taskOffers = offersBySlave.get(acceptedSlaves.get(i));
+      List<OfferID> offerIds = new ArrayList<>();
+      for (Offer offer : taskOffers) {
+        offerIds.add(offer.getId());
+      }
+      List<TaskInfo> tasks = new ArrayList<>();
+      tasks.add(task);
+      LOGGER.info("Launching task: {} using offers: {}", task.getTaskId().getValue(), offerIds);
+      LOGGER.debug("Launching task: {} using offers: {}", task, taskOffers);
+      // Resources of the offers that the task does not use go back to Mesos.
+      driver.launchTasks(offerIds, tasks);
     }
-  }
 
-  private static Double scalarToDouble(Resource resource, String id) {
-    Double value = new Double(0.0);
-    if (resource.getType().equals(Value.Type.SCALAR)) {
-      value = new Double(resource.getScalar().getValue());
-    } else {
-      LOGGER.error(id + " resource was not a scalar: {}", resource
-          .getType().toString());
+    for (int i = 0; i < slaveCount; i++) {
+      if (accepted[i]) {
+        continue;
+      }
+      if (reservedFor[i] != null) {
+        List<Offer> reserved = reservedOffers.get(reservedFor[i].getId());
+        if (reserved == null) {
+          reserved = new ArrayList<>();
+          reservedOffers.put(reservedFor[i].getId(), reserved);
+        }
+        reserved.addAll(offersBySlave.get(i));
+        continue;
+      }
+      String fgsHostname = null;
+      for (Offer offer : offersBySlave.get(i)) {
+        if (SchedulerUtils.isEligibleForFineGrainedScaling(offer.getHostname(), schedulerState, cfg.isFgsHybrid())) {
+          if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Picking an offer from slave with hostname {} for fine grained scaling.",
+                offer.getHostname());
+          }
+          offerLifecycleMgr.addOffers(offer);
+          fgsHostname = offer.getHostname();
+        } else {
+          if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Declining offer {} from slave {}.", offer, offer.getHostname());
+          }
+          driver.declineOffer(offer.getId());
+        }
+      }
+      if (fgsHostname != null && cfg.isFgsEagerCapacity()) {
+        yarnNodeCapacityMgr.addCapacityFromOffers(fgsHostname);
+      }
     }
-    return value;
   }
 
-  private interface EvalResources {
-    public void eval(Resource resource, Map<String, Object>results);
+  /**
+   * Orders the tasks of the snapshot largest profile first.
+   */
+  private static Comparator<Protos.TaskID> largestProfileFirst(final SchedulerStateSnapshot state) {
+    return new Comparator<Protos.TaskID>() {
+      @Override
+      public int compare(Protos.TaskID left, Protos.TaskID right) {
+        NMProfile leftProfile = state.getTasks().get(left).getProfile();
+        NMProfile rightProfile = state.getTasks().get(right).getProfile();
+        int cpus = Long.compare(rightProfile.getCpus(), leftProfile.getCpus());
+        return cpus != 0 ? cpus : Long.compare(rightProfile.getMemory(), leftProfile.getMemory());
+      }
+    };
   }
 
-  private static Map<String, EvalResources> resourceEvaluators;
+  /**
+   * Makes a pending task staging, to be launched on the offer.
+   *
+   * @param pendingTask the task as read from the snapshot the offers are placed against
+   * @return the task to launch, or null if the task is no longer pending
+   */
+  private TaskInfo stageTask(Protos.TaskID pendingTaskId, NodeTask pendingTask, Offer offer) {
+    NodeTask taskToLaunch = new NodeTask(pendingTask);
+    TaskInfo task = taskFactory.createTask(offer, schedulerState.getFrameworkID(), pendingTaskId,
+        taskToLaunch);
+
+    // For every NM Task that we launch, we currently
+    // need to backup the ExecutorInfo for that NM Task in the State Store.
+    // Without this, we will not be able to launch tasks corresponding to yarn
+    // containers. This is specially important in case the RM restarts.
+    taskToLaunch.setExecutorInfo(task.getExecutor());
+    taskToLaunch.setHostname(offer.getHostname());
+    taskToLaunch.setSlaveId(offer.getSlaveId());
+    taskToLaunch.setSlaveAttributes(offer.getAttributesList());
+    if (!schedulerState.makeTaskStaging(pendingTaskId, taskToLaunch)) {
+      LOGGER.info("Task {} is no longer pending, not launching it", pendingTaskId.getValue());
+      return null;
+    }
+    placementStrategy.placed(offer);
+    return task;
+  }
 
-  static {
-    resourceEvaluators = new HashMap<String, EvalResources>(4);
-    resourceEvaluators.put("cpus", new EvalResources() {
-      public void eval(Resource resource, Map<String, Object> results) {
-        results.put("cpus", scalarToDouble(resource, "cpus"));
+  /**
+   * Releases the gang at its deadline, unless it has been launched by then.
+   */
+  private void scheduleRelease(final Gang gang) {
+    if (!releaseScheduled.add(gang.getId())) {
+      return;
+    }
+    getWindowExecutor().schedule(new Runnable() {
+      @Override
+      public void run() {
+        driverOperationLock.lock();
+        try {
+          releaseGang(gang);
+        } finally {
+          driverOperationLock.unlock();
+        }
       }
-    });
-    resourceEvaluators.put("mem", new EvalResources() {
-      public void eval(Resource resource, Map<String, Object> results) {
-        results.put("mem", scalarToDouble(resource, "mem"));
+    }, Math.max(0, gang.getDeadline() - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Gives up on a gang that could not be placed in time, declining the offers reserved for it
+   * and removing its NMs. Must be called holding the driver operation lock.
+   */
+  private void releaseGang(Gang gang) {
+    releaseScheduled.remove(gang.getId());
+    if (!gangManager.remove(gang)) {
+      return;
+    }
+    LOGGER.warn("Could not place all the NMs of {} before its deadline, releasing it", gang);
+    List<Offer> reserved = reservedOffers.remove(gang.getId());
+    if (reserved != null) {
+      for (Offer offer : reserved) {
+        offersDriver.declineOffer(offer.getId());
       }
-    });
-    resourceEvaluators.put("disk", new EvalResources() {
-      public void eval(Resource resource, Map<String, Object> results) {
+    }
+    Set<Protos.TaskID> pendingTaskIds = schedulerState.getPendingTaskIds();
+    for (Protos.TaskID taskId : gang.getTaskIds()) {
+      if (pendingTaskIds.contains(taskId)) {
+        schedulerState.removeTask(taskId);
       }
-    });
-    resourceEvaluators.put("ports", new EvalResources() {
-      public void eval(Resource resource, Map<String, Object> results) {
-        int ports = 0;
-        if (resource.getType().equals(Value.Type.RANGES)) {
-          Value.Ranges ranges = resource.getRanges();
-          for (Value.Range range : ranges.getRangeList()) {
-            if (range.getBegin() < range.getEnd()) {
-              ports += range.getEnd() - range.getBegin() + 1;
-            }
-          }
-
-        } else {
-          LOGGER.error("ports resource was not Ranges: {}", resource
-              .getType().toString());
+    }
+  }
 
-        }
-        results.put("ports", Integer.valueOf(ports));
-      }
-    });
+  private boolean isCommitted() {
+    try {
+      schedulerState.commit().get(cfg.getStateStoreCommitTimeoutMs(), TimeUnit.MILLISECONDS);
+      return true;
+    } catch (ExecutionException e) {
+      LOGGER.error("Failed to store the staging tasks, not launching them", e.getCause());
+    } catch (TimeoutException e) {
+      LOGGER.error("Timed out storing the staging tasks after {} ms, not launching them",
+          cfg.getStateStoreCommitTimeoutMs());
+    } catch (InterruptedException e) {
+      LOGGER.error("Interrupted while storing the staging tasks, not launching them", e);
+      Thread.currentThread().interrupt();
+    }
+    return false;
   }
 }
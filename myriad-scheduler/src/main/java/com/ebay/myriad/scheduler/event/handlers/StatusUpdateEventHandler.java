@@ -16,6 +16,7 @@
 package com.ebay.myriad.scheduler.event.handlers;
 
 import com.ebay.myriad.scheduler.event.StatusUpdateEvent;
+import com.ebay.myriad.scheduler.fgs.ContainerTaskTracker;
 import com.ebay.myriad.state.SchedulerState;
 import com.lmax.disruptor.EventHandler;
 import org.apache.mesos.Protos.TaskID;
@@ -36,13 +37,21 @@ public class StatusUpdateEventHandler implements EventHandler<StatusUpdateEvent>
     @Inject
     private SchedulerState schedulerState;
 
+    @Inject
+    private ContainerTaskTracker containerTaskTracker;
+
     @Override
     public void onEvent(StatusUpdateEvent event,
                         long sequence,
                         boolean endOfBatch) throws Exception {
         TaskStatus status = event.getStatus();
-        this.schedulerState.updateTask(status);
         TaskID taskId = status.getTaskId();
+        // Container tasks are frequent and not persisted, only NM tasks go to the scheduler state
+        if (ContainerTaskTracker.isContainerTask(taskId)) {
+            containerTaskTracker.update(status);
+            return;
+        }
+        this.schedulerState.updateTask(status);
         if (!schedulerState.hasTask(taskId)) {
             LOGGER.warn("Task: {} not found, status: {}", taskId, status.getState());
             return;
@@ -0,0 +1,392 @@
+package com.ebay.myriad.scheduler.fgs;
+
+import com.ebay.myriad.executor.ContainerTaskStatusRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainer;
+import org.apache.mesos.Protos;
+
+/**
+ * Record of the Mesos tasks launched for YARN containers: for each container, the task
+ * holding its resources, the slave and executor the task runs on, and the resources the
+ * container uses.
+ *
+ * The records are kept in parallel primitive arrays, indexed by an open addressing hash
+ * table keyed by the numbers a container id is made of, so that a container costs a few
+ * dozen bytes rather than a handful of objects, and every lookup takes constant time.
+ * Slaves and their executors are few, and are stored once and referred to by number.
+ *
+ * After a restart the registry is rebuilt from two sides, in whichever order they come:
+ * the task statuses Mesos sends on reconciliation give the tasks and their slaves, and the
+ * NMs registering again give the containers' resources. A task's record stays until Mesos
+ * reports the task over.
+ */
+public class ContainerTaskRegistry {
+  private static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private static final byte LIVE = 1;
+  private static final byte IN_TASK = 2;
+
+  /*
+   * Records, in slots that are reused through a free list. A record keeps its slot for its
+   * lifetime, so the records of a task link to each other by slot, starting from the record
+   * of the container the task is named after, which holds the task id and state.
+   */
+  private long[] clusterTimestamps;
+  private long[] attemptIds; // application id in the upper half, attempt id in the lower
+  private long[] containerNumbers;
+  private int[] slaves; // index in slaveIds, NONE until known
+  private int[] memory;
+  private int[] vcores;
+  private int[] nextInTask; // next record of the same task, or next free slot
+  private byte[] flags;
+  private Protos.TaskID[] taskIds;
+  private int[] taskStates;
+
+  private int usedSlots;
+  private int freeSlot = NONE;
+  private int containerCount;
+  private int taskCount;
+
+  /*
+   * Hash index of the records by container: slot + 1, or 0 where empty. Kept at most half
+   * full, with linear probing and entries shifted back on removal, so that it needs no
+   * tombstones.
+   */
+  private int[] index;
+  private int indexMask;
+
+  private final Map<Protos.SlaveID, Integer> slaveNumbers = new HashMap<>();
+  private final List<Protos.SlaveID> slaveIds = new ArrayList<>();
+  private final List<Protos.ExecutorInfo> executors = new ArrayList<>();
+
+  public ContainerTaskRegistry() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /**
+   * @return the container a container task or lease task is named after, or null if the
+   * task id names none
+   */
+  public static ContainerId getNamingContainer(Protos.TaskID taskId) {
+    String value = taskId.getValue();
+    String prefix = value.startsWith(ContainerTaskStatusRequest.YARN_LEASE_TASK_ID_PREFIX)
+        ? ContainerTaskStatusRequest.YARN_LEASE_TASK_ID_PREFIX : ContainerTaskStatusRequest.YARN_CONTAINER_TASK_ID_PREFIX;
+    if (!value.startsWith(prefix)) {
+      return null;
+    }
+    try {
+      return ContainerId.fromString(value.substring(prefix.length()));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Records a task launched for the given containers, the first of which it is named after.
+   */
+  public synchronized void register(Protos.TaskInfo task, List<RMContainer> containers) {
+    int slave = slaveNumber(task.getSlaveId(), task.hasExecutor() ? task.getExecutor() : null);
+    int previous = NONE;
+    for (RMContainer rmContainer : containers) {
+      int slot = findOrAdd(rmContainer.getContainerId());
+      if (previous == NONE) {
+        setTask(slot, task.getTaskId(), Protos.TaskState.TASK_STAGING);
+      } else {
+        nextInTask[previous] = slot;
+      }
+      flags[slot] |= IN_TASK;
+      slaves[slot] = slave;
+      memory[slot] = rmContainer.getAllocatedResource().getMemory();
+      vcores[slot] = rmContainer.getAllocatedResource().getVirtualCores();
+      previous = slot;
+    }
+  }
+
+  /**
+   * Records the resources of a container that a NM reports when it registers again.
+   */
+  public synchronized void containerRecovered(ContainerId containerId, Resource resource) {
+    int slot = findOrAdd(containerId);
+    memory[slot] = resource.getMemory();
+    vcores[slot] = resource.getVirtualCores();
+  }
+
+  /**
+   * Records the state Mesos reports for a container task, and drops the task's records once
+   * the task is over. A task reported by reconciliation after a restart is recorded as well.
+   */
+  public synchronized void taskUpdated(Protos.TaskStatus status) {
+    ContainerId containerId = getNamingContainer(status.getTaskId());
+    if (containerId == null) {
+      return;
+    }
+    switch (status.getState()) {
+      case TASK_STAGING:
+      case TASK_STARTING:
+      case TASK_RUNNING:
+        int slot = findOrAdd(containerId);
+        setTask(slot, status.getTaskId(), status.getState());
+        flags[slot] |= IN_TASK;
+        if (slaves[slot] == NONE && status.hasSlaveId()) {
+          slaves[slot] = slaveNumber(status.getSlaveId(), null);
+        }
+        break;
+      default:
+        removeTask(containerId);
+        break;
+    }
+  }
+
+  /**
+   * Drops the record of a completed container that no task was reported for.
+   */
+  public synchronized void containerCompleted(ContainerId containerId) {
+    int slot = find(containerId);
+    if (slot != NONE && (flags[slot] & IN_TASK) == 0) {
+      remove(slot);
+    }
+  }
+
+  private void removeTask(ContainerId namingContainer) {
+    int slot = find(namingContainer);
+    if (slot == NONE || taskIds[slot] == null) {
+      return;
+    }
+    taskCount--;
+    while (slot != NONE) {
+      int next = nextInTask[slot];
+      remove(slot);
+      slot = next;
+    }
+  }
+
+  /**
+   * @return the executor launched on the slave, or null if none is known
+   */
+  public synchronized Protos.ExecutorInfo getExecutorInfo(Protos.SlaveID slaveId) {
+    Integer slave = slaveNumbers.get(slaveId);
+    return slave != null ? executors.get(slave) : null;
+  }
+
+  /**
+   * @return the slave the container's task runs on, or null if it is not known
+   */
+  public synchronized Protos.SlaveID getSlaveId(ContainerId containerId) {
+    int slot = find(containerId);
+    return slot != NONE && slaves[slot] != NONE ? slaveIds.get(slaves[slot]) : null;
+  }
+
+  /**
+   * @return the resources the container uses, or null if it is not recorded
+   */
+  public synchronized Resource getResources(ContainerId containerId) {
+    int slot = find(containerId);
+    return slot != NONE ? Resource.newInstance(memory[slot], vcores[slot]) : null;
+  }
+
+  /**
+   * @return the last state reported for the task named after the container, or null if
+   * there is no such task
+   */
+  public synchronized Protos.TaskState getTaskState(ContainerId namingContainer) {
+    int slot = find(namingContainer);
+    return slot != NONE && taskIds[slot] != null ? Protos.TaskState.valueOf(taskStates[slot]) : null;
+  }
+
+  public synchronized int getTaskCount() {
+    return taskCount;
+  }
+
+  public synchronized int getContainerCount() {
+    return containerCount;
+  }
+
+  /**
+   * @return the last known status of every task, to reconcile them with Mesos
+   */
+  public synchronized Collection<Protos.TaskStatus> getTaskStatuses() {
+    List<Protos.TaskStatus> statuses = new ArrayList<>(taskCount);
+    for (int slot = 0; slot < usedSlots; slot++) {
+      if ((flags[slot] & LIVE) != 0 && taskIds[slot] != null) {
+        Protos.TaskStatus.Builder status = Protos.TaskStatus.newBuilder()
+            .setTaskId(taskIds[slot])
+            .setState(Protos.TaskState.valueOf(taskStates[slot]));
+        if (slaves[slot] != NONE) {
+          status.setSlaveId(slaveIds.get(slaves[slot]));
+        }
+        statuses.add(status.build());
+      }
+    }
+    return statuses;
+  }
+
+  private void setTask(int slot, Protos.TaskID taskId, Protos.TaskState state) {
+    if (taskIds[slot] == null) {
+      taskCount++;
+    }
+    taskIds[slot] = taskId;
+    taskStates[slot] = state.getNumber();
+  }
+
+  private int slaveNumber(Protos.SlaveID slaveId, Protos.ExecutorInfo executor) {
+    Integer slave = slaveNumbers.get(slaveId);
+    if (slave == null) {
+      slave = slaveIds.size();
+      slaveNumbers.put(slaveId, slave);
+      slaveIds.add(slaveId);
+      executors.add(null);
+    }
+    if (executor != null) {
+      executors.set(slave, executor);
+    }
+    return slave;
+  }
+
+  private static long attemptKey(ContainerId containerId) {
+    ApplicationAttemptId attemptId = containerId.getApplicationAttemptId();
+    return ((long) attemptId.getApplicationId().getId() << 32) | (attemptId.getAttemptId() & 0xFFFFFFFFL);
+  }
+
+  private static int hash(long clusterTimestamp, long attemptId, long containerNumber) {
+    long h = containerNumber * 0x9E3779B97F4A7C15L;
+    h ^= attemptId * 0xC2B2AE3D27D4EB4FL;
+    h ^= clusterTimestamp;
+    h ^= h >>> 29;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private int homeOf(int slot) {
+    return hash(clusterTimestamps[slot], attemptIds[slot], containerNumbers[slot]) & indexMask;
+  }
+
+  /*
+   * Returns the position of the container in the index, or of the empty entry it would go to.
+   */
+  private int position(long clusterTimestamp, long attemptId, long containerNumber) {
+    int position = hash(clusterTimestamp, attemptId, containerNumber) & indexMask;
+    while (index[position] != 0) {
+      int slot = index[position] - 1;
+      if (containerNumbers[slot] == containerNumber && attemptIds[slot] == attemptId
+          && clusterTimestamps[slot] == clusterTimestamp) {
+        return position;
+      }
+      position = (position + 1) & indexMask;
+    }
+    return position;
+  }
+
+  private int find(ContainerId containerId) {
+    int position = position(containerId.getApplicationAttemptId().getApplicationId().getClusterTimestamp(),
+        attemptKey(containerId), containerId.getContainerId());
+    return index[position] - 1;
+  }
+
+  private int findOrAdd(ContainerId containerId) {
+    long clusterTimestamp = containerId.getApplicationAttemptId().getApplicationId().getClusterTimestamp();
+    long attemptId = attemptKey(containerId);
+    long containerNumber = containerId.getContainerId();
+    int position = position(clusterTimestamp, attemptId, containerNumber);
+    if (index[position] != 0) {
+      return index[position] - 1;
+    }
+    if (freeSlot == NONE && usedSlots == flags.length) {
+      grow();
+      position = position(clusterTimestamp, attemptId, containerNumber);
+    }
+    int slot;
+    if (freeSlot != NONE) {
+      slot = freeSlot;
+      freeSlot = nextInTask[slot];
+    } else {
+      slot = usedSlots++;
+    }
+    clusterTimestamps[slot] = clusterTimestamp;
+    attemptIds[slot] = attemptId;
+    containerNumbers[slot] = containerNumber;
+    slaves[slot] = NONE;
+    memory[slot] = 0;
+    vcores[slot] = 0;
+    nextInTask[slot] = NONE;
+    flags[slot] = LIVE;
+    index[position] = slot + 1;
+    containerCount++;
+    return slot;
+  }
+
+  private void remove(int slot) {
+    int position = position(clusterTimestamps[slot], attemptIds[slot], containerNumbers[slot]);
+    // shift back the entries that probed past the freed position
+    int next = position;
+    while (true) {
+      index[position] = 0;
+      while (true) {
+        next = (next + 1) & indexMask;
+        if (index[next] == 0) {
+          release(slot);
+          return;
+        }
+        int home = homeOf(index[next] - 1);
+        boolean inPlace = position <= next ? position < home && home <= next : position < home || home <= next;
+        if (!inPlace) {
+          break;
+        }
+      }
+      index[position] = index[next];
+      position = next;
+    }
+  }
+
+  private void release(int slot) {
+    flags[slot] = 0;
+    taskIds[slot] = null;
+    nextInTask[slot] = freeSlot;
+    freeSlot = slot;
+    containerCount--;
+  }
+
+  private void allocate(int capacity) {
+    clusterTimestamps = new long[capacity];
+    attemptIds = new long[capacity];
+    containerNumbers = new long[capacity];
+    slaves = new int[capacity];
+    memory = new int[capacity];
+    vcores = new int[capacity];
+    nextInTask = new int[capacity];
+    flags = new byte[capacity];
+    taskIds = new Protos.TaskID[capacity];
+    taskStates = new int[capacity];
+    index = new int[capacity * 2];
+    indexMask = index.length - 1;
+  }
+
+  private void grow() {
+    int capacity = flags.length * 2;
+    clusterTimestamps = Arrays.copyOf(clusterTimestamps, capacity);
+    attemptIds = Arrays.copyOf(attemptIds, capacity);
+    containerNumbers = Arrays.copyOf(containerNumbers, capacity);
+    slaves = Arrays.copyOf(slaves, capacity);
+    memory = Arrays.copyOf(memory, capacity);
+    vcores = Arrays.copyOf(vcores, capacity);
+    nextInTask = Arrays.copyOf(nextInTask, capacity);
+    flags = Arrays.copyOf(flags, capacity);
+    taskIds = Arrays.copyOf(taskIds, capacity);
+    taskStates = Arrays.copyOf(taskStates, capacity);
+    index = new int[capacity * 2];
+    indexMask = index.length - 1;
+    for (int slot = 0; slot < usedSlots; slot++) {
+      if ((flags[slot] & LIVE) != 0) {
+        index[position(clusterTimestamps[slot], attemptIds[slot], containerNumbers[slot])] = slot + 1;
+      }
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.ebay.myriad.scheduler.fgs;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.ebay.myriad.executor.ContainerTaskStatusRequest;
+
+import javax.inject.Inject;
+
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.mesos.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the Mesos tasks launched for YARN containers by fine grained scaling, from their
+ * status updates. Unlike NM tasks, container tasks are not part of the scheduler state: they
+ * come and go with the containers, far more often than NMs, and the RM recovers the containers
+ * from the NMs after a restart. Their updates are kept in memory only, without taking the
+ * scheduler state's lock or writing to the state store, in the {@link ContainerTaskRegistry}.
+ */
+public class ContainerTaskTracker {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ContainerTaskTracker.class);
+
+  private final ContainerTaskRegistry registry;
+  private final Meter statusUpdates;
+
+  @Inject
+  public ContainerTaskTracker(final ContainerTaskRegistry registry, MetricRegistry metricRegistry) {
+    this.registry = registry;
+    this.statusUpdates = metricRegistry.meter(MetricRegistry.name(ContainerTaskTracker.class, "status-updates"));
+    metricRegistry.register(MetricRegistry.name(ContainerTaskTracker.class, "live-tasks"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return registry.getTaskCount();
+      }
+    });
+    metricRegistry.register(MetricRegistry.name(ContainerTaskTracker.class, "live-containers"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return registry.getContainerCount();
+      }
+    });
+  }
+
+  /**
+   * @return true if the task was launched for YARN containers rather than for a NM
+   */
+  public static boolean isContainerTask(Protos.TaskID taskId) {
+    return taskId.getValue().startsWith(ContainerTaskStatusRequest.YARN_CONTAINER_TASK_ID_PREFIX);
+  }
+
+  public void update(Protos.TaskStatus status) {
+    statusUpdates.mark();
+    registry.taskUpdated(status);
+    LOGGER.debug("Status update for container task: {} | state: {}", status.getTaskId().getValue(), status.getState());
+  }
+
+  /**
+   * @return the last reported state of the task, or null if it is not live
+   */
+  public Protos.TaskState getState(Protos.TaskID taskId) {
+    ContainerId containerId = ContainerTaskRegistry.getNamingContainer(taskId);
+    return containerId != null ? registry.getTaskState(containerId) : null;
+  }
+
+  /**
+   * @return the number of container tasks reported as staging, starting or running
+   */
+  public int getLiveTaskCount() {
+    return registry.getTaskCount();
+  }
+}
@@ -0,0 +1,112 @@
+package com.ebay.myriad.scheduler.fgs;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.mesos.Protos;
+
+/**
+ * Cpus and memory of Mesos offers in fixed-point thousandths. Mesos hands out fractional
+ * cpus, e.g. 0.5 + 0.5 + 0.9, while YARN counts whole vcores. Adding up offers as
+ * thousandths is exact, so that fractions of separate offers add up to whole vcores, and
+ * sums taken in different orders or batches always agree. Fractions are only dropped when
+ * the sum is turned into YARN resources.
+ */
+public final class MilliResources {
+  public static final long MILLIS_PER_UNIT = 1000;
+
+  private static final MilliResources NONE = new MilliResources(0, 0);
+
+  private final long milliCpus;
+  private final long milliMemory;
+
+  private MilliResources(long milliCpus, long milliMemory) {
+    this.milliCpus = milliCpus;
+    this.milliMemory = milliMemory;
+  }
+
+  public static MilliResources none() {
+    return NONE;
+  }
+
+  public static MilliResources of(Protos.Offer offer) {
+    return of(Collections.singleton(offer));
+  }
+
+  public static MilliResources of(Collection<Protos.Offer> offers) {
+    long cpus = 0;
+    long memory = 0;
+    for (Protos.Offer offer : offers) {
+      for (Protos.Resource resource : offer.getResourcesList()) {
+        if (resource.getName().equalsIgnoreCase("cpus")) {
+          cpus += toMillis(resource.getScalar().getValue());
+        } else if (resource.getName().equalsIgnoreCase("mem")) {
+          memory += toMillis(resource.getScalar().getValue());
+        }
+      }
+    }
+    return new MilliResources(cpus, memory);
+  }
+
+  /**
+   * Mesos keeps scalars to three decimals, so rounding to thousandths is exact.
+   */
+  private static long toMillis(double value) {
+    return Math.round(value * MILLIS_PER_UNIT);
+  }
+
+  public long getMilliCpus() {
+    return milliCpus;
+  }
+
+  public long getMilliMemory() {
+    return milliMemory;
+  }
+
+  public MilliResources add(MilliResources other) {
+    return new MilliResources(milliCpus + other.milliCpus, milliMemory + other.milliMemory);
+  }
+
+  public MilliResources subtract(MilliResources other) {
+    return new MilliResources(milliCpus - other.milliCpus, milliMemory - other.milliMemory);
+  }
+
+  /**
+   * @return true if these resources are at least the given YARN resources
+   */
+  public boolean covers(Resource resource) {
+    return milliCpus >= resource.getVirtualCores() * MILLIS_PER_UNIT
+        && milliMemory >= resource.getMemory() * MILLIS_PER_UNIT;
+  }
+
+  /**
+   * @return the whole vcores and MB these resources amount to
+   */
+  public Resource toYarnResource() {
+    return Resource.newInstance((int) Math.floor((double) milliMemory / MILLIS_PER_UNIT),
+        (int) Math.floor((double) milliCpus / MILLIS_PER_UNIT));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof MilliResources)) {
+      return false;
+    }
+    MilliResources that = (MilliResources) o;
+    return milliCpus == that.milliCpus && milliMemory == that.milliMemory;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (int) (milliCpus ^ (milliCpus >>> 32)) + (int) (milliMemory ^ (milliMemory >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return "<milliCpus:" + milliCpus + ", milliMemory:" + milliMemory + ">";
+  }
+}
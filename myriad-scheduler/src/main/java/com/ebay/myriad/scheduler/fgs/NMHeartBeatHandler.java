@@ -1,27 +1,22 @@
 package com.ebay.myriad.scheduler.fgs;
 
+import com.ebay.myriad.configuration.MyriadConfiguration;
 import com.ebay.myriad.scheduler.MyriadDriver;
 import com.ebay.myriad.scheduler.SchedulerUtils;
 import com.ebay.myriad.scheduler.TaskFactory;
 import com.ebay.myriad.scheduler.yarn.interceptor.BaseInterceptor;
 import com.ebay.myriad.scheduler.yarn.interceptor.InterceptorRegistry;
 import com.ebay.myriad.state.SchedulerState;
-import java.util.ArrayList;
-import java.util.List;
 import javax.inject.Inject;
-import org.apache.hadoop.yarn.api.records.ContainerState;
-import org.apache.hadoop.yarn.api.records.ContainerStatus;
 import org.apache.hadoop.yarn.api.records.NodeId;
 import org.apache.hadoop.yarn.api.records.Resource;
 import org.apache.hadoop.yarn.server.resourcemanager.RMContext;
-import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainer;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNode;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNodeEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNodeStatusEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.AbstractYarnScheduler;
 import org.apache.hadoop.yarn.util.resource.Resources;
 import org.apache.mesos.Protos;
-import org.apache.mesos.Protos.Offer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +33,7 @@ public class NMHeartBeatHandler extends BaseInterceptor {
   private final OfferLifecycleManager offerLifecycleMgr;
   private final NodeStore nodeStore;
   private final SchedulerState state;
+  private final MyriadConfiguration cfg;
 
   @Inject
   public NMHeartBeatHandler(
@@ -47,7 +43,8 @@ public class NMHeartBeatHandler extends BaseInterceptor {
       YarnNodeCapacityManager yarnNodeCapacityMgr,
       OfferLifecycleManager offerLifecycleMgr,
       NodeStore nodeStore,
-      SchedulerState state) {
+      SchedulerState state,
+      MyriadConfiguration cfg) {
 
     if (registry != null) {
       registry.register(this);
@@ -59,6 +56,7 @@ public class NMHeartBeatHandler extends BaseInterceptor {
     this.offerLifecycleMgr = offerLifecycleMgr;
     this.nodeStore = nodeStore;
     this.state = state;
+    this.cfg = cfg;
   }
 
   @Override
@@ -66,7 +64,7 @@ public class NMHeartBeatHandler extends BaseInterceptor {
     return new CallBackFilter() {
       @Override
       public boolean allowCallBacksForNode(NodeId nodeManager) {
-        return SchedulerUtils.isEligibleForFineGrainedScaling(nodeManager.getHost(), state);
+        return SchedulerUtils.isEligibleForFineGrainedScaling(nodeManager.getHost(), state, cfg.isFgsHybrid());
       }
     };
   }
@@ -77,8 +75,9 @@ public class NMHeartBeatHandler extends BaseInterceptor {
       case STARTED: {
         RMNode rmNode = context.getRMNodes().get(event.getNodeId());
         Resource totalCapability = rmNode.getTotalCapability();
-        if (totalCapability.getMemory() != 0 ||
-            totalCapability.getVirtualCores() != 0) {
+        // a hybrid NM keeps the capacity of its profile as base capacity
+        if (SchedulerUtils.isEligibleForFineGrainedScaling(rmNode.getNodeID().getHost(), state) &&
+            (totalCapability.getMemory() != 0 || totalCapability.getVirtualCores() != 0)) {
           LOGGER.warn("FineGrainedScaling feature got invoked for a " +
                   "NM with non-zero capacity. Host: {}, Mem: {}, CPU: {}. Setting the NM's capacity to (0G,0CPU)",
               rmNode.getHostName(),
@@ -106,36 +105,28 @@ public class NMHeartBeatHandler extends BaseInterceptor {
       return;
     }
 
-    RMNodeStatusEvent statusEvent = (RMNodeStatusEvent) event;
     RMNode rmNode = context.getRMNodes().get(event.getNodeId());
     String hostName = rmNode.getNodeID().getHost();
 
     Node host = nodeStore.getNode(hostName);
-    if (host != null) {
-      host.snapshotRunningContainers();
-    }
+    Resource fundedCapacity = host != null ? host.getFundedCapacity() : Resource.newInstance(0, 0);
 
     // New capacity of the node =
-    // resources under use on the node (due to previous offers) +
-    // new resources offered by mesos for the node
+    // base capacity of the node (the profile of a hybrid NM) +
+    // resources under use on the node due to previous offers +
+    // resources offered by mesos for the node, that the scheduler has yet to use
     yarnNodeCapacityMgr.setNodeCapacity(rmNode,
-            Resources.add(getResourcesUnderUse(statusEvent),
-                getNewResourcesOfferedByMesos(hostName)));
+            Resources.add(fundedCapacity, getNewResourcesOfferedByMesos(hostName)));
   }
 
   private Resource getNewResourcesOfferedByMesos(String hostname) {
-    OfferFeed feed = offerLifecycleMgr.getOfferFeed(hostname);
-    if (feed == null) {
-      LOGGER.debug("No offer feed for: {}", hostname);
-      return Resource.newInstance(0, 0);
-    }
-    List<Offer> offers = new ArrayList<>();
-    Protos.Offer offer;
-    while ((offer = feed.poll()) != null) {
-      offers.add(offer);
-      offerLifecycleMgr.markAsConsumed(offer);
+    Node node = nodeStore.getNode(hostname);
+    if (node != null && node.hasPendingOffers()) {
+      // only as much of the offers as the applications are waiting for
+      offerLifecycleMgr.consumeOffers(hostname, yarnNodeCapacityMgr.getUnmetDemand());
     }
-    Resource fromMesosOffers = OfferUtils.getYarnResourcesFromMesosOffers(offers);
+    // Offers consumed earlier, e.g. as they arrived, still count until the scheduler has run
+    Resource fromMesosOffers = node != null ? node.getConsumedResources() : Resource.newInstance(0, 0);
 
     if (LOGGER.isDebugEnabled()) {
       LOGGER.debug("NM on host {} got {} CPUs and {} memory from mesos",
@@ -145,21 +136,6 @@ public class NMHeartBeatHandler extends BaseInterceptor {
     return fromMesosOffers;
   }
 
-  private Resource getResourcesUnderUse(RMNodeStatusEvent statusEvent) {
-    Resource usedResources = Resource.newInstance(0, 0);
-    for (ContainerStatus status : statusEvent.getContainers()) {
-      if (status.getState() == ContainerState.NEW || status.getState() == ContainerState.RUNNING) {
-        RMContainer rmContainer = yarnScheduler.getRMContainer(status.getContainerId());
-        // (sdaingade) This check is needed as RMContainer information may not be populated
-        // immediately after a RM restart.
-        if (rmContainer != null) {
-          Resources.addTo(usedResources, rmContainer.getAllocatedResource());
-        }
-      }
-    }
-    return usedResources;
-  }
-
   private Protos.ExecutorID getExecutorId(Protos.SlaveID slaveId) {
     return Protos.ExecutorID.newBuilder().setValue(
         TaskFactory.NMTaskFactoryImpl.EXECUTOR_PREFIX + slaveId.getValue()).build();
@@ -1,14 +1,30 @@
 package com.ebay.myriad.scheduler.fgs;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.Resource;
 import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainer;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.SchedulerNode;
+import org.apache.hadoop.yarn.util.resource.Resources;
 import org.apache.mesos.Protos;
 
 /**
  * Abstraction that encapsulates YARN and Mesos view of a node.
+ *
+ * A node owns all the fine grained scaling state of its host: the offers waiting
+ * for a NM heartbeat, the offers consumed by the last heartbeat and the ledger of
+ * the containers allocated on the node. The state is touched by the
+ * Mesos offer thread, NM heartbeats and scheduler events, so every access goes
+ * through the node's monitor. Each host has its own lock, so hosts never contend
+ * with each other.
  */
 public class Node {
   /**
@@ -27,45 +43,337 @@ public class Node {
   private SchedulerNode node;
 
   /**
-   * Snapshot of containers allocated by YARN scheduler.
-   * This need not reflect the current state. It is meant to be used by the
-   * Myriad scheduler.
+   * Ledger of the containers allocated by YARN scheduler on this node, with the
+   * resources they use. It is updated incrementally, as containers are allocated
+   * and completed, rather than rebuilt on every heartbeat.
    */
-  private Set<RMContainer> containerSnapshot;
+  private final Map<ContainerId, Resource> containers = new HashMap<>();
+  private final Resource usedResources = Resource.newInstance(0, 0);
+
+  /**
+   * Capacity the NM registered with, which its containers use before any Mesos offer is. It
+   * is zero for NMs launched with the zero profile, and the profile of a hybrid NM otherwise.
+   */
+  private Resource baseResources = Resource.newInstance(0, 0);
+
+  /**
+   * Containers in the ledger that did not fit in the base capacity, with the part of their
+   * resources funded by Mesos offers. A container that straddles the base capacity uses what
+   * is left of it, and offers fund the rest.
+   */
+  private final Map<ContainerId, Resource> offerFundedContainers = new HashMap<>();
+  private final Resource offerFundedResources = Resource.newInstance(0, 0);
+
+  /**
+   * Offers from Mesos that are yet to be consumed by a NM heartbeat.
+   */
+  private final List<Protos.Offer> pendingOffers = new LinkedList<>();
+
+  /**
+   * Offers consumed by NM heartbeats that are yet to be drained after a scheduler run.
+   */
+  private ConsumedOffer consumedOffer;
+
+  /**
+   * Whether a capacity update for this node is waiting in the RM's dispatcher.
+   */
+  private boolean capacityUpdatePending;
+
+  /**
+   * Scheduler runs that left offers unused since the node last had none left over, and
+   * when the first of them ended.
+   */
+  private int retainedRuns;
+  private long retainedSince;
 
   public Node(SchedulerNode node) {
     this.node = node;
   }
 
-  public SchedulerNode getNode() {
+  public synchronized SchedulerNode getNode() {
     return node;
   }
 
-  public Protos.SlaveID getSlaveId() {
+  /**
+   * Replaces the YARN scheduler's representation of this node, when the NM registers again.
+   */
+  public synchronized void setNode(SchedulerNode node) {
+    this.node = node;
+  }
+
+  public synchronized Protos.SlaveID getSlaveId() {
     return slaveId;
   }
 
-  public void setSlaveId(Protos.SlaveID slaveId) {
+  public synchronized void setSlaveId(Protos.SlaveID slaveId) {
     this.slaveId = slaveId;
   }
 
-  public Protos.ExecutorInfo getExecInfo() {
+  public synchronized Protos.ExecutorInfo getExecInfo() {
     return execInfo;
   }
 
-  public void setExecInfo(Protos.ExecutorInfo execInfo) {
+  public synchronized void setExecInfo(Protos.ExecutorInfo execInfo) {
     this.execInfo = execInfo;
   }
 
-  public void snapshotRunningContainers() {
-    this.containerSnapshot = new HashSet<>(node.getRunningContainers());
+  public synchronized Resource getBaseResources() {
+    return Resources.clone(baseResources);
+  }
+
+  public synchronized void setBaseResources(Resource baseResources) {
+    this.baseResources = Resources.clone(baseResources);
+  }
+
+  /**
+   * Records the containers allocated on the node that are not in the ledger yet.
+   * The scheduler's container count tells whether any were allocated, so the
+   * running containers are only listed after a scheduler run that allocated some.
+   * A new container is funded by the base capacity as far as it fits in what the other
+   * containers leave of it, and by Mesos offers for the rest.
+   *
+   * @return the containers allocated since the last call that are funded by offers, in full
+   * or in part, possibly empty
+   */
+  public synchronized List<RMContainer> recordNewContainers() {
+    if (node == null || node.getNumContainers() == containers.size()) {
+      return new ArrayList<>(0);
+    }
+    List<RMContainer> running = node.getRunningContainers();
+    List<RMContainer> newContainers = new ArrayList<>();
+    for (RMContainer rmContainer : running) {
+      if (!containers.containsKey(rmContainer.getContainerId())) {
+        newContainers.add(rmContainer);
+      }
+    }
+    if (containers.size() + newContainers.size() != running.size()) {
+      removeStaleContainers(running);
+    }
+    List<RMContainer> offerFunded = new ArrayList<>(newContainers.size());
+    for (RMContainer rmContainer : newContainers) {
+      Resource allocated = rmContainer.getAllocatedResource();
+      Resource baseUsed = Resources.subtract(usedResources, offerFundedResources);
+      if (!Resources.fitsIn(Resources.add(baseUsed, allocated), baseResources)) {
+        Resource fromOffers = Resources.componentwiseMax(
+            Resources.subtract(Resources.add(baseUsed, allocated), baseResources), Resources.none());
+        fromOffers = Resources.componentwiseMin(fromOffers, allocated);
+        offerFundedContainers.put(rmContainer.getContainerId(), fromOffers);
+        Resources.addTo(offerFundedResources, fromOffers);
+        offerFunded.add(rmContainer);
+      }
+      containers.put(rmContainer.getContainerId(), allocated);
+      Resources.addTo(usedResources, allocated);
+    }
+    return offerFunded;
+  }
+
+  /*
+   * Drops the containers that left the node without a completion callback,
+   * e.g. when the NM registered again.
+   */
+  private void removeStaleContainers(List<RMContainer> running) {
+    Set<ContainerId> runningIds = new HashSet<>(running.size() * 4 / 3 + 1);
+    for (RMContainer rmContainer : running) {
+      runningIds.add(rmContainer.getContainerId());
+    }
+    for (Iterator<Map.Entry<ContainerId, Resource>> it = containers.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<ContainerId, Resource> entry = it.next();
+      if (!runningIds.contains(entry.getKey())) {
+        release(entry.getKey(), entry.getValue());
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Removes a completed container from the ledger, once the scheduler has released
+   * it from the node.
+   */
+  public synchronized void containerCompleted(RMContainer rmContainer) {
+    ContainerId containerId = rmContainer.getContainerId();
+    if (node != null && node.isValidContainer(containerId)) {
+      return;
+    }
+    Resource allocated = containers.remove(containerId);
+    if (allocated != null) {
+      release(containerId, allocated);
+    }
+  }
+
+  private void release(ContainerId containerId, Resource allocated) {
+    Resources.subtractFrom(usedResources, allocated);
+    Resource fromOffers = offerFundedContainers.remove(containerId);
+    if (fromOffers != null) {
+      Resources.subtractFrom(offerFundedResources, fromOffers);
+    }
+  }
+
+  /**
+   * @return the part of the container's resources funded by Mesos offers, which the Mesos
+   * task launched for it holds
+   */
+  public synchronized Resource getOfferFundedResources(ContainerId containerId) {
+    Resource fromOffers = offerFundedContainers.get(containerId);
+    return fromOffers != null ? Resources.clone(fromOffers) : Resource.newInstance(0, 0);
+  }
+
+  /**
+   * @return the resources used by the containers in the ledger
+   */
+  public synchronized Resource getUsedResources() {
+    return Resources.clone(usedResources);
+  }
+
+  /**
+   * @return the capacity the node keeps between scheduler runs: its base capacity and the
+   * resources of the offer funded containers
+   */
+  public synchronized Resource getFundedCapacity() {
+    return Resources.add(baseResources, offerFundedResources);
+  }
+
+  /**
+   * Marks a capacity update for this node as waiting in the RM's dispatcher.
+   *
+   * @return true if no update was waiting already, in which case the caller dispatches one
+   */
+  public synchronized boolean markCapacityUpdatePending() {
+    if (capacityUpdatePending) {
+      return false;
+    }
+    capacityUpdatePending = true;
+    return true;
+  }
+
+  /**
+   * Called when the waiting capacity update reaches the scheduler. Later updates need a new one.
+   */
+  public synchronized void clearCapacityUpdatePending() {
+    capacityUpdatePending = false;
+  }
+
+  /**
+   * Holds an offer until the next NM heartbeat.
+   */
+  public synchronized void addOffer(Protos.Offer offer) {
+    pendingOffers.add(offer);
+    slaveId = offer.getSlaveId();
+  }
+
+  public synchronized boolean hasPendingOffers() {
+    return !pendingOffers.isEmpty();
+  }
+
+  /**
+   * Removes the offer with the given id, unless it has been consumed already.
+   *
+   * @return true if the offer was removed
+   */
+  public synchronized boolean removeOffer(Protos.OfferID offerId) {
+    for (Iterator<Protos.Offer> it = pendingOffers.iterator(); it.hasNext();) {
+      if (it.next().getId().equals(offerId)) {
+        it.remove();
+        return true;
+      }
+    }
+    return false;
   }
 
-  public void removeContainerSnapshot() {
-    this.containerSnapshot = null;
+  /**
+   * Moves the pending offers to the consumed offers.
+   *
+   * @return the offers consumed, possibly empty
+   */
+  public synchronized List<Protos.Offer> consumeOffers() {
+    if (pendingOffers.isEmpty()) {
+      return new ArrayList<>(0);
+    }
+    List<Protos.Offer> offers = new ArrayList<>(pendingOffers);
+    pendingOffers.clear();
+    for (Protos.Offer offer : offers) {
+      addConsumedOffer(offer);
+    }
+    return offers;
   }
 
-  public Set<RMContainer> getContainerSnapshot() {
-    return this.containerSnapshot;
+  /**
+   * Moves pending offers to the consumed offers, in the order they arrived, until their
+   * resources cover the demand. The offers left over stay pending.
+   *
+   * @return the offers consumed, possibly empty
+   */
+  public synchronized List<Protos.Offer> consumeOffers(Resource demand) {
+    int count = OfferUtils.countOffersCovering(pendingOffers, demand);
+    List<Protos.Offer> offers = new ArrayList<>(count);
+    for (Iterator<Protos.Offer> it = pendingOffers.iterator(); offers.size() < count;) {
+      Protos.Offer offer = it.next();
+      it.remove();
+      addConsumedOffer(offer);
+      offers.add(offer);
+    }
+    return offers;
+  }
+
+  /**
+   * Removes all the pending offers.
+   *
+   * @return the offers removed, possibly empty
+   */
+  public synchronized List<Protos.Offer> removeOffers() {
+    List<Protos.Offer> offers = new ArrayList<>(pendingOffers);
+    pendingOffers.clear();
+    return offers;
+  }
+
+  private void addConsumedOffer(Protos.Offer offer) {
+    if (consumedOffer == null) {
+      consumedOffer = new ConsumedOffer();
+    }
+    consumedOffer.add(offer);
+  }
+
+  /**
+   * @return the YARN resources of the offers consumed since the last drain
+   */
+  public synchronized Resource getConsumedResources() {
+    return consumedOffer != null ? OfferUtils.getYarnResourcesFromMesosOffers(consumedOffer.getOffers())
+        : Resource.newInstance(0, 0);
+  }
+
+  /**
+   * Puts offers left unused by a scheduler run back ahead of the pending offers, unless the
+   * node has held unused offers for maxRuns scheduler runs or maxMs already.
+   *
+   * @return true if the offers were retained, false if the caller should decline them
+   */
+  public synchronized boolean retainOffers(List<Protos.Offer> offers, int maxRuns, long maxMs, long now) {
+    if (retainedRuns == 0) {
+      retainedSince = now;
+    }
+    if (retainedRuns >= maxRuns || now - retainedSince >= maxMs) {
+      retainedRuns = 0;
+      return false;
+    }
+    retainedRuns++;
+    pendingOffers.addAll(0, offers);
+    return true;
+  }
+
+  /**
+   * Called when a scheduler run leaves no offers unused, or they are declined.
+   */
+  public synchronized void resetRetainedOffers() {
+    retainedRuns = 0;
+  }
+
+  /**
+   * Hands over the consumed offers.
+   *
+   * @return the offers consumed since the last drain, or null if there are none
+   */
+  public synchronized ConsumedOffer drainConsumedOffer() {
+    ConsumedOffer drained = consumedOffer;
+    consumedOffer = null;
+    return drained;
   }
 }
@@ -18,8 +18,15 @@ public class NodeStore {
     return schedNode.getNodeID().getHost();
   }
 
+  /**
+   * Adds a node for the host. A NM that registers again keeps its node, so that
+   * the offers held for the host are not lost.
+   */
   public void add(SchedulerNode schedNode) {
-    nodeMap.put(getKey(schedNode), new Node(schedNode));
+    Node existing = nodeMap.putIfAbsent(getKey(schedNode), new Node(schedNode));
+    if (existing != null) {
+      existing.setNode(schedNode);
+    }
   }
 
   public void remove(String hostname) {
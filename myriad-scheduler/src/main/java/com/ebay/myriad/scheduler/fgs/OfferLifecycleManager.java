@@ -1,45 +1,113 @@
 package com.ebay.myriad.scheduler.fgs;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.ebay.myriad.configuration.MyriadConfiguration;
 import com.ebay.myriad.scheduler.MyriadDriver;
-import java.util.HashMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
+import org.apache.hadoop.yarn.api.records.Resource;
 import org.apache.mesos.Protos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Manages the Mesos offers tracked by Myriad.
+ *
+ * The offers of a host are held by its {@link Node}, which serializes the offer thread,
+ * NM heartbeats and scheduler events touching them. Offers waiting for a heartbeat are
+ * indexed by id, so that a rescinded offer is dropped before it is turned into YARN
+ * capacity. Offers that wait longer than the configured TTL are declined, so that idle hosts
+ * do not hold on to resources. As every offer has the same TTL, offers expire in the order
+ * they were added, and a FIFO queue of deadlines serves as the timer.
  */
 public class OfferLifecycleManager {
   private static final Logger LOGGER = LoggerFactory.getLogger(
       OfferLifecycleManager.class);
 
-  private Map<String, OfferFeed> offerFeedMap;
+  /**
+   * Expired offers are declined at most a tenth of the TTL late.
+   */
+  private static final long EXPIRY_CHECKS_PER_TTL = 10;
+  private static final long MIN_EXPIRY_INTERVAL_MS = 100;
+
+  /**
+   * Hostnames of the offers waiting for a NM heartbeat, by offer id.
+   */
+  private final Map<Protos.OfferID, String> heldOffers = new ConcurrentHashMap<>();
+  private final Queue<HeldOffer> expiryQueue = new ConcurrentLinkedQueue<>();
+  private final long offerTtlMs;
+  private final Meter expiredOffers;
+  private final Meter rescindedOffers;
+  private final Meter unneededOffers;
+  private final Meter retainedOffers;
+  private final int retainRuns;
+  private final long retainMs;
+  private final Protos.Filters declineFilters;
 
   /**
-   * !!! Not thread safe !!!
+   * Resources of the offers consumed on all hosts that are yet to be drained, kept exactly
+   * so that the fractions added and taken away in different batches cancel out.
    */
-  private final Map<String, ConsumedOffer> consumedOfferMap;
+  private MilliResources consumedResources = MilliResources.none();
+  private final Object consumedResourcesLock = new Object();
 
   private final NodeStore nodeStore;
   private final MyriadDriver myriadDriver;
 
   @Inject
   public OfferLifecycleManager(NodeStore nodeStore,
-      MyriadDriver myriadDriver) {
+      MyriadDriver myriadDriver, MyriadConfiguration cfg, MetricRegistry metricRegistry) {
 
-    this.offerFeedMap = new ConcurrentHashMap<>(200, 0.75f, 50);
-    this.consumedOfferMap = new HashMap<>(200, 0.75f);
     this.nodeStore = nodeStore;
     this.myriadDriver = myriadDriver;
-  }
+    this.offerTtlMs = cfg.getFgsOfferTtlMs();
+    this.expiredOffers = metricRegistry.meter(
+        MetricRegistry.name(OfferLifecycleManager.class, "expired-offers"));
+    this.rescindedOffers = metricRegistry.meter(
+        MetricRegistry.name(OfferLifecycleManager.class, "rescinded-offers"));
+    this.unneededOffers = metricRegistry.meter(
+        MetricRegistry.name(OfferLifecycleManager.class, "unneeded-offers"));
+    this.declineFilters = Protos.Filters.newBuilder()
+        .setRefuseSeconds(cfg.getFgsDeclineRefuseSeconds()).build();
+    this.retainedOffers = metricRegistry.meter(
+        MetricRegistry.name(OfferLifecycleManager.class, "retained-offers"));
+    this.retainRuns = cfg.getFgsOfferRetainRuns();
+    this.retainMs = cfg.getFgsOfferRetainMs();
+    metricRegistry.register(MetricRegistry.name(OfferLifecycleManager.class, "held-offers"),
+        new Gauge<Integer>() {
+          @Override
+          public Integer getValue() {
+            return heldOffers.size();
+          }
+        });
 
-  public OfferFeed getOfferFeed(String hostname) {
-    return offerFeedMap.get(hostname);
+    if (offerTtlMs > 0) {
+      long interval = Math.max(MIN_EXPIRY_INTERVAL_MS, offerTtlMs / EXPIRY_CHECKS_PER_TTL);
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("MyriadOfferExpiry-%d").setDaemon(true).build())
+          .scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                expireOffers(System.currentTimeMillis());
+              } catch (RuntimeException e) {
+                LOGGER.error("Failed to expire offers", e);
+              }
+            }
+          }, interval, interval, TimeUnit.MILLISECONDS);
+    }
   }
 
   public void declineOffer(Protos.Offer offer) {
@@ -52,14 +120,11 @@ public class OfferLifecycleManager {
       String hostname = offer.getHostname();
       Node node = nodeStore.getNode(hostname);
       if (node != null) {
-        OfferFeed feed = offerFeedMap.get(hostname);
-        if (feed == null) {
-          feed = new OfferFeed();
-          offerFeedMap.put(hostname, feed);
+        heldOffers.put(offer.getId(), hostname);
+        if (offerTtlMs > 0) {
+          expiryQueue.add(new HeldOffer(offer.getId(), hostname, System.currentTimeMillis() + offerTtlMs));
         }
-        feed.add(offer);
-
-        node.setSlaveId(offer.getSlaveId());
+        node.addOffer(offer);
 
         LOGGER.debug("addResourceOffers: caching offer for host {}, offer id {}",
             hostname, offer.getId().getValue());
@@ -70,17 +135,169 @@ public class OfferLifecycleManager {
     }
   }
 
-  public void markAsConsumed(Protos.Offer offer) {
-    ConsumedOffer consumedOffer = consumedOfferMap.get(offer.getHostname());
-    if (consumedOffer == null) {
-      consumedOffer = new ConsumedOffer();
-      consumedOfferMap.put(offer.getHostname(), consumedOffer);
+  /**
+   * Drops a rescinded offer from its node, unless it has been consumed already.
+   */
+  public void offerRescinded(Protos.OfferID offerId) {
+    if (removeHeldOffer(offerId)) {
+      rescindedOffers.mark();
+      LOGGER.info("Removed rescinded offer {} from its node", offerId.getValue());
+    }
+  }
+
+  /**
+   * Declines the offers that have waited for a NM heartbeat past their TTL.
+   */
+  void expireOffers(long now) {
+    if (offerTtlMs <= 0) {
+      return;
+    }
+    HeldOffer head;
+    while ((head = expiryQueue.peek()) != null && head.deadline <= now) {
+      expiryQueue.poll();
+      if (removeHeldOffer(head.offerId)) {
+        myriadDriver.getDriver().declineOffer(head.offerId);
+        expiredOffers.mark();
+        LOGGER.debug("Declined offer {} for host {}, held longer than {} ms", head.offerId.getValue(),
+            head.hostname, offerTtlMs);
+      }
+    }
+  }
+
+  /*
+   * Removes the offer from its node. Fails if the offer has been consumed already,
+   * so that an offer is either consumed or removed, never both.
+   */
+  private boolean removeHeldOffer(Protos.OfferID offerId) {
+    String hostname = heldOffers.get(offerId);
+    if (hostname == null) {
+      return false;
+    }
+    Node node = nodeStore.getNode(hostname);
+    if (node != null && node.removeOffer(offerId)) {
+      heldOffers.remove(offerId);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Consumes the offers waiting for the host, to be turned into YARN capacity by a NM heartbeat.
+   * The consumed offers are kept until {@link #drainConsumedOffer(String)}.
+   *
+   * @return the offers consumed, possibly empty
+   */
+  public List<Protos.Offer> consumeOffers(String hostname) {
+    Node node = nodeStore.getNode(hostname);
+    if (node == null) {
+      return new ArrayList<>(0);
+    }
+    return markConsumed(node.consumeOffers());
+  }
+
+  /**
+   * Consumes the offers waiting for the host as far as they are needed to cover the demand,
+   * and declines the rest with a refuse filter, so that Mesos offers them to other frameworks
+   * instead of sending them straight back.
+   *
+   * @param demand resources requested by YARN applications that no consumed offer covers yet
+   * @return the offers consumed, possibly empty
+   */
+  public List<Protos.Offer> consumeOffers(String hostname, Resource demand) {
+    Node node = nodeStore.getNode(hostname);
+    if (node == null) {
+      return new ArrayList<>(0);
+    }
+    List<Protos.Offer> offers = markConsumed(node.consumeOffers(demand));
+    for (Protos.Offer offer : node.removeOffers()) {
+      heldOffers.remove(offer.getId());
+      myriadDriver.getDriver().declineOffer(offer.getId(), declineFilters);
+      unneededOffers.mark();
+      LOGGER.debug("Declined offer {} for host {}, no pending demand", offer.getId().getValue(), hostname);
+    }
+    return offers;
+  }
+
+  private List<Protos.Offer> markConsumed(List<Protos.Offer> offers) {
+    for (Protos.Offer offer : offers) {
+      heldOffers.remove(offer.getId());
+    }
+    if (!offers.isEmpty()) {
+      MilliResources resources = MilliResources.of(offers);
+      synchronized (consumedResourcesLock) {
+        consumedResources = consumedResources.add(resources);
+      }
     }
+    return offers;
+  }
 
-    consumedOffer.add(offer);
+  /**
+   * Puts the offers a scheduler run left unused back with the host's pending offers, so that
+   * the next heartbeats turn them into capacity again without waiting for Mesos to offer the
+   * resources anew. The offers are declined instead once the host has held unused offers for
+   * the configured number of scheduler runs or time, or if no demand is queued.
+   *
+   * @param demandQueued whether YARN applications are still waiting for containers
+   */
+  public void retainUnusedOffers(String hostname, List<Protos.Offer> offers, boolean demandQueued) {
+    Node node = nodeStore.getNode(hostname);
+    if (offers.isEmpty()) {
+      if (node != null) {
+        node.resetRetainedOffers();
+      }
+      return;
+    }
+    if (node != null && demandQueued) {
+      // indexed first, so that a heartbeat consuming the offers right away finds them
+      for (Protos.Offer offer : offers) {
+        heldOffers.put(offer.getId(), hostname);
+      }
+      if (node.retainOffers(offers, retainRuns, retainMs, System.currentTimeMillis())) {
+        retainedOffers.mark(offers.size());
+        LOGGER.debug("Retained {} unused offers for host {}", offers.size(), hostname);
+        return;
+      }
+      for (Protos.Offer offer : offers) {
+        heldOffers.remove(offer.getId());
+      }
+    } else if (node != null) {
+      node.resetRetainedOffers();
+    }
+    for (Protos.Offer offer : offers) {
+      declineOffer(offer);
+    }
   }
 
   public ConsumedOffer drainConsumedOffer(String hostname) {
-    return consumedOfferMap.remove(hostname);
+    Node node = nodeStore.getNode(hostname);
+    ConsumedOffer consumedOffer = node != null ? node.drainConsumedOffer() : null;
+    if (consumedOffer != null) {
+      MilliResources resources = MilliResources.of(consumedOffer.getOffers());
+      synchronized (consumedResourcesLock) {
+        consumedResources = consumedResources.subtract(resources);
+      }
+    }
+    return consumedOffer;
+  }
+
+  /**
+   * @return the resources of the offers consumed on all hosts that are yet to be drained
+   */
+  public Resource getConsumedResources() {
+    synchronized (consumedResourcesLock) {
+      return consumedResources.toYarnResource();
+    }
+  }
+
+  private static final class HeldOffer {
+    private final Protos.OfferID offerId;
+    private final String hostname;
+    private final long deadline;
+
+    HeldOffer(Protos.OfferID offerId, String hostname, long deadline) {
+      this.offerId = offerId;
+      this.hostname = hostname;
+      this.deadline = deadline;
+    }
   }
 }
@@ -1,8 +1,9 @@
 package com.ebay.myriad.scheduler.fgs;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import org.apache.hadoop.yarn.api.records.Resource;
-import org.apache.mesos.Protos;
 import org.apache.mesos.Protos.Offer;
 
 /**
@@ -13,23 +14,30 @@ public class OfferUtils {
   /**
    * Transforms a collection of mesos offers into {@link Resource}.
    *
+   * The offers are added up exactly, and only the fraction of the sum is dropped.
+   *
    * @param offers collection of mesos offers
    * @return a single resource object equivalent to the cumulative sum of mesos offers
    */
   public static Resource getYarnResourcesFromMesosOffers(Collection<Offer> offers) {
-    double cpus = 0.0;
-    double mem = 0.0;
+    return MilliResources.of(offers).toYarnResource();
+  }
 
-    for (Protos.Offer offer : offers) {
-      for (Protos.Resource resource : offer.getResourcesList()) {
-        if (resource.getName().equalsIgnoreCase("cpus")) {
-          cpus += resource.getScalar().getValue();
-        } else if (resource.getName().equalsIgnoreCase("mem")) {
-          mem += resource.getScalar().getValue();
-        }
-      }
+  /**
+   * Counts the leading offers needed to cover the given resources, adding up their
+   * fractions, so that e.g. two offers of half a cpu cover one vcore.
+   *
+   * @return the number of leading offers that cover the resources, all of them if they do not
+   */
+  public static int countOffersCovering(List<Offer> offers, Resource resources) {
+    MilliResources covered = MilliResources.none();
+    int count = 0;
+    // offers may be a linked list, so it is walked rather than indexed
+    for (Iterator<Offer> it = offers.iterator(); it.hasNext() && !covered.covers(resources);) {
+      covered = covered.add(MilliResources.of(it.next()));
+      count++;
     }
-    return Resource.newInstance((int) mem, (int) cpus);
+    return count;
   }
 
 }
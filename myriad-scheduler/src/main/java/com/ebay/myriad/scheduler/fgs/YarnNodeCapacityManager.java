@@ -1,5 +1,6 @@
 package com.ebay.myriad.scheduler.fgs;
 
+import com.ebay.myriad.configuration.MyriadConfiguration;
 import com.ebay.myriad.executor.ContainerTaskStatusRequest;
 import com.ebay.myriad.scheduler.MyriadDriver;
 import com.ebay.myriad.scheduler.SchedulerUtils;
@@ -8,25 +9,29 @@ import com.ebay.myriad.scheduler.yarn.interceptor.BaseInterceptor;
 import com.ebay.myriad.scheduler.yarn.interceptor.InterceptorRegistry;
 import com.ebay.myriad.state.SchedulerState;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
-import java.util.HashSet;
+import com.google.protobuf.ByteString;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 import javax.inject.Inject;
 import org.apache.hadoop.yarn.api.records.Container;
 import org.apache.hadoop.yarn.api.records.NodeId;
 import org.apache.hadoop.yarn.api.records.Resource;
 import org.apache.hadoop.yarn.api.records.ResourceOption;
+import org.apache.hadoop.yarn.api.records.ResourceRequest;
 import org.apache.hadoop.yarn.server.resourcemanager.RMContext;
 import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainer;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNode;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.AbstractYarnScheduler;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.SchedulerApplication;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.SchedulerApplicationAttempt;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.SchedulerNode;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeAddedSchedulerEvent;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeRemovedSchedulerEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeResourceUpdateSchedulerEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeUpdateSchedulerEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.SchedulerEvent;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.SchedulerEventType;
 import org.apache.hadoop.yarn.util.resource.Resources;
 import org.apache.mesos.Protos;
 import org.slf4j.Logger;
@@ -54,6 +59,8 @@ public class YarnNodeCapacityManager extends BaseInterceptor {
     private final NodeStore nodeStore;
     private final TaskFactory taskFactory;
     private final SchedulerState state;
+    private final MyriadConfiguration cfg;
+    private final ContainerTaskRegistry containerTaskRegistry;
 
     @Inject
     public YarnNodeCapacityManager(InterceptorRegistry registry,
@@ -63,7 +70,9 @@ public class YarnNodeCapacityManager extends BaseInterceptor {
                                    TaskFactory taskFactory,
                                    OfferLifecycleManager offerLifecycleMgr,
                                    NodeStore nodeStore,
-                                   SchedulerState state) {
+                                   SchedulerState state,
+                                   MyriadConfiguration cfg,
+                                   ContainerTaskRegistry containerTaskRegistry) {
         if (registry != null) {
             registry.register(this);
         }
@@ -74,6 +83,8 @@ public class YarnNodeCapacityManager extends BaseInterceptor {
         this.offerLifecycleMgr = offerLifecycleMgr;
         this.nodeStore = nodeStore;
         this.state = state;
+        this.cfg = cfg;
+        this.containerTaskRegistry = containerTaskRegistry;
     }
 
     @Override
@@ -81,11 +92,24 @@ public class YarnNodeCapacityManager extends BaseInterceptor {
         return new CallBackFilter() {
             @Override
             public boolean allowCallBacksForNode(NodeId nodeManager) {
-                return SchedulerUtils.isEligibleForFineGrainedScaling(nodeManager.getHost(), state);
+                return SchedulerUtils.isEligibleForFineGrainedScaling(nodeManager.getHost(), state, cfg.isFgsHybrid());
             }
         };
     }
 
+    /**
+     * A capacity update that reaches the scheduler frees its node for the next one. This is done
+     * before the scheduler reads the capacity, so that an update made while it does is sent on
+     * rather than coalesced into an event that has already been read. It is done even if the
+     * scheduler drops the event, e.g. for a node that is gone.
+     */
+    @Override
+    public void beforeSchedulerEventHandled(SchedulerEvent event) {
+        if (event.getType() == SchedulerEventType.NODE_RESOURCE_UPDATE) {
+            clearCapacityUpdatePending(((NodeResourceUpdateSchedulerEvent) event).getRMNode().getNodeID());
+        }
+    }
+
   @Override
     public void afterSchedulerEventHandled(SchedulerEvent event) {
         switch (event.getType()) {
@@ -103,6 +127,15 @@ public class YarnNodeCapacityManager extends BaseInterceptor {
 
               SchedulerNode node = yarnScheduler.getSchedulerNode(nodeId);
               nodeStore.add(node);
+              // The capacity the NM registered with, zero unless it is a hybrid NM
+              nodeStore.getNode(host).setBaseResources(nodeAddedEvent.getAddedRMNode().getTotalCapability());
+              // A node that registers again starts without an update waiting for it
+              clearCapacityUpdatePending(nodeId);
+              // Containers recovered on registration need no new Mesos tasks. Those beyond
+              // the base capacity still hold the tasks launched for them before a restart.
+              for (RMContainer recovered : nodeStore.getNode(host).recordNewContainers()) {
+                containerTaskRegistry.containerRecovered(recovered.getContainerId(), recovered.getAllocatedResource());
+              }
               LOGGER.info("afterSchedulerEventHandled: NM registration from node {}", host);
             }
             break;
@@ -119,19 +152,49 @@ public class YarnNodeCapacityManager extends BaseInterceptor {
             }
             break;
 
+            case NODE_REMOVED: {
+                // Updates dispatched for the node are dropped by the scheduler from now on
+                clearCapacityUpdatePending(((NodeRemovedSchedulerEvent) event).getRemovedRMNode().getNodeID());
+            }
+            break;
+
             default:
               break;
         }
     }
 
+    private void clearCapacityUpdatePending(NodeId nodeId) {
+        Node node = nodeStore.getNode(nodeId.getHost());
+        if (node != null) {
+            node.clearCapacityUpdatePending();
+        }
+    }
+
+    @Override
+    public void afterContainerCompleted(RMContainer rmContainer) {
+        Node node = nodeStore.getNode(rmContainer.getAllocatedNode().getHost());
+        if (node != null) {
+            node.containerCompleted(rmContainer);
+        }
+        containerTaskRegistry.containerCompleted(rmContainer.getContainerId());
+    }
+
     /**
      * Checks if any containers were allocated in the current scheduler run and
      * launches the corresponding Mesos tasks. It also udpates the node
      * capacity depending on what portion of the consumed offers were actually
-     * used.
+     * used. The offers the tasks do not need are held for the next heartbeats
+     * while applications still wait for containers, and declined otherwise.
      */
     private void handleContainerAllocation(RMNode rmNode) {
       String host = rmNode.getNodeID().getHost();
+      Node node = nodeStore.getNode(host);
+      if (node == null) {
+        return;
+      }
+
+      // The ledger is kept up to date whether or not offers were consumed
+      List<RMContainer> containersAllocatedByMesosOffer = node.recordNewContainers();
 
       ConsumedOffer consumedOffer = offerLifecycleMgr.drainConsumedOffer(host);
       if (consumedOffer == null) {
@@ -139,23 +202,14 @@ public class YarnNodeCapacityManager extends BaseInterceptor {
         return;
       }
 
-      Node node = nodeStore.getNode(host);
-      Set<RMContainer> containersBeforeSched = node.getContainerSnapshot();
-      Set<RMContainer> containersAfterSched = new HashSet<>(
-          node.getNode().getRunningContainers());
-
-      Set<RMContainer> containersAllocatedByMesosOffer =
-        (containersBeforeSched == null)
-        ? containersAfterSched
-        : Sets.difference(containersAfterSched, containersBeforeSched);
+      // Reduce node capacity to what the base and the offer funded containers use,
+      // plus any offers consumed since the drain
+      updateNodeCapacity(rmNode, Resources.add(node.getFundedCapacity(), node.getConsumedResources()));
 
+      List<Protos.Offer> unusedOffers;
       if (containersAllocatedByMesosOffer.isEmpty()) {
         LOGGER.debug("No containers allocated using Mesos offers for host: {}", host);
-        for (Protos.Offer offer : consumedOffer.getOffers()) {
-          offerLifecycleMgr.declineOffer(offer);
-        }
-        setNodeCapacity(rmNode, Resources.subtract(rmNode.getTotalCapability(),
-            OfferUtils.getYarnResourcesFromMesosOffers(consumedOffer.getOffers())));
+        unusedOffers = consumedOffer.getOffers();
       } else {
         LOGGER.debug("Containers allocated using Mesos offers for host: {} count: {}",
             host, containersAllocatedByMesosOffer.size());
@@ -165,20 +219,35 @@ public class YarnNodeCapacityManager extends BaseInterceptor {
         Resource resUsed = Resource.newInstance(0, 0);
 
         for (RMContainer newContainer : containersAllocatedByMesosOffer) {
-          tasks.add(getTaskInfoForContainer(newContainer, consumedOffer, node));
-          resUsed = Resources.add(resUsed, newContainer.getAllocatedResource());
+          // a container straddling the base capacity holds only its offer funded part
+          Resource fromOffers = node.getOfferFundedResources(newContainer.getContainerId());
+          if (!cfg.isFgsLeaseTasks()) {
+            Protos.TaskInfo task = getTaskInfoForContainer(newContainer, fromOffers, consumedOffer, node);
+            containerTaskRegistry.register(task, Collections.singletonList(newContainer));
+            tasks.add(task);
+          }
+          resUsed = Resources.add(resUsed, fromOffers);
+        }
+        if (cfg.isFgsLeaseTasks()) {
+          // a single task holds the resources of all the containers of this run
+          Protos.TaskInfo lease = getLeaseTaskInfo(containersAllocatedByMesosOffer, resUsed, consumedOffer, node);
+          containerTaskRegistry.register(lease, containersAllocatedByMesosOffer);
+          tasks.add(lease);
         }
 
-        // Reduce node capacity to account for unused offers
-        Resource resOffered = OfferUtils.getYarnResourcesFromMesosOffers(consumedOffer.getOffers());
-        Resource resUnused = Resources.subtract(resOffered, resUsed);
-        setNodeCapacity(rmNode, Resources.subtract(rmNode.getTotalCapability(), resUnused));
-
-        myriadDriver.getDriver().launchTasks(consumedOffer.getOfferIds(), tasks);
+        // The tasks are launched on the offers needed to cover them, the others are left over
+        List<Protos.Offer> offers = consumedOffer.getOffers();
+        int launchCount = OfferUtils.countOffersCovering(offers, resUsed);
+        List<Protos.OfferID> launchOfferIds = Lists.newArrayListWithCapacity(launchCount);
+        for (Protos.Offer offer : offers.subList(0, launchCount)) {
+          launchOfferIds.add(offer.getId());
+        }
+        unusedOffers = Lists.newArrayList(offers.subList(launchCount, offers.size()));
+        myriadDriver.getDriver().launchTasks(launchOfferIds, tasks);
       }
 
-      // No need to hold on to the snapshot anymore
-      node.removeContainerSnapshot();
+      offerLifecycleMgr.retainUnusedOffers(host, unusedOffers,
+          !unusedOffers.isEmpty() && !Resources.none().equals(getUnmetDemand()));
     }
 
   /**
@@ -186,33 +255,161 @@ public class YarnNodeCapacityManager extends BaseInterceptor {
    * 2. Sends out a {@link NodeResourceUpdateSchedulerEvent} that's handled by YARN's scheduler.
    *    The scheduler updates the corresponding {@link SchedulerNode} with the newCapacity.
    *
+   * Updates are coalesced per node: while an update for the node is waiting in the
+   * dispatcher, no other one is sent, and the waiting one publishes the latest capacity.
+   * The capacity never goes below the node's base capacity.
+   *
    * @param rmNode
    * @param newCapacity
    */
   @SuppressWarnings("unchecked")
   public void setNodeCapacity(RMNode rmNode, Resource newCapacity) {
+    Node node = nodeStore.getNode(rmNode.getNodeID().getHost());
+    if (node != null) {
+      newCapacity = Resources.componentwiseMax(newCapacity, node.getBaseResources());
+    }
     rmNode.getTotalCapability().setMemory(newCapacity.getMemory());
     rmNode.getTotalCapability().setVirtualCores(newCapacity.getVirtualCores());
     LOGGER.debug("Setting capacity for node {} to {}", rmNode.getHostName(), newCapacity);
+
+    if (node != null && !node.markCapacityUpdatePending()) {
+      LOGGER.debug("Capacity update for node {} coalesced", rmNode.getHostName());
+      return;
+    }
     // updates the scheduler with the new capacity for the NM.
     // the event is handled by the scheduler asynchronously
     rmContext.getDispatcher().getEventHandler().handle(
-        new NodeResourceUpdateSchedulerEvent(rmNode,
-            ResourceOption.newInstance(rmNode.getTotalCapability(),
-            RMNode.OVER_COMMIT_TIMEOUT_MILLIS_DEFAULT)));
+        node != null ? new CoalescedNodeResourceUpdateSchedulerEvent(rmNode)
+            : new NodeResourceUpdateSchedulerEvent(rmNode, newResourceOption(rmNode)));
   }
 
-  private Protos.TaskInfo getTaskInfoForContainer(RMContainer rmContainer,
+  /**
+   * Turns the offers held for the host into node capacity right away, and has the scheduler
+   * run for the node without waiting for the NM's next heartbeat. Only the offers needed by
+   * the applications' pending requests are consumed, the others are declined. The scheduler
+   * run that follows launches tasks for the consumed offers or declines them.
+   *
+   * @param hostname
+   */
+  @SuppressWarnings("unchecked")
+  public void addCapacityFromOffers(String hostname) {
+    Node node = nodeStore.getNode(hostname);
+    if (node == null || node.getNode() == null || !node.hasPendingOffers()) {
+      return;
+    }
+    if (offerLifecycleMgr.consumeOffers(hostname, getUnmetDemand()).isEmpty()) {
+      return;
+    }
+    RMNode rmNode = node.getNode().getRMNode();
+    setNodeCapacity(rmNode, Resources.add(node.getFundedCapacity(), node.getConsumedResources()));
+    // queued behind the capacity update, so the scheduler sees the new capacity
+    rmContext.getDispatcher().getEventHandler().handle(new NodeUpdateSchedulerEvent(rmNode));
+  }
+
+  /**
+   * Sums up the containers the YARN applications are waiting for, less the resources of the
+   * offers already consumed for them on some node and not yet used by a scheduler run.
+   *
+   * @return the resources that more offers should cover, never negative
+   */
+  @SuppressWarnings("unchecked")
+  public Resource getUnmetDemand() {
+    Resource demand = Resource.newInstance(0, 0);
+    for (Object application : yarnScheduler.getSchedulerApplications().values()) {
+      SchedulerApplicationAttempt attempt = ((SchedulerApplication<?>) application).getCurrentAppAttempt();
+      if (attempt == null || attempt.isStopped()) {
+        continue;
+      }
+      List<ResourceRequest> requests = yarnScheduler.getPendingResourceRequestsForAttempt(
+          attempt.getApplicationAttemptId());
+      for (ResourceRequest request : requests) {
+        // the off-switch request counts all the containers wanted at its priority
+        if (ResourceRequest.ANY.equals(request.getResourceName())) {
+          Resources.addTo(demand, Resources.multiply(request.getCapability(), request.getNumContainers()));
+        }
+      }
+    }
+    Resources.subtractFrom(demand, offerLifecycleMgr.getConsumedResources());
+    return Resources.componentwiseMax(demand, Resources.none());
+  }
+
+  /**
+   * Updates the node capacity from within the scheduler's event handling, where the
+   * scheduler lock is held already, without going through the dispatcher.
+   */
+  private void updateNodeCapacity(RMNode rmNode, Resource newCapacity) {
+    rmNode.getTotalCapability().setMemory(newCapacity.getMemory());
+    rmNode.getTotalCapability().setVirtualCores(newCapacity.getVirtualCores());
+    LOGGER.debug("Updating capacity for node {} to {}", rmNode.getHostName(), newCapacity);
+    yarnScheduler.updateNodeResource(rmNode, newResourceOption(rmNode));
+  }
+
+  private static ResourceOption newResourceOption(RMNode rmNode) {
+    return ResourceOption.newInstance(Resources.clone(rmNode.getTotalCapability()),
+        RMNode.OVER_COMMIT_TIMEOUT_MILLIS_DEFAULT);
+  }
+
+  /**
+   * Capacity update that reads the node's capacity when the scheduler handles it,
+   * rather than when it is sent, so that the updates it stands for are not lost.
+   */
+  private static class CoalescedNodeResourceUpdateSchedulerEvent extends NodeResourceUpdateSchedulerEvent {
+    CoalescedNodeResourceUpdateSchedulerEvent(RMNode rmNode) {
+      super(rmNode, newResourceOption(rmNode));
+    }
+
+    @Override
+    public ResourceOption getResourceOption() {
+      return newResourceOption(getRMNode());
+    }
+  }
+
+  private Protos.TaskInfo getTaskInfoForContainer(RMContainer rmContainer, Resource resources,
         ConsumedOffer consumedOffer, Node node) {
 
-        Protos.Offer offer = consumedOffer.getOffers().get(0);
         Container container = rmContainer.getContainer();
         Protos.TaskID taskId = Protos.TaskID.newBuilder()
             .setValue(ContainerTaskStatusRequest.YARN_CONTAINER_TASK_ID_PREFIX + container.getId().toString()).build();
 
+        return newTaskInfo(taskId, resources, consumedOffer, node).build();
+    }
+
+  /**
+   * Builds a lease task, which holds the resources of several containers in one Mesos task.
+   * The task's data lists the containers, so that the executor finishes the task once the
+   * last of them has stopped, and Mesos gets back exactly the resources the task was
+   * launched with.
+   */
+  private Protos.TaskInfo getLeaseTaskInfo(List<RMContainer> rmContainers, Resource resources,
+      ConsumedOffer consumedOffer, Node node) {
+    StringBuilder containerIds = new StringBuilder();
+    for (RMContainer rmContainer : rmContainers) {
+      if (containerIds.length() > 0) {
+        containerIds.append(ContainerTaskStatusRequest.LEASE_CONTAINER_ID_SEPARATOR);
+      }
+      containerIds.append(rmContainer.getContainerId().toString());
+    }
+    // container ids are unique, so the lease is named after its first container
+    Protos.TaskID taskId = Protos.TaskID.newBuilder()
+        .setValue(ContainerTaskStatusRequest.YARN_LEASE_TASK_ID_PREFIX
+            + rmContainers.get(0).getContainerId().toString()).build();
+
+    return newTaskInfo(taskId, resources, consumedOffer, node)
+        .setData(ByteString.copyFromUtf8(containerIds.toString()))
+        .build();
+  }
+
+    private Protos.TaskInfo.Builder newTaskInfo(Protos.TaskID taskId, Resource resources,
+        ConsumedOffer consumedOffer, Node node) {
+
+        Protos.Offer offer = consumedOffer.getOffers().get(0);
+
         // TODO (sdaingade) Remove ExecutorInfo from the Node object
         // as this is now cached in the NodeTask object in scheduler state.
         Protos.ExecutorInfo executorInfo = node.getExecInfo();
+        if (executorInfo == null) {
+            executorInfo = containerTaskRegistry.getExecutorInfo(offer.getSlaveId());
+        }
         if (executorInfo == null) {
             executorInfo = Protos.ExecutorInfo.newBuilder(
                  state.getNodeTask(offer.getSlaveId()).getExecutorInfo())
@@ -220,19 +417,24 @@ public class YarnNodeCapacityManager extends BaseInterceptor {
             node.setExecInfo(executorInfo);
         }
 
-        return Protos.TaskInfo.newBuilder()
+        Protos.TaskInfo.Builder task = Protos.TaskInfo.newBuilder()
             .setName("task_" + taskId.getValue())
             .setTaskId(taskId)
             .setSlaveId(offer.getSlaveId())
-            .addResources(Protos.Resource.newBuilder()
+            .setExecutor(executorInfo);
+        // a container straddling the base capacity may need only one kind of resource from offers
+        if (resources.getVirtualCores() > 0) {
+            task.addResources(Protos.Resource.newBuilder()
                 .setName("cpus")
                 .setType(Protos.Value.Type.SCALAR)
-                .setScalar(Protos.Value.Scalar.newBuilder().setValue(container.getResource().getVirtualCores())))
-            .addResources(Protos.Resource.newBuilder()
+                .setScalar(Protos.Value.Scalar.newBuilder().setValue(resources.getVirtualCores())));
+        }
+        if (resources.getMemory() > 0) {
+            task.addResources(Protos.Resource.newBuilder()
                 .setName("mem")
                 .setType(Protos.Value.Type.SCALAR)
-                .setScalar(Protos.Value.Scalar.newBuilder().setValue(container.getResource().getMemory())))
-            .setExecutor(executorInfo)
-            .build();
+                .setScalar(Protos.Value.Scalar.newBuilder().setValue(resources.getMemory())));
+        }
+        return task;
     }
 }
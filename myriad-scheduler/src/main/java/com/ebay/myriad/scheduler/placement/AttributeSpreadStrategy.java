@@ -0,0 +1,94 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.scheduler.placement;
+
+import com.ebay.myriad.scheduler.OfferResources;
+import com.ebay.myriad.state.NodeTask;
+import com.ebay.myriad.state.SchedulerState;
+import org.apache.mesos.Protos;
+import org.apache.mesos.Protos.Offer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spreads NMs across the values of a slave attribute, such as a rack or an availability
+ * zone, launching a NM on a slave whose attribute value has the fewest active or staging
+ * NMs. Ties are broken as {@link WorstFitStrategy} does. Slaves without the attribute, or
+ * with a non text value for it, are counted together.
+ */
+public class AttributeSpreadStrategy implements PlacementStrategy {
+    public static final String NAME = "attributespread";
+
+    private static final String NO_VALUE = "";
+
+    private final String attribute;
+    private final Map<String, Integer> tasksByValue = new HashMap<>();
+
+    public AttributeSpreadStrategy(String attribute) {
+        this.attribute = attribute;
+    }
+
+    @Override
+    public void prepare(SchedulerState schedulerState) {
+        tasksByValue.clear();
+        for (NodeTask task : schedulerState.getActiveTasks()) {
+            count(task.getSlaveAttributes());
+        }
+        for (Protos.TaskID taskId : schedulerState.getStagingTaskIds()) {
+            NodeTask task = schedulerState.getTask(taskId);
+            if (task != null) {
+                count(task.getSlaveAttributes());
+            }
+        }
+    }
+
+    @Override
+    public double score(Offer offer, OfferResources resources, double cpus, double mem) {
+        Integer tasks = tasksByValue.get(valueOf(offer.getAttributesList()));
+        // The share is at most 1, so it only orders offers with the same number of NMs.
+        return -(tasks == null ? 0 : tasks) - resources.dominantShare(cpus, mem) / 2;
+    }
+
+    @Override
+    public void placed(Offer offer) {
+        count(offer.getAttributesList());
+    }
+
+    @Override
+    public boolean isLargestFirst() {
+        return true;
+    }
+
+    private void count(List<Protos.Attribute> attributes) {
+        String value = valueOf(attributes);
+        Integer tasks = tasksByValue.get(value);
+        tasksByValue.put(value, tasks == null ? 1 : tasks + 1);
+    }
+
+    private String valueOf(List<Protos.Attribute> attributes) {
+        if (attributes != null) {
+            for (int i = 0; i < attributes.size(); i++) {
+                Protos.Attribute attr = attributes.get(i);
+                if (attr.getName().equals(attribute) && attr.getType() == Protos.Value.Type.TEXT) {
+                    return attr.getText().getValue();
+                }
+            }
+        }
+        return NO_VALUE;
+    }
+}
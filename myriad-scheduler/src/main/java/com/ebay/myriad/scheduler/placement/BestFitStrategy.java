@@ -0,0 +1,46 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.scheduler.placement;
+
+import com.ebay.myriad.scheduler.OfferResources;
+import com.ebay.myriad.state.SchedulerState;
+import org.apache.mesos.Protos.Offer;
+
+/**
+ * Launches a NM on the offer it fills the most, leaving the larger offers whole for larger
+ * profiles.
+ */
+public class BestFitStrategy implements PlacementStrategy {
+    public static final String NAME = "bestfit";
+
+    @Override
+    public void prepare(SchedulerState schedulerState) {
+    }
+
+    @Override
+    public double score(Offer offer, OfferResources resources, double cpus, double mem) {
+        return resources.dominantShare(cpus, mem);
+    }
+
+    @Override
+    public void placed(Offer offer) {
+    }
+
+    @Override
+    public boolean isLargestFirst() {
+        return true;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.scheduler.placement;
+
+import com.ebay.myriad.scheduler.OfferResources;
+import com.ebay.myriad.state.SchedulerState;
+import org.apache.mesos.Protos.Offer;
+
+/**
+ * Launches NMs in the order they became pending, each on the first offer that can hold it.
+ * This is how NMs were placed before placement strategies, and stays the default so that
+ * existing deployments keep their placement.
+ */
+public class FirstFitStrategy implements PlacementStrategy {
+    public static final String NAME = "firstfit";
+
+    @Override
+    public void prepare(SchedulerState schedulerState) {
+    }
+
+    @Override
+    public double score(Offer offer, OfferResources resources, double cpus, double mem) {
+        return 0;
+    }
+
+    @Override
+    public void placed(Offer offer) {
+    }
+
+    @Override
+    public boolean isLargestFirst() {
+        return false;
+    }
+}
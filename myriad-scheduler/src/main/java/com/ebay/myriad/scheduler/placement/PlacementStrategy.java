@@ -0,0 +1,53 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.scheduler.placement;
+
+import com.ebay.myriad.scheduler.OfferResources;
+import com.ebay.myriad.state.SchedulerState;
+import org.apache.mesos.Protos.Offer;
+
+/**
+ * Chooses where NMs are launched by scoring the offers that can hold a pending NM. Of the
+ * matching offers, the NM is launched on the one with the highest score.
+ *
+ * Strategies are called from the offer handling loop for every matching pair of offer and
+ * pending NM, so {@link #score} must not allocate. Not thread safe.
+ */
+public interface PlacementStrategy {
+    /**
+     * Called once for every batch of offers, before the offers are scored.
+     */
+    void prepare(SchedulerState schedulerState);
+
+    /**
+     * @param resources the resources of the offer
+     * @param cpus the cpus the NM requires
+     * @param mem the memory the NM requires
+     * @return the score of launching the NM on the offer, higher is better
+     */
+    double score(Offer offer, OfferResources resources, double cpus, double mem);
+
+    /**
+     * Called when a NM is launched on an offer, so that later scores can account for it.
+     */
+    void placed(Offer offer);
+
+    /**
+     * @return true if pending NMs are placed largest profile first, false if in the order
+     * they became pending, i.e. were flexed up or lost
+     */
+    boolean isLargestFirst();
+}
@@ -3,7 +3,10 @@ package com.ebay.myriad.scheduler.yarn;
 import com.ebay.myriad.scheduler.yarn.interceptor.CompositeInterceptor;
 import com.ebay.myriad.scheduler.yarn.interceptor.YarnSchedulerInterceptor;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ContainerStatus;
 import org.apache.hadoop.yarn.server.resourcemanager.RMContext;
+import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainer;
+import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainerEventType;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNodeEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNodeEventType;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.SchedulerEvent;
@@ -64,5 +67,13 @@ public class MyriadFifoScheduler extends FifoScheduler {
     super.handle(event);
     this.yarnSchedulerInterceptor.afterSchedulerEventHandled(event);
   }
-}
 
+  @Override
+  protected synchronized void completedContainer(RMContainer rmContainer,
+      ContainerStatus containerStatus, RMContainerEventType event) {
+    super.completedContainer(rmContainer, containerStatus, event);
+    if (rmContainer != null) {
+      this.yarnSchedulerInterceptor.afterContainerCompleted(rmContainer);
+    }
+  }
+}
@@ -3,6 +3,7 @@ package com.ebay.myriad.scheduler.yarn.interceptor;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.yarn.api.records.NodeId;
 import org.apache.hadoop.yarn.server.resourcemanager.RMContext;
+import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainer;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNodeEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.AbstractYarnScheduler;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.SchedulerEvent;
@@ -47,4 +48,9 @@ public class BaseInterceptor implements YarnSchedulerInterceptor {
     public void afterSchedulerEventHandled(SchedulerEvent event) {
 
     }
+
+    @Override
+    public void afterContainerCompleted(RMContainer rmContainer) {
+
+    }
 }
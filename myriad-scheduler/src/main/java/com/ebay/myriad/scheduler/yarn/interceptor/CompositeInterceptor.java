@@ -5,6 +5,7 @@ import com.google.common.collect.Maps;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.yarn.api.records.NodeId;
 import org.apache.hadoop.yarn.server.resourcemanager.RMContext;
+import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainer;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNodeEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.AbstractYarnScheduler;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeAddedSchedulerEvent;
@@ -106,6 +107,16 @@ public class CompositeInterceptor implements YarnSchedulerInterceptor, Intercept
         }
     }
 
+    @Override
+    public void afterContainerCompleted(RMContainer rmContainer) {
+        NodeId nodeId = rmContainer.getAllocatedNode();
+        for (YarnSchedulerInterceptor interceptor : interceptors.values()) {
+            if (nodeId != null && interceptor.getCallBackFilter().allowCallBacksForNode(nodeId)) {
+                interceptor.afterContainerCompleted(rmContainer);
+            }
+        }
+    }
+
   private NodeId getNodeIdForSchedulerEvent(SchedulerEvent event) {
       switch (event.getType()) {
         case NODE_ADDED:
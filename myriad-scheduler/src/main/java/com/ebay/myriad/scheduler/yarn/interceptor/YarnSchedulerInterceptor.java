@@ -3,6 +3,7 @@ package com.ebay.myriad.scheduler.yarn.interceptor;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.yarn.api.records.NodeId;
 import org.apache.hadoop.yarn.server.resourcemanager.RMContext;
+import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainer;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNodeEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNodeImpl;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.AbstractYarnScheduler;
@@ -74,4 +75,13 @@ public interface YarnSchedulerInterceptor {
      */
     public void afterSchedulerEventHandled(SchedulerEvent event);
 
+    /**
+     * Invoked *after* {@link AbstractYarnScheduler} completes a container, only if
+     * {@link CallBackFilter#allowCallBacksForNode(NodeId)} returns true for the
+     * container's node.
+     *
+     * @param rmContainer
+     */
+    public void afterContainerCompleted(RMContainer rmContainer);
+
 }
@@ -20,6 +20,8 @@ package com.ebay.myriad.state;
 
 import com.ebay.myriad.state.utils.StoreContext;
 
+import java.util.List;
+
 /**
  * Interface implemented by all Myriad State Store implementations 
  */
@@ -29,4 +31,10 @@ public interface MyriadStateStore {
 
   void storeMyriadState(StoreContext storeContext) throws Exception;
 
+  /**
+   * Stores the given transitions, in order, on top of the state already in the store.
+   * Transitions may be stored more than once, e.g. when a previous attempt failed.
+   */
+  void storeMyriadStateTransitions(List<StateTransition> transitions) throws Exception;
+
 }
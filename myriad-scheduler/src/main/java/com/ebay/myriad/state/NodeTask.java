@@ -24,6 +24,9 @@ import org.apache.mesos.Protos.Attribute;
 
 /**
  * Represents a task to be launched by the executor
+ *
+ * Instances held by the {@link SchedulerState} are published in its snapshots and are never
+ * changed in place: copy a task, change the copy and put it back in the scheduler state.
  */
 public class NodeTask {
     @JsonProperty
@@ -49,6 +52,16 @@ public class NodeTask {
         this.constraint = constraint;
     }
 
+    public NodeTask(NodeTask other) {
+        this.profile = other.profile;
+        this.hostname = other.hostname;
+        this.slaveId = other.slaveId;
+        this.taskStatus = other.taskStatus;
+        this.executorInfo = other.executorInfo;
+        this.constraint = other.constraint;
+        this.slaveAttributes = other.slaveAttributes;
+    }
+
     public Protos.SlaveID getSlaveId() {
         return slaveId;
     }
@@ -0,0 +1,419 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.state;
+
+import com.google.common.base.Preconditions;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map that is updated by making a new map sharing all but the changed path with
+ * the old one, a hash array mapped trie. An update copies at most one node per level of
+ * the trie, each of at most 32 slots, rather than the whole map, so that a snapshot of a
+ * large map can be published on every mutation.
+ *
+ * Keys and values must not be null. The mutators of {@link Map} throw
+ * {@link UnsupportedOperationException}, use {@link #plus} and {@link #minus} instead.
+ */
+final class PersistentMap<K, V> extends AbstractMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentMap<Object, Object> EMPTY = new PersistentMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    /**
+     * @return a map with the given entry added or replaced, this map if it already holds it
+     */
+    PersistentMap<K, V> plus(K key, V value) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+        Leaf leaf = new Leaf(hash(key), key, value);
+        if (root == null) {
+            return new PersistentMap<>(new BitmapNode(bit(leaf.hash, 0), new Object[] {leaf}), 1);
+        }
+        boolean[] added = new boolean[1];
+        Node newRoot = root.put(leaf, 0, added);
+        return newRoot == root ? this : new PersistentMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * @return a map without the given key, this map if it does not hold the key
+     */
+    PersistentMap<K, V> minus(Object key) {
+        if (root == null || key == null) {
+            return this;
+        }
+        Node newRoot = root.remove(hash(key), key, 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? PersistentMap.<K, V>empty() : new PersistentMap<K, V>(newRoot, size - 1);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Leaf leaf = find(key);
+        return leaf == null ? null : (V) leaf.getValue();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private Leaf find(Object key) {
+        if (root == null || key == null) {
+            return null;
+        }
+        int hash = hash(key);
+        Object slot = root;
+        for (int shift = 0; slot instanceof Node; shift += BITS) {
+            slot = ((Node) slot).find(hash, key, shift);
+        }
+        return (Leaf) slot;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /**
+     * An entry of the map.
+     */
+    private static final class Leaf extends SimpleImmutableEntry<Object, Object> {
+        private static final long serialVersionUID = 1L;
+        private final int hash;
+
+        Leaf(int hash, Object key, Object value) {
+            super(key, value);
+            this.hash = hash;
+        }
+
+        boolean hasKey(int otherHash, Object otherKey) {
+            return hash == otherHash && getKey().equals(otherKey);
+        }
+    }
+
+    /**
+     * A node of the trie. Its slots hold leaves and child nodes.
+     */
+    private abstract static class Node {
+        final Object[] slots;
+
+        Node(Object[] slots) {
+            this.slots = slots;
+        }
+
+        /**
+         * @return the leaf or child node that may hold the key, or null
+         */
+        abstract Object find(int hash, Object key, int shift);
+
+        /**
+         * @return the node with the leaf added or replaced, this node if it holds the leaf already
+         */
+        abstract Node put(Leaf leaf, int shift, boolean[] added);
+
+        /**
+         * @return the node without the key, this node if it does not hold the key, or null if
+         * the node is left empty
+         */
+        abstract Node remove(int hash, Object key, int shift);
+    }
+
+    /**
+     * Node with a slot for each of the 32 values of its 5 bits of the hash that are in use,
+     * as flagged by the bitmap.
+     */
+    private static final class BitmapNode extends Node {
+        private final int bitmap;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            super(slots);
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        Object find(int hash, Object key, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = slots[index(bit)];
+            return slot instanceof Leaf && !((Leaf) slot).hasKey(hash, key) ? null : slot;
+        }
+
+        @Override
+        Node put(Leaf leaf, int shift, boolean[] added) {
+            int bit = bit(leaf.hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                Object[] newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = leaf;
+                System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+                return new BitmapNode(bitmap | bit, newSlots);
+            }
+            Object slot = slots[index];
+            Object newSlot;
+            if (slot instanceof Leaf) {
+                Leaf existing = (Leaf) slot;
+                if (existing.hasKey(leaf.hash, leaf.getKey())) {
+                    if (existing.getValue() == leaf.getValue()) {
+                        return this;
+                    }
+                    newSlot = leaf;
+                } else {
+                    added[0] = true;
+                    newSlot = merge(existing, leaf, shift + BITS);
+                }
+            } else {
+                newSlot = ((Node) slot).put(leaf, shift + BITS, added);
+                if (newSlot == slot) {
+                    return this;
+                }
+            }
+            return new BitmapNode(bitmap, replace(slots, index, newSlot));
+        }
+
+        @Override
+        Node remove(int hash, Object key, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object slot = slots[index];
+            Object newSlot;
+            if (slot instanceof Leaf) {
+                if (!((Leaf) slot).hasKey(hash, key)) {
+                    return this;
+                }
+                newSlot = null;
+            } else {
+                Node child = (Node) slot;
+                Node newChild = child.remove(hash, key, shift + BITS);
+                if (newChild == child) {
+                    return this;
+                }
+                // a child left with a single leaf is replaced by the leaf
+                newSlot = newChild != null && newChild.slots.length == 1 && newChild.slots[0] instanceof Leaf
+                    ? newChild.slots[0] : newChild;
+            }
+            if (newSlot != null) {
+                return new BitmapNode(bitmap, replace(slots, index, newSlot));
+            }
+            if (slots.length == 1) {
+                return null;
+            }
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, newSlots.length - index);
+            return new BitmapNode(bitmap & ~bit, newSlots);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        /**
+         * @return a node holding two leaves whose hashes are the same up to the given shift
+         */
+        private static Node merge(Leaf first, Leaf second, int shift) {
+            if (first.hash == second.hash) {
+                return new CollisionNode(first.hash, new Object[] {first, second});
+            }
+            // the hashes differ, so they differ in the bits of some shift up to 30
+            int firstChunk = (first.hash >>> shift) & MASK;
+            int secondChunk = (second.hash >>> shift) & MASK;
+            if (firstChunk == secondChunk) {
+                return new BitmapNode(1 << firstChunk, new Object[] {merge(first, second, shift + BITS)});
+            }
+            Object[] slots = firstChunk < secondChunk ? new Object[] {first, second} : new Object[] {second, first};
+            return new BitmapNode((1 << firstChunk) | (1 << secondChunk), slots);
+        }
+    }
+
+    /**
+     * Node holding the leaves of keys whose hashes are the same.
+     */
+    private static final class CollisionNode extends Node {
+        private final int hash;
+
+        CollisionNode(int hash, Object[] slots) {
+            super(slots);
+            this.hash = hash;
+        }
+
+        @Override
+        Object find(int otherHash, Object key, int shift) {
+            int index = indexOf(otherHash, key);
+            return index < 0 ? null : slots[index];
+        }
+
+        @Override
+        Node put(Leaf leaf, int shift, boolean[] added) {
+            if (leaf.hash != hash) {
+                // nest this node under a bitmap node, which tells the leaf and this node apart
+                return new BitmapNode(bit(hash, shift), new Object[] {this}).put(leaf, shift, added);
+            }
+            int index = indexOf(leaf.hash, leaf.getKey());
+            if (index >= 0) {
+                return ((Leaf) slots[index]).getValue() == leaf.getValue()
+                    ? this : new CollisionNode(hash, replace(slots, index, leaf));
+            }
+            added[0] = true;
+            Object[] newSlots = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, newSlots, 0, slots.length);
+            newSlots[slots.length] = leaf;
+            return new CollisionNode(hash, newSlots);
+        }
+
+        @Override
+        Node remove(int otherHash, Object key, int shift) {
+            int index = indexOf(otherHash, key);
+            if (index < 0) {
+                return this;
+            }
+            if (slots.length == 1) {
+                return null;
+            }
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, newSlots.length - index);
+            return new CollisionNode(hash, newSlots);
+        }
+
+        private int indexOf(int otherHash, Object key) {
+            for (int i = 0; i < slots.length; i++) {
+                if (((Leaf) slots[i]).hasKey(otherHash, key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static Object[] replace(Object[] slots, int index, Object slot) {
+        Object[] newSlots = slots.clone();
+        newSlots[index] = slot;
+        return newSlots;
+    }
+
+    /**
+     * Walks the trie depth first.
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+        private final Deque<Object[]> slotStack = new ArrayDeque<>();
+        private final Deque<Integer> indexStack = new ArrayDeque<>();
+        private Leaf next;
+
+        EntryIterator(Node root) {
+            if (root != null) {
+                slotStack.push(root.slots);
+                indexStack.push(0);
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Leaf leaf = next;
+            advance();
+            return (Entry<K, V>) (Entry<?, ?>) leaf;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && !slotStack.isEmpty()) {
+                Object[] slots = slotStack.peek();
+                int index = indexStack.pop();
+                if (index == slots.length) {
+                    slotStack.pop();
+                    continue;
+                }
+                indexStack.push(index + 1);
+                Object slot = slots[index];
+                if (slot instanceof Leaf) {
+                    next = (Leaf) slot;
+                } else {
+                    slotStack.push(((Node) slot).slots);
+                    indexStack.push(0);
+                }
+            }
+        }
+    }
+}
@@ -15,41 +15,79 @@
  */
 package com.ebay.myriad.state;
 
+import com.codahale.metrics.MetricRegistry;
+import com.ebay.myriad.configuration.MyriadConfiguration;
 import com.ebay.myriad.scheduler.NMProfile;
 import com.ebay.myriad.state.utils.StoreContext;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.mesos.Protos;
 import org.apache.mesos.Protos.SlaveID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Represents the state of the Myriad scheduler
+ * Represents the state of the Myriad scheduler.
+ *
+ * Mutations are serialized on the SchedulerState monitor and publish a new immutable
+ * {@link SchedulerStateSnapshot}. All the getters read the latest snapshot and never
+ * take the monitor, so readers (REST API, NM heartbeats, offer handling) do not wait
+ * behind writers. A snapshot copies only the structures the mutation changed and shares
+ * the others with the previous snapshot. Tasks are kept in a {@link PersistentMap}, so a
+ * changed task copies a path of the map rather than all of it. {@link NodeTask}s are copied on the way in and
+ * replaced rather than changed, so a published snapshot never changes.
+ *
+ * Every mutation is also recorded as a {@link StateTransition}. The recorded transitions
+ * are written to the state store, in order, by a single writer thread that coalesces the
+ * mutations of each commit window into one write. Callers needing durability wait on
+ * {@link #commit()}.
  */
 public class SchedulerState {
     private static final Logger LOGGER = LoggerFactory.getLogger(SchedulerState.class);
 
-    private Map<Protos.TaskID, NodeTask> tasks;
-    private Set<Protos.TaskID> pendingTasks;
-    private Set<Protos.TaskID> stagingTasks;
-    private Set<Protos.TaskID> activeTasks;
-    private Set<Protos.TaskID> lostTasks;
-    private Set<Protos.TaskID> killableTasks;
+    private PersistentMap<Protos.TaskID, NodeTask> tasks;
+    private TaskSet pendingTasks;
+    private TaskSet stagingTasks;
+    private TaskSet activeTasks;
+    private TaskSet lostTasks;
+    private TaskSet killableTasks;
+    private TaskIndex<String> pendingTasksByProfile;
+    private TaskIndex<String> stagingTasksByProfile;
+    private TaskIndex<String> activeTasksByProfile;
+    private TaskIndex<String> tasksByHostname;
+    private TaskIndex<SlaveID> tasksBySlaveId;
     private Protos.FrameworkID frameworkId;
     private MyriadStateStore stateStore;
+    private StateStoreWriter stateStoreWriter;
+
+    private volatile SchedulerStateSnapshot snapshot;
+    private long version;
 
     public SchedulerState(MyriadStateStore stateStore) {
-        this.tasks = new ConcurrentHashMap<>();
-        this.pendingTasks = new HashSet<>();
-        this.stagingTasks = new HashSet<>();
-        this.activeTasks = new HashSet<>();
-        this.lostTasks = new HashSet<>();
-        this.killableTasks = new HashSet<>();
+        this(stateStore, MyriadConfiguration.DEFAULT_STATE_STORE_COMMIT_WINDOW_MS, new MetricRegistry());
+    }
+
+    public SchedulerState(MyriadStateStore stateStore, long commitWindowMs, MetricRegistry metricRegistry) {
+        this.tasks = PersistentMap.empty();
+        this.pendingTasks = new TaskSet();
+        this.stagingTasks = new TaskSet();
+        this.activeTasks = new TaskSet();
+        this.lostTasks = new TaskSet();
+        this.killableTasks = new TaskSet();
+        this.pendingTasksByProfile = new TaskIndex<>();
+        this.stagingTasksByProfile = new TaskIndex<>();
+        this.activeTasksByProfile = new TaskIndex<>();
+        this.tasksByHostname = new TaskIndex<>();
+        this.tasksBySlaveId = new TaskIndex<>();
         this.stateStore = stateStore;
         loadStateStore();
+        if (stateStore != null) {
+            this.stateStoreWriter = new StateStoreWriter(stateStore, commitWindowMs, metricRegistry);
+        }
     }
 
     public void addNodes(Collection<NodeTask> nodes) {
@@ -57,190 +95,288 @@ public class SchedulerState {
             LOGGER.info("No nodes to add");
             return;
         }
+        Map<Protos.TaskID, NodeTask> nodesById = new LinkedHashMap<>();
         for (NodeTask node : nodes) {
-            Protos.TaskID taskId = Protos.TaskID.newBuilder().setValue(String.format("nm.%s.%s", node.getProfile().getName(), UUID.randomUUID()))
-                    .build();
-            addTask(taskId, node);
-            LOGGER.info("Marked taskId {} pending, size of pending queue {}", taskId.getValue(), this.pendingTasks.size());
-            makeTaskPending(taskId);
+            nodesById.put(newTaskId(node.getProfile()), node);
         }
+        addNodes(nodesById);
+    }
 
+    /**
+     * Adds pending nodes under the given task ids, see {@link #newTaskId(NMProfile)}.
+     */
+    public void addNodes(Map<Protos.TaskID, NodeTask> nodes) {
+        // Flex up all the nodes at once, so that the snapshot is published and stored only once.
+        synchronized (this) {
+            for (Map.Entry<Protos.TaskID, NodeTask> entry : nodes.entrySet()) {
+                Protos.TaskID taskId = entry.getKey();
+                putTask(taskId, entry.getValue());
+                pendTask(taskId);
+                LOGGER.info("Marked taskId {} pending, size of pending queue {}", taskId.getValue(), pendingTasks.size());
+            }
+            publishSnapshot();
+        }
+    }
+
+    public static Protos.TaskID newTaskId(NMProfile profile) {
+        return Protos.TaskID.newBuilder().setValue(String.format("nm.%s.%s", profile.getName(), UUID.randomUUID()))
+                .build();
     }
 
-    // TODO (sdaingade) Clone NodeTask
-    public synchronized void addTask(Protos.TaskID taskId, NodeTask node) {
-        this.tasks.put(taskId, node);
-        updateStateStore();
+    /**
+     * Adds or replaces a task with a copy of the given {@link NodeTask}.
+     */
+    public void addTask(Protos.TaskID taskId, NodeTask node) {
+        synchronized (this) {
+            putTask(taskId, node);
+            publishSnapshot();
+        }
     }
 
-    public synchronized void updateTask(Protos.TaskStatus taskStatus) {
+    public void updateTask(Protos.TaskStatus taskStatus) {
         Objects.requireNonNull(taskStatus, "TaskStatus object shouldn't be null");
         Protos.TaskID taskId = taskStatus.getTaskId();
-        if (this.tasks.containsKey(taskId)) {
-            this.tasks.get(taskId).setTaskStatus(taskStatus);
+        synchronized (this) {
+            // an update for an unknown task changes nothing, so there is nothing to publish
+            if (this.tasks.containsKey(taskId)) {
+                NodeTask nodeTask = new NodeTask(this.tasks.get(taskId));
+                nodeTask.setTaskStatus(taskStatus);
+                replaceTask(taskId, nodeTask);
+                recordTransition(StateTransition.putTask(taskId, nodeTask));
+                publishSnapshot();
+            }
         }
-        updateStateStore();
     }
 
-    public synchronized void makeTaskPending(Protos.TaskID taskId) {
+    /**
+     * Records the attributes of the slave a task runs on, as last offered. Attributes are
+     * not stored, and the snapshot is only published if they changed.
+     */
+    public void updateSlaveAttributes(SlaveID slaveId, List<Protos.Attribute> slaveAttributes) {
+        synchronized (this) {
+            Iterator<Protos.TaskID> taskIds = tasksBySlaveId.get(slaveId).iterator();
+            if (!taskIds.hasNext()) {
+                return;
+            }
+            Protos.TaskID taskId = taskIds.next();
+            NodeTask nodeTask = tasks.get(taskId);
+            if (slaveAttributes.equals(nodeTask.getSlaveAttributes())) {
+                return;
+            }
+            nodeTask = new NodeTask(nodeTask);
+            nodeTask.setSlaveAttributes(slaveAttributes);
+            replaceTask(taskId, nodeTask);
+            publishSnapshot();
+        }
+    }
+
+    public void makeTaskPending(Protos.TaskID taskId) {
         Objects.requireNonNull(taskId,
                 "taskId cannot be empty or null");
-        pendingTasks.add(taskId);
-        stagingTasks.remove(taskId);
-        activeTasks.remove(taskId);
-        lostTasks.remove(taskId);
-        killableTasks.remove(taskId);
-        updateStateStore();
+        synchronized (this) {
+            pendTask(taskId);
+            publishSnapshot();
+        }
     }
 
-    public synchronized void makeTaskStaging(Protos.TaskID taskId) {
+    public void makeTaskStaging(Protos.TaskID taskId) {
         Objects.requireNonNull(taskId,
                 "taskId cannot be empty or null");
-
-        pendingTasks.remove(taskId);
-        stagingTasks.add(taskId);
-        activeTasks.remove(taskId);
-        lostTasks.remove(taskId);
-        killableTasks.remove(taskId);
-        updateStateStore();
+        synchronized (this) {
+            stageTask(taskId);
+            publishSnapshot();
+        }
     }
 
-    public synchronized void makeTaskActive(Protos.TaskID taskId) {
+    /**
+     * Replaces a pending task with a copy of the given {@link NodeTask} and makes it staging.
+     * Does nothing if the task is no longer pending, e.g. because it was flexed down since
+     * the caller read it from a snapshot.
+     *
+     * @return true if the task was made staging
+     */
+    public boolean makeTaskStaging(Protos.TaskID taskId, NodeTask node) {
         Objects.requireNonNull(taskId,
                 "taskId cannot be empty or null");
-
-        pendingTasks.remove(taskId);
-        stagingTasks.remove(taskId);
-        activeTasks.add(taskId);
-        lostTasks.remove(taskId);
-        killableTasks.remove(taskId);
-        updateStateStore();
+        synchronized (this) {
+            if (!pendingTasks.contains(taskId)) {
+                return false;
+            }
+            putTask(taskId, node);
+            stageTask(taskId);
+            publishSnapshot();
+            return true;
+        }
     }
 
-    public synchronized void makeTaskLost(Protos.TaskID taskId) {
+    public void makeTaskActive(Protos.TaskID taskId) {
         Objects.requireNonNull(taskId,
                 "taskId cannot be empty or null");
+        synchronized (this) {
+            pendingTasks.remove(taskId);
+            stagingTasks.remove(taskId);
+            activeTasks.add(taskId);
+            lostTasks.remove(taskId);
+            killableTasks.remove(taskId);
+            indexTaskState(taskId, activeTasksByProfile);
+            recordTransition(StateTransition.makeTask(StateTransition.Type.MAKE_ACTIVE, taskId));
+            publishSnapshot();
+        }
+    }
 
-        pendingTasks.remove(taskId);
-        stagingTasks.remove(taskId);
-        activeTasks.remove(taskId);
-        lostTasks.add(taskId);
-        killableTasks.remove(taskId);
-        updateStateStore();
+    public void makeTaskLost(Protos.TaskID taskId) {
+        Objects.requireNonNull(taskId,
+                "taskId cannot be empty or null");
+        synchronized (this) {
+            pendingTasks.remove(taskId);
+            stagingTasks.remove(taskId);
+            activeTasks.remove(taskId);
+            lostTasks.add(taskId);
+            killableTasks.remove(taskId);
+            indexTaskState(taskId, null);
+            recordTransition(StateTransition.makeTask(StateTransition.Type.MAKE_LOST, taskId));
+            publishSnapshot();
+        }
     }
 
-    public synchronized void makeTaskKillable(Protos.TaskID taskId) {
+    public void makeTaskKillable(Protos.TaskID taskId) {
         Objects.requireNonNull(taskId,
                 "taskId cannot be empty or null");
+        synchronized (this) {
+            pendingTasks.remove(taskId);
+            stagingTasks.remove(taskId);
+            activeTasks.remove(taskId);
+            lostTasks.remove(taskId);
+            killableTasks.add(taskId);
+            indexTaskState(taskId, null);
+            recordTransition(StateTransition.makeTask(StateTransition.Type.MAKE_KILLABLE, taskId));
+            publishSnapshot();
+        }
+    }
 
-        pendingTasks.remove(taskId);
-        stagingTasks.remove(taskId);
-        activeTasks.remove(taskId);
-        lostTasks.remove(taskId);
-        killableTasks.add(taskId);
-        updateStateStore();
+    public void removeTask(Protos.TaskID taskId) {
+        synchronized (this) {
+            this.pendingTasks.remove(taskId);
+            this.stagingTasks.remove(taskId);
+            this.activeTasks.remove(taskId);
+            this.lostTasks.remove(taskId);
+            this.killableTasks.remove(taskId);
+            this.tasks = this.tasks.minus(taskId);
+            indexTaskState(taskId, null);
+            this.tasksByHostname.remove(taskId);
+            this.tasksBySlaveId.remove(taskId);
+            recordTransition(StateTransition.removeTask(taskId));
+            publishSnapshot();
+        }
     }
 
-    public synchronized Set<Protos.TaskID> getKillableTasks() {
-        return Collections.unmodifiableSet(this.killableTasks);
+    /**
+     * Returns a future that completes once every mutation made before this call has been
+     * written to the state store. Completes right away if HA is disabled.
+     */
+    public ListenableFuture<Void> commit() {
+        if (this.stateStoreWriter == null) {
+            return Futures.immediateFuture(null);
+        }
+        return stateStoreWriter.commit();
     }
 
-    // TODO (sdaingade) Clone NodeTask
-    public synchronized NodeTask getTask(Protos.TaskID taskId) {
-        return this.tasks.get(taskId);
+    /**
+     * Returns the latest published view of the scheduler state. Callers that need to
+     * read several pieces of state consistently should read them from a single snapshot.
+     *
+     * @return the current snapshot, never null.
+     */
+    public SchedulerStateSnapshot getSnapshot() {
+        return snapshot;
     }
 
-    public synchronized void removeTask(Protos.TaskID taskId) {
-        this.pendingTasks.remove(taskId);
-        this.stagingTasks.remove(taskId);
-        this.activeTasks.remove(taskId);
-        this.lostTasks.remove(taskId);
-        this.killableTasks.remove(taskId);
-        this.tasks.remove(taskId);
-        updateStateStore();
+    public Set<Protos.TaskID> getKillableTasks() {
+        return snapshot.getKillableTasks();
     }
 
-    public synchronized Set<Protos.TaskID> getPendingTaskIds() {
-        return Collections.unmodifiableSet(this.pendingTasks);
+    /**
+     * @return the task, which must not be changed in place, see {@link NodeTask}
+     */
+    public NodeTask getTask(Protos.TaskID taskId) {
+        return snapshot.getTasks().get(taskId);
     }
 
-    public synchronized Collection<Protos.TaskID> getPendingTaskIDsForProfile(NMProfile profile) {
-      List<Protos.TaskID> pendingTaskIds = new ArrayList<>();
-      for (Map.Entry<Protos.TaskID, NodeTask> entry : tasks.entrySet()) {
-        NodeTask nodeTask = entry.getValue();
-        if (pendingTasks.contains(entry.getKey()) && nodeTask.getProfile().getName().equals(profile.getName())) {
-          pendingTaskIds.add(entry.getKey());
-        }
-      }
-      return Collections.unmodifiableCollection(pendingTaskIds);
+    public Set<Protos.TaskID> getPendingTaskIds() {
+        return snapshot.getPendingTasks();
+    }
+
+    public Collection<Protos.TaskID> getPendingTaskIDsForProfile(NMProfile profile) {
+        return snapshot.getPendingTasksForProfile(profile.getName());
     }
 
-    public synchronized Set<Protos.TaskID> getActiveTaskIds() {
-        return Collections.unmodifiableSet(this.activeTasks);
+    public Set<Protos.TaskID> getActiveTaskIds() {
+        return snapshot.getActiveTasks();
     }
 
-    public synchronized Collection<NodeTask> getActiveTasks() {
+    public Collection<NodeTask> getActiveTasks() {
+        SchedulerStateSnapshot current = snapshot;
+        return Collections.unmodifiableCollection(getTasks(current, current.getActiveTasks()));
+    }
+
+    /**
+     * Returns the active tasks running on the given host.
+     *
+     * @param hostname
+     * @return active tasks on the host, or an empty collection if there are none.
+     */
+    public Collection<NodeTask> getActiveTasksForHostname(String hostname) {
+        SchedulerStateSnapshot current = snapshot;
         List<NodeTask> activeNodeTasks = new ArrayList<>();
-        if (CollectionUtils.isNotEmpty(activeTasks)
-                && CollectionUtils.isNotEmpty(tasks.values())) {
-            for (Map.Entry<Protos.TaskID, NodeTask> entry : tasks.entrySet()) {
-                if (activeTasks.contains(entry.getKey())) {
-                    activeNodeTasks.add(entry.getValue());
-                }
+        for (Protos.TaskID taskId : current.getTasksForHostname(hostname)) {
+            if (current.getActiveTasks().contains(taskId)) {
+                activeNodeTasks.add(current.getTasks().get(taskId));
             }
         }
         return Collections.unmodifiableCollection(activeNodeTasks);
     }
 
-    public synchronized Collection<Protos.TaskID> getActiveTaskIDsForProfile(NMProfile profile) {
-      List<Protos.TaskID> activeTaskIDs = new ArrayList<>();
-      if (CollectionUtils.isNotEmpty(activeTasks)
-          && CollectionUtils.isNotEmpty(tasks.values())) {
-        for (Map.Entry<Protos.TaskID, NodeTask> entry : tasks.entrySet()) {
-          NodeTask nodeTask = entry.getValue();
-          if (activeTasks.contains(entry.getKey()) && nodeTask.getProfile().getName().equals(profile.getName())) {
-            activeTaskIDs.add(entry.getKey());
-          }
+    /**
+     * @return true if an active task runs on the given host. Unlike
+     * {@link #getActiveTasksForHostname(String)}, this does not copy any tasks.
+     */
+    public boolean hasActiveTaskOnHostname(String hostname) {
+        SchedulerStateSnapshot current = snapshot;
+        for (Protos.TaskID taskId : current.getTasksForHostname(hostname)) {
+            if (current.getActiveTasks().contains(taskId)) {
+                return true;
+            }
         }
-      }
-      return Collections.unmodifiableCollection(activeTaskIDs);
+        return false;
     }
 
-  // TODO (sdaingade) Clone NodeTask
-    public synchronized NodeTask getNodeTask(SlaveID slaveId) {
-        for (Map.Entry<Protos.TaskID, NodeTask> entry : tasks.entrySet()) {
-            if (entry.getValue().getSlaveId() != null &&
-                entry.getValue().getSlaveId().equals(slaveId)) {
-                return entry.getValue(); 
-            }
-        }
-        return null;
+    public Collection<Protos.TaskID> getActiveTaskIDsForProfile(NMProfile profile) {
+        return snapshot.getActiveTasksForProfile(profile.getName());
     }
 
-    public synchronized Set<Protos.TaskID> getStagingTaskIds() {
-        return Collections.unmodifiableSet(this.stagingTasks);
+    public NodeTask getNodeTask(SlaveID slaveId) {
+        SchedulerStateSnapshot current = snapshot;
+        Iterator<Protos.TaskID> taskIds = current.getTasksForSlaveId(slaveId).iterator();
+        return taskIds.hasNext() ? current.getTasks().get(taskIds.next()) : null;
     }
 
-    public synchronized Collection<Protos.TaskID> getStagingTaskIDsForProfile(NMProfile profile) {
-      List<Protos.TaskID> stagingTaskIDs = new ArrayList<>();
-      for (Map.Entry<Protos.TaskID, NodeTask> entry : tasks.entrySet()) {
-        NodeTask nodeTask = entry.getValue();
-        if (stagingTasks.contains(entry.getKey()) && nodeTask.getProfile().getName().equals(profile.getName())) {
-          stagingTaskIDs.add(entry.getKey());
-        }
-      }
-      return Collections.unmodifiableCollection(stagingTaskIDs);
+    public Set<Protos.TaskID> getStagingTaskIds() {
+        return snapshot.getStagingTasks();
+    }
+
+    public Collection<Protos.TaskID> getStagingTaskIDsForProfile(NMProfile profile) {
+        return snapshot.getStagingTasksForProfile(profile.getName());
     }
 
-  public synchronized Set<Protos.TaskID> getLostTaskIds() {
-        return Collections.unmodifiableSet(this.lostTasks);
+    public Set<Protos.TaskID> getLostTaskIds() {
+        return snapshot.getLostTasks();
     }
 
     // TODO (sdaingade) Currently cannot return unmodifiableCollection
     // as this will break ReconcileService code
-    public synchronized Collection<Protos.TaskStatus> getTaskStatuses() {
-        Collection<Protos.TaskStatus> taskStatuses = new ArrayList<>(this.tasks.size());
-        Collection<NodeTask> tasks = this.tasks.values();
+    public Collection<Protos.TaskStatus> getTaskStatuses() {
+        Collection<NodeTask> tasks = snapshot.getTasks().values();
+        Collection<Protos.TaskStatus> taskStatuses = new ArrayList<>(tasks.size());
         for (NodeTask task : tasks) {
             Protos.TaskStatus taskStatus = task.getTaskStatus();
             if (taskStatus != null) {
@@ -251,37 +387,131 @@ public class SchedulerState {
         return taskStatuses;
     }
 
-    public synchronized boolean hasTask(Protos.TaskID taskID) {
-        return this.tasks.containsKey(taskID);
+    public boolean hasTask(Protos.TaskID taskID) {
+        return snapshot.getTasks().containsKey(taskID);
     }
 
-    public synchronized Protos.FrameworkID getFrameworkID() {
-         return this.frameworkId;
+    public Protos.FrameworkID getFrameworkID() {
+        return snapshot.getFrameworkId();
     }
 
-    public synchronized void setFrameworkId(Protos.FrameworkID newFrameworkId) {
-        this.frameworkId = newFrameworkId;
-        updateStateStore();
+    public void setFrameworkId(Protos.FrameworkID newFrameworkId) {
+        synchronized (this) {
+            this.frameworkId = newFrameworkId;
+            recordTransition(StateTransition.setFrameworkId(newFrameworkId));
+            publishSnapshot();
+        }
     }
 
-    private synchronized void updateStateStore() {
-        if (this.stateStore == null) {
-            LOGGER.debug("Could not update state to state store as HA is disabled");
-            return;
+    private void putTask(Protos.TaskID taskId, NodeTask node) {
+        NodeTask copy = new NodeTask(node);
+        replaceTask(taskId, copy);
+        reindexTask(taskId);
+        recordTransition(StateTransition.putTask(taskId, copy));
+    }
+
+    private void replaceTask(Protos.TaskID taskId, NodeTask node) {
+        this.tasks = this.tasks.plus(taskId, node);
+    }
+
+    private void stageTask(Protos.TaskID taskId) {
+        pendingTasks.remove(taskId);
+        stagingTasks.add(taskId);
+        activeTasks.remove(taskId);
+        lostTasks.remove(taskId);
+        killableTasks.remove(taskId);
+        indexTaskState(taskId, stagingTasksByProfile);
+        recordTransition(StateTransition.makeTask(StateTransition.Type.MAKE_STAGING, taskId));
+    }
+
+    private void pendTask(Protos.TaskID taskId) {
+        pendingTasks.add(taskId);
+        stagingTasks.remove(taskId);
+        activeTasks.remove(taskId);
+        lostTasks.remove(taskId);
+        killableTasks.remove(taskId);
+        indexTaskState(taskId, pendingTasksByProfile);
+        recordTransition(StateTransition.makeTask(StateTransition.Type.MAKE_PENDING, taskId));
+    }
+
+    private static List<NodeTask> getTasks(SchedulerStateSnapshot snapshot, Set<Protos.TaskID> taskIds) {
+        List<NodeTask> nodeTasks = new ArrayList<>(taskIds.size());
+        for (Protos.TaskID taskId : taskIds) {
+            NodeTask nodeTask = snapshot.getTasks().get(taskId);
+            if (nodeTask != null) {
+                nodeTasks.add(nodeTask);
+            }
         }
+        return nodeTasks;
+    }
 
-        try {
-            StoreContext sc = new StoreContext(frameworkId, tasks, pendingTasks,
-                stagingTasks, activeTasks, lostTasks, killableTasks);
-            stateStore.storeMyriadState(sc);
-        } catch (Exception e) {
-            LOGGER.error("Failed to update scheduler state to state store", e);
+    /**
+     * Moves the task into the given per profile state index, removing it from the others.
+     * A null index removes the task from all the per profile state indexes.
+     */
+    private void indexTaskState(Protos.TaskID taskId, TaskIndex<String> stateIndex) {
+        pendingTasksByProfile.remove(taskId);
+        stagingTasksByProfile.remove(taskId);
+        activeTasksByProfile.remove(taskId);
+        NodeTask nodeTask = tasks.get(taskId);
+        if (stateIndex != null && nodeTask != null && nodeTask.getProfile() != null) {
+            stateIndex.put(taskId, nodeTask.getProfile().getName());
+        }
+    }
+
+    /**
+     * Re-indexes a task after it has been (re)added, since the profile, hostname and
+     * slave id of the {@link NodeTask} may have changed in place.
+     */
+    private void reindexTask(Protos.TaskID taskId) {
+        NodeTask nodeTask = tasks.get(taskId);
+        String hostname = nodeTask.getHostname();
+        tasksByHostname.put(taskId, StringUtils.isEmpty(hostname) ? null : hostname);
+        tasksBySlaveId.put(taskId, nodeTask.getSlaveId());
+
+        if (pendingTasks.contains(taskId)) {
+            indexTaskState(taskId, pendingTasksByProfile);
+        } else if (stagingTasks.contains(taskId)) {
+            indexTaskState(taskId, stagingTasksByProfile);
+        } else if (activeTasks.contains(taskId)) {
+            indexTaskState(taskId, activeTasksByProfile);
+        } else {
+            indexTaskState(taskId, null);
+        }
+    }
+
+    /**
+     * Publishes an immutable copy of the current state, copying only the structures changed
+     * since the last snapshot. Must be called with the monitor held.
+     */
+    private void publishSnapshot() {
+        this.snapshot = new SchedulerStateSnapshot(++version, frameworkId,
+            tasks,
+            pendingTasks.toImmutableSet(),
+            stagingTasks.toImmutableSet(),
+            activeTasks.toImmutableSet(),
+            lostTasks.toImmutableSet(),
+            killableTasks.toImmutableSet(),
+            pendingTasksByProfile.toImmutableMultimap(),
+            stagingTasksByProfile.toImmutableMultimap(),
+            activeTasksByProfile.toImmutableMultimap(),
+            tasksByHostname.toImmutableMultimap(),
+            tasksBySlaveId.toImmutableMultimap());
+    }
+
+    /**
+     * Records a transition to be written to the state store. Must be called with the monitor held.
+     */
+    private void recordTransition(StateTransition transition) {
+        if (this.stateStoreWriter != null) {
+            stateStoreWriter.record(transition);
         }
     }
 
     private synchronized void loadStateStore() {
         if (this.stateStore == null) {
             LOGGER.debug("Could not load state from state store as HA is disabled");
+            publishSnapshot();
             return;
         }
 
@@ -289,18 +519,25 @@ public class SchedulerState {
             StoreContext sc = stateStore.loadMyriadState();
             if (sc != null) {
                 this.frameworkId = sc.getFrameworkId();
-                this.tasks.putAll(sc.getTasks());
+                // The indexes need every NodeTask, decode them all at once rather than one by one.
+                sc.decodeTasks();
+                for (Map.Entry<Protos.TaskID, NodeTask> entry : sc.getTasks().entrySet()) {
+                    this.tasks = this.tasks.plus(entry.getKey(), entry.getValue());
+                }
                 this.pendingTasks.addAll(sc.getPendingTasks());
                 this.stagingTasks.addAll(sc.getStagingTasks());
                 this.activeTasks.addAll(sc.getActiveTasks());
                 this.lostTasks.addAll(sc.getLostTasks());
                 this.killableTasks.addAll(sc.getKillableTasks());
+                for (Protos.TaskID taskId : this.tasks.keySet()) {
+                    reindexTask(taskId);
+                }
 
                 LOGGER.info("Loaded Myriad state from state store successfully.");
                 LOGGER.debug("State Store state includes " +
                   "frameworkId: {}, pending tasks count: {}, staging tasks count: {} " +
                   "active tasks count: {}, lost tasks count: {}, " +
-                  "and killable tasks count: {}", frameworkId.getValue(),
+                  "and killable tasks count: {}", frameworkId == null ? null : frameworkId.getValue(),
                   this.pendingTasks.size(), this.stagingTasks.size(),
                   this.activeTasks.size(), this.lostTasks.size(),
                   this.killableTasks.size());
@@ -308,5 +545,6 @@ public class SchedulerState {
         }  catch (Exception e) {
             LOGGER.error("Failed to read scheduler state from state store", e);
         }
+        publishSnapshot();
    }
 }
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.state;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import org.apache.mesos.Protos;
+
+import java.util.Map;
+
+/**
+ * Immutable, versioned view of the {@link SchedulerState}. A new snapshot is published
+ * by every mutation of the scheduler state, so readers can work off a consistent
+ * view without contending with writers.
+ *
+ * The {@link NodeTask} instances are shared with the scheduler state and with other
+ * snapshots, which is safe since the scheduler state replaces tasks rather than changing them.
+ */
+public final class SchedulerStateSnapshot {
+    private final long version;
+    private final Protos.FrameworkID frameworkId;
+    private final Map<Protos.TaskID, NodeTask> tasks;
+    private final ImmutableSet<Protos.TaskID> pendingTasks;
+    private final ImmutableSet<Protos.TaskID> stagingTasks;
+    private final ImmutableSet<Protos.TaskID> activeTasks;
+    private final ImmutableSet<Protos.TaskID> lostTasks;
+    private final ImmutableSet<Protos.TaskID> killableTasks;
+    private final ImmutableSetMultimap<String, Protos.TaskID> pendingTasksByProfile;
+    private final ImmutableSetMultimap<String, Protos.TaskID> stagingTasksByProfile;
+    private final ImmutableSetMultimap<String, Protos.TaskID> activeTasksByProfile;
+    private final ImmutableSetMultimap<String, Protos.TaskID> tasksByHostname;
+    private final ImmutableSetMultimap<Protos.SlaveID, Protos.TaskID> tasksBySlaveId;
+
+    SchedulerStateSnapshot(long version, Protos.FrameworkID frameworkId,
+                           Map<Protos.TaskID, NodeTask> tasks,
+                           ImmutableSet<Protos.TaskID> pendingTasks,
+                           ImmutableSet<Protos.TaskID> stagingTasks,
+                           ImmutableSet<Protos.TaskID> activeTasks,
+                           ImmutableSet<Protos.TaskID> lostTasks,
+                           ImmutableSet<Protos.TaskID> killableTasks,
+                           ImmutableSetMultimap<String, Protos.TaskID> pendingTasksByProfile,
+                           ImmutableSetMultimap<String, Protos.TaskID> stagingTasksByProfile,
+                           ImmutableSetMultimap<String, Protos.TaskID> activeTasksByProfile,
+                           ImmutableSetMultimap<String, Protos.TaskID> tasksByHostname,
+                           ImmutableSetMultimap<Protos.SlaveID, Protos.TaskID> tasksBySlaveId) {
+        this.version = version;
+        this.frameworkId = frameworkId;
+        this.tasks = tasks;
+        this.pendingTasks = pendingTasks;
+        this.stagingTasks = stagingTasks;
+        this.activeTasks = activeTasks;
+        this.lostTasks = lostTasks;
+        this.killableTasks = killableTasks;
+        this.pendingTasksByProfile = pendingTasksByProfile;
+        this.stagingTasksByProfile = stagingTasksByProfile;
+        this.activeTasksByProfile = activeTasksByProfile;
+        this.tasksByHostname = tasksByHostname;
+        this.tasksBySlaveId = tasksBySlaveId;
+    }
+
+    /**
+     * @return monotonically increasing version, bumped on every mutation of the scheduler state.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Protos.FrameworkID getFrameworkId() {
+        return frameworkId;
+    }
+
+    /**
+     * @return the tasks by id, a map that can not be changed
+     */
+    public Map<Protos.TaskID, NodeTask> getTasks() {
+        return tasks;
+    }
+
+    public ImmutableSet<Protos.TaskID> getPendingTasks() {
+        return pendingTasks;
+    }
+
+    public ImmutableSet<Protos.TaskID> getStagingTasks() {
+        return stagingTasks;
+    }
+
+    public ImmutableSet<Protos.TaskID> getActiveTasks() {
+        return activeTasks;
+    }
+
+    public ImmutableSet<Protos.TaskID> getLostTasks() {
+        return lostTasks;
+    }
+
+    public ImmutableSet<Protos.TaskID> getKillableTasks() {
+        return killableTasks;
+    }
+
+    public ImmutableSet<Protos.TaskID> getPendingTasksForProfile(String profileName) {
+        return pendingTasksByProfile.get(profileName);
+    }
+
+    public ImmutableSet<Protos.TaskID> getStagingTasksForProfile(String profileName) {
+        return stagingTasksByProfile.get(profileName);
+    }
+
+    public ImmutableSet<Protos.TaskID> getActiveTasksForProfile(String profileName) {
+        return activeTasksByProfile.get(profileName);
+    }
+
+    public ImmutableSet<Protos.TaskID> getTasksForHostname(String hostname) {
+        return tasksByHostname.get(hostname);
+    }
+
+    public ImmutableSet<Protos.TaskID> getTasksForSlaveId(Protos.SlaveID slaveId) {
+        return tasksBySlaveId.get(slaveId);
+    }
+}
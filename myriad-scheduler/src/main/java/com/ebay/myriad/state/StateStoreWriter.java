@@ -0,0 +1,173 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.state;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single writer thread that stores the {@link StateTransition}s recorded by the
+ * {@link SchedulerState}. Transitions recorded within a commit window are written to the
+ * state store together, in the order they were recorded. A commit request ends the
+ * current window right away. The writer runs on a daemon thread for as long as the RM
+ * does, like the {@link SchedulerState} it belongs to.
+ */
+class StateStoreWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StateStoreWriter.class);
+
+    private static final long RETRY_INTERVAL_MS = 1000;
+
+    private final MyriadStateStore stateStore;
+    private final long commitWindowNanos;
+    private final Meter commits;
+    private final Histogram batchSize;
+    private final Timer commitLag;
+
+    private final Object lock = new Object();
+    private List<StateTransition> pendingTransitions = new ArrayList<>();
+    private long pendingSinceNanos;
+    private long recordedCount;
+    private long storedCount;
+    private final LinkedList<CommitRequest> commitRequests = new LinkedList<>();
+
+    StateStoreWriter(MyriadStateStore stateStore, long commitWindowMs, MetricRegistry metricRegistry) {
+        this.stateStore = stateStore;
+        this.commitWindowNanos = TimeUnit.MILLISECONDS.toNanos(commitWindowMs);
+        this.commits = metricRegistry.meter(MetricRegistry.name(StateStoreWriter.class, "commits"));
+        this.batchSize = metricRegistry.histogram(MetricRegistry.name(StateStoreWriter.class, "batch-size"));
+        this.commitLag = metricRegistry.timer(MetricRegistry.name(StateStoreWriter.class, "commit-lag"));
+        Thread writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "MyriadStateStoreWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    void record(StateTransition transition) {
+        synchronized (lock) {
+            if (pendingTransitions.isEmpty()) {
+                pendingSinceNanos = System.nanoTime();
+            }
+            pendingTransitions.add(transition);
+            recordedCount++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return a future completed once every transition recorded so far has been stored,
+     * or failed if storing them failed.
+     */
+    ListenableFuture<Void> commit() {
+        synchronized (lock) {
+            if (storedCount == recordedCount) {
+                return Futures.immediateFuture(null);
+            }
+            CommitRequest request = new CommitRequest(recordedCount);
+            commitRequests.add(request);
+            lock.notifyAll();
+            return request.future;
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<StateTransition> batch;
+                long batchSinceNanos;
+                synchronized (lock) {
+                    while (pendingTransitions.isEmpty()) {
+                        lock.wait();
+                    }
+                    long remainingNanos = pendingSinceNanos + commitWindowNanos - System.nanoTime();
+                    while (commitRequests.isEmpty() && remainingNanos > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(lock, remainingNanos);
+                        remainingNanos = pendingSinceNanos + commitWindowNanos - System.nanoTime();
+                    }
+                    batch = pendingTransitions;
+                    batchSinceNanos = pendingSinceNanos;
+                    pendingTransitions = new ArrayList<>();
+                }
+
+                if (!write(batch, batchSinceNanos)) {
+                    Thread.sleep(RETRY_INTERVAL_MS);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.info("Myriad state store writer stopped");
+        }
+    }
+
+    private boolean write(List<StateTransition> batch, long batchSinceNanos) {
+        try {
+            stateStore.storeMyriadStateTransitions(batch);
+        } catch (Exception e) {
+            LOGGER.error("Failed to update scheduler state to state store", e);
+            synchronized (lock) {
+                // Keep the transitions for the next write, replaying them is harmless.
+                batch.addAll(pendingTransitions);
+                pendingTransitions = batch;
+                pendingSinceNanos = batchSinceNanos;
+                for (CommitRequest request : commitRequests) {
+                    request.future.setException(e);
+                }
+                commitRequests.clear();
+            }
+            return false;
+        }
+
+        commits.mark();
+        batchSize.update(batch.size());
+        commitLag.update(System.nanoTime() - batchSinceNanos, TimeUnit.NANOSECONDS);
+        synchronized (lock) {
+            storedCount += batch.size();
+            for (Iterator<CommitRequest> iterator = commitRequests.iterator(); iterator.hasNext();) {
+                CommitRequest request = iterator.next();
+                if (request.recordedCount > storedCount) {
+                    break;
+                }
+                request.future.set(null);
+                iterator.remove();
+            }
+        }
+        return true;
+    }
+
+    private static class CommitRequest {
+        private final long recordedCount;
+        private final SettableFuture<Void> future = SettableFuture.create();
+
+        CommitRequest(long recordedCount) {
+            this.recordedCount = recordedCount;
+        }
+    }
+}
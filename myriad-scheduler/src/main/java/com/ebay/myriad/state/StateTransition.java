@@ -0,0 +1,130 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.state;
+
+import com.ebay.myriad.state.utils.StateDecoder;
+import com.ebay.myriad.state.utils.StateEncoder;
+import org.apache.mesos.Protos;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single change to the {@link SchedulerState}, as recorded in a state store journal.
+ * Transitions carry the resulting value rather than a delta, so replaying a transition
+ * that has already been applied is harmless.
+ */
+public final class StateTransition {
+    /**
+     * Type of the transition.
+     */
+    public enum Type {
+        PUT_TASK,
+        MAKE_PENDING,
+        MAKE_STAGING,
+        MAKE_ACTIVE,
+        MAKE_LOST,
+        MAKE_KILLABLE,
+        REMOVE_TASK,
+        SET_FRAMEWORK_ID
+    }
+
+    private final Type type;
+    private final Protos.TaskID taskId;
+    private final ByteBuffer payload;
+
+    private StateTransition(Type type, Protos.TaskID taskId, ByteBuffer payload) {
+        this.type = type;
+        this.taskId = taskId;
+        this.payload = payload;
+    }
+
+    /**
+     * Adds or replaces a task. The {@link NodeTask} is serialized right away, since it
+     * may be mutated after the transition has been recorded.
+     */
+    public static StateTransition putTask(Protos.TaskID taskId, NodeTask nodeTask) {
+        byte[] payload = StateEncoder.acquire().putNodeTask(nodeTask).toByteArray();
+        return new StateTransition(Type.PUT_TASK, taskId, ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * Moves a task to the state given by one of the MAKE_* types.
+     */
+    public static StateTransition makeTask(Type type, Protos.TaskID taskId) {
+        switch (type) {
+            case MAKE_PENDING:
+            case MAKE_STAGING:
+            case MAKE_ACTIVE:
+            case MAKE_LOST:
+            case MAKE_KILLABLE:
+                return new StateTransition(type, taskId, null);
+            default:
+                throw new IllegalArgumentException("Not a task state transition: " + type);
+        }
+    }
+
+    public static StateTransition removeTask(Protos.TaskID taskId) {
+        return new StateTransition(Type.REMOVE_TASK, taskId, null);
+    }
+
+    public static StateTransition setFrameworkId(Protos.FrameworkID frameworkId) {
+        return new StateTransition(Type.SET_FRAMEWORK_ID, null,
+                frameworkId == null ? null : ByteBuffer.wrap(frameworkId.toByteArray()));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the task id, or null for SET_FRAMEWORK_ID.
+     */
+    public Protos.TaskID getTaskId() {
+        return taskId;
+    }
+
+    /**
+     * @return the NodeTask encoded by {@link StateEncoder#putNodeTask} for PUT_TASK, the serialized
+     * FrameworkID for SET_FRAMEWORK_ID and null otherwise.
+     */
+    public ByteBuffer getPayload() {
+        return payload == null ? null : payload.duplicate();
+    }
+
+    /**
+     * Writes the type, the task id and the payload.
+     */
+    public void writeTo(StateEncoder encoder) {
+        encoder.putByte(type.ordinal());
+        encoder.putMessage(taskId);
+        encoder.putBytes(payload);
+    }
+
+    /**
+     * Reads a transition written by {@link #writeTo(StateEncoder)}. The payload shares the
+     * decoder's buffer.
+     */
+    public static StateTransition readFrom(StateDecoder decoder) {
+        Type type = Type.values()[decoder.getByte()];
+        Protos.TaskID taskId = decoder.getMessage(Protos.TaskID.newBuilder());
+        return new StateTransition(type, taskId, decoder.getBytes());
+    }
+
+    @Override
+    public String toString() {
+        return type + (taskId == null ? "" : " " + taskId.getValue());
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.state;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import org.apache.mesos.Protos;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Secondary index of task ids by an attribute of the task (profile name, hostname, slave id etc).
+ * The key a task was indexed under is remembered, so that a task can be re-indexed even after
+ * the corresponding {@link NodeTask} has been mutated in place.
+ *
+ * Not thread safe. Access is guarded by {@link SchedulerState}.
+ *
+ * @param <K> type of the indexed attribute
+ */
+class TaskIndex<K> {
+    private final SetMultimap<K, Protos.TaskID> taskIdsByKey = HashMultimap.create();
+    private final Map<Protos.TaskID, K> keysByTaskId = new HashMap<>();
+    private ImmutableSetMultimap<K, Protos.TaskID> published = ImmutableSetMultimap.of();
+
+    /**
+     * Indexes the task under the given key, replacing any previous key. A null key
+     * simply removes the task from the index.
+     */
+    public void put(Protos.TaskID taskId, K key) {
+        if (key != null && key.equals(keysByTaskId.get(taskId))) {
+            return;
+        }
+        remove(taskId);
+        if (key != null) {
+            taskIdsByKey.put(key, taskId);
+            keysByTaskId.put(taskId, key);
+            published = null;
+        }
+    }
+
+    public void remove(Protos.TaskID taskId) {
+        K previousKey = keysByTaskId.remove(taskId);
+        if (previousKey != null) {
+            taskIdsByKey.remove(previousKey, taskId);
+            published = null;
+        }
+    }
+
+    /**
+     * @return a read only view of the task ids indexed under the key, never null.
+     */
+    public Set<Protos.TaskID> get(K key) {
+        return Collections.unmodifiableSet(taskIdsByKey.get(key));
+    }
+
+    /**
+     * @return an immutable copy of the index, copied again only if the index changed since
+     * the last call.
+     */
+    public ImmutableSetMultimap<K, Protos.TaskID> toImmutableMultimap() {
+        if (published == null) {
+            published = ImmutableSetMultimap.copyOf(taskIdsByKey);
+        }
+        return published;
+    }
+}
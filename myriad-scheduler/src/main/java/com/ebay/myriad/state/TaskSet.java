@@ -0,0 +1,71 @@
+/**
+ * Copyright 2015 PayPal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ebay.myriad.state;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.mesos.Protos;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Set of task ids in one state, in the order they entered it, so that e.g. pending NMs are
+ * placed in the order they were flexed up. The immutable copy published in snapshots is kept
+ * until the set changes, so a snapshot only copies the sets a mutation touched.
+ *
+ * Not thread safe. Access is guarded by {@link SchedulerState}.
+ */
+class TaskSet {
+    private final Set<Protos.TaskID> taskIds = new LinkedHashSet<>();
+    private ImmutableSet<Protos.TaskID> published = ImmutableSet.of();
+
+    public void add(Protos.TaskID taskId) {
+        if (taskIds.add(taskId)) {
+            published = null;
+        }
+    }
+
+    public void addAll(Collection<Protos.TaskID> ids) {
+        if (taskIds.addAll(ids)) {
+            published = null;
+        }
+    }
+
+    public void remove(Protos.TaskID taskId) {
+        if (taskIds.remove(taskId)) {
+            published = null;
+        }
+    }
+
+    public boolean contains(Protos.TaskID taskId) {
+        return taskIds.contains(taskId);
+    }
+
+    public int size() {
+        return taskIds.size();
+    }
+
+    /**
+     * @return an immutable copy of the set, copied again only if the set changed since the last call.
+     */
+    public ImmutableSet<Protos.TaskID> toImmutableSet() {
+        if (published == null) {
+            published = ImmutableSet.copyOf(taskIds);
+        }
+        return published;
+    }
+}
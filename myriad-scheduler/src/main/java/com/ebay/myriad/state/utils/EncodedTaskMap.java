@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ebay.myriad.state.utils;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.mesos.Protos;
+
+import com.ebay.myriad.state.NodeTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Read only map of NodeTasks in the encoding of {@link StateEncoder#putNodeTask}. The keys are
+ * available right away; each NodeTask is decoded the first time it is read, and the decoded
+ * instance is returned from then on. Decoding is thread safe.
+ */
+class EncodedTaskMap extends AbstractMap<Protos.TaskID, NodeTask> {
+  /**
+   * Below this many tasks, {@link #decodeAll(int)} does not bother with threads.
+   */
+  private static final int MIN_TASKS_PER_THREAD = 1024;
+
+  private final Map<Protos.TaskID, Slot> slots;
+
+  /**
+   * @param encoded the encoded tasks, which are neither copied nor moved
+   */
+  EncodedTaskMap(Map<Protos.TaskID, ByteBuffer> encoded) {
+    slots = new HashMap<Protos.TaskID, Slot>(encoded.size() * 4 / 3 + 1);
+    for (Entry<Protos.TaskID, ByteBuffer> entry : encoded.entrySet()) {
+      slots.put(entry.getKey(), new Slot(entry.getValue()));
+    }
+  }
+
+  /**
+   * Decodes the tasks that have not been read yet, with up to the given number of threads.
+   */
+  void decodeAll(int parallelism) {
+    final List<Slot> pending = new ArrayList<Slot>(slots.size());
+    for (Slot slot : slots.values()) {
+      if (slot.nodeTask == null) {
+        pending.add(slot);
+      }
+    }
+    int threads = Math.min(parallelism, pending.size() / MIN_TASKS_PER_THREAD);
+    if (threads <= 1) {
+      for (Slot slot : pending) {
+        slot.get();
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+      .setNameFormat("MyriadStateDecoder-%d").setDaemon(true).build());
+    try {
+      int chunk = (pending.size() + threads - 1) / threads;
+      List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+      for (int start = 0; start < pending.size(); start += chunk) {
+        final List<Slot> range = pending.subList(start, Math.min(start + chunk, pending.size()));
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            for (Slot slot : range) {
+              slot.get();
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Failed to decode Myriad tasks", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while decoding Myriad tasks", e);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Override
+  public int size() {
+    return slots.size();
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return slots.containsKey(key);
+  }
+
+  @Override
+  public NodeTask get(Object key) {
+    Slot slot = slots.get(key);
+    return slot == null ? null : slot.get();
+  }
+
+  @Override
+  public Set<Protos.TaskID> keySet() {
+    return Collections.unmodifiableSet(slots.keySet());
+  }
+
+  @Override
+  public Set<Entry<Protos.TaskID, NodeTask>> entrySet() {
+    return new AbstractSet<Entry<Protos.TaskID, NodeTask>>() {
+      @Override
+      public Iterator<Entry<Protos.TaskID, NodeTask>> iterator() {
+        final Iterator<Entry<Protos.TaskID, Slot>> iterator = slots.entrySet().iterator();
+        return new Iterator<Entry<Protos.TaskID, NodeTask>>() {
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public Entry<Protos.TaskID, NodeTask> next() {
+            Entry<Protos.TaskID, Slot> entry = iterator.next();
+            return new SimpleImmutableEntry<Protos.TaskID, NodeTask>(entry.getKey(), entry.getValue().get());
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return slots.size();
+      }
+    };
+  }
+
+  private static final class Slot {
+    private final ByteBuffer encoded;
+    private volatile NodeTask nodeTask;
+
+    Slot(ByteBuffer encoded) {
+      this.encoded = encoded;
+    }
+
+    NodeTask get() {
+      NodeTask result = nodeTask;
+      if (result == null) {
+        synchronized (this) {
+          result = nodeTask;
+          if (result == null) {
+            result = new StateDecoder(encoded.duplicate()).getNodeTask();
+            nodeTask = result;
+          }
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ebay.myriad.state.utils;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import org.apache.mesos.Protos;
+
+import com.ebay.myriad.state.NodeTask;
+import com.ebay.myriad.state.StateTransition;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Serialized Myriad state built by folding {@link StateTransition}s, used by journaling
+ * state stores to write checkpoints. Tasks are kept in their encoded form, so applying a
+ * transition, reading a checkpoint and writing one never decode a NodeTask.
+ *
+ * Not thread safe.
+ */
+public class StateCheckpoint {
+  private ByteBuffer frameworkId;
+  private final Map<Protos.TaskID, ByteBuffer> tasks = new HashMap<Protos.TaskID, ByteBuffer>();
+  private final Map<Protos.TaskID, StateTransition.Type> taskStates =
+    new HashMap<Protos.TaskID, StateTransition.Type>();
+
+  public StateCheckpoint() {
+  }
+
+  /**
+   * Creates a checkpoint holding the state of the given context.
+   */
+  public static StateCheckpoint fromStoreContext(StoreContext sc) {
+    StateCheckpoint checkpoint = new StateCheckpoint();
+    if (sc == null) {
+      return checkpoint;
+    }
+    Protos.FrameworkID frameworkId = sc.getFrameworkId();
+    if (frameworkId != null) {
+      checkpoint.frameworkId = ByteBuffer.wrap(frameworkId.toByteArray());
+    }
+    for (Entry<Protos.TaskID, NodeTask> entry : sc.getTasks().entrySet()) {
+      byte[] nodeTask = StateEncoder.acquire().putNodeTask(entry.getValue()).toByteArray();
+      checkpoint.tasks.put(entry.getKey(), ByteBuffer.wrap(nodeTask));
+    }
+    checkpoint.putStates(sc.getPendingTasks(), StateTransition.Type.MAKE_PENDING);
+    checkpoint.putStates(sc.getStagingTasks(), StateTransition.Type.MAKE_STAGING);
+    checkpoint.putStates(sc.getActiveTasks(), StateTransition.Type.MAKE_ACTIVE);
+    checkpoint.putStates(sc.getLostTasks(), StateTransition.Type.MAKE_LOST);
+    checkpoint.putStates(sc.getKillableTasks(), StateTransition.Type.MAKE_KILLABLE);
+    return checkpoint;
+  }
+
+  /**
+   * Reads a checkpoint written by {@link #writeTo(StateEncoder)} or by
+   * {@link StoreContext#writeTo(StateEncoder)}. The encoded tasks share the buffer.
+   * A checkpoint in the legacy layout is decoded and encoded again.
+   */
+  public static StateCheckpoint fromByteBuffer(ByteBuffer bb) {
+    if (!bb.hasRemaining()) {
+      return new StateCheckpoint();
+    }
+    StateDecoder decoder = new StateDecoder(bb);
+    if (!StoreContext.readHeader(decoder)) {
+      return fromStoreContext(StoreContext.fromByteBuffer(decoder.getBuffer()));
+    }
+
+    StateCheckpoint checkpoint = new StateCheckpoint();
+    checkpoint.frameworkId = decoder.getBytes();
+    int taskCount = decoder.getInt();
+    for (int i = 0; i < taskCount; i++) {
+      Protos.TaskID taskId = decoder.getMessage(Protos.TaskID.newBuilder());
+      checkpoint.tasks.put(taskId, decoder.getBytes());
+    }
+    checkpoint.putStates(StoreContext.readTaskIds(decoder), StateTransition.Type.MAKE_PENDING);
+    checkpoint.putStates(StoreContext.readTaskIds(decoder), StateTransition.Type.MAKE_STAGING);
+    checkpoint.putStates(StoreContext.readTaskIds(decoder), StateTransition.Type.MAKE_ACTIVE);
+    checkpoint.putStates(StoreContext.readTaskIds(decoder), StateTransition.Type.MAKE_LOST);
+    checkpoint.putStates(StoreContext.readTaskIds(decoder), StateTransition.Type.MAKE_KILLABLE);
+    return checkpoint;
+  }
+
+  public void apply(StateTransition transition) {
+    switch (transition.getType()) {
+      case PUT_TASK:
+        tasks.put(transition.getTaskId(), transition.getPayload());
+        break;
+
+      case REMOVE_TASK:
+        tasks.remove(transition.getTaskId());
+        taskStates.remove(transition.getTaskId());
+        break;
+
+      case SET_FRAMEWORK_ID:
+        frameworkId = transition.getPayload();
+        break;
+
+      default:
+        taskStates.put(transition.getTaskId(), transition.getType());
+    }
+  }
+
+  /**
+   * Adds a task in its encoded form, for stores that keep each task separately.
+   *
+   * @param nodeTask encoded by {@link StateEncoder#putNodeTask}, or null
+   * @param state one of the MAKE_* types, or null
+   */
+  public void putEncodedTask(Protos.TaskID taskId, ByteBuffer nodeTask, StateTransition.Type state) {
+    if (nodeTask != null) {
+      tasks.put(taskId, nodeTask);
+    }
+    if (state != null) {
+      taskStates.put(taskId, state);
+    }
+  }
+
+  /**
+   * @return the ids of the tasks that have a NodeTask or a state.
+   */
+  public Set<Protos.TaskID> getTaskIds() {
+    Set<Protos.TaskID> taskIds = new HashSet<Protos.TaskID>(tasks.keySet());
+    taskIds.addAll(taskStates.keySet());
+    return taskIds;
+  }
+
+  public boolean hasTask(Protos.TaskID taskId) {
+    return tasks.containsKey(taskId) || taskStates.containsKey(taskId);
+  }
+
+  /**
+   * @return the encoded NodeTask, or null.
+   */
+  public ByteBuffer getEncodedTask(Protos.TaskID taskId) {
+    ByteBuffer nodeTask = tasks.get(taskId);
+    return nodeTask == null ? null : nodeTask.duplicate();
+  }
+
+  /**
+   * @return the MAKE_* type of the task's state, or null.
+   */
+  public StateTransition.Type getTaskState(Protos.TaskID taskId) {
+    return taskStates.get(taskId);
+  }
+
+  /**
+   * @return the serialized FrameworkID, or null.
+   */
+  public ByteBuffer getEncodedFrameworkId() {
+    return frameworkId == null ? null : frameworkId.duplicate();
+  }
+
+  public boolean isEmpty() {
+    return frameworkId == null && tasks.isEmpty() && taskStates.isEmpty();
+  }
+
+  public int getTaskCount() {
+    return tasks.size();
+  }
+
+  /**
+   * Writes the checkpoint in the layout of {@link StoreContext#writeTo(StateEncoder)}. The
+   * encoded tasks are copied as they are.
+   */
+  public void writeTo(StateEncoder encoder) {
+    StoreContext.writeHeader(encoder);
+    encoder.putBytes(frameworkId);
+    encoder.putInt(tasks.size());
+    for (Entry<Protos.TaskID, ByteBuffer> entry : tasks.entrySet()) {
+      encoder.putMessage(entry.getKey());
+      encoder.putBytes(entry.getValue());
+    }
+    Map<StateTransition.Type, Set<Protos.TaskID>> states = getStates();
+    StoreContext.writeTaskIds(encoder, states.get(StateTransition.Type.MAKE_PENDING));
+    StoreContext.writeTaskIds(encoder, states.get(StateTransition.Type.MAKE_STAGING));
+    StoreContext.writeTaskIds(encoder, states.get(StateTransition.Type.MAKE_ACTIVE));
+    StoreContext.writeTaskIds(encoder, states.get(StateTransition.Type.MAKE_LOST));
+    StoreContext.writeTaskIds(encoder, states.get(StateTransition.Type.MAKE_KILLABLE));
+  }
+
+  /**
+   * @return a context whose NodeTasks are decoded lazily, see {@link StoreContext#decodeTasks()}.
+   */
+  public StoreContext toStoreContext() {
+    Protos.FrameworkID framework = null;
+    if (frameworkId != null) {
+      try {
+        framework = Protos.FrameworkID.parseFrom(ByteString.copyFrom(frameworkId.duplicate()));
+      } catch (InvalidProtocolBufferException e) {
+        throw new RuntimeException("ByteBuffer not in expected format," +
+          " failed to parse FrameworkID bytes", e);
+      }
+    }
+
+    Map<StateTransition.Type, Set<Protos.TaskID>> states = getStates();
+    return new StoreContext(framework, new EncodedTaskMap(tasks),
+      states.get(StateTransition.Type.MAKE_PENDING),
+      states.get(StateTransition.Type.MAKE_STAGING),
+      states.get(StateTransition.Type.MAKE_ACTIVE),
+      states.get(StateTransition.Type.MAKE_LOST),
+      states.get(StateTransition.Type.MAKE_KILLABLE));
+  }
+
+  private Map<StateTransition.Type, Set<Protos.TaskID>> getStates() {
+    Map<StateTransition.Type, Set<Protos.TaskID>> states =
+      new EnumMap<StateTransition.Type, Set<Protos.TaskID>>(StateTransition.Type.class);
+    for (StateTransition.Type type : StateTransition.Type.values()) {
+      states.put(type, new HashSet<Protos.TaskID>());
+    }
+    for (Entry<Protos.TaskID, StateTransition.Type> entry : taskStates.entrySet()) {
+      states.get(entry.getValue()).add(entry.getKey());
+    }
+    return states;
+  }
+
+  private void putStates(Iterable<Protos.TaskID> taskIds, StateTransition.Type type) {
+    for (Protos.TaskID taskId : taskIds) {
+      taskStates.put(taskId, type);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ebay.myriad.state.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import org.apache.mesos.Protos;
+
+import com.ebay.myriad.scheduler.NMProfile;
+import com.ebay.myriad.scheduler.constraints.Constraint;
+import com.ebay.myriad.scheduler.constraints.LikeConstraint;
+import com.ebay.myriad.state.NodeTask;
+import com.google.protobuf.MessageLite;
+
+/**
+ * Reads the binary format written by {@link StateEncoder}. Fields are read in place from
+ * the underlying buffer; bytes are only copied when the buffer is not backed by an array.
+ *
+ * Not thread safe.
+ */
+public class StateDecoder {
+  private static final Charset UTF8 = Charset.forName(ByteBufferSupport.UTF8);
+
+  private final ByteBuffer buffer;
+
+  /**
+   * Decodes from the current position of the buffer, which is advanced as fields are read.
+   */
+  public StateDecoder(ByteBuffer buffer) {
+    this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  public boolean hasRemaining() {
+    return buffer.hasRemaining();
+  }
+
+  public int getByte() {
+    return buffer.get();
+  }
+
+  public int getInt() {
+    return buffer.getInt();
+  }
+
+  public long getLong() {
+    return buffer.getLong();
+  }
+
+  public Long getNullableLong() {
+    return buffer.get() == 0 ? null : buffer.getLong();
+  }
+
+  public String getString() {
+    int size = buffer.getInt();
+    if (size < 0) {
+      return null;
+    }
+    String value;
+    if (buffer.hasArray()) {
+      value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), size, UTF8);
+      skip(size);
+    } else {
+      byte[] bytes = new byte[size];
+      buffer.get(bytes);
+      value = new String(bytes, UTF8);
+    }
+    return value;
+  }
+
+  /**
+   * @return a view of the next size prefixed bytes, sharing the underlying buffer, or null.
+   */
+  public ByteBuffer getBytes() {
+    int size = buffer.getInt();
+    if (size < 0) {
+      return null;
+    }
+    ByteBuffer view = buffer.slice();
+    view.limit(size);
+    skip(size);
+    return view.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Merges the next size prefixed message into the builder.
+   *
+   * @return the built message, or null.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends MessageLite> T getMessage(MessageLite.Builder builder) {
+    int size = buffer.getInt();
+    if (size < 0) {
+      return null;
+    }
+    try {
+      if (buffer.hasArray()) {
+        builder.mergeFrom(buffer.array(), buffer.arrayOffset() + buffer.position(), size);
+        skip(size);
+      } else {
+        byte[] bytes = new byte[size];
+        buffer.get(bytes);
+        builder.mergeFrom(bytes);
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("ByteBuffer not in expected format," +
+        " failed to parse message bytes", e);
+    }
+    return (T) builder.build();
+  }
+
+  public NodeTask getNodeTask() {
+    NMProfile profile = null;
+    if (buffer.get() != 0) {
+      profile = new NMProfile(getString(), getNullableLong(), getNullableLong());
+    }
+
+    Constraint constraint = null;
+    Constraint.Type type = Constraint.Type.values()[buffer.get()];
+    if (type == Constraint.Type.LIKE) {
+      constraint = new LikeConstraint(getString(), getString());
+    }
+
+    NodeTask nodeTask = new NodeTask(profile, constraint);
+    nodeTask.setHostname(getString());
+    nodeTask.setSlaveId(this.<Protos.SlaveID>getMessage(Protos.SlaveID.newBuilder()));
+    nodeTask.setTaskStatus(this.<Protos.TaskStatus>getMessage(Protos.TaskStatus.newBuilder()));
+    nodeTask.setExecutorInfo(this.<Protos.ExecutorInfo>getMessage(Protos.ExecutorInfo.newBuilder()));
+    return nodeTask;
+  }
+
+  private void skip(int size) {
+    buffer.position(buffer.position() + size);
+  }
+}
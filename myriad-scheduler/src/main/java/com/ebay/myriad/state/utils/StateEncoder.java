@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ebay.myriad.state.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import com.ebay.myriad.scheduler.NMProfile;
+import com.ebay.myriad.scheduler.constraints.Constraint;
+import com.ebay.myriad.scheduler.constraints.LikeConstraint;
+import com.ebay.myriad.state.NodeTask;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+
+/**
+ * Writes the binary format of the Myriad state into a single growable buffer. The buffer is
+ * reused from one encoding to the next, so an encoder should be kept around (or taken from
+ * the per thread pool with {@link #acquire()}) rather than created for every write.
+ *
+ * All sizes are little endian ints. Strings, byte arrays and protobuf messages are size
+ * prefixed, with a size of -1 standing for null.
+ *
+ * Not thread safe.
+ */
+public class StateEncoder {
+  private static final Charset UTF8 = Charset.forName(ByteBufferSupport.UTF8);
+  private static final int INITIAL_CAPACITY = 4 * 1024;
+
+  /**
+   * Pooled buffers above this size are dropped rather than kept by the thread.
+   */
+  private static final int MAX_POOLED_CAPACITY = 1024 * 1024;
+
+  private static final ThreadLocal<StateEncoder> POOL = new ThreadLocal<StateEncoder>() {
+    @Override
+    protected StateEncoder initialValue() {
+      return new StateEncoder();
+    }
+  };
+
+  private ByteBuffer buffer;
+
+  public StateEncoder() {
+    this(INITIAL_CAPACITY);
+  }
+
+  public StateEncoder(int initialCapacity) {
+    buffer = ByteBuffer.allocate(initialCapacity).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * @return the empty encoder of the calling thread. Must not be used across calls that
+   * may acquire it again.
+   */
+  public static StateEncoder acquire() {
+    StateEncoder encoder = POOL.get();
+    if (encoder.buffer.capacity() > MAX_POOLED_CAPACITY) {
+      encoder = new StateEncoder();
+      POOL.set(encoder);
+    }
+    return encoder.reset();
+  }
+
+  public StateEncoder reset() {
+    buffer.clear();
+    return this;
+  }
+
+  public int size() {
+    return buffer.position();
+  }
+
+  public StateEncoder putByte(int value) {
+    ensureCapacity(1);
+    buffer.put((byte) value);
+    return this;
+  }
+
+  public StateEncoder putInt(int value) {
+    ensureCapacity(ByteBufferSupport.INT_SIZE);
+    buffer.putInt(value);
+    return this;
+  }
+
+  public StateEncoder putLong(long value) {
+    ensureCapacity(Long.SIZE / Byte.SIZE);
+    buffer.putLong(value);
+    return this;
+  }
+
+  public StateEncoder putNullableLong(Long value) {
+    putByte(value == null ? 0 : 1);
+    if (value != null) {
+      putLong(value);
+    }
+    return this;
+  }
+
+  public StateEncoder putString(String value) {
+    return putBytes(value == null ? null : value.getBytes(UTF8));
+  }
+
+  public StateEncoder putBytes(byte[] value) {
+    if (value == null) {
+      return putInt(-1);
+    }
+    ensureCapacity(ByteBufferSupport.INT_SIZE + value.length);
+    buffer.putInt(value.length);
+    buffer.put(value);
+    return this;
+  }
+
+  /**
+   * Copies the remaining bytes of the buffer, without moving its position.
+   */
+  public StateEncoder putBytes(ByteBuffer value) {
+    if (value == null) {
+      return putInt(-1);
+    }
+    ensureCapacity(ByteBufferSupport.INT_SIZE + value.remaining());
+    buffer.putInt(value.remaining());
+    buffer.put(value.duplicate());
+    return this;
+  }
+
+  /**
+   * Serializes the message straight into the buffer.
+   */
+  public StateEncoder putMessage(MessageLite message) {
+    if (message == null) {
+      return putInt(-1);
+    }
+    int size = message.getSerializedSize();
+    ensureCapacity(ByteBufferSupport.INT_SIZE + size);
+    buffer.putInt(size);
+    try {
+      CodedOutputStream out = CodedOutputStream.newInstance(buffer.array(),
+          buffer.arrayOffset() + buffer.position(), size);
+      message.writeTo(out);
+      out.checkNoSpaceLeft();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to serialize " + message.getClass().getSimpleName(), e);
+    }
+    buffer.position(buffer.position() + size);
+    return this;
+  }
+
+  public StateEncoder putNodeTask(NodeTask nodeTask) {
+    NMProfile profile = nodeTask.getProfile();
+    putByte(profile == null ? 0 : 1);
+    if (profile != null) {
+      putString(profile.getName());
+      putNullableLong(profile.getCpus());
+      putNullableLong(profile.getMemory());
+    }
+
+    Constraint constraint = nodeTask.getConstraint();
+    Constraint.Type type = constraint == null ? Constraint.Type.NULL : constraint.getType();
+    putByte(type.ordinal());
+    if (type == Constraint.Type.LIKE) {
+      LikeConstraint likeConstraint = (LikeConstraint) constraint;
+      putString(likeConstraint.getLhs());
+      putString(likeConstraint.getRhsRegex());
+    }
+
+    putString(nodeTask.getHostname());
+    putMessage(nodeTask.getSlaveId());
+    putMessage(nodeTask.getTaskStatus());
+    putMessage(nodeTask.getExecutorInfo());
+    return this;
+  }
+
+  /**
+   * Reserves room for a size to be filled in by {@link #endSizePrefixed(int)}, once the
+   * bytes it prefixes have been written.
+   *
+   * @return the position of the first prefixed byte
+   */
+  public int startSizePrefixed() {
+    putInt(0);
+    return buffer.position();
+  }
+
+  public void endSizePrefixed(int start) {
+    buffer.putInt(start - ByteBufferSupport.INT_SIZE, buffer.position() - start);
+  }
+
+  /**
+   * @return a view of the encoded bytes, valid until the encoder is reused.
+   */
+  public ByteBuffer view() {
+    ByteBuffer view = buffer.duplicate();
+    view.flip();
+    return view.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * @return a copy of the encoded bytes.
+   */
+  public byte[] toByteArray() {
+    byte[] bytes = new byte[buffer.position()];
+    System.arraycopy(buffer.array(), buffer.arrayOffset(), bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+  }
+
+  private void ensureCapacity(int size) {
+    if (buffer.remaining() < size) {
+      int capacity = Math.max(buffer.capacity() * 2, buffer.position() + size);
+      ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.flip();
+      grown.put(buffer);
+      buffer = grown;
+    }
+  }
+}
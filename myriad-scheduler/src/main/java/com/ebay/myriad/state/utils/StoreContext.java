@@ -18,10 +18,9 @@
 
 package com.ebay.myriad.state.utils;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.nio.ByteOrder;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -29,7 +28,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import org.apache.mesos.Protos;
-import org.apache.mesos.Protos.TaskID;
 
 import com.ebay.myriad.state.NodeTask;
 
@@ -37,22 +35,37 @@ import com.ebay.myriad.state.NodeTask;
 * The purpose of this container/utility is to create a mechanism to serialize the SchedulerState
 * to RMStateStore and back. Json did not seem to handle the Protos fields very well so this was an
 * alternative approach.
+*
+* The state is written in a versioned binary format by a {@link StateEncoder}:
+* <pre>
+* magic, version, frameworkId,
+* task count, (taskId, size prefixed NodeTask)*,
+* pending, staging, active, lost and killable tasks as (count, taskId*)
+* </pre>
+* The layout written by earlier versions, which starts with the size of the framework id
+* rather than the magic, is still read.
 */
 public final class StoreContext {
-  private ByteBuffer frameworkId;
-  private List<ByteBuffer> taskIds;
-  private List<ByteBuffer> taskNodes;
-  private List<ByteBuffer> pendingTasks;
-  private List<ByteBuffer> stagingTasks;
-  private List<ByteBuffer> activeTasks;
-  private List<ByteBuffer> lostTasks;
-  private List<ByteBuffer> killableTasks;
+  /**
+   * Starts the binary format. Negative, so it is never mistaken for the size that starts
+   * the legacy layout.
+   */
+  static final int MAGIC = 0xF1A57A7E;
+  static final int FORMAT_VERSION = 2;
+
+  private Protos.FrameworkID frameworkId;
+  private Map<Protos.TaskID, NodeTask> tasks;
+  private Set<Protos.TaskID> pendingTasks;
+  private Set<Protos.TaskID> stagingTasks;
+  private Set<Protos.TaskID> activeTasks;
+  private Set<Protos.TaskID> lostTasks;
+  private Set<Protos.TaskID> killableTasks;
 
   public StoreContext() {
   }
 
   /**
-   * Accept all the SchedulerState maps and flatten them into lists of ByteBuffers
+   * Accept all the SchedulerState maps. The maps are not copied.
    * @param tasks
    * @param pendingTasks
    * @param stagingTasks
@@ -75,47 +88,25 @@ public final class StoreContext {
   }
 
   /**
-   * Accept list of ByteBuffers and re-create the SchedulerState maps.
-   * @param framwrorkId
-   * @param taskIds
-   * @param taskNodes
-   * @param pendingTasks
-   * @param stagingTasks
-   * @param activeTasks
-   * @param lostTasks
-   * @param killableTasks
+   * Use this to write the bytes to push to the state store. The context is encoded in a single
+   * pass into the encoder's buffer.
    */
-  public StoreContext(ByteBuffer frameworkId,
-    List<ByteBuffer> taskIds, List<ByteBuffer> taskNodes,
-    List<ByteBuffer> pendingTasks, List<ByteBuffer> stagingTasks,
-    List<ByteBuffer> activeTasks, List<ByteBuffer> lostTasks,
-    List<ByteBuffer> killableTasks) {
-    this.frameworkId = frameworkId;
-    this.taskIds = taskIds;
-    this.taskNodes = taskNodes;
-    this.pendingTasks = pendingTasks;
-    this.stagingTasks = stagingTasks;
-    this.activeTasks = activeTasks;
-    this.lostTasks = lostTasks;
-    this.killableTasks = killableTasks;
-  }
-
-  /**
-   * Use this to gather bytes to push to the state store
-   * @return byte stream of the state store context.
-   * @throws IOException
-   */
-  public ByteArrayOutputStream toSerializedContext() throws IOException {
-    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-    ByteBufferSupport.addByteBuffer(frameworkId, bytes);
-    ByteBufferSupport.addByteBuffers(taskIds, bytes);
-    ByteBufferSupport.addByteBuffers(taskNodes, bytes);
-    ByteBufferSupport.addByteBuffers(pendingTasks, bytes);
-    ByteBufferSupport.addByteBuffers(stagingTasks, bytes);
-    ByteBufferSupport.addByteBuffers(activeTasks, bytes);
-    ByteBufferSupport.addByteBuffers(lostTasks, bytes);
-    ByteBufferSupport.addByteBuffers(killableTasks, bytes);
-    return bytes;
+  public void writeTo(StateEncoder encoder) {
+    writeHeader(encoder);
+    encoder.putMessage(frameworkId);
+    Map<Protos.TaskID, NodeTask> taskMap = getTasks();
+    encoder.putInt(taskMap.size());
+    for (Entry<Protos.TaskID, NodeTask> entry : taskMap.entrySet()) {
+      encoder.putMessage(entry.getKey());
+      int start = encoder.startSizePrefixed();
+      encoder.putNodeTask(entry.getValue());
+      encoder.endSizePrefixed(start);
+    }
+    writeTaskIds(encoder, getPendingTasks());
+    writeTaskIds(encoder, getStagingTasks());
+    writeTaskIds(encoder, getActiveTasks());
+    writeTaskIds(encoder, getLostTasks());
+    writeTaskIds(encoder, getKillableTasks());
   }
 
   /**
@@ -124,84 +115,147 @@ public final class StoreContext {
    * @param bytes from state store
    * @return initialized StoreContext to use to initialize a SchedulerState
    */
-  @SuppressWarnings("unchecked")
   public static StoreContext fromSerializedBytes(byte bytes[]) {
-    StoreContext ctx;
-    if (bytes != null && bytes.length > 0){
-      ByteBuffer bb = ByteBufferSupport.fillBuffer(bytes);
-      ByteBuffer frameworkId = ByteBufferSupport.createBuffer(bb);
-      List<ByteBuffer> taskIds = ByteBufferSupport.createBufferList(bb, bb.getInt());
-      List<ByteBuffer> taskNodes = ByteBufferSupport.createBufferList(bb, bb.getInt());
-      List<ByteBuffer> pendingTasks = ByteBufferSupport.createBufferList(bb, bb.getInt());
-      List<ByteBuffer> stagingTasks = ByteBufferSupport.createBufferList(bb, bb.getInt());
-      List<ByteBuffer> activeTasks = ByteBufferSupport.createBufferList(bb, bb.getInt());
-      List<ByteBuffer> lostTasks = ByteBufferSupport.createBufferList(bb, bb.getInt());
-      List<ByteBuffer> killableTasks = ByteBufferSupport.createBufferList(bb, bb.getInt());
-      ctx = new StoreContext(frameworkId, taskIds, taskNodes, pendingTasks, stagingTasks, activeTasks,
-        lostTasks, killableTasks);
-    } else {
-      ctx = new StoreContext();
+    if (bytes == null) {
+      return new StoreContext();
     }
-    return ctx;
+    return fromByteBuffer(ByteBuffer.wrap(bytes));
   }
 
   /**
-   * Serialize tasks into internal ByteBuffers, removing the map.
+   * Decodes a context in either the binary or the legacy layout, reading fields in place.
+   * NodeTasks in the binary layout are decoded lazily, from slices of the buffer.
    *
-   * @param tasks
+   * @param bb positioned at the start of the serialized context
    */
-  public void setTasks(Map<Protos.TaskID, NodeTask> tasks) {
-    taskIds = new ArrayList<ByteBuffer>(tasks.size());
-    taskNodes = new ArrayList<ByteBuffer>(tasks.size());
-    for (Entry<TaskID, NodeTask> entry : tasks.entrySet()) {
-      taskIds.add(ByteBufferSupport.toByteBuffer(entry.getKey()));
-      taskNodes.add(ByteBufferSupport.toByteBuffer(entry.getValue()));
+  public static StoreContext fromByteBuffer(ByteBuffer bb) {
+    if (!bb.hasRemaining()) {
+      return new StoreContext();
     }
+    StateDecoder decoder = new StateDecoder(bb);
+    if (!readHeader(decoder)) {
+      return fromLegacyBuffer(decoder.getBuffer());
+    }
+
+    StoreContext ctx = new StoreContext();
+    ctx.frameworkId = decoder.getMessage(Protos.FrameworkID.newBuilder());
+    int taskCount = decoder.getInt();
+    Map<Protos.TaskID, ByteBuffer> encodedTasks = new HashMap<Protos.TaskID, ByteBuffer>(taskCount * 4 / 3 + 1);
+    for (int i = 0; i < taskCount; i++) {
+      Protos.TaskID taskId = decoder.getMessage(Protos.TaskID.newBuilder());
+      encodedTasks.put(taskId, decoder.getBytes());
+    }
+    ctx.tasks = new EncodedTaskMap(encodedTasks);
+    ctx.pendingTasks = readTaskIds(decoder);
+    ctx.stagingTasks = readTaskIds(decoder);
+    ctx.activeTasks = readTaskIds(decoder);
+    ctx.lostTasks = readTaskIds(decoder);
+    ctx.killableTasks = readTaskIds(decoder);
+    return ctx;
   }
 
   /**
-   * De-serialize the internal ByteBuffer back into a Protos.FrameworkID.
-   *
-   * @return
+   * Decodes the NodeTasks that have not been read yet, spreading the work across the
+   * available processors. NodeTasks read back from the store are otherwise decoded one at a
+   * time, the first time they are accessed.
    */
-  public Protos.FrameworkID getFrameworkId() {
-    return ByteBufferSupport.toFrameworkID(frameworkId);
+  public void decodeTasks() {
+    if (tasks instanceof EncodedTaskMap) {
+      ((EncodedTaskMap) tasks).decodeAll(Runtime.getRuntime().availableProcessors());
+    }
+  }
+
+  static void writeHeader(StateEncoder encoder) {
+    encoder.putInt(MAGIC).putInt(FORMAT_VERSION);
   }
 
   /**
-   * Serialize the Protos.FrameworkID into a ByteBuffer.  
+   * @return true if the decoder is at the start of the binary format, in which case the header
+   * is consumed, or false if it is at the start of the legacy layout.
    */
-  public void setFrameworkId(Protos.FrameworkID frameworkId) {
-    if (frameworkId != null) {
-      this.frameworkId = ByteBufferSupport.toByteBuffer(frameworkId);
+  static boolean readHeader(StateDecoder decoder) {
+    ByteBuffer bb = decoder.getBuffer();
+    if (bb.remaining() < ByteBufferSupport.INT_SIZE || bb.getInt(bb.position()) != MAGIC) {
+      return false;
+    }
+    decoder.getInt();
+    int version = decoder.getInt();
+    if (version != FORMAT_VERSION) {
+      throw new IllegalStateException("Unsupported Myriad state format version: " + version);
+    }
+    return true;
+  }
+
+  static void writeTaskIds(StateEncoder encoder, Collection<Protos.TaskID> taskIds) {
+    encoder.putInt(taskIds.size());
+    for (Protos.TaskID taskId : taskIds) {
+      encoder.putMessage(taskId);
+    }
+  }
+
+  static Set<Protos.TaskID> readTaskIds(StateDecoder decoder) {
+    int count = decoder.getInt();
+    Set<Protos.TaskID> taskIds = new HashSet<Protos.TaskID>(count);
+    for (int i = 0; i < count; i++) {
+      taskIds.add(decoder.<Protos.TaskID>getMessage(Protos.TaskID.newBuilder()));
     }
+    return taskIds;
+  }
+
+  /*
+   * Reads the layout written by earlier versions, a list of size prefixed buffers per field.
+   */
+  private static StoreContext fromLegacyBuffer(ByteBuffer src) {
+    ByteBuffer bb = src.order(ByteOrder.LITTLE_ENDIAN);
+    StoreContext ctx = new StoreContext();
+    ByteBuffer frameworkId = ByteBufferSupport.createBuffer(bb);
+    if (frameworkId.limit() > ByteBufferSupport.INT_SIZE) {
+      ctx.frameworkId = ByteBufferSupport.toFrameworkID(frameworkId);
+    }
+    List<ByteBuffer> taskIds = ByteBufferSupport.createBufferList(bb, bb.getInt());
+    List<ByteBuffer> taskNodes = ByteBufferSupport.createBufferList(bb, bb.getInt());
+    ctx.tasks = new HashMap<Protos.TaskID, NodeTask>(taskIds.size());
+    for (int i = 0; i < taskIds.size(); i++) {
+      ctx.tasks.put(ByteBufferSupport.toTaskId(taskIds.get(i)),
+        ByteBufferSupport.toNodeTask(taskNodes.get(i)));
+    }
+    ctx.pendingTasks = toLegacyTaskSet(ByteBufferSupport.createBufferList(bb, bb.getInt()));
+    ctx.stagingTasks = toLegacyTaskSet(ByteBufferSupport.createBufferList(bb, bb.getInt()));
+    ctx.activeTasks = toLegacyTaskSet(ByteBufferSupport.createBufferList(bb, bb.getInt()));
+    ctx.lostTasks = toLegacyTaskSet(ByteBufferSupport.createBufferList(bb, bb.getInt()));
+    ctx.killableTasks = toLegacyTaskSet(ByteBufferSupport.createBufferList(bb, bb.getInt()));
+    return ctx;
+  }
+
+  private static Set<Protos.TaskID> toLegacyTaskSet(List<ByteBuffer> src) {
+    Set<Protos.TaskID> tasks = new HashSet<Protos.TaskID>(src.size());
+    for (ByteBuffer bb : src) {
+      tasks.add(ByteBufferSupport.toTaskId(bb));
+    }
+    return tasks;
   }
 
   /**
-   * De-serialize the internal ByteBuffers back into a Task map.
-   *
-   * @return
+   * @return the framework id, or null if none was stored
    */
+  public Protos.FrameworkID getFrameworkId() {
+    return frameworkId;
+  }
+
+  public void setFrameworkId(Protos.FrameworkID frameworkId) {
+    this.frameworkId = frameworkId;
+  }
+
   public Map<Protos.TaskID, NodeTask> getTasks() {
-    Map<Protos.TaskID, NodeTask> map = null;
-    if (taskIds != null) {
-      map = new HashMap<Protos.TaskID, NodeTask>(taskIds.size());
-      int idx = 0;
-      for (ByteBuffer bb : taskIds) {
-        map.put(ByteBufferSupport.toTaskId(bb),
-          ByteBufferSupport.toNodeTask(taskNodes.get(idx++)));
-      }
-    } else {
-      map = new HashMap<Protos.TaskID, NodeTask>(0);
-    }
-    return map;
+    return tasks != null ? tasks : new HashMap<Protos.TaskID, NodeTask>(0);
+  }
+
+  public void setTasks(Map<Protos.TaskID, NodeTask> tasks) {
+    this.tasks = tasks;
   }
 
   public void setPendingTasks(Set<Protos.TaskID> tasks) {
-    if (tasks != null) {
-      pendingTasks = new ArrayList<ByteBuffer>(tasks.size());
-      toTaskBuffer(tasks, pendingTasks);
-    }
+    pendingTasks = tasks;
   }
 
   public Set<Protos.TaskID> getPendingTasks () {
@@ -209,10 +263,7 @@ public final class StoreContext {
   }
 
   public void setStagingTasks(Set<Protos.TaskID> tasks) {
-    if (tasks != null) {
-      stagingTasks = new ArrayList<ByteBuffer>(tasks.size());
-      toTaskBuffer(tasks, stagingTasks);
-    }
+    stagingTasks = tasks;
   }
 
   public Set<Protos.TaskID> getStagingTasks() {
@@ -220,10 +271,7 @@ public final class StoreContext {
   }
 
   public void setActiveTasks(Set<Protos.TaskID> tasks) {
-    if (tasks != null) {
-      activeTasks = new ArrayList<ByteBuffer>(tasks.size());
-      toTaskBuffer(tasks, activeTasks);
-    }
+    activeTasks = tasks;
   }
 
   public Set<Protos.TaskID> getActiveTasks() {
@@ -231,10 +279,7 @@ public final class StoreContext {
   }
 
   public void setLostTasks(Set<Protos.TaskID> tasks) {
-    if (tasks != null) {
-      lostTasks = new ArrayList<ByteBuffer>(tasks.size());
-      toTaskBuffer(tasks, lostTasks);
-    }
+    lostTasks = tasks;
   }
 
   public Set<Protos.TaskID> getLostTasks() {
@@ -242,32 +287,14 @@ public final class StoreContext {
   }
 
   public void setKillableTasks(Set<Protos.TaskID> tasks) {
-    if (tasks != null) {
-      killableTasks = new ArrayList<ByteBuffer>(tasks.size());
-      toTaskBuffer(tasks, killableTasks);
-    }
+    killableTasks = tasks;
   }
 
   public Set<Protos.TaskID> getKillableTasks() {
     return toTaskSet(killableTasks);
   }
 
-  private void toTaskBuffer(Set<Protos.TaskID> src, List<ByteBuffer> tgt) {
-    for (Protos.TaskID id : src) {
-       tgt.add(ByteBufferSupport.toByteBuffer(id));
-    }
-  }
-
-  private Set<Protos.TaskID> toTaskSet(List<ByteBuffer> src) {
-    Set<Protos.TaskID> tasks;
-    if (src != null) {
-      tasks = new HashSet<Protos.TaskID>(src.size());
-      for (int i = 0; i < src.size(); i++) {
-        tasks.add(ByteBufferSupport.toTaskId(src.get(i)));
-      }
-    } else {
-      tasks = new HashSet<Protos.TaskID>(0);
-    }
-    return tasks;
+  private Set<Protos.TaskID> toTaskSet(Set<Protos.TaskID> src) {
+    return src != null ? src : new HashSet<Protos.TaskID>(0);
   }
 }
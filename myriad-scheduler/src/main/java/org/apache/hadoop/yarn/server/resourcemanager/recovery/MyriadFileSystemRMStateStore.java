@@ -18,20 +18,42 @@
 
 package org.apache.hadoop.yarn.server.resourcemanager.recovery;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.ebay.myriad.state.MyriadStateStore;
+import com.ebay.myriad.state.StateTransition;
+import com.ebay.myriad.state.utils.ByteBufferSupport;
+import com.ebay.myriad.state.utils.StateCheckpoint;
+import com.ebay.myriad.state.utils.StateDecoder;
+import com.ebay.myriad.state.utils.StateEncoder;
 import com.ebay.myriad.state.utils.StoreContext;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
- * StateStore that stores Myriad state in addition to RM state to DFS. 
+ * StateStore that stores Myriad state in addition to RM state to DFS.
+ *
+ * Myriad state is kept as a checkpoint file plus a journal of the {@link StateTransition}s
+ * stored since the checkpoint was written. Storing transitions only appends them to the
+ * journal. Once the journal outgrows the checkpoint, a background compactor writes a new
+ * checkpoint and starts an empty journal, which keeps the bytes written linear in the
+ * number of transitions. Recovery reads the checkpoint and replays the journal on top of it.
  */
 public class MyriadFileSystemRMStateStore extends FileSystemRMStateStore
   implements MyriadStateStore {
@@ -42,40 +64,79 @@ public class MyriadFileSystemRMStateStore extends FileSystemRMStateStore
   protected static final String ROOT_NAME = "FSRMStateRoot";
   private static final String RM_MYRIAD_ROOT = "RMMyriadRoot";
   private static final String MYRIAD_STATE_FILE = "MyriadState";
+  private static final String MYRIAD_JOURNAL_FILE = "MyriadStateJournal";
+  private static final String NEW_FILE_SUFFIX = ".new";
+
+  /**
+   * Size of the journal, in bytes, below which the journal is never compacted.
+   */
+  public static final String MYRIAD_JOURNAL_COMPACTION_MIN_BYTES =
+    "yarn.resourcemanager.myriad.state-store.journal.compaction-min-bytes";
+  public static final long DEFAULT_MYRIAD_JOURNAL_COMPACTION_MIN_BYTES = 1024 * 1024;
 
   private Path myriadPathRoot = null;
-  private byte[] myriadStateBytes = null; 
+  private Path myriadStatePath = null;
+  private Path myriadJournalPath = null;
+  private Path myriadNewStatePath = null;
+  private long compactionMinBytes;
+
+  private StateCheckpoint checkpoint = new StateCheckpoint();
+  private boolean myriadStateLoaded = false;
+  private FSDataOutputStream journal = null;
+  private long journalBytes = 0;
+  private long checkpointBytes = 0;
+  private boolean compacting = false;
+  private ExecutorService compactor;
+  private final StateEncoder encoder = new StateEncoder();
 
   @Override
   public synchronized void initInternal(Configuration conf) throws Exception{
     super.initInternal(conf);
     Path rootPath = new Path(fsWorkingPath, ROOT_NAME);
     myriadPathRoot = new Path(rootPath, RM_MYRIAD_ROOT);
+    myriadStatePath = new Path(myriadPathRoot, MYRIAD_STATE_FILE);
+    myriadJournalPath = new Path(myriadPathRoot, MYRIAD_JOURNAL_FILE);
+    myriadNewStatePath = new Path(myriadPathRoot, MYRIAD_STATE_FILE + NEW_FILE_SUFFIX);
+    compactionMinBytes = conf.getLong(MYRIAD_JOURNAL_COMPACTION_MIN_BYTES,
+      DEFAULT_MYRIAD_JOURNAL_COMPACTION_MIN_BYTES);
   }
 
   @Override
   protected synchronized void startInternal() throws Exception {
     super.startInternal();
     fs.mkdirs(myriadPathRoot);
+    compactor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+      .setNameFormat("MyriadStateJournalCompactor").setDaemon(true).build());
+  }
+
+  @Override
+  protected synchronized void closeInternal() throws Exception {
+    if (compactor != null) {
+      compactor.shutdownNow();
+    }
+    closeJournal();
+    super.closeInternal();
   }
 
   @Override
   public synchronized RMState loadState() throws Exception {
     RMState rmState = super.loadState();
 
-    Path myriadStatePath = new Path(myriadPathRoot, MYRIAD_STATE_FILE);
     LOGGER.info("Loading state information for Myriad from: " + myriadStatePath);
 
     try {
-      // Throws IOException if file is not present.
-      FileStatus fileStatus = fs.listStatus(myriadStatePath)[0];
-      FSDataInputStream in = fs.open(myriadStatePath);        
-      myriadStateBytes = new byte[(int) fileStatus.getLen()];
-      in.readFully(myriadStateBytes);
-      in.close();
-    } catch (IOException e) {
+      if (fs.exists(myriadStatePath)) {
+        ByteBuffer myriadState = readMyriadState();
+        checkpointBytes = myriadState.remaining();
+        checkpoint = StateCheckpoint.fromByteBuffer(myriadState);
+      }
+      int replayed = replayJournal();
+      myriadStateLoaded = true;
+      LOGGER.info("Loaded state information for Myriad, {} tasks, {} journaled transitions",
+        checkpoint.getTaskCount(), replayed);
+    } catch (Exception e) {
       LOGGER.error("State information for Myriad could not be loaded from: "
-        + myriadStatePath, e);
+        + myriadPathRoot, e);
     }
     return rmState;
   }
@@ -83,23 +144,169 @@ public class MyriadFileSystemRMStateStore extends FileSystemRMStateStore
   @Override
   public synchronized StoreContext loadMyriadState() throws Exception {
     StoreContext sc = null;
-    if (myriadStateBytes != null && myriadStateBytes.length > 0) {
-      sc = StoreContext.fromSerializedBytes(myriadStateBytes);
-      myriadStateBytes = null;
+    if (myriadStateLoaded && !checkpoint.isEmpty()) {
+      sc = checkpoint.toStoreContext();
     }
+    myriadStateLoaded = false;
     return sc;
   }
 
+  /**
+   * Replaces the Myriad state with the given context and writes it out as a new checkpoint.
+   */
   @Override
   public synchronized void storeMyriadState(StoreContext sc) throws Exception{
-    Path myriadStatePath = new Path(myriadPathRoot, MYRIAD_STATE_FILE);
-
     LOGGER.debug("Storing state information for Myriad at: " + myriadStatePath);
     try {
-      updateFile(myriadStatePath, sc.toSerializedContext().toByteArray());
+      checkpoint = StateCheckpoint.fromStoreContext(sc);
+      writeCheckpoint();
     } catch (Exception e) {
         LOGGER.error("State information for Myriad could not be stored at: "
                 + myriadStatePath, e);
     }
   }
+
+  @Override
+  public synchronized void storeMyriadStateTransitions(List<StateTransition> transitions) throws Exception {
+    encoder.reset();
+    for (StateTransition transition : transitions) {
+      checkpoint.apply(transition);
+      int start = encoder.startSizePrefixed();
+      transition.writeTo(encoder);
+      encoder.endSizePrefixed(start);
+    }
+    int recordBytes = encoder.size();
+
+    try {
+      if (journal == null) {
+        // First write, or the journal failed. The checkpoint already includes the transitions,
+        // and writing it reused the encoder.
+        writeCheckpoint();
+        return;
+      }
+      encoder.writeTo(journal);
+      journal.hflush();
+      journalBytes += recordBytes;
+    } catch (IOException e) {
+      closeJournal();
+      throw e;
+    }
+
+    if (!compacting && journalBytes > Math.max(compactionMinBytes, checkpointBytes)) {
+      compacting = true;
+      compactor.execute(new Runnable() {
+        @Override
+        public void run() {
+          compact();
+        }
+      });
+    }
+  }
+
+  private void compact() {
+    synchronized (this) {
+      if (compactor.isShutdown()) {
+        return;
+      }
+      try {
+        LOGGER.debug("Compacting Myriad state journal of {} bytes", journalBytes);
+        writeCheckpoint();
+      } catch (Exception e) {
+        LOGGER.error("Myriad state journal could not be compacted", e);
+      } finally {
+        compacting = false;
+      }
+    }
+  }
+
+  /**
+   * Writes the checkpoint and starts an empty journal. Replaying the old journal on top of the
+   * new checkpoint yields the same state, so a failure in between does not lose transitions.
+   */
+  private void writeCheckpoint() throws Exception {
+    encoder.reset();
+    checkpoint.writeTo(encoder);
+    closeJournal();
+    FSDataOutputStream out = fs.create(myriadNewStatePath, true);
+    try {
+      encoder.writeTo(out);
+    } finally {
+      out.close();
+    }
+    replaceFile(myriadNewStatePath, myriadStatePath);
+    checkpointBytes = encoder.size();
+    journal = fs.create(myriadJournalPath, true);
+    journalBytes = 0;
+  }
+
+  private void closeJournal() {
+    if (journal != null) {
+      try {
+        journal.close();
+      } catch (IOException e) {
+        LOGGER.warn("Failed to close Myriad state journal", e);
+      }
+      journal = null;
+    }
+  }
+
+  /**
+   * Reads the checkpoint. A local checkpoint is memory mapped; the tasks of the checkpoint are
+   * slices of the returned buffer and are only decoded when they are read, so most of the
+   * file is paged in lazily. Other file systems are read with a single sized read.
+   */
+  private ByteBuffer readMyriadState() throws IOException {
+    if (fs instanceof LocalFileSystem) {
+      try (RandomAccessFile file = new RandomAccessFile(((LocalFileSystem) fs).pathToFile(myriadStatePath), "r");
+           FileChannel channel = file.getChannel()) {
+        // The mapping stays valid once the channel is closed, and a new checkpoint replaces the
+        // file rather than overwriting it.
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+    }
+    FileStatus fileStatus = fs.getFileStatus(myriadStatePath);
+    byte[] myriadStateBytes = new byte[(int) fileStatus.getLen()];
+    FSDataInputStream in = fs.open(myriadStatePath);
+    try {
+      in.readFully(myriadStateBytes);
+    } finally {
+      in.close();
+    }
+    return ByteBuffer.wrap(myriadStateBytes);
+  }
+
+  /**
+   * Applies the journaled transitions to the checkpoint. A truncated record at the end of
+   * the journal, left behind by a failed write, is ignored. So is a record whose size
+   * prefix does not fit in the rest of the journal, e.g. a tail zeroed by a crash.
+   */
+  private int replayJournal() throws IOException {
+    if (!fs.exists(myriadJournalPath)) {
+      return 0;
+    }
+    int count = 0;
+    long length = fs.getFileStatus(myriadJournalPath).getLen();
+    FSDataInputStream in = fs.open(myriadJournalPath);
+    try {
+      byte[] sizeBytes = new byte[ByteBufferSupport.INT_SIZE];
+      while (true) {
+        in.readFully(sizeBytes);
+        int size = ByteBuffer.wrap(sizeBytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        if (size <= 0 || size > length - in.getPos()) {
+          LOGGER.warn("Ignoring the end of the Myriad state journal after {} transitions, a record" +
+              " of {} bytes does not fit in it", count, size);
+          break;
+        }
+        byte[] record = new byte[size];
+        in.readFully(record);
+        checkpoint.apply(StateTransition.readFrom(new StateDecoder(ByteBuffer.wrap(record))));
+        count++;
+      }
+    } catch (EOFException e) {
+      LOGGER.debug("Reached the end of the Myriad state journal after {} transitions", count);
+    } finally {
+      in.close();
+    }
+    return count;
+  }
 }
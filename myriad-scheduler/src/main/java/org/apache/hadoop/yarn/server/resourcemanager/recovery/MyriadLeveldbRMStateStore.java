@@ -0,0 +1,282 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager.recovery;
+
+import static org.fusesource.leveldbjni.JniDBFactory.asString;
+import static org.fusesource.leveldbjni.JniDBFactory.bytes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.server.utils.LeveldbIterator;
+import org.apache.mesos.Protos;
+import org.fusesource.leveldbjni.JniDBFactory;
+import org.fusesource.leveldbjni.internal.NativeDB;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBException;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.WriteBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ebay.myriad.state.MyriadStateStore;
+import com.ebay.myriad.state.StateTransition;
+import com.ebay.myriad.state.utils.StateCheckpoint;
+import com.ebay.myriad.state.utils.StoreContext;
+
+/**
+ * StateStore that stores Myriad state in addition to RM state to a local LevelDB database,
+ * next to the RM's own.
+ *
+ * Every task has a key holding its NodeTask, and a key in the set of its state; the framework
+ * id has a key of its own. A batch of transitions is written as a single atomic write batch,
+ * and recovery scans each key prefix. Like the RM's own writes, the batches are not synced to
+ * disk.
+ */
+public class MyriadLeveldbRMStateStore extends LeveldbRMStateStore implements MyriadStateStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MyriadLeveldbRMStateStore.class);
+
+  private static final String DB_NAME = "myriad-state";
+  private static final String SEPARATOR = "/";
+  private static final String MYRIAD_KEY_PREFIX = "myriad" + SEPARATOR;
+  private static final String FRAMEWORK_ID_KEY = MYRIAD_KEY_PREFIX + "frameworkId";
+  private static final String TASK_KEY_PREFIX = MYRIAD_KEY_PREFIX + "task" + SEPARATOR;
+  private static final String STATE_KEY_PREFIX = MYRIAD_KEY_PREFIX + "state" + SEPARATOR;
+  private static final String MAKE_PREFIX = "MAKE_";
+  private static final byte[] EMPTY = new byte[0];
+  private static final List<StateTransition.Type> STATES = new ArrayList<StateTransition.Type>();
+
+  static {
+    for (StateTransition.Type type : StateTransition.Type.values()) {
+      if (type.name().startsWith(MAKE_PREFIX)) {
+        STATES.add(type);
+      }
+    }
+  }
+
+  private File dbPath;
+  private DB db;
+  private StateCheckpoint checkpoint = new StateCheckpoint();
+
+  @Override
+  protected synchronized void initInternal(Configuration conf) throws Exception {
+    super.initInternal(conf);
+    String storePath = conf.get(YarnConfiguration.RM_LEVELDB_STORE_PATH);
+    if (storePath == null) {
+      throw new IOException("No store location directory configured in "
+        + YarnConfiguration.RM_LEVELDB_STORE_PATH);
+    }
+    dbPath = new File(storePath, DB_NAME);
+  }
+
+  @Override
+  protected synchronized void startInternal() throws Exception {
+    super.startInternal();
+    LOGGER.info("Using Myriad state database at " + dbPath);
+    Options options = new Options();
+    options.createIfMissing(true);
+    try {
+      db = JniDBFactory.factory.open(dbPath, options);
+    } catch (NativeDB.DBException e) {
+      throw new IOException("Failed to open Myriad state database at " + dbPath, e);
+    }
+  }
+
+  @Override
+  protected synchronized void closeInternal() throws Exception {
+    if (db != null) {
+      db.close();
+      db = null;
+    }
+    super.closeInternal();
+  }
+
+  @Override
+  public synchronized RMState loadState() throws Exception {
+    RMState rmState = super.loadState();
+
+    LOGGER.info("Loading state information for Myriad from: " + dbPath);
+    try {
+      StateCheckpoint loaded = new StateCheckpoint();
+      byte[] frameworkId = db.get(bytes(FRAMEWORK_ID_KEY));
+      if (frameworkId != null) {
+        loaded.apply(StateTransition.setFrameworkId(Protos.FrameworkID.parseFrom(frameworkId)));
+      }
+      int taskCount = 0;
+      LeveldbIterator iterator = new LeveldbIterator(db);
+      try {
+        iterator.seek(bytes(TASK_KEY_PREFIX));
+        while (iterator.hasNext()) {
+          Map.Entry<byte[], byte[]> entry = iterator.next();
+          String key = asString(entry.getKey());
+          if (!key.startsWith(TASK_KEY_PREFIX)) {
+            break;
+          }
+          loaded.putEncodedTask(toTaskId(key, TASK_KEY_PREFIX), ByteBuffer.wrap(entry.getValue()), null);
+          taskCount++;
+        }
+        iterator.seek(bytes(STATE_KEY_PREFIX));
+        while (iterator.hasNext()) {
+          String key = asString(iterator.next().getKey());
+          if (!key.startsWith(STATE_KEY_PREFIX)) {
+            break;
+          }
+          int separator = key.indexOf(SEPARATOR, STATE_KEY_PREFIX.length());
+          StateTransition.Type state =
+            StateTransition.Type.valueOf(MAKE_PREFIX + key.substring(STATE_KEY_PREFIX.length(), separator));
+          loaded.putEncodedTask(toTaskId(key, key.substring(0, separator + 1)), null, state);
+        }
+      } finally {
+        iterator.close();
+      }
+      checkpoint = loaded;
+      LOGGER.info("Loaded state information for Myriad, {} tasks", taskCount);
+    } catch (Exception e) {
+      LOGGER.error("State information for Myriad could not be loaded from: " + dbPath, e);
+    }
+    return rmState;
+  }
+
+  @Override
+  public synchronized StoreContext loadMyriadState() throws Exception {
+    return checkpoint.isEmpty() ? null : checkpoint.toStoreContext();
+  }
+
+  /**
+   * Replaces the Myriad state with the given context.
+   */
+  @Override
+  public synchronized void storeMyriadState(StoreContext sc) throws Exception {
+    LOGGER.debug("Storing state information for Myriad at: " + dbPath);
+    try {
+      WriteBatch batch = db.createWriteBatch();
+      try {
+        for (Protos.TaskID taskId : checkpoint.getTaskIds()) {
+          deleteTask(batch, taskId);
+        }
+        checkpoint = StateCheckpoint.fromStoreContext(sc);
+        putFrameworkId(batch);
+        for (Protos.TaskID taskId : checkpoint.getTaskIds()) {
+          putTask(batch, taskId);
+          putState(batch, taskId);
+        }
+        db.write(batch);
+      } finally {
+        batch.close();
+      }
+    } catch (Exception e) {
+      LOGGER.error("State information for Myriad could not be stored at: " + dbPath, e);
+    }
+  }
+
+  @Override
+  public synchronized void storeMyriadStateTransitions(List<StateTransition> transitions) throws Exception {
+    WriteBatch batch = db.createWriteBatch();
+    try {
+      for (StateTransition transition : transitions) {
+        Protos.TaskID taskId = transition.getTaskId();
+        switch (transition.getType()) {
+          case SET_FRAMEWORK_ID:
+            checkpoint.apply(transition);
+            putFrameworkId(batch);
+            break;
+
+          case PUT_TASK:
+            checkpoint.apply(transition);
+            putTask(batch, taskId);
+            break;
+
+          case REMOVE_TASK:
+            checkpoint.apply(transition);
+            deleteTask(batch, taskId);
+            break;
+
+          default:
+            checkpoint.apply(transition);
+            deleteState(batch, taskId);
+            putState(batch, taskId);
+        }
+      }
+      db.write(batch);
+    } catch (DBException e) {
+      throw new IOException(e);
+    } finally {
+      batch.close();
+    }
+  }
+
+  private void putFrameworkId(WriteBatch batch) {
+    ByteBuffer frameworkId = checkpoint.getEncodedFrameworkId();
+    if (frameworkId == null) {
+      batch.delete(bytes(FRAMEWORK_ID_KEY));
+    } else {
+      batch.put(bytes(FRAMEWORK_ID_KEY), toByteArray(frameworkId));
+    }
+  }
+
+  private void putTask(WriteBatch batch, Protos.TaskID taskId) {
+    ByteBuffer nodeTask = checkpoint.getEncodedTask(taskId);
+    if (nodeTask != null) {
+      batch.put(bytes(TASK_KEY_PREFIX + taskId.getValue()), toByteArray(nodeTask));
+    }
+  }
+
+  private void putState(WriteBatch batch, Protos.TaskID taskId) {
+    StateTransition.Type state = checkpoint.getTaskState(taskId);
+    if (state != null) {
+      batch.put(bytes(getStateKey(state, taskId)), EMPTY);
+    }
+  }
+
+  /*
+   * The checkpoint is ahead of the database when a write has failed, so the state key is
+   * deleted under every state rather than under the state the checkpoint holds.
+   */
+  private void deleteState(WriteBatch batch, Protos.TaskID taskId) {
+    for (StateTransition.Type state : STATES) {
+      batch.delete(bytes(getStateKey(state, taskId)));
+    }
+  }
+
+  private void deleteTask(WriteBatch batch, Protos.TaskID taskId) {
+    batch.delete(bytes(TASK_KEY_PREFIX + taskId.getValue()));
+    deleteState(batch, taskId);
+  }
+
+  private static String getStateKey(StateTransition.Type state, Protos.TaskID taskId) {
+    return STATE_KEY_PREFIX + state.name().substring(MAKE_PREFIX.length()) + SEPARATOR + taskId.getValue();
+  }
+
+  private static Protos.TaskID toTaskId(String key, String prefix) {
+    return Protos.TaskID.newBuilder().setValue(key.substring(prefix.length())).build();
+  }
+
+  private static byte[] toByteArray(ByteBuffer bb) {
+    byte[] bytes = new byte[bb.remaining()];
+    bb.get(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,452 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager.recovery;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.conf.HAUtil;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.server.resourcemanager.RMZKUtils;
+import org.apache.mesos.Protos;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ebay.myriad.state.MyriadStateStore;
+import com.ebay.myriad.state.StateTransition;
+import com.ebay.myriad.state.utils.StateCheckpoint;
+import com.ebay.myriad.state.utils.StateDecoder;
+import com.ebay.myriad.state.utils.StateEncoder;
+import com.ebay.myriad.state.utils.StoreContext;
+
+/**
+ * StateStore that stores Myriad state in addition to RM state to ZooKeeper.
+ *
+ * Each task is kept in its own znode, holding the task's state and its NodeTask, under the
+ * RM's root znode. The framework id has a znode of its own. Storing transitions therefore
+ * only writes the znodes of the tasks they touch, usually a single small setData.
+ *
+ * Writes go through the RM's ZooKeeper session as multi operations that create and delete
+ * the RM's fencing lock, the same way the RM's own writes do, so a resource manager fenced
+ * by the RM's ZK-based HA fails to update the Myriad state too. Recovery reads the task
+ * znodes asynchronously, many at a time.
+ */
+public class MyriadZKRMStateStore extends ZKRMStateStore implements MyriadStateStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MyriadZKRMStateStore.class);
+
+  private static final String RM_MYRIAD_ROOT = "RMMyriadRoot";
+  private static final String MYRIAD_FRAMEWORK_ID_ZNODE = "FrameworkID";
+  private static final String MYRIAD_TASKS_ZNODE = "Tasks";
+  private static final String FENCING_LOCK = "RM_ZK_FENCING_LOCK";
+  private static final String UTF8 = "UTF-8";
+
+  private static final int TASK_ZNODE_VERSION = 1;
+
+  /**
+   * Operations per multi, which keeps each request well below the ZooKeeper packet size.
+   */
+  private static final int MAX_OPS_PER_MULTI = 500;
+
+  /**
+   * Asynchronous reads in flight while recovering.
+   */
+  private static final int MAX_OUTSTANDING_READS = 1000;
+  private static final long READ_TIMEOUT_MS = 60000;
+
+  private String myriadRootPath;
+  private String frameworkIdPath;
+  private String tasksPath;
+  private String fencingNodePath;
+  private List<ACL> myriadAcl;
+  private int myriadNumRetries;
+
+  private StateCheckpoint checkpoint = new StateCheckpoint();
+  /**
+   * Tasks that have a znode.
+   */
+  private Set<Protos.TaskID> storedTasks = new HashSet<Protos.TaskID>();
+  private final StateEncoder encoder = new StateEncoder();
+
+  @Override
+  public synchronized void initInternal(Configuration conf) throws Exception {
+    super.initInternal(conf);
+    String zkRootNodePath = getNodePath(znodeWorkingPath, ROOT_ZNODE_NAME);
+    myriadRootPath = getNodePath(zkRootNodePath, RM_MYRIAD_ROOT);
+    frameworkIdPath = getNodePath(myriadRootPath, MYRIAD_FRAMEWORK_ID_ZNODE);
+    tasksPath = getNodePath(myriadRootPath, MYRIAD_TASKS_ZNODE);
+    fencingNodePath = getNodePath(zkRootNodePath, FENCING_LOCK);
+    myriadAcl = RMZKUtils.getZKAcls(conf);
+    myriadNumRetries = conf.getInt(YarnConfiguration.RM_ZK_NUM_RETRIES,
+      YarnConfiguration.DEFAULT_ZK_RM_NUM_RETRIES);
+  }
+
+  @Override
+  public synchronized void startInternal() throws Exception {
+    super.startInternal();
+    createIfAbsent(myriadRootPath);
+    createIfAbsent(frameworkIdPath);
+    createIfAbsent(tasksPath);
+  }
+
+  /**
+   * Loads the RM state and then the Myriad state. The task znodes are read without holding
+   * the store's monitor, which the ZooKeeper event thread needs to deliver watch events.
+   */
+  @Override
+  public RMState loadState() throws Exception {
+    RMState rmState = super.loadState();
+
+    LOGGER.info("Loading state information for Myriad from: " + myriadRootPath);
+    try {
+      StateCheckpoint loaded = new StateCheckpoint();
+      byte[] frameworkId = getData(frameworkIdPath);
+      if (frameworkId != null && frameworkId.length > 0) {
+        loaded.apply(StateTransition.setFrameworkId(Protos.FrameworkID.parseFrom(frameworkId)));
+      }
+      Map<String, byte[]> taskZnodes = readTaskZnodes();
+      Set<Protos.TaskID> loadedTasks = new HashSet<Protos.TaskID>(taskZnodes.size() * 4 / 3 + 1);
+      for (Map.Entry<String, byte[]> entry : taskZnodes.entrySet()) {
+        Protos.TaskID taskId = toTaskId(entry.getKey());
+        putTask(loaded, taskId, entry.getValue());
+        loadedTasks.add(taskId);
+      }
+      synchronized (this) {
+        checkpoint = loaded;
+        storedTasks = loadedTasks;
+      }
+      LOGGER.info("Loaded state information for Myriad, {} tasks", loadedTasks.size());
+    } catch (Exception e) {
+      LOGGER.error("State information for Myriad could not be loaded from: " + myriadRootPath, e);
+    }
+    return rmState;
+  }
+
+  @Override
+  public synchronized StoreContext loadMyriadState() throws Exception {
+    return checkpoint.isEmpty() ? null : checkpoint.toStoreContext();
+  }
+
+  /**
+   * Replaces the Myriad state with the given context, deleting the znodes of tasks that are
+   * no longer part of it.
+   */
+  @Override
+  public synchronized void storeMyriadState(StoreContext sc) throws Exception {
+    LOGGER.debug("Storing state information for Myriad at: " + myriadRootPath);
+    try {
+      checkpoint = StateCheckpoint.fromStoreContext(sc);
+      Set<Protos.TaskID> touched = new LinkedHashSet<Protos.TaskID>(storedTasks);
+      touched.addAll(checkpoint.getTaskIds());
+      writeTasks(true, touched);
+    } catch (Exception e) {
+      LOGGER.error("State information for Myriad could not be stored at: " + myriadRootPath, e);
+    }
+  }
+
+  @Override
+  public synchronized void storeMyriadStateTransitions(List<StateTransition> transitions) throws Exception {
+    boolean frameworkIdChanged = false;
+    Set<Protos.TaskID> touched = new LinkedHashSet<Protos.TaskID>();
+    for (StateTransition transition : transitions) {
+      checkpoint.apply(transition);
+      if (transition.getType() == StateTransition.Type.SET_FRAMEWORK_ID) {
+        frameworkIdChanged = true;
+      } else {
+        touched.add(transition.getTaskId());
+      }
+    }
+    writeTasks(frameworkIdChanged, touched);
+  }
+
+  /**
+   * Writes the znodes of the given tasks from the checkpoint, creating, updating or deleting
+   * each one. Tasks already written are remembered, so that a batch stored again after a
+   * failure picks the right operation.
+   */
+  private void writeTasks(boolean frameworkIdChanged, Collection<Protos.TaskID> taskIds) throws Exception {
+    List<Protos.TaskID> batch = new ArrayList<Protos.TaskID>();
+    boolean writeFrameworkId = frameworkIdChanged;
+    for (Protos.TaskID taskId : taskIds) {
+      batch.add(taskId);
+      if (batch.size() >= MAX_OPS_PER_MULTI) {
+        writeBatch(writeFrameworkId, batch);
+        writeFrameworkId = false;
+        batch.clear();
+      }
+    }
+    if (writeFrameworkId || !batch.isEmpty()) {
+      writeBatch(writeFrameworkId, batch);
+    }
+  }
+
+  /*
+   * A multi retried after a connection loss may have been committed by its first attempt,
+   * in which case the retry fails on a znode created or deleted already. The znodes of the
+   * batch are then looked up, and the batch is written again with the operations that fit.
+   */
+  private void writeBatch(boolean frameworkIdChanged, List<Protos.TaskID> batch) throws Exception {
+    try {
+      multi(frameworkIdChanged, batch);
+    } catch (KeeperException.NodeExistsException | KeeperException.NoNodeException e) {
+      LOGGER.info("Myriad task znodes out of sync after {}, reading them again", e.code());
+      refreshStoredTasks(batch);
+      multi(frameworkIdChanged, batch);
+    }
+  }
+
+  private void multi(boolean frameworkIdChanged, List<Protos.TaskID> batch) throws Exception {
+    final List<Op> fencedOps = new ArrayList<Op>(batch.size() + 3);
+    List<Protos.TaskID> created = new ArrayList<Protos.TaskID>();
+    List<Protos.TaskID> deleted = new ArrayList<Protos.TaskID>();
+    fencedOps.add(Op.create(fencingNodePath, new byte[0], myriadAcl, CreateMode.PERSISTENT));
+    if (frameworkIdChanged) {
+      fencedOps.add(Op.setData(frameworkIdPath, toByteArray(checkpoint.getEncodedFrameworkId()), -1));
+    }
+    for (Protos.TaskID taskId : batch) {
+      String path = getTaskPath(taskId);
+      if (!checkpoint.hasTask(taskId)) {
+        if (storedTasks.contains(taskId)) {
+          fencedOps.add(Op.delete(path, -1));
+          deleted.add(taskId);
+        }
+      } else if (storedTasks.contains(taskId)) {
+        fencedOps.add(Op.setData(path, encodeTask(taskId), -1));
+      } else {
+        fencedOps.add(Op.create(path, encodeTask(taskId), myriadAcl, CreateMode.PERSISTENT));
+        created.add(taskId);
+      }
+    }
+    fencedOps.add(Op.delete(fencingNodePath, -1));
+    runWithRetries(new ZKAction<Void>() {
+      @Override
+      public Void run(ZooKeeper zk) throws KeeperException, InterruptedException {
+        zk.multi(fencedOps);
+        return null;
+      }
+    });
+    storedTasks.addAll(created);
+    storedTasks.removeAll(deleted);
+  }
+
+  private void refreshStoredTasks(List<Protos.TaskID> batch) throws Exception {
+    for (Protos.TaskID taskId : batch) {
+      final String path = getTaskPath(taskId);
+      Stat stat = runWithRetries(new ZKAction<Stat>() {
+        @Override
+        public Stat run(ZooKeeper zk) throws KeeperException, InterruptedException {
+          return zk.exists(path, false);
+        }
+      });
+      if (stat != null) {
+        storedTasks.add(taskId);
+      } else {
+        storedTasks.remove(taskId);
+      }
+    }
+  }
+
+  private String getTaskPath(Protos.TaskID taskId) throws UnsupportedEncodingException {
+    return getNodePath(tasksPath, toZnodeName(taskId));
+  }
+
+  private byte[] encodeTask(Protos.TaskID taskId) {
+    StateTransition.Type state = checkpoint.getTaskState(taskId);
+    encoder.reset();
+    encoder.putByte(TASK_ZNODE_VERSION);
+    encoder.putByte(state == null ? -1 : state.ordinal());
+    encoder.putBytes(checkpoint.getEncodedTask(taskId));
+    return encoder.toByteArray();
+  }
+
+  private static void putTask(StateCheckpoint loaded, Protos.TaskID taskId, byte[] data) {
+    StateDecoder decoder = new StateDecoder(ByteBuffer.wrap(data));
+    int version = decoder.getByte();
+    if (version != TASK_ZNODE_VERSION) {
+      throw new IllegalStateException("Unsupported Myriad task znode version: " + version);
+    }
+    int state = decoder.getByte();
+    loaded.putEncodedTask(taskId, decoder.getBytes(),
+      state < 0 ? null : StateTransition.Type.values()[state]);
+  }
+
+  /**
+   * Reads every task znode, keeping up to {@link #MAX_OUTSTANDING_READS} reads in flight.
+   * Znodes that could not be read asynchronously are read again one at a time.
+   */
+  private Map<String, byte[]> readTaskZnodes() throws Exception {
+    List<String> children = runWithRetries(new ZKAction<List<String>>() {
+      @Override
+      public List<String> run(ZooKeeper zk) throws KeeperException, InterruptedException {
+        return zk.getChildren(tasksPath, false);
+      }
+    });
+    final Map<String, byte[]> taskZnodes = new ConcurrentHashMap<String, byte[]>(children.size() * 4 / 3 + 1);
+    final Set<String> failed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    final Semaphore outstanding = new Semaphore(MAX_OUTSTANDING_READS);
+    final CountDownLatch done = new CountDownLatch(children.size());
+    ZooKeeper zk = getZooKeeper();
+    AsyncCallback.DataCallback callback = new AsyncCallback.DataCallback() {
+      @Override
+      public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+        String child = (String) ctx;
+        if (rc == KeeperException.Code.OK.intValue()) {
+          taskZnodes.put(child, data);
+        } else if (rc != KeeperException.Code.NONODE.intValue()) {
+          failed.add(child);
+        }
+        outstanding.release();
+        done.countDown();
+      }
+    };
+    for (String child : children) {
+      if (zk == null || !outstanding.tryAcquire(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        failed.add(child);
+        done.countDown();
+        continue;
+      }
+      zk.getData(getNodePath(tasksPath, child), false, callback, child);
+    }
+    if (!done.await(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      throw new KeeperException.OperationTimeoutException();
+    }
+
+    for (String child : failed) {
+      byte[] data = getData(getNodePath(tasksPath, child));
+      if (data != null) {
+        taskZnodes.put(child, data);
+      }
+    }
+    return taskZnodes;
+  }
+
+  /**
+   * @return the data of the znode, or null if it does not exist.
+   */
+  private byte[] getData(final String path) throws Exception {
+    return runWithRetries(new ZKAction<byte[]>() {
+      @Override
+      public byte[] run(ZooKeeper zk) throws KeeperException, InterruptedException {
+        try {
+          return zk.getData(path, false, null);
+        } catch (KeeperException.NoNodeException e) {
+          return null;
+        }
+      }
+    });
+  }
+
+  private void createIfAbsent(final String path) throws Exception {
+    runWithRetries(new ZKAction<Void>() {
+      @Override
+      public Void run(ZooKeeper zk) throws KeeperException, InterruptedException {
+        try {
+          zk.create(path, new byte[0], myriadAcl, CreateMode.PERSISTENT);
+        } catch (KeeperException.NodeExistsException e) {
+          LOGGER.debug("{} already exists", path);
+        }
+        return null;
+      }
+    });
+  }
+
+  private synchronized ZooKeeper getZooKeeper() {
+    return zkClient;
+  }
+
+  /**
+   * Runs the action with the RM's current ZooKeeper session, retrying on connection loss and
+   * session expiry while the RM reconnects. A write rejected for lack of permission means
+   * that another RM has fenced this one.
+   */
+  private <T> T runWithRetries(ZKAction<T> action) throws Exception {
+    int retry = 0;
+    while (true) {
+      try {
+        ZooKeeper zk = getZooKeeper();
+        if (zk == null) {
+          throw new KeeperException.ConnectionLossException();
+        }
+        return action.run(zk);
+      } catch (KeeperException.NoAuthException e) {
+        if (HAUtil.isHAEnabled(getConfig())) {
+          LOGGER.error("Myriad state store has been fenced by another resource manager");
+          throw new StoreFencedException();
+        }
+        throw e;
+      } catch (KeeperException e) {
+        if (!isRetriable(e.code()) || ++retry >= myriadNumRetries) {
+          throw e;
+        }
+        LOGGER.info("Retrying Myriad state store operation after {}, retry {}", e.code(), retry);
+        Thread.sleep(zkRetryInterval);
+      }
+    }
+  }
+
+  private static boolean isRetriable(KeeperException.Code code) {
+    return code == KeeperException.Code.CONNECTIONLOSS
+      || code == KeeperException.Code.OPERATIONTIMEOUT
+      || code == KeeperException.Code.SESSIONEXPIRED
+      || code == KeeperException.Code.SESSIONMOVED;
+  }
+
+  private static byte[] toByteArray(ByteBuffer bb) {
+    if (bb == null) {
+      return new byte[0];
+    }
+    byte[] bytes = new byte[bb.remaining()];
+    bb.get(bytes);
+    return bytes;
+  }
+
+  private static String toZnodeName(Protos.TaskID taskId) throws UnsupportedEncodingException {
+    return URLEncoder.encode(taskId.getValue(), UTF8);
+  }
+
+  private static Protos.TaskID toTaskId(String znodeName) throws UnsupportedEncodingException {
+    return Protos.TaskID.newBuilder().setValue(URLDecoder.decode(znodeName, UTF8)).build();
+  }
+
+  private interface ZKAction<T> {
+    T run(ZooKeeper zk) throws KeeperException, InterruptedException;
+  }
+}
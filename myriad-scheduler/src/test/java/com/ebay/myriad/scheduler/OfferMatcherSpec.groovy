@@ -0,0 +1,131 @@
+package com.ebay.myriad.scheduler
+
+import com.ebay.myriad.scheduler.constraints.LikeConstraint
+import com.ebay.myriad.scheduler.placement.BestFitStrategy
+import org.apache.mesos.Protos
+import spock.lang.Specification
+
+/**
+ *
+ * Tests for OfferResources and OfferMatcher
+ *
+ */
+class OfferMatcherSpec extends Specification {
+
+    def taskUtils = Stub(TaskUtils) {
+        getAggregateCpus(_) >> { NMProfile profile -> profile.cpus + 1.0d }
+        getAggregateMemory(_) >> { NMProfile profile -> profile.memory + 512.0d }
+    }
+
+    def "offer resources are decoded once into primitives"() {
+        when:
+        def resources = OfferResources.fromOffer(offer("host", 4, 4096, [[31000, 31009], [32000, 32000]]))
+
+        then:
+        resources.cpus == 4.0d
+        resources.mem == 4096.0d
+        resources.ports == 11
+    }
+
+    def "single port ranges are counted"() {
+        given:
+        def offer = offer("host", 4, 4096, ports)
+
+        expect:
+        OfferResources.fromOffer(offer).ports == count
+        new OfferMatcher(taskUtils, new BestFitStrategy())
+                .matches(offer, OfferResources.fromOffer(offer), new NMProfile("medium", 2, 2048), null) == (count >= 4)
+
+        where:
+        ports                                                            | count
+        [[31000, 31000]]                                                 | 1
+        [[31000, 31000], [31002, 31002], [31004, 31004]]                 | 3
+        [[31000, 31000], [31002, 31002], [31004, 31005]]                 | 4
+        [[31000, 31000], [31002, 31002], [31004, 31004], [31006, 31006]] | 4
+        [[31001, 31000]]                                                 | 0
+    }
+
+    def "offers are matched against the requirements of the profile"() {
+        given:
+        def matcher = new OfferMatcher(taskUtils, new BestFitStrategy())
+        def offer = offer("host", cpus, mem, [[31000, 31009]])
+
+        expect:
+        matcher.matches(offer, OfferResources.fromOffer(offer), new NMProfile("medium", 2, 2048), null) == matches
+
+        where:
+        cpus | mem  | matches
+        3    | 2560 | true
+        2    | 2560 | false
+        3    | 2559 | false
+    }
+
+    def "a redefined profile gets new requirements"() {
+        given:
+        def matcher = new OfferMatcher(taskUtils, new BestFitStrategy())
+        def offer = offer("host", 3, 2560, [[31000, 31009]])
+        def resources = OfferResources.fromOffer(offer)
+
+        expect:
+        matcher.matches(offer, resources, new NMProfile("medium", 2, 2048), null)
+        !matcher.matches(offer, resources, new NMProfile("medium", 4, 2048), null)
+    }
+
+    def "constraints are checked before resources"() {
+        given:
+        def matcher = new OfferMatcher(taskUtils, new BestFitStrategy())
+        def offer = offer("host-1.example.com", 3, 2560, [[31000, 31009]])
+        def resources = OfferResources.fromOffer(offer)
+        def profile = new NMProfile("medium", 2, 2048)
+
+        expect:
+        matcher.matches(offer, resources, profile, new LikeConstraint("hostname", "host-1.*"))
+        !matcher.matches(offer, resources, profile, new LikeConstraint("hostname", "host-2.*"))
+    }
+
+    def "1k offers are matched against 1k pending tasks"() {
+        given:
+        def matcher = new OfferMatcher(taskUtils, new BestFitStrategy())
+        def offers = (0..<1000).collect { offer("host-${it}", 1 + it % 8, 1024 * (1 + it % 8), [[31000, 31009]]) }
+        def profiles = [new NMProfile("small", 1, 1024), new NMProfile("medium", 2, 2048), new NMProfile("large", 4, 4096)]
+        def pending = (0..<1000).collect { profiles[it % profiles.size()] }
+
+        when:
+        def matches = matchAll(matcher, offers, pending)
+
+        then: "small NMs fit the offers with 2 cpus or more, medium ones 3 or more and large ones 5 or more"
+        matches == 875 * 334 + 750 * 333 + 500 * 333
+    }
+
+    private static long matchAll(OfferMatcher matcher, List<Protos.Offer> offers, List<NMProfile> pending) {
+        long matches = 0
+        for (Protos.Offer offer : offers) {
+            def resources = OfferResources.fromOffer(offer)
+            for (NMProfile profile : pending) {
+                if (matcher.matches(offer, resources, profile, null)) {
+                    matches++
+                }
+            }
+        }
+        matches
+    }
+
+    private static Protos.Offer offer(String hostname, double cpus, double mem, List ports) {
+        def ranges = Protos.Value.Ranges.newBuilder()
+        ports.each { ranges.addRange(Protos.Value.Range.newBuilder().setBegin(it[0]).setEnd(it[1])) }
+        Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("offer-${hostname}"))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("framework"))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-${hostname}"))
+                .setHostname(hostname)
+                .addResources(scalar("cpus", cpus))
+                .addResources(scalar("mem", mem))
+                .addResources(Protos.Resource.newBuilder().setName("ports").setType(Protos.Value.Type.RANGES).setRanges(ranges))
+                .build()
+    }
+
+    private static Protos.Resource scalar(String name, double value) {
+        Protos.Resource.newBuilder().setName(name).setType(Protos.Value.Type.SCALAR)
+                .setScalar(Protos.Value.Scalar.newBuilder().setValue(value)).build()
+    }
+}
@@ -29,6 +29,56 @@ class SchedulerUtilsSpec extends Specification {
 
     }
 
+    def "offers are grouped by slave and combined"() {
+        given:
+        def offers = [createOffer("o1", "s1", 2, 1024, 31000, 31001),
+                      createOffer("o2", "s2", 1, 512, 32000, 32001),
+                      createOffer("o3", "s1", 2, 1024, 31002, 31003)]
+
+        when:
+        def offersBySlave = SchedulerUtils.groupOffersBySlave(offers)
+        def combined = SchedulerUtils.combineOffers(offersBySlave[slaveId("s1")])
+        def resources = OfferResources.fromOffer(combined)
+
+        then:
+        offersBySlave.keySet() as List == [slaveId("s1"), slaveId("s2")]
+        offersBySlave[slaveId("s1")]*.id*.value == ["o1", "o3"]
+        combined.id.value == "o1"
+        combined.hostname == "host-s1"
+        resources.cpus == 4
+        resources.mem == 2048
+        resources.ports == 4
+        SchedulerUtils.combineOffers(offersBySlave[slaveId("s2")]).is(offers[1])
+    }
+
+    def "offers from different slaves are not combined"() {
+        when:
+        SchedulerUtils.combineOffers([createOffer("o1", "s1", 1, 1, 1, 2), createOffer("o2", "s2", 1, 1, 1, 2)])
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    static Protos.SlaveID slaveId(String id) {
+        Protos.SlaveID.newBuilder().setValue(id).build()
+    }
+
+    static Protos.Offer createOffer(String id, String slave, double cpus, double mem, long portsBegin, long portsEnd) {
+        Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue(id))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("framework"))
+                .setSlaveId(slaveId(slave))
+                .setHostname("host-" + slave)
+                .addResources(Protos.Resource.newBuilder().setName("cpus").setType(Protos.Value.Type.SCALAR)
+                    .setScalar(Protos.Value.Scalar.newBuilder().setValue(cpus)))
+                .addResources(Protos.Resource.newBuilder().setName("mem").setType(Protos.Value.Type.SCALAR)
+                    .setScalar(Protos.Value.Scalar.newBuilder().setValue(mem)))
+                .addResources(Protos.Resource.newBuilder().setName("ports").setType(Protos.Value.Type.RANGES)
+                    .setRanges(Protos.Value.Ranges.newBuilder().addRange(
+                        Protos.Value.Range.newBuilder().setBegin(portsBegin).setEnd(portsEnd))))
+                .build()
+    }
+
     ArrayList<NodeTask> createNodeTaskList(String... hostnames) {
         def list = []
         hostnames.each { hostname ->
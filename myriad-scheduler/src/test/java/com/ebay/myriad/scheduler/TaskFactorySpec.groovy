@@ -0,0 +1,102 @@
+package com.ebay.myriad.scheduler
+
+import com.ebay.myriad.configuration.MyriadConfiguration
+import com.ebay.myriad.configuration.MyriadExecutorConfiguration
+import com.ebay.myriad.state.NodeTask
+import com.google.common.base.Optional
+import org.apache.mesos.Protos
+import spock.lang.Specification
+
+/**
+ *
+ * Tests for TaskFactory
+ *
+ */
+class TaskFactorySpec extends Specification {
+
+    def profile = new NMProfile("medium", 2, 2048)
+    def cfg = Stub(MyriadConfiguration) {
+        getMyriadExecutorConfiguration() >> Stub(MyriadExecutorConfiguration) {
+            getNodeManagerUri() >> Optional.absent()
+        }
+        getFrameworkUser() >> Optional.absent()
+    }
+    def taskUtils = Stub(TaskUtils) {
+        getTaskCpus(_) >> 2.0d
+        getTaskMemory(_) >> 2048.0d
+        getExecutorCpus() >> 0.5d
+        getExecutorMemory() >> 256.0d
+    }
+    def taskFactory = new TaskFactory.NMTaskFactoryImpl(cfg, taskUtils, Stub(ExecutorCommandLineGenerator))
+
+    def "a task on offers split by role asks for each role's share, reserved roles first"() {
+        given:
+        def offer = SchedulerUtils.combineOffers([offer("o1", "hadoop", 2, 2048, 31000, 31001),
+                                                  offer("o2", "*", 2, 2048, 32000, 32001)])
+
+        when:
+        def task = taskFactory.createTask(offer, frameworkId(), taskId("nm-1"), new NodeTask(profile, null))
+
+        then:
+        byRole(task.executor.resourcesList) == ["cpus/hadoop": 0.5d, "mem/hadoop": 256.0d]
+        byRole(task.resourcesList) == ["cpus/hadoop": 1.5d, "cpus/*": 0.5d, "mem/hadoop": 1792.0d, "mem/*": 256.0d,
+                                       "ports/hadoop": 2, "ports/*": 2]
+    }
+
+    def "a task on an unreserved offer asks for unreserved resources"() {
+        when:
+        def task = taskFactory.createTask(offer("o1", "*", 3, 4096, 31000, 31009), frameworkId(), taskId("nm-1"),
+                new NodeTask(profile, null))
+
+        then:
+        byRole(task.executor.resourcesList) == ["cpus/*": 0.5d, "mem/*": 256.0d]
+        byRole(task.resourcesList) == ["cpus/*": 2.0d, "mem/*": 2048.0d, "ports/*": 4]
+    }
+
+    def "a task is not built from an offer that can not hold it"() {
+        when:
+        taskFactory.createTask(offer("o1", "hadoop", 2, 4096, 31000, 31009), frameworkId(), taskId("nm-1"),
+                new NodeTask(profile, null))
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    private static Map byRole(List<Protos.Resource> resources) {
+        def amounts = [:]
+        resources.each {
+            def key = it.name + "/" + it.role
+            def amount = it.type == Protos.Value.Type.SCALAR ? it.scalar.value :
+                    it.ranges.rangeList.sum { range -> range.end - range.begin + 1 }
+            amounts[key] = (amounts[key] ?: 0) + amount
+        }
+        amounts
+    }
+
+    private static Protos.Offer offer(String id, String role, double cpus, double mem, long portsBegin, long portsEnd) {
+        Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue(id))
+                .setFrameworkId(frameworkId())
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-1"))
+                .setHostname("host-1")
+                .addResources(scalar("cpus", role, cpus))
+                .addResources(scalar("mem", role, mem))
+                .addResources(Protos.Resource.newBuilder().setName("ports").setType(Protos.Value.Type.RANGES).setRole(role)
+                    .setRanges(Protos.Value.Ranges.newBuilder().addRange(
+                        Protos.Value.Range.newBuilder().setBegin(portsBegin).setEnd(portsEnd))))
+                .build()
+    }
+
+    private static Protos.Resource scalar(String name, String role, double value) {
+        Protos.Resource.newBuilder().setName(name).setType(Protos.Value.Type.SCALAR).setRole(role)
+                .setScalar(Protos.Value.Scalar.newBuilder().setValue(value)).build()
+    }
+
+    private static Protos.FrameworkID frameworkId() {
+        Protos.FrameworkID.newBuilder().setValue("framework").build()
+    }
+
+    private static Protos.TaskID taskId(String value) {
+        Protos.TaskID.newBuilder().setValue(value).build()
+    }
+}
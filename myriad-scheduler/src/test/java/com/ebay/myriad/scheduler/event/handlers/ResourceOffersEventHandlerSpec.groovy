@@ -0,0 +1,269 @@
+package com.ebay.myriad.scheduler.event.handlers
+
+import com.ebay.myriad.configuration.MyriadConfiguration
+import com.ebay.myriad.scheduler.GangManager
+import com.ebay.myriad.scheduler.MyriadOperations
+import com.ebay.myriad.scheduler.NMProfile
+import com.ebay.myriad.scheduler.OfferMatcher
+import com.ebay.myriad.scheduler.TaskFactory
+import com.ebay.myriad.scheduler.TaskUtils
+import com.ebay.myriad.scheduler.event.ResourceOffersEvent
+import com.ebay.myriad.scheduler.fgs.OfferLifecycleManager
+import com.ebay.myriad.scheduler.placement.BestFitStrategy
+import com.ebay.myriad.scheduler.placement.FirstFitStrategy
+import com.ebay.myriad.scheduler.placement.PlacementStrategy
+import com.ebay.myriad.state.MyriadStateStore
+import com.ebay.myriad.state.NodeTask
+import com.ebay.myriad.state.SchedulerState
+import org.apache.mesos.Protos
+import org.apache.mesos.SchedulerDriver
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CountDownLatch
+
+/**
+ *
+ * Tests for ResourceOffersEventHandler
+ *
+ */
+class ResourceOffersEventHandlerSpec extends Specification {
+
+    def schedulerState = new SchedulerState(null)
+    def launched = [].asSynchronized()
+    def declined = [].asSynchronized()
+    def driver = Stub(SchedulerDriver) {
+        launchTasks(_, _) >> { offerIds, tasks ->
+            launched << [offers: offerIds*.value, tasks: tasks*.taskId*.value]
+            Protos.Status.DRIVER_RUNNING
+        }
+        declineOffer(_) >> { Protos.OfferID offerId ->
+            declined << offerId.value
+            Protos.Status.DRIVER_RUNNING
+        }
+    }
+
+    def setup() {
+        schedulerState.setFrameworkId(Protos.FrameworkID.newBuilder().setValue("framework").build())
+    }
+
+    def "offers of a slave are used together"() {
+        given:
+        def handler = newHandler(0)
+        addPendingTask("nm-1", new NMProfile("large", 4, 4096))
+
+        when:
+        handler.onEvent(event(offer("o1", "a", 2, 2048), offer("o2", "b", 2, 2048), offer("o3", "a", 2, 2048)), 0, true)
+
+        then:
+        launched == [[offers: ["o1", "o3"], tasks: ["nm-1"]]]
+        declined == ["o2"]
+        schedulerState.getStagingTaskIds()*.value == ["nm-1"]
+    }
+
+    def "offers are held for the offer window and placed together"() {
+        given:
+        def handler = newHandler(200)
+        addPendingTask("nm-medium", new NMProfile("medium", 2, 2048))
+        addPendingTask("nm-small", new NMProfile("small", 1, 1024))
+
+        when:
+        handler.onEvent(event(offer("o1", "a", 8, 8192)), 0, true)
+        handler.onEvent(event(offer("o2", "b", 2, 2048), offer("o3", "c", 1, 1024)), 1, true)
+
+        then: "nothing is launched or declined before the window closes"
+        launched.isEmpty()
+        declined.isEmpty()
+
+        and: "each NM gets the held offer it fits best"
+        new PollingConditions(timeout: 10).eventually {
+            assert declined == ["o1"]
+        }
+        launched as Set == [[offers: ["o2"], tasks: ["nm-medium"]], [offers: ["o3"], tasks: ["nm-small"]]] as Set
+    }
+
+    def "first fit launches a NM on the first offer that fits"() {
+        given:
+        def handler = newHandler(0, new FirstFitStrategy())
+        addPendingTask("nm-small", new NMProfile("small", 1, 1024))
+
+        when:
+        handler.onEvent(event(offer("o1", "a", 8, 8192), offer("o2", "b", 1, 1024)), 0, true)
+
+        then:
+        launched == [[offers: ["o1"], tasks: ["nm-small"]]]
+        declined == ["o2"]
+    }
+
+    def "first fit launches NMs in the order they became pending"() {
+        given:
+        def handler = newHandler(0, new FirstFitStrategy())
+        def taskIds = (0..<20).collect { "nm-" + UUID.randomUUID() }
+        taskIds.each { addPendingTask(it, new NMProfile("small", 1, 1024)) }
+
+        when:
+        handler.onEvent(event(offer("o1", "a", 1, 1024), offer("o2", "b", 1, 1024)), 0, true)
+
+        then:
+        launched*.tasks.flatten() as Set == taskIds.take(2) as Set
+        schedulerState.getPendingTaskIds()*.value == taskIds.drop(2)
+    }
+
+    def "a NM flexed down while offers are placed is neither launched nor brought back"() {
+        given:
+        def handler = newHandler(0)
+        addPendingTask("nm-1", new NMProfile("small", 1, 1024))
+        handler.taskFactory = Stub(TaskFactory) {
+            createTask(*_) >> { Protos.Offer offer, Protos.FrameworkID frameworkId, Protos.TaskID taskId, NodeTask nodeTask ->
+                schedulerState.removeTask(taskId)
+                Protos.TaskInfo.newBuilder().setName("nm").setTaskId(taskId).setSlaveId(offer.slaveId).build()
+            }
+        }
+
+        when:
+        handler.onEvent(event(offer("o1", "a", 2, 2048)), 0, true)
+
+        then:
+        launched.isEmpty()
+        declined == ["o1"]
+        !schedulerState.hasTask(Protos.TaskID.newBuilder().setValue("nm-1").build())
+    }
+
+    def "a rescinded offer is no longer held"() {
+        given:
+        def handler = newHandler(200)
+
+        when:
+        handler.onEvent(event(offer("o1", "a", 8, 8192), offer("o2", "b", 8, 8192)), 0, true)
+        handler.offerRescinded(Protos.OfferID.newBuilder().setValue("o1").build())
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            assert declined == ["o2"]
+        }
+        launched.isEmpty()
+    }
+
+    def "a gang is launched once all of its NMs can be placed"() {
+        given:
+        def handler = newHandler(0)
+        operations(handler).flexUpGang(new NMProfile("medium", 2, 2048), 2, null, 60000)
+
+        when: "there is room for one NM only"
+        handler.onEvent(event(offer("o1", "a", 2, 2048), offer("o2", "b", 1, 1024)), 0, true)
+
+        then: "its offer is held for the gang"
+        launched.isEmpty()
+        declined == ["o2"]
+
+        when:
+        handler.onEvent(event(offer("o3", "c", 2, 2048)), 1, true)
+
+        then:
+        launched*.offers as Set == [["o1"], ["o3"]] as Set
+        schedulerState.getStagingTaskIds().size() == 2
+        handler.gangManager.getGangs().isEmpty()
+    }
+
+    def "a gang that can not be placed before its deadline is released"() {
+        given:
+        def handler = newHandler(0)
+        addPendingTask("nm-small", new NMProfile("small", 1, 1024))
+        operations(handler).flexUpGang(new NMProfile("medium", 2, 2048), 2, null, 300)
+
+        when:
+        handler.onEvent(event(offer("o1", "a", 2, 2048)), 0, true)
+
+        then: "the other NMs do not take the offer held for the gang"
+        launched.isEmpty()
+        declined.isEmpty()
+
+        and:
+        new PollingConditions(timeout: 10).eventually {
+            assert declined == ["o1"]
+        }
+        schedulerState.getPendingTaskIds()*.value == ["nm-small"]
+        handler.gangManager.getGangs().isEmpty()
+    }
+
+    def "offers are declined when the staging tasks are not stored in time"() {
+        given:
+        def stored = new CountDownLatch(1)
+        // not a Stub, whose calls would all wait for the blocked write
+        schedulerState = new SchedulerState([loadMyriadState: { null },
+                                             storeMyriadStateTransitions: { stored.await() }] as MyriadStateStore)
+        schedulerState.setFrameworkId(Protos.FrameworkID.newBuilder().setValue("framework").build())
+        def handler = newHandler(0)
+        addPendingTask("nm-1", new NMProfile("small", 1, 1024))
+
+        when:
+        handler.onEvent(event(offer("o1", "a", 2, 2048)), 0, true)
+
+        then:
+        launched.isEmpty()
+        declined == ["o1"]
+        schedulerState.getPendingTaskIds()*.value == ["nm-1"]
+
+        cleanup:
+        stored.countDown()
+    }
+
+    private MyriadOperations operations(ResourceOffersEventHandler handler) {
+        new MyriadOperations(schedulerState, null, handler.gangManager)
+    }
+
+    private ResourceOffersEventHandler newHandler(int offerWindowMs, PlacementStrategy strategy = new BestFitStrategy()) {
+        def taskUtils = Stub(TaskUtils) {
+            getAggregateCpus(_) >> { NMProfile profile -> profile.cpus as double }
+            getAggregateMemory(_) >> { NMProfile profile -> profile.memory as double }
+        }
+        def handler = new ResourceOffersEventHandler()
+        handler.schedulerState = schedulerState
+        handler.taskFactory = Stub(TaskFactory) {
+            createTask(*_) >> { Protos.Offer offer, Protos.FrameworkID frameworkId, Protos.TaskID taskId, NodeTask nodeTask ->
+                Protos.TaskInfo.newBuilder().setName("nm").setTaskId(taskId).setSlaveId(offer.slaveId).build()
+            }
+        }
+        handler.offerLifecycleMgr = Stub(OfferLifecycleManager)
+        handler.offerMatcher = new OfferMatcher(taskUtils, strategy)
+        handler.placementStrategy = strategy
+        handler.cfg = Stub(MyriadConfiguration) {
+            getOfferWindowMs() >> offerWindowMs
+            getGangTimeoutMs() >> 60000L
+            getStateStoreCommitTimeoutMs() >> 200
+        }
+        handler.gangManager = new GangManager(handler.cfg)
+        handler
+    }
+
+    private void addPendingTask(String id, NMProfile profile) {
+        def taskId = Protos.TaskID.newBuilder().setValue(id).build()
+        schedulerState.addTask(taskId, new NodeTask(profile, null))
+        schedulerState.makeTaskPending(taskId)
+    }
+
+    private ResourceOffersEvent event(Protos.Offer... offers) {
+        def event = new ResourceOffersEvent()
+        event.driver = driver
+        event.offers = offers as List
+        event
+    }
+
+    private static Protos.Offer offer(String id, String slave, double cpus, double mem) {
+        Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue(id))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("framework"))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue(slave))
+                .setHostname("host-" + slave)
+                .addResources(scalar("cpus", cpus))
+                .addResources(scalar("mem", mem))
+                .addResources(Protos.Resource.newBuilder().setName("ports").setType(Protos.Value.Type.RANGES)
+                    .setRanges(Protos.Value.Ranges.newBuilder().addRange(Protos.Value.Range.newBuilder().setBegin(31000).setEnd(31009))))
+                .build()
+    }
+
+    private static Protos.Resource scalar(String name, double value) {
+        Protos.Resource.newBuilder().setName(name).setType(Protos.Value.Type.SCALAR)
+                .setScalar(Protos.Value.Scalar.newBuilder().setValue(value)).build()
+    }
+}
@@ -0,0 +1,63 @@
+package com.ebay.myriad.scheduler.event.handlers
+
+import com.codahale.metrics.MetricRegistry
+import com.ebay.myriad.scheduler.NMProfile
+import com.ebay.myriad.scheduler.event.StatusUpdateEvent
+import com.ebay.myriad.scheduler.fgs.ContainerTaskRegistry
+import com.ebay.myriad.scheduler.fgs.ContainerTaskTracker
+import com.ebay.myriad.state.NodeTask
+import com.ebay.myriad.state.SchedulerState
+import org.apache.mesos.Protos
+import spock.lang.Specification
+
+/**
+ *
+ * Tests for StatusUpdateEventHandler
+ *
+ */
+class StatusUpdateEventHandlerSpec extends Specification {
+
+    def schedulerState = new SchedulerState(null)
+    def containerTaskTracker = new ContainerTaskTracker(new ContainerTaskRegistry(), new MetricRegistry())
+    def handler = new StatusUpdateEventHandler(schedulerState: schedulerState, containerTaskTracker: containerTaskTracker)
+
+    def "container task updates are tracked without touching the scheduler state"() {
+        given:
+        def version = schedulerState.getSnapshot().getVersion()
+
+        when:
+        handler.onEvent(event("yarn_container_1_0001_01_000002", Protos.TaskState.TASK_RUNNING), 0, true)
+        handler.onEvent(event("yarn_lease_container_1_0001_01_000003", Protos.TaskState.TASK_RUNNING), 1, true)
+        def liveAfterRunning = containerTaskTracker.getLiveTaskCount()
+        handler.onEvent(event("yarn_container_1_0001_01_000002", Protos.TaskState.TASK_FINISHED), 2, true)
+
+        then:
+        liveAfterRunning == 2
+        containerTaskTracker.getLiveTaskCount() == 1
+        containerTaskTracker.getState(taskId("yarn_lease_container_1_0001_01_000003")) == Protos.TaskState.TASK_RUNNING
+        schedulerState.getSnapshot().getVersion() == version
+    }
+
+    def "NM task updates go to the scheduler state"() {
+        given:
+        schedulerState.addNodes([(taskId("nm-1")): new NodeTask(new NMProfile("small", 1, 1024), null)])
+
+        when:
+        handler.onEvent(event("nm-1", Protos.TaskState.TASK_RUNNING), 0, true)
+
+        then:
+        schedulerState.getActiveTaskIds()*.value == ["nm-1"]
+        schedulerState.getTask(taskId("nm-1")).getTaskStatus().getState() == Protos.TaskState.TASK_RUNNING
+        containerTaskTracker.getLiveTaskCount() == 0
+    }
+
+    private static StatusUpdateEvent event(String id, Protos.TaskState state) {
+        def event = new StatusUpdateEvent()
+        event.setStatus(Protos.TaskStatus.newBuilder().setTaskId(taskId(id)).setState(state).build())
+        event
+    }
+
+    private static Protos.TaskID taskId(String value) {
+        Protos.TaskID.newBuilder().setValue(value).build()
+    }
+}
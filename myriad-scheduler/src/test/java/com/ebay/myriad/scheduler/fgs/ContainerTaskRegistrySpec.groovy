@@ -0,0 +1,167 @@
+package com.ebay.myriad.scheduler.fgs
+
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId
+import org.apache.hadoop.yarn.api.records.ApplicationId
+import org.apache.hadoop.yarn.api.records.ContainerId
+import org.apache.hadoop.yarn.api.records.Resource
+import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainer
+import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainerImpl
+import org.apache.mesos.Protos
+import spock.lang.Specification
+
+/**
+ *
+ * Tests for ContainerTaskRegistry
+ *
+ */
+class ContainerTaskRegistrySpec extends Specification {
+
+    def registry = new ContainerTaskRegistry()
+
+    def "a lease task records all its containers until Mesos reports it over"() {
+        given:
+        def containers = [container(1, 2, 1024, 1), container(1, 3, 2048, 2)]
+
+        when:
+        registry.register(task("yarn_lease_" + containers[0].containerId, "slave-1"), containers)
+        def slaveId = registry.getSlaveId(containerId(1, 3))
+        def resources = registry.getResources(containerId(1, 3))
+        registry.taskUpdated(status("yarn_lease_" + containers[0].containerId, Protos.TaskState.TASK_RUNNING))
+        def state = registry.getTaskState(containerId(1, 2))
+
+        then:
+        slaveId.value == "slave-1"
+        resources == Resource.newInstance(2048, 2)
+        state == Protos.TaskState.TASK_RUNNING
+        registry.getExecutorInfo(slaveId).executorId.value == "executor-slave-1"
+        registry.taskCount == 1
+        registry.containerCount == 2
+
+        when: "the task finishes"
+        registry.taskUpdated(status("yarn_lease_" + containers[0].containerId, Protos.TaskState.TASK_FINISHED))
+
+        then:
+        registry.taskCount == 0
+        registry.containerCount == 0
+        registry.getResources(containerId(1, 3)) == null
+    }
+
+    def "containers of different applications and RM runs are told apart"() {
+        given:
+        def before = ContainerId.newContainerId(ApplicationAttemptId.newInstance(ApplicationId.newInstance(1, 1), 1), 2)
+        def after = ContainerId.newContainerId(ApplicationAttemptId.newInstance(ApplicationId.newInstance(2, 1), 1), 2)
+
+        when:
+        registry.containerRecovered(before, Resource.newInstance(1024, 1))
+        registry.containerRecovered(after, Resource.newInstance(2048, 2))
+        registry.containerRecovered(containerId(2, 2), Resource.newInstance(4096, 4))
+
+        then:
+        registry.containerCount == 3
+        registry.getResources(before) == Resource.newInstance(1024, 1)
+        registry.getResources(after) == Resource.newInstance(2048, 2)
+        registry.getResources(containerId(2, 2)) == Resource.newInstance(4096, 4)
+    }
+
+    def "the registry is rebuilt after a restart whichever side reports first"() {
+        when: "reconciliation reports a task before its NM registers again"
+        registry.taskUpdated(status("yarn_" + containerId(1, 2), Protos.TaskState.TASK_RUNNING, "slave-1"))
+        registry.containerRecovered(containerId(1, 2), Resource.newInstance(1024, 1))
+
+        and: "a NM registers again before reconciliation reports the task"
+        registry.containerRecovered(containerId(1, 3), Resource.newInstance(2048, 2))
+        registry.taskUpdated(status("yarn_" + containerId(1, 3), Protos.TaskState.TASK_RUNNING, "slave-2"))
+        def statuses = registry.getTaskStatuses()
+
+        then:
+        [2, 3].collect { registry.getSlaveId(containerId(1, it)).value } == ["slave-1", "slave-2"]
+        [2, 3].collect { registry.getResources(containerId(1, it)) } ==
+                [Resource.newInstance(1024, 1), Resource.newInstance(2048, 2)]
+        statuses*.taskId*.value as Set == ["yarn_" + containerId(1, 2), "yarn_" + containerId(1, 3)] as Set
+        statuses*.state as Set == [Protos.TaskState.TASK_RUNNING] as Set
+
+        when: "a container with no task completes, and a task's container completes"
+        registry.containerRecovered(containerId(1, 4), Resource.newInstance(1024, 1))
+        registry.containerCompleted(containerId(1, 4))
+        registry.containerCompleted(containerId(1, 2))
+
+        then: "the task's record stays until Mesos reports the task over"
+        registry.getResources(containerId(1, 4)) == null
+        registry.getResources(containerId(1, 2)) == Resource.newInstance(1024, 1)
+        registry.containerCount == 2
+    }
+
+    def "lookups stay right as containers come and go past the initial capacity"() {
+        given:
+        def random = new Random(7)
+        def expected = [:]
+
+        when:
+        300000.times {
+            def id = containerId(random.nextInt(40) + 1, random.nextInt(10000) + 1)
+            if (random.nextInt(3) == 0) {
+                registry.containerCompleted(id)
+                expected.remove(id)
+            } else {
+                def resource = Resource.newInstance(random.nextInt(8192), random.nextInt(8))
+                registry.containerRecovered(id, resource)
+                expected[id] = resource
+            }
+        }
+        def mismatches = expected.findAll { id, resource -> registry.getResources(id) != resource }.size()
+        def count = registry.containerCount
+        expected.keySet().each { registry.containerCompleted(it) }
+
+        then:
+        expected.size() > 100000
+        mismatches == 0
+        count == expected.size()
+        registry.containerCount == 0
+    }
+
+    def "task ids name the container they are named after"() {
+        expect:
+        ContainerTaskRegistry.getNamingContainer(taskId(value)) == namingContainer
+
+        where:
+        value                                   | namingContainer
+        "yarn_container_1_0001_01_000002"       | containerId(1, 2)
+        "yarn_lease_container_1_0001_01_000002" | containerId(1, 2)
+        "yarn_lease_"                           | null
+        "nm.small.1234"                         | null
+    }
+
+    private RMContainer container(int app, int id, int memory, int cpus) {
+        def rmContainer = Stub(RMContainerImpl)
+        rmContainer.getContainerId() >> containerId(app, id)
+        rmContainer.getAllocatedResource() >> Resource.newInstance(memory, cpus)
+        rmContainer
+    }
+
+    private static ContainerId containerId(int app, int id) {
+        ContainerId.newContainerId(ApplicationAttemptId.newInstance(ApplicationId.newInstance(1, app), 1), id)
+    }
+
+    private static Protos.TaskID taskId(String value) {
+        Protos.TaskID.newBuilder().setValue(value).build()
+    }
+
+    private static Protos.TaskInfo task(String id, String slave) {
+        Protos.TaskInfo.newBuilder()
+                .setName(id)
+                .setTaskId(taskId(id))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue(slave))
+                .setExecutor(Protos.ExecutorInfo.newBuilder()
+                    .setExecutorId(Protos.ExecutorID.newBuilder().setValue("executor-" + slave))
+                    .setCommand(Protos.CommandInfo.newBuilder().setValue("nm")))
+                .build()
+    }
+
+    private static Protos.TaskStatus status(String id, Protos.TaskState state, String slave = null) {
+        def status = Protos.TaskStatus.newBuilder().setTaskId(taskId(id)).setState(state)
+        if (slave != null) {
+            status.setSlaveId(Protos.SlaveID.newBuilder().setValue(slave))
+        }
+        status.build()
+    }
+}
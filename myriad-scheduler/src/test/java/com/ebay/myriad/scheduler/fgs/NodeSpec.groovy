@@ -0,0 +1,176 @@
+package com.ebay.myriad.scheduler.fgs
+
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId
+import org.apache.hadoop.yarn.api.records.ApplicationId
+import org.apache.hadoop.yarn.api.records.ContainerId
+import org.apache.hadoop.yarn.api.records.Resource
+import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainer
+import org.apache.hadoop.yarn.server.resourcemanager.rmcontainer.RMContainerImpl
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.SchedulerNode
+import org.apache.mesos.Protos
+import spock.lang.Specification
+
+/**
+ *
+ * Tests for the container ledger, the base capacity and the retained offers of a Node
+ *
+ */
+class NodeSpec extends Specification {
+
+    def running = []
+    def schedulerNode = Mock(SchedulerNode) {
+        getNumContainers() >> { running.size() }
+        isValidContainer(_) >> { ContainerId id -> running.any { it.containerId == id } }
+    }
+    def node = new Node(schedulerNode)
+
+    def "running containers are only listed after an allocation"() {
+        given:
+        running << container(1, 1024, 1) << container(2, 2048, 2)
+
+        when:
+        def allocated = node.recordNewContainers()
+
+        then:
+        1 * schedulerNode.getRunningContainers() >> { new ArrayList(running) }
+        allocated*.containerId == running*.containerId
+        node.usedResources == Resource.newInstance(3072, 3)
+
+        when: "the scheduler ran without allocating"
+        allocated = node.recordNewContainers()
+
+        then:
+        0 * schedulerNode.getRunningContainers()
+        allocated.isEmpty()
+    }
+
+    def "completed containers leave the ledger"() {
+        given:
+        running << container(1, 1024, 1) << container(2, 2048, 2)
+        schedulerNode.getRunningContainers() >> { new ArrayList(running) }
+        node.recordNewContainers()
+
+        when: "a container completes and another one is allocated"
+        def completed = running.remove(0)
+        node.containerCompleted(completed)
+        running << container(3, 512, 1)
+        def allocated = node.recordNewContainers()
+
+        then:
+        allocated*.containerId == [containerId(3)]
+        node.usedResources == Resource.newInstance(2560, 3)
+    }
+
+    def "a container still on the node is kept"() {
+        given:
+        running << container(1, 1024, 1)
+        schedulerNode.getRunningContainers() >> { new ArrayList(running) }
+        node.recordNewContainers()
+
+        when:
+        node.containerCompleted(running[0])
+
+        then:
+        node.usedResources == Resource.newInstance(1024, 1)
+        node.recordNewContainers().isEmpty()
+    }
+
+    def "containers that left without a completion are dropped"() {
+        given:
+        running << container(1, 1024, 1) << container(2, 2048, 2)
+        schedulerNode.getRunningContainers() >> { new ArrayList(running) }
+        node.recordNewContainers()
+
+        when:
+        running.clear()
+        running << container(3, 512, 1)
+        def allocated = node.recordNewContainers()
+
+        then:
+        allocated*.containerId == [containerId(3)]
+        node.usedResources == Resource.newInstance(512, 1)
+    }
+
+    def "containers use the base capacity before offers fund them"() {
+        given: "a hybrid NM registered with 2 GB and 2 CPUs"
+        node.baseResources = Resource.newInstance(2048, 2)
+        running << container(1, 1024, 1) << container(2, 1024, 1) << container(3, 1024, 1)
+        schedulerNode.getRunningContainers() >> { new ArrayList(running) }
+
+        when:
+        def offerFunded = node.recordNewContainers()
+
+        then:
+        offerFunded*.containerId == [containerId(3)]
+        node.fundedCapacity == Resource.newInstance(3072, 3)
+
+        when: "a base funded container completes and another one is allocated"
+        node.containerCompleted(running.remove(0))
+        running << container(4, 1024, 1)
+        offerFunded = node.recordNewContainers()
+
+        then: "the new container takes the base capacity it left"
+        offerFunded.isEmpty()
+        node.fundedCapacity == Resource.newInstance(3072, 3)
+
+        when: "the offer funded container completes"
+        node.containerCompleted(running.remove(1))
+
+        then:
+        node.fundedCapacity == Resource.newInstance(2048, 2)
+        node.usedResources == Resource.newInstance(2048, 2)
+    }
+
+    def "offers fund only the part of a container the base capacity leaves out"() {
+        given: "a hybrid NM registered with 2 GB and 2 CPUs"
+        node.baseResources = Resource.newInstance(2048, 2)
+        running << container(1, 1024, 1) << container(2, 2048, 1)
+        schedulerNode.getRunningContainers() >> { new ArrayList(running) }
+
+        when:
+        def offerFunded = node.recordNewContainers()
+
+        then: "the second container uses the rest of the base and 1 GB of offers"
+        offerFunded*.containerId == [containerId(2)]
+        node.getOfferFundedResources(containerId(2)) == Resource.newInstance(1024, 0)
+        node.getOfferFundedResources(containerId(1)) == Resource.newInstance(0, 0)
+        node.fundedCapacity == Resource.newInstance(3072, 2)
+
+        when: "the straddling container completes"
+        node.containerCompleted(running.remove(1))
+
+        then:
+        node.fundedCapacity == Resource.newInstance(2048, 2)
+        node.usedResources == Resource.newInstance(1024, 1)
+    }
+
+    def "unused offers are held for a bounded time"() {
+        given:
+        def offers = [Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("o1"))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("framework"))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave"))
+                .setHostname("host")
+                .build()]
+
+        expect:
+        node.retainOffers(offers, 3, 1000, 0)
+        node.retainOffers(offers, 3, 1000, 500)
+        !node.retainOffers(offers, 3, 1000, 1000)
+
+        and: "offers left unused later are held anew"
+        node.retainOffers(offers, 3, 1000, 2000)
+        node.removeOffers().size() == 3
+    }
+
+    private RMContainer container(int id, int memory, int cpus) {
+        def rmContainer = Stub(RMContainerImpl)
+        rmContainer.getContainerId() >> containerId(id)
+        rmContainer.getAllocatedResource() >> Resource.newInstance(memory, cpus)
+        rmContainer
+    }
+
+    private static ContainerId containerId(int id) {
+        ContainerId.newContainerId(ApplicationAttemptId.newInstance(ApplicationId.newInstance(1, 1), 1), id)
+    }
+}
@@ -0,0 +1,267 @@
+package com.ebay.myriad.scheduler.fgs
+
+import com.codahale.metrics.MetricRegistry
+import com.ebay.myriad.configuration.MyriadConfiguration
+import com.ebay.myriad.scheduler.MyriadDriver
+import org.apache.hadoop.yarn.api.records.Resource
+import org.apache.mesos.Protos
+import org.apache.mesos.SchedulerDriver
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+
+/**
+ *
+ * Tests for the offers held by OfferLifecycleManager
+ *
+ */
+class OfferLifecycleManagerSpec extends Specification {
+
+    def metricRegistry = new MetricRegistry()
+    def declined = [].asSynchronized()
+    def driver = Stub(SchedulerDriver) {
+        declineOffer(_) >> { Protos.OfferID offerId ->
+            declined << offerId.value
+            Protos.Status.DRIVER_RUNNING
+        }
+        declineOffer(_, _) >> { Protos.OfferID offerId, Protos.Filters filters ->
+            declined << offerId.value
+            Protos.Status.DRIVER_RUNNING
+        }
+    }
+    def nodes = new ConcurrentHashMap<String, Node>()
+    def nodeStore = Stub(NodeStore) {
+        getNode(_) >> { String hostname -> node(hostname) }
+    }
+    def myriadDriver = Stub(MyriadDriver) {
+        getDriver() >> driver
+    }
+
+    def "a rescinded offer is removed from its node"() {
+        given:
+        def manager = newManager(0)
+        manager.addOffers(offer("o1", "host-1"), offer("o2", "host-1"))
+
+        when:
+        manager.offerRescinded(offerId("o1"))
+        manager.offerRescinded(offerId("unknown"))
+
+        then:
+        poll(manager, "host-1") == ["o2"]
+        meter("rescinded-offers") == 1
+        heldOffers() == 0
+
+        and: "offers do not wait for expiry without a TTL"
+        manager.@expiryQueue.isEmpty()
+    }
+
+    def "offers held past their TTL are declined"() {
+        given:
+        def manager = newManager(60000)
+        manager.addOffers(offer("o1", "host-1"), offer("o2", "host-2"))
+        poll(manager, "host-2")
+
+        when:
+        manager.expireOffers(System.currentTimeMillis())
+
+        then: "nothing expires before the TTL"
+        declined.isEmpty()
+        heldOffers() == 1
+
+        when:
+        manager.expireOffers(System.currentTimeMillis() + 60000)
+
+        then: "consumed offers are left to the capacity manager"
+        declined == ["o1"]
+        poll(manager, "host-1").isEmpty()
+        meter("expired-offers") == 1
+        heldOffers() == 0
+    }
+
+    def "offers expire without a NM heartbeat"() {
+        given:
+        def manager = newManager(200)
+
+        when:
+        manager.addOffers(offer("o1", "host-1"))
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            assert declined == ["o1"]
+        }
+    }
+
+    def "100k offers are each either rescinded or expired"() {
+        given:
+        def manager = newManager(60000)
+        def offers = (0..<100000).collect { offer("o${it}", "host-${it % 1000}") }
+
+        when:
+        offers.each { manager.addOffers(it) }
+        (0..<50000).each { manager.offerRescinded(offers[it * 2].id) }
+        manager.expireOffers(System.currentTimeMillis() + 60000)
+
+        then:
+        meter("rescinded-offers") == 50000
+        meter("expired-offers") == 50000
+        heldOffers() == 0
+    }
+
+    def "concurrent offers, heartbeats and scheduler runs for 2k hosts"() {
+        given:
+        def manager = newManager(60000)
+        def hosts = (0..<2000).collect { "host-${it}".toString() }
+        hosts.each { node(it) }
+        def offers = (0..<40000).collect { offer("o${it}", hosts[it % hosts.size()]) }
+        def offersAdded = new CountDownLatch(4)
+        def heartbeatsDone = new CountDownLatch(4)
+        def consumed = [].asSynchronized()
+        def drained = [].asSynchronized()
+
+        when: "offers arrive while NMs heartbeat and the scheduler drains the consumed offers"
+        def threads = []
+        4.times { i ->
+            threads << Thread.start {
+                (i..<offers.size()).step(4) { manager.addOffers(offers[it]) }
+                offersAdded.countDown()
+            }
+            threads << Thread.start {
+                def mine = hosts[(i..<hosts.size()).step(4)]
+                while (offersAdded.count > 0) {
+                    mine.each { consumed.addAll(manager.consumeOffers(it)*.id*.value) }
+                }
+                mine.each { consumed.addAll(manager.consumeOffers(it)*.id*.value) }
+                heartbeatsDone.countDown()
+            }
+        }
+        threads << Thread.start {
+            (0..<offers.size()).step(3) { manager.offerRescinded(offers[it].id) }
+        }
+        threads << Thread.start {
+            while (heartbeatsDone.count > 0) {
+                hosts.each { drained.addAll(manager.drainConsumedOffer(it)?.offerIds*.value ?: []) }
+            }
+        }
+        threads*.join()
+        hosts.each { drained.addAll(manager.drainConsumedOffer(it)?.offerIds*.value ?: []) }
+        def consumedOnce = (consumed as Set).size()
+        def drainedOnce = (drained as Set).size()
+        def consumedNotDrained = ((consumed as Set) - drained).size()
+
+        then: "every offer is either rescinded or consumed and drained, exactly once"
+        consumedOnce == consumed.size()
+        drainedOnce == drained.size()
+        consumedNotDrained == 0
+        drained.size() == consumed.size()
+        consumed.size() + meter("rescinded-offers") == 40000
+        heldOffers() == 0
+    }
+
+    def "fractions of offers add up to whole vcores"() {
+        given:
+        def manager = newManager(0)
+        manager.addOffers(offer("o1", "host-1", 0.5, 512), offer("o2", "host-1", 0.5, 512),
+                offer("o3", "host-1", 0.9, 512))
+
+        when: "one vcore is needed"
+        def consumed = manager.consumeOffers("host-1", Resource.newInstance(0, 1))*.id*.value
+
+        then: "the two half cpus cover it"
+        consumed == ["o1", "o2"]
+        declined == ["o3"]
+        manager.getConsumedResources() == Resource.newInstance(1024, 1)
+    }
+
+    def "no fraction is lost over a long offer sequence"() {
+        given: "offers of 0.1 to 0.9 cpus for 3 hosts, consumed and drained in random batches"
+        def manager = newManager(0)
+        def random = new Random(42)
+        def hosts = ["host-1", "host-2", "host-3"]
+        long offeredMilliCpus = 0
+        long drainedMilliCpus = 0
+        def outstanding = [:].withDefault { 0L }
+        def drift = 0
+
+        when:
+        for (int i = 0; i < 20000; i++) {
+            def hostname = hosts[random.nextInt(hosts.size())]
+            long milliCpus = 100 * (1 + random.nextInt(9))
+            manager.addOffers(offer("o" + i, hostname, milliCpus / 1000d, 0.1))
+            offeredMilliCpus += milliCpus
+            if (random.nextInt(4) == 0) {
+                outstanding[hostname] += MilliResources.of(manager.consumeOffers(hostname)).milliCpus
+            }
+            if (random.nextInt(8) == 0) {
+                drainedMilliCpus += drain(manager, hostname)
+                outstanding[hostname] = 0L
+            }
+            int expected = outstanding.values().sum(0L).intdiv(1000)
+            drift = Math.max(drift, Math.abs(manager.getConsumedResources().virtualCores - expected))
+        }
+        hosts.each { hostname ->
+            manager.consumeOffers(hostname)
+            drainedMilliCpus += drain(manager, hostname)
+        }
+
+        then: "the consumed total always matches the exact sum, and every fraction offered is drained"
+        drift == 0
+        manager.getConsumedResources() == Resource.newInstance(0, 0)
+        drainedMilliCpus == offeredMilliCpus
+    }
+
+    private Node node(String hostname) {
+        nodes.putIfAbsent(hostname, new Node(null))
+        nodes[hostname]
+    }
+
+    private OfferLifecycleManager newManager(long offerTtlMs) {
+        def cfg = Stub(MyriadConfiguration) {
+            getFgsOfferTtlMs() >> offerTtlMs
+        }
+        new OfferLifecycleManager(nodeStore, myriadDriver, cfg, metricRegistry)
+    }
+
+    /**
+     * Consumes the offers of the host, as a NM heartbeat does.
+     */
+    private static List<String> poll(OfferLifecycleManager manager, String hostname) {
+        manager.consumeOffers(hostname)*.id*.value
+    }
+
+    private static long drain(OfferLifecycleManager manager, String hostname) {
+        def consumedOffer = manager.drainConsumedOffer(hostname)
+        consumedOffer != null ? MilliResources.of(consumedOffer.offers).milliCpus : 0
+    }
+
+    private long meter(String name) {
+        metricRegistry.meter(MetricRegistry.name(OfferLifecycleManager, name)).count
+    }
+
+    private int heldOffers() {
+        metricRegistry.gauges[MetricRegistry.name(OfferLifecycleManager, "held-offers")].value
+    }
+
+    private static Protos.OfferID offerId(String id) {
+        Protos.OfferID.newBuilder().setValue(id).build()
+    }
+
+    private static Protos.Offer offer(String id, String hostname, double cpus, double mem) {
+        offer(id, hostname).toBuilder()
+                .addResources(Protos.Resource.newBuilder().setName("cpus").setType(Protos.Value.Type.SCALAR)
+                    .setScalar(Protos.Value.Scalar.newBuilder().setValue(cpus)))
+                .addResources(Protos.Resource.newBuilder().setName("mem").setType(Protos.Value.Type.SCALAR)
+                    .setScalar(Protos.Value.Scalar.newBuilder().setValue(mem)))
+                .build()
+    }
+
+    private static Protos.Offer offer(String id, String hostname) {
+        Protos.Offer.newBuilder()
+                .setId(offerId(id))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("framework"))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-" + hostname))
+                .setHostname(hostname)
+                .build()
+    }
+}
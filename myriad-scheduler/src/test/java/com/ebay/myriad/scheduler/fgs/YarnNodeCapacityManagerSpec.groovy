@@ -0,0 +1,423 @@
+package com.ebay.myriad.scheduler.fgs
+
+import com.codahale.metrics.MetricRegistry
+import com.ebay.myriad.configuration.MyriadConfiguration
+import com.ebay.myriad.scheduler.MyriadDriver
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId
+import org.apache.hadoop.yarn.api.records.ApplicationId
+import org.apache.hadoop.yarn.api.records.ApplicationSubmissionContext
+import org.apache.hadoop.yarn.api.records.Priority
+import org.apache.hadoop.yarn.api.records.Resource
+import org.apache.hadoop.yarn.api.records.ResourceOption
+import org.apache.hadoop.yarn.api.records.ResourceRequest
+import org.apache.hadoop.yarn.conf.YarnConfiguration
+import org.apache.hadoop.yarn.event.AbstractEvent
+import org.apache.hadoop.yarn.event.EventHandler
+import org.apache.hadoop.yarn.server.resourcemanager.MockNM
+import org.apache.hadoop.yarn.server.resourcemanager.MockRM
+import org.apache.hadoop.yarn.server.resourcemanager.rmapp.RMAppImpl
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.ResourceScheduler
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.AppAddedSchedulerEvent
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.AppAttemptAddedSchedulerEvent
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeAddedSchedulerEvent
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeRemovedSchedulerEvent
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeResourceUpdateSchedulerEvent
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.NodeUpdateSchedulerEvent
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.SchedulerEvent
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.event.SchedulerEventType
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.fair.FairScheduler
+import org.apache.hadoop.yarn.util.Records
+import org.apache.hadoop.yarn.util.resource.Resources
+import org.apache.mesos.Protos
+import org.apache.mesos.SchedulerDriver
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ *
+ * Tests for the node capacity updates published by YarnNodeCapacityManager
+ *
+ */
+class YarnNodeCapacityManagerSpec extends Specification {
+
+    def capacityUpdates = new AtomicInteger()
+    def declined = [].asSynchronized()
+    def launched = [].asSynchronized()
+    def driver = Stub(SchedulerDriver) {
+        declineOffer(_) >> { Protos.OfferID offerId ->
+            declined << offerId.value
+            Protos.Status.DRIVER_RUNNING
+        }
+        declineOffer(_, _) >> { Protos.OfferID offerId, Protos.Filters filters ->
+            declined << offerId.value
+            Protos.Status.DRIVER_RUNNING
+        }
+        launchTasks(_, _) >> { Collection<Protos.OfferID> offerIds, Collection<Protos.TaskInfo> tasks ->
+            launched.addAll(tasks)
+            Protos.Status.DRIVER_RUNNING
+        }
+    }
+    def myriadDriver = Stub(MyriadDriver) {
+        getDriver() >> driver
+    }
+    def nodeStore = new NodeStore()
+    def cfg = Stub(MyriadConfiguration) {
+        getFgsOfferRetainRuns() >> 2
+        getFgsOfferRetainMs() >> 60000L
+    }
+    def offerLifecycleManager = new OfferLifecycleManager(nodeStore, myriadDriver, cfg, new MetricRegistry())
+    def containerTaskRegistry = new ContainerTaskRegistry()
+    MockRM rm
+    MockNM nm
+    YarnNodeCapacityManager capacityManager
+
+    def setup() {
+        def conf = new YarnConfiguration()
+        conf.setClass(YarnConfiguration.RM_SCHEDULER, FairScheduler, ResourceScheduler)
+        // FGS NMs register with no capacity of their own
+        conf.setInt(YarnConfiguration.RM_SCHEDULER_MINIMUM_ALLOCATION_MB, 0)
+        conf.setInt(YarnConfiguration.RM_SCHEDULER_MINIMUM_ALLOCATION_VCORES, 0)
+        rm = new MockRM(conf)
+        rm.getRMContext().getDispatcher().register(SchedulerEventType, new EventHandler<SchedulerEvent>() {
+            @Override
+            void handle(SchedulerEvent event) {
+                if (event.getType() == SchedulerEventType.NODE_RESOURCE_UPDATE) {
+                    capacityUpdates.incrementAndGet()
+                }
+            }
+        })
+        rm.start()
+        nm = rm.registerNode("host-1:1234", 0, 0)
+        new PollingConditions(timeout: 10).eventually {
+            assert scheduler().getSchedulerNode(nm.getNodeId()) != null
+        }
+        nodeStore.add(scheduler().getSchedulerNode(nm.getNodeId()))
+        capacityManager = new YarnNodeCapacityManager(null, scheduler(), rm.getRMContext(), myriadDriver,
+                null, offerLifecycleManager, nodeStore, null, cfg, containerTaskRegistry)
+    }
+
+    def cleanup() {
+        rm?.stop()
+    }
+
+    def "capacity updates waiting in the dispatcher are coalesced"() {
+        given:
+        def blocked = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        rm.getRMContext().getDispatcher().register(Blocker, new EventHandler<BlockingEvent>() {
+            @Override
+            void handle(BlockingEvent event) {
+                blocked.countDown()
+                release.await()
+            }
+        })
+
+        when: "100 capacity changes are made while the dispatcher is busy"
+        rm.getRMContext().getDispatcher().getEventHandler().handle(new BlockingEvent())
+        blocked.await()
+        (1..100).each { capacityManager.setNodeCapacity(rmNode(), Resource.newInstance(it * 1024, it)) }
+        release.countDown()
+
+        then: "one update reaches the scheduler, with the final capacity"
+        new PollingConditions(timeout: 10).eventually {
+            assert schedulerCapacity() == Resource.newInstance(100 * 1024, 100)
+            assert capacityUpdates.get() > 0
+        }
+        capacityUpdates.get() == 1
+    }
+
+    @Unroll
+    def "a capacity update the scheduler drops does not hold back later ones (#dropped)"() {
+        given:
+        def blocked = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        rm.getRMContext().getDispatcher().register(Blocker, new EventHandler<BlockingEvent>() {
+            @Override
+            void handle(BlockingEvent event) {
+                blocked.countDown()
+                release.await()
+            }
+        })
+        rm.getRMContext().getDispatcher().getEventHandler().handle(new BlockingEvent())
+        blocked.await()
+
+        when: "an update is dispatched and the scheduler goes past it without reading the capacity"
+        capacityManager.setNodeCapacity(rmNode(), Resource.newInstance(1024, 1))
+        SchedulerEvent event = events[dropped](rmNode())
+        capacityManager.beforeSchedulerEventHandled(event)
+        capacityManager.afterSchedulerEventHandled(event)
+
+        and: "the capacity changes again"
+        capacityManager.setNodeCapacity(rmNode(), Resource.newInstance(2048, 2))
+        release.countDown()
+
+        then: "the new capacity is dispatched too"
+        new PollingConditions(timeout: 10).eventually {
+            assert capacityUpdates.get() == 2
+        }
+
+        where:
+        dropped << ["resource update", "node removed", "node added"]
+        events = [
+                "resource update": { rmNode ->
+                    new NodeResourceUpdateSchedulerEvent(rmNode, ResourceOption.newInstance(Resource.newInstance(0, 0), 0))
+                },
+                "node removed"   : { rmNode -> new NodeRemovedSchedulerEvent(rmNode) },
+                "node added"     : { rmNode -> new NodeAddedSchedulerEvent(rmNode) }
+        ]
+    }
+
+    def "a heartbeat cycle dispatches one capacity update"() {
+        given: "an offer consumed by a NM heartbeat"
+        offerLifecycleManager.addOffers(offer("o1", "host-1", 4, 4096))
+        def offered = OfferUtils.getYarnResourcesFromMesosOffers(offerLifecycleManager.consumeOffers("host-1"))
+
+        when: "the heartbeat publishes the offered capacity"
+        capacityManager.setNodeCapacity(rmNode(), offered)
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            assert schedulerCapacity() == Resource.newInstance(4096, 4)
+            assert capacityUpdates.get() > 0
+        }
+
+        when: "the scheduler run that follows allocates nothing"
+        capacityManager.afterSchedulerEventHandled(new NodeUpdateSchedulerEvent(rmNode()))
+
+        then: "the offer is declined and the capacity is taken back without another event"
+        declined == ["o1"]
+        schedulerCapacity() == Resource.newInstance(0, 0)
+        capacityUpdates.get() == 1
+    }
+
+    def "an offer turns into capacity without waiting for a heartbeat"() {
+        given:
+        def nodeUpdates = new AtomicInteger()
+        rm.getRMContext().getDispatcher().register(SchedulerEventType, new EventHandler<SchedulerEvent>() {
+            @Override
+            void handle(SchedulerEvent event) {
+                if (event.getType() == SchedulerEventType.NODE_UPDATE) {
+                    nodeUpdates.incrementAndGet()
+                }
+            }
+        })
+        requestContainers(1, 1024, 1)
+        offerLifecycleManager.addOffers(offer("o1", "host-1", 4, 4096))
+
+        when:
+        capacityManager.addCapacityFromOffers("host-1")
+
+        then: "the scheduler runs for the node with the offered capacity, and allocates the container"
+        nodeStore.getNode("host-1").consumedResources == Resource.newInstance(4096, 4)
+        new PollingConditions(timeout: 10).eventually {
+            assert schedulerCapacity() == Resource.newInstance(4096, 4)
+            assert nodeUpdates.get() > 0
+            assert scheduler().getSchedulerNode(nm.getNodeId()).getNumContainers() == 1
+        }
+        declined.isEmpty()
+    }
+
+    def "offers are only consumed as far as applications are waiting for containers"() {
+        given:
+        requestContainers(2, 1024, 1)
+        offerLifecycleManager.addOffers(offer("o1", "host-1", 1, 1024), offer("o2", "host-1", 2, 2048),
+                offer("o3", "host-1", 4, 4096))
+
+        when:
+        def consumed = offerLifecycleManager.consumeOffers("host-1", capacityManager.getUnmetDemand())*.id*.value
+
+        then: "the offer left over is declined, and the demand is covered"
+        consumed == ["o1", "o2"]
+        declined == ["o3"]
+        capacityManager.getUnmetDemand() == Resource.newInstance(0, 0)
+
+        when: "the consumed offers are drained"
+        offerLifecycleManager.drainConsumedOffer("host-1")
+
+        then: "they no longer count against the demand"
+        capacityManager.getUnmetDemand() == Resource.newInstance(2048, 2)
+    }
+
+    def "offers are declined when no application is waiting for containers"() {
+        given:
+        offerLifecycleManager.addOffers(offer("o1", "host-1", 4, 4096))
+
+        when:
+        capacityManager.addCapacityFromOffers("host-1")
+
+        then:
+        declined == ["o1"]
+        capacityUpdates.get() == 0
+        schedulerCapacity() == Resource.newInstance(0, 0)
+    }
+
+    def "unused offers are held for the next runs while applications wait for containers"() {
+        given:
+        requestContainers(1, 1024, 1)
+        offerLifecycleManager.addOffers(offer("o1", "host-1", 4, 4096))
+
+        when: "two scheduler runs leave the offer unused"
+        2.times { heartbeatAndSchedulerRun() }
+
+        then: "it is held for the next heartbeat"
+        declined.isEmpty()
+        nodeStore.getNode("host-1").hasPendingOffers()
+
+        when: "a third run leaves it unused"
+        heartbeatAndSchedulerRun()
+
+        then:
+        declined == ["o1"]
+        !nodeStore.getNode("host-1").hasPendingOffers()
+    }
+
+    def "the capacity of a hybrid node does not drop below its base"() {
+        given: "a NM registered with 2 GB and 2 CPUs"
+        nodeStore.getNode("host-1").setBaseResources(Resource.newInstance(2048, 2))
+        offerLifecycleManager.addOffers(offer("o1", "host-1", 4, 4096))
+
+        when: "a heartbeat adds the offer on top of the base"
+        def offered = OfferUtils.getYarnResourcesFromMesosOffers(offerLifecycleManager.consumeOffers("host-1"))
+        capacityManager.setNodeCapacity(rmNode(), Resources.add(nodeStore.getNode("host-1").fundedCapacity, offered))
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            assert schedulerCapacity() == Resource.newInstance(6144, 6)
+        }
+
+        when: "the scheduler run that follows allocates nothing"
+        capacityManager.afterSchedulerEventHandled(new NodeUpdateSchedulerEvent(rmNode()))
+
+        then: "the capacity goes back to the base"
+        declined == ["o1"]
+        schedulerCapacity() == Resource.newInstance(2048, 2)
+
+        when: "a lower capacity is asked for"
+        capacityManager.setNodeCapacity(rmNode(), Resource.newInstance(0, 0))
+
+        then:
+        rmNode().getTotalCapability() == Resource.newInstance(2048, 2)
+    }
+
+    def "the containers of a scheduler run share one lease task"() {
+        given:
+        cfg.isFgsLeaseTasks() >> leaseTasks
+        nodeStore.getNode("host-1").setExecInfo(Protos.ExecutorInfo.newBuilder()
+                .setExecutorId(Protos.ExecutorID.newBuilder().setValue("executor"))
+                .setCommand(Protos.CommandInfo.newBuilder().setValue("nm"))
+                .build())
+        requestContainers(2, 1024, 1)
+        offerLifecycleManager.addOffers(offer("o1", "host-1", 4, 4096))
+
+        when: "the scheduler allocates two containers on the offer"
+        capacityManager.setNodeCapacity(rmNode(),
+                OfferUtils.getYarnResourcesFromMesosOffers(offerLifecycleManager.consumeOffers("host-1")))
+        new PollingConditions(timeout: 10).eventually {
+            assert schedulerCapacity() == Resource.newInstance(4096, 4)
+        }
+        2.times { scheduler().handle(new NodeUpdateSchedulerEvent(rmNode())) }
+        capacityManager.afterSchedulerEventHandled(new NodeUpdateSchedulerEvent(rmNode()))
+        def taskIds = launched*.taskId*.value
+        def cpus = launched*.resourcesList.flatten().findAll { it.name == "cpus" }*.scalar*.value
+        def mem = launched*.resourcesList.flatten().findAll { it.name == "mem" }*.scalar*.value
+        def leasedContainers = launched.findAll { it.hasData() }*.data*.toStringUtf8()
+
+        then: "Mesos holds exactly the resources of the containers"
+        taskIds.size() == tasks
+        taskIds.every { it.startsWith(prefix) }
+        cpus == taskCpus
+        mem == taskMem
+        leasedContainers.collect { it.split(",").size() } == leaseSizes
+        containerTaskRegistry.taskCount == tasks
+        containerTaskRegistry.containerCount == 2
+        containerTaskRegistry.getExecutorInfo(Protos.SlaveID.newBuilder().setValue("slave-host-1").build())
+                .executorId.value == "executor"
+        declined.isEmpty()
+        schedulerCapacity() == Resource.newInstance(2048, 2)
+
+        where:
+        leaseTasks | tasks | prefix        | taskCpus   | taskMem          | leaseSizes
+        false      | 2     | "yarn_cont"   | [1.0, 1.0] | [1024.0, 1024.0] | []
+        true       | 1     | "yarn_lease_" | [2.0]      | [2048.0]         | [2]
+    }
+
+    def "no capacity is added without offers"() {
+        when:
+        capacityManager.addCapacityFromOffers("host-1")
+        capacityManager.addCapacityFromOffers("host-2")
+
+        then:
+        capacityUpdates.get() == 0
+        schedulerCapacity() == Resource.newInstance(0, 0)
+    }
+
+    /*
+     * Adds an application to the scheduler, asking for the given containers anywhere.
+     */
+    private void requestContainers(int containers, int memory, int cpus) {
+        def attemptId = ApplicationAttemptId.newInstance(ApplicationId.newInstance(1, 1), 1)
+        // an unmanaged AM, so that the queue's AM share does not hold the containers back
+        def submissionContext = Records.newRecord(ApplicationSubmissionContext)
+        submissionContext.setUnmanagedAM(true)
+        rm.getRMContext().getRMApps().put(attemptId.applicationId, Stub(RMAppImpl) {
+            getCurrentAppAttempt() >> null
+            getApplicationSubmissionContext() >> submissionContext
+        })
+        scheduler().handle(new AppAddedSchedulerEvent(attemptId.applicationId, "default", "user"))
+        scheduler().handle(new AppAttemptAddedSchedulerEvent(attemptId, false))
+        scheduler().allocate(attemptId, [ResourceRequest.newInstance(Priority.newInstance(1), ResourceRequest.ANY,
+                Resource.newInstance(memory, cpus), containers)], [], null, null)
+    }
+
+    /*
+     * A NM heartbeat turning the held offers into capacity, followed by a scheduler run
+     * that allocates nothing.
+     */
+    private void heartbeatAndSchedulerRun() {
+        def offered = OfferUtils.getYarnResourcesFromMesosOffers(offerLifecycleManager.consumeOffers("host-1"))
+        capacityManager.setNodeCapacity(rmNode(), offered)
+        capacityManager.afterSchedulerEventHandled(new NodeUpdateSchedulerEvent(rmNode()))
+    }
+
+    private FairScheduler scheduler() {
+        (FairScheduler) rm.getResourceScheduler()
+    }
+
+    private rmNode() {
+        rm.getRMContext().getRMNodes().get(nm.getNodeId())
+    }
+
+    private Resource schedulerCapacity() {
+        scheduler().getSchedulerNode(nm.getNodeId()).getTotalResource()
+    }
+
+    private static Protos.Offer offer(String id, String hostname, double cpus, double mem) {
+        Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue(id))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("framework"))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-" + hostname))
+                .setHostname(hostname)
+                .addResources(Protos.Resource.newBuilder().setName("cpus").setType(Protos.Value.Type.SCALAR)
+                    .setScalar(Protos.Value.Scalar.newBuilder().setValue(cpus)))
+                .addResources(Protos.Resource.newBuilder().setName("mem").setType(Protos.Value.Type.SCALAR)
+                    .setScalar(Protos.Value.Scalar.newBuilder().setValue(mem)))
+                .build()
+    }
+
+    static enum Blocker {
+        BLOCK
+    }
+
+    /**
+     * Holds up the RM's dispatcher, so that the events sent meanwhile wait in its queue.
+     */
+    static class BlockingEvent extends AbstractEvent<Blocker> {
+        BlockingEvent() {
+            super(Blocker.BLOCK)
+        }
+    }
+}
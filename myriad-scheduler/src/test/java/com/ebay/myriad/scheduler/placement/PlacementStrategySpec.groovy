@@ -0,0 +1,190 @@
+package com.ebay.myriad.scheduler.placement
+
+import com.ebay.myriad.configuration.MyriadConfiguration
+import com.ebay.myriad.scheduler.NMProfile
+import com.ebay.myriad.scheduler.OfferMatcher
+import com.ebay.myriad.scheduler.OfferResources
+import com.ebay.myriad.scheduler.TaskUtils
+import com.ebay.myriad.state.NodeTask
+import com.ebay.myriad.state.SchedulerState
+import com.sun.management.ThreadMXBean
+import groovy.transform.CompileStatic
+import org.apache.mesos.Protos
+import spock.lang.Specification
+
+import java.lang.management.ManagementFactory
+
+/**
+ *
+ * Tests for the placement strategies, simulating NM launches on a cluster
+ *
+ */
+class PlacementStrategySpec extends Specification {
+
+    static final NMProfile SMALL = new NMProfile("small", 1, 1024)
+    static final NMProfile MEDIUM = new NMProfile("medium", 2, 2048)
+    static final NMProfile LARGE = new NMProfile("large", 4, 4096)
+
+    def taskUtils = Stub(TaskUtils) {
+        getAggregateCpus(_) >> { NMProfile profile -> profile.cpus as double }
+        getAggregateMemory(_) >> { NMProfile profile -> profile.memory as double }
+    }
+    def schedulerState = Stub(SchedulerState) {
+        getActiveTasks() >> []
+        getStagingTaskIds() >> ([] as Set)
+    }
+
+    def "best fit uses at least as much of a simulated cluster as the other strategies"() {
+        given: "60 slaves of 2 to 8 cpus and 12 flex ups, each of 8 randomly sized NMs"
+        def random = new Random(42)
+        def flexUps = (0..<12).collect { (0..<8).collect { [SMALL, MEDIUM, LARGE][random.nextInt(3)] } }
+        def strategies = [firstfit: new FirstFitStrategy(), bestfit: new BestFitStrategy(), worstfit: new WorstFitStrategy()]
+
+        when:
+        def results = strategies.collectEntries { name, strategy -> [(name): simulate(strategy, flexUps)] }
+
+        then: "first fit in arrival order lets small NMs take the slaves large ones need"
+        results.bestfit.utilization >= results.firstfit.utilization
+        results.bestfit.utilization >= results.worstfit.utilization
+        results.bestfit.pendingLarge <= results.firstfit.pendingLarge
+    }
+
+    def "first fit is the default and launches on the first offer that fits"() {
+        given:
+        def offers = [offer("host-0", 2, 2048, null), offer("host-1", 8, 8192, null), offer("host-2", 4, 4096, null)] as Protos.Offer[]
+        def resources = offers.collect { OfferResources.fromOffer(it) } as OfferResources[]
+        def strategy = new FirstFitStrategy()
+        def matcher = new OfferMatcher(taskUtils, strategy)
+
+        expect:
+        new MyriadConfiguration().placementStrategy == FirstFitStrategy.NAME
+        !strategy.isLargestFirst()
+        matcher.bestOffer(offers, resources, LARGE, null) == 1
+        matcher.bestOffer(offers, resources, SMALL, null) == 0
+    }
+
+    def "attribute spread spreads NMs across racks"() {
+        given:
+        def offers = (0..<40).collect { offer("host-${it}", 8, 8192, "rack-${it.intdiv(10)}") }
+
+        when:
+        def packed = placedPerRack(new BestFitStrategy(), offers, 12)
+        def spread = placedPerRack(new AttributeSpreadStrategy("rack"), offers, 12)
+
+        then:
+        packed == ["rack-0": 10, "rack-1": 2]
+        spread == ["rack-0": 3, "rack-1": 3, "rack-2": 3, "rack-3": 3]
+    }
+
+    def "attribute spread counts the NMs already running"() {
+        given:
+        def running = new NodeTask(LARGE, null)
+        running.slaveAttributes = offer("host-0", 8, 8192, "rack-0").attributesList
+        def state = Stub(SchedulerState) {
+            getActiveTasks() >> [running]
+            getStagingTaskIds() >> ([] as Set)
+        }
+        def strategy = new AttributeSpreadStrategy("rack")
+        def offers = [offer("host-1", 8, 8192, "rack-0"), offer("host-2", 8, 8192, "rack-1")]
+        def resources = offers.collect { OfferResources.fromOffer(it) }
+
+        when:
+        strategy.prepare(state)
+
+        then:
+        strategy.score(offers[1], resources[1], 4, 4096) > strategy.score(offers[0], resources[0], 4, 4096)
+    }
+
+    def "scoring does not allocate"() {
+        given: "offers that all fit, so that no mismatch is logged"
+        def offers = (0..<1000).collect { offer("host-${it}", 4 + it % 5, 1024 * (4 + it % 5), "rack-${it % 4}") } as Protos.Offer[]
+        def resources = offers.collect { OfferResources.fromOffer(it) } as OfferResources[]
+        def strategies = [new BestFitStrategy(), new WorstFitStrategy(), new AttributeSpreadStrategy("rack")]
+
+        when:
+        def allocated = strategies.collect { strategy ->
+            def matcher = new OfferMatcher(taskUtils, strategy)
+            strategy.prepare(schedulerState)
+            1000.times { matcher.bestOffer(offers, resources, LARGE, null) }
+            long before = allocatedBytes()
+            1000.times { matcher.bestOffer(offers, resources, LARGE, null) }
+            allocatedBytes() - before
+        }
+
+        then: "only the 1000 calls from the spec allocate"
+        allocated.every { it < 1000000 }
+    }
+
+    private Map simulate(PlacementStrategy strategy, List<List<NMProfile>> flexUps) {
+        def cpus = [2, 4, 6, 8]
+        def offers = (0..<60).collect { offer("host-${it}", cpus[it % 4], 1024 * cpus[it % 4], null) } as Protos.Offer[]
+        def resources = offers.collect { OfferResources.fromOffer(it) } as OfferResources[]
+        def matcher = new OfferMatcher(taskUtils, strategy)
+        double usedCpus = 0
+        def pending = []
+        flexUps.each { flexUp ->
+            pending.addAll(flexUp)
+            if (strategy.isLargestFirst()) {
+                pending.sort { -it.cpus }
+            }
+            strategy.prepare(schedulerState)
+            for (Iterator<NMProfile> it = pending.iterator(); it.hasNext();) {
+                NMProfile profile = it.next()
+                int slave = matcher.bestOffer(offers, resources, profile, null)
+                if (slave >= 0) {
+                    strategy.placed(offers[slave])
+                    offers[slave] = null
+                    usedCpus += profile.cpus
+                    it.remove()
+                }
+            }
+        }
+        [utilization : Math.round(100 * usedCpus / resources.sum { it.cpus }),
+         pendingLarge: pending.count { it.is(LARGE) },
+         pending     : pending.size()]
+    }
+
+    private Map placedPerRack(PlacementStrategy strategy, List<Protos.Offer> offerList, int tasks) {
+        def offers = offerList as Protos.Offer[]
+        def resources = offerList.collect { OfferResources.fromOffer(it) } as OfferResources[]
+        def matcher = new OfferMatcher(taskUtils, strategy)
+        def perRack = new TreeMap()
+        strategy.prepare(schedulerState)
+        tasks.times {
+            int slave = matcher.bestOffer(offers, resources, LARGE, null)
+            def rack = offers[slave].attributesList[0].text.value
+            perRack[rack] = (perRack[rack] ?: 0) + 1
+            strategy.placed(offers[slave])
+            offers[slave] = null
+        }
+        perRack
+    }
+
+    @CompileStatic
+    private static long allocatedBytes() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean()
+        threads.getThreadAllocatedBytes(Thread.currentThread().getId())
+    }
+
+    private static Protos.Offer offer(String hostname, double cpus, double mem, String rack) {
+        def offer = Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("offer-${hostname}"))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("framework"))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-${hostname}"))
+                .setHostname(hostname)
+                .addResources(scalar("cpus", cpus))
+                .addResources(scalar("mem", mem))
+                .addResources(Protos.Resource.newBuilder().setName("ports").setType(Protos.Value.Type.RANGES)
+                    .setRanges(Protos.Value.Ranges.newBuilder().addRange(Protos.Value.Range.newBuilder().setBegin(31000).setEnd(31009))))
+        if (rack != null) {
+            offer.addAttributes(Protos.Attribute.newBuilder().setName("rack").setType(Protos.Value.Type.TEXT)
+                    .setText(Protos.Value.Text.newBuilder().setValue(rack)))
+        }
+        offer.build()
+    }
+
+    private static Protos.Resource scalar(String name, double value) {
+        Protos.Resource.newBuilder().setName(name).setType(Protos.Value.Type.SCALAR)
+                .setScalar(Protos.Value.Scalar.newBuilder().setValue(value)).build()
+    }
+}
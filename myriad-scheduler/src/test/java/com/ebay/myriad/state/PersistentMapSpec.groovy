@@ -0,0 +1,113 @@
+package com.ebay.myriad.state
+
+import spock.lang.Specification
+
+/**
+ *
+ * Tests for PersistentMap
+ *
+ */
+class PersistentMapSpec extends Specification {
+
+    def "updates leave earlier versions unchanged"() {
+        given:
+        def empty = PersistentMap.<String, Integer> empty()
+
+        when:
+        def one = empty.plus("a", 1)
+        def two = one.plus("b", 2)
+        def replaced = two.plus("a", 3)
+        def removed = replaced.minus("b")
+
+        then:
+        empty.isEmpty()
+        one == [a: 1]
+        two == [a: 1, b: 2]
+        replaced == [a: 3, b: 2]
+        removed == [a: 3]
+        removed.minus("a").is(PersistentMap.empty())
+        two.plus("b", two.get("b")).is(two)
+        two.minus("c").is(two)
+    }
+
+    def "random updates agree with a hash map, colliding hashes included"() {
+        given:
+        def random = new Random(11)
+        def expected = [:]
+        def map = PersistentMap.<Key, Integer> empty()
+        def versions = []
+
+        when:
+        100000.times {
+            def key = new Key(random.nextInt(20000), hashBits)
+            if (random.nextInt(3) == 0) {
+                expected.remove(key)
+                map = map.minus(key)
+            } else {
+                expected[key] = it
+                map = map.plus(key, it)
+            }
+            if (it % 25000 == 0) {
+                versions << [new HashMap(expected), map]
+            }
+        }
+
+        then:
+        map.size() == expected.size()
+        map == expected
+        expected.every { key, value -> map.get(key) == value && map.containsKey(key) }
+        !map.containsKey(new Key(-1, hashBits))
+        map.entrySet().size() == expected.size()
+        versions.every { snapshot, version -> version == snapshot }
+
+        when:
+        expected.keySet().each { map = map.minus(it) }
+
+        then:
+        map.isEmpty()
+
+        where: "with 8 bits of hash, each hash is shared by about 80 keys"
+        hashBits << [32, 8]
+    }
+
+    def "the map can not be changed in place"() {
+        given:
+        def map = PersistentMap.<String, Integer> empty().plus("a", 1)
+
+        when:
+        map.put("b", 2)
+
+        then:
+        thrown(UnsupportedOperationException)
+
+        when:
+        map.entrySet().iterator().with { next(); remove() }
+
+        then:
+        thrown(UnsupportedOperationException)
+        map == [a: 1]
+    }
+
+    /**
+     * Key with a hash code of the given number of bits, so that keys can be made to collide.
+     */
+    static class Key {
+        final int id
+        final int hash
+
+        Key(int id, int hashBits) {
+            this.id = id
+            this.hash = (id * 0x9E3779B9 as int) >>> (32 - hashBits)
+        }
+
+        @Override
+        boolean equals(Object other) {
+            other instanceof Key && other.id == id
+        }
+
+        @Override
+        int hashCode() {
+            hash
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.ebay.myriad.state
+
+import com.codahale.metrics.MetricRegistry
+import com.ebay.myriad.scheduler.NMProfile
+import org.apache.mesos.Protos
+import com.ebay.myriad.state.utils.StoreContext
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ *
+ * Tests for the secondary indexes and snapshots maintained by SchedulerState
+ *
+ */
+class SchedulerStateSpec extends Specification {
+
+    def small = new NMProfile("small", 1, 1024)
+    def zero = new NMProfile("zero", 0, 0)
+
+    def "profile indexes follow task transitions"() {
+        given:
+        def state = new SchedulerState(null)
+        def taskId = addTask(state, "t1", small)
+
+        expect:
+        state.getPendingTaskIDsForProfile(small) as Set == [taskId] as Set
+        state.getStagingTaskIDsForProfile(small).isEmpty()
+        state.getActiveTaskIDsForProfile(small).isEmpty()
+
+        when:
+        state.makeTaskStaging(taskId)
+
+        then:
+        state.getPendingTaskIDsForProfile(small).isEmpty()
+        state.getStagingTaskIDsForProfile(small) as Set == [taskId] as Set
+
+        when:
+        state.makeTaskActive(taskId)
+
+        then:
+        state.getStagingTaskIDsForProfile(small).isEmpty()
+        state.getActiveTaskIDsForProfile(small) as Set == [taskId] as Set
+        state.getActiveTaskIDsForProfile(zero).isEmpty()
+        state.getActiveTasks().size() == 1
+
+        when:
+        state.makeTaskLost(taskId)
+
+        then:
+        state.getPendingTaskIDsForProfile(small).isEmpty()
+        state.getStagingTaskIDsForProfile(small).isEmpty()
+        state.getActiveTaskIDsForProfile(small).isEmpty()
+        state.getActiveTasks().isEmpty()
+
+        when:
+        state.makeTaskPending(taskId)
+        state.makeTaskKillable(taskId)
+
+        then:
+        state.getPendingTaskIDsForProfile(small).isEmpty()
+        state.getKillableTasks() == [taskId] as Set
+    }
+
+    def "hostname and slave id indexes are refreshed when a task is re-added"() {
+        given:
+        def state = new SchedulerState(null)
+        def taskId = addTask(state, "t1", zero)
+        def slaveId = Protos.SlaveID.newBuilder().setValue("slave1").build()
+
+        expect:
+        state.getNodeTask(slaveId) == null
+        state.getActiveTasksForHostname("host1").isEmpty()
+
+        when:
+        def nodeTask = new NodeTask(state.getTask(taskId))
+        nodeTask.setHostname("host1")
+        nodeTask.setSlaveId(slaveId)
+        state.addTask(taskId, nodeTask)
+        state.makeTaskActive(taskId)
+
+        then:
+        state.getNodeTask(slaveId).hostname == "host1"
+        state.getActiveTasksForHostname("host1")*.slaveId == [slaveId]
+        state.getActiveTasksForHostname("host2").isEmpty()
+
+        when: "the task moves to another host"
+        def otherSlaveId = Protos.SlaveID.newBuilder().setValue("slave2").build()
+        nodeTask = new NodeTask(state.getTask(taskId))
+        nodeTask.setHostname("host2")
+        nodeTask.setSlaveId(otherSlaveId)
+        state.addTask(taskId, nodeTask)
+
+        then:
+        state.getNodeTask(slaveId) == null
+        state.getNodeTask(otherSlaveId).hostname == "host2"
+        state.getActiveTasksForHostname("host1").isEmpty()
+        state.getActiveTasksForHostname("host2")*.slaveId == [otherSlaveId]
+        state.getActiveTaskIDsForProfile(zero) as Set == [taskId] as Set
+    }
+
+    def "published snapshots do not change and share what a mutation left alone"() {
+        given:
+        def state = new SchedulerState(null)
+        def taskId = addTask(state, "t1", small)
+        def before = state.getSnapshot()
+
+        when:
+        state.updateTask(Protos.TaskStatus.newBuilder().setTaskId(taskId).setState(Protos.TaskState.TASK_RUNNING).build())
+        def after = state.getSnapshot()
+
+        then:
+        before.getTasks().get(taskId).getTaskStatus() == null
+        after.getTasks().get(taskId).getTaskStatus().getState() == Protos.TaskState.TASK_RUNNING
+        after.getPendingTasks().is(before.getPendingTasks())
+        after.getPendingTasksForProfile("small").is(before.getPendingTasksForProfile("small"))
+
+        when:
+        state.makeTaskActive(taskId)
+
+        then:
+        state.getSnapshot().getTasks().is(after.getTasks())
+        state.getSnapshot().getActiveTasks() == [taskId] as Set
+        after.getActiveTasks().isEmpty()
+    }
+
+    def "removed tasks are dropped from every index"() {
+        given:
+        def state = new SchedulerState(null)
+        def slaveId = Protos.SlaveID.newBuilder().setValue("slave1").build()
+        def taskId = addTask(state, "t1", small)
+        def nodeTask = new NodeTask(state.getTask(taskId))
+        nodeTask.setHostname("host1")
+        nodeTask.setSlaveId(slaveId)
+        state.addTask(taskId, nodeTask)
+        state.makeTaskActive(taskId)
+
+        when:
+        state.removeTask(taskId)
+
+        then:
+        !state.hasTask(taskId)
+        state.getNodeTask(slaveId) == null
+        state.getActiveTasksForHostname("host1").isEmpty()
+        state.getActiveTaskIDsForProfile(small).isEmpty()
+        state.getActiveTasks().isEmpty()
+    }
+
+    def "only a task that is still pending is staged with its launch details"() {
+        given:
+        def state = new SchedulerState(null)
+        def pending = addTask(state, "t1", small)
+        def flexedDown = addTask(state, "t2", small)
+        def staged = new NodeTask(state.getTask(pending))
+        staged.setHostname("host1")
+
+        when:
+        state.removeTask(flexedDown)
+        def stagedPending = state.makeTaskStaging(pending, staged)
+        def stagedFlexedDown = state.makeTaskStaging(flexedDown, new NodeTask(small, null))
+
+        then:
+        stagedPending
+        !stagedFlexedDown
+        state.getStagingTaskIds() == [pending] as Set
+        state.getTask(pending).getHostname() == "host1"
+        !state.getTask(pending).is(staged)
+        !state.hasTask(flexedDown)
+    }
+
+    def "profile queries only return tasks of the requested profile"() {
+        given:
+        def state = new SchedulerState(null)
+        def smallTask = addTask(state, "t1", small)
+        def zeroTask = addTask(state, "t2", zero)
+        state.makeTaskActive(zeroTask)
+
+        expect:
+        state.getPendingTaskIDsForProfile(small) as Set == [smallTask] as Set
+        state.getPendingTaskIDsForProfile(zero).isEmpty()
+        state.getActiveTaskIDsForProfile(zero) as Set == [zeroTask] as Set
+        state.getActiveTaskIDsForProfile(small).isEmpty()
+    }
+
+    def "snapshots are immutable and versioned"() {
+        given:
+        def state = new SchedulerState(null)
+        def taskId = addTask(state, "t1", small)
+        def before = state.getSnapshot()
+
+        when:
+        state.makeTaskActive(taskId)
+        def after = state.getSnapshot()
+
+        then:
+        after.getVersion() > before.getVersion()
+        before.getPendingTasks() == [taskId] as Set
+        before.getActiveTasks().isEmpty()
+        after.getPendingTasks().isEmpty()
+        after.getActiveTasks() == [taskId] as Set
+    }
+
+    def "mutations and reads do not wait for the state store write"() {
+        given:
+        def store = new BlockingStateStore()
+        def state = new SchedulerState(store, 0, new MetricRegistry())
+        def taskId = Protos.TaskID.newBuilder().setValue("t1").build()
+
+        when:
+        state.addTask(taskId, new NodeTask(small, null))
+        def blocked = store.entered.await(10, TimeUnit.SECONDS)
+        state.makeTaskPending(taskId)
+        def commit = state.commit()
+
+        then: "the mutations are visible while the writer is still persisting"
+        blocked
+        state.hasTask(taskId)
+        state.getPendingTaskIds() == [taskId] as Set
+        !commit.isDone()
+
+        when:
+        store.release.countDown()
+        commit.get(10, TimeUnit.SECONDS)
+
+        then: "the transitions were stored in order"
+        store.transitions*.type == [StateTransition.Type.PUT_TASK, StateTransition.Type.MAKE_PENDING]
+    }
+
+    def "mutations within a commit window are stored in a single write"() {
+        given:
+        def store = new RecordingStateStore()
+        def metrics = new MetricRegistry()
+        def state = new SchedulerState(store, 60000, metrics)
+
+        when:
+        (0..<50).each { addTask(state, "t" + it, small) }
+        state.commit().get(10, TimeUnit.SECONDS)
+
+        then:
+        store.batches.size() == 1
+        store.batches[0].size() == 100
+        metrics.meter(MetricRegistry.name(StateStoreWriter, "commits")).count == 1
+        metrics.histogram(MetricRegistry.name(StateStoreWriter, "batch-size")).snapshot.max == 100
+        metrics.timer(MetricRegistry.name(StateStoreWriter, "commit-lag")).count == 1
+
+        when: "nothing changed since the last write"
+        def commit = state.commit()
+
+        then:
+        commit.isDone()
+        store.batches.size() == 1
+    }
+
+    def "a failed write fails the commit and is retried"() {
+        given:
+        def store = new RecordingStateStore(failures: 1)
+        // The commit window outlasts the test, so only commits trigger writes.
+        def state = new SchedulerState(store, 60000, new MetricRegistry())
+        def taskId = addTask(state, "t1", small)
+
+        when:
+        state.commit().get(10, TimeUnit.SECONDS)
+
+        then:
+        thrown(ExecutionException)
+
+        when:
+        state.makeTaskActive(taskId)
+        state.commit().get(10, TimeUnit.SECONDS)
+
+        then: "the failed transitions are stored ahead of the new ones"
+        store.batches.flatten()*.type == [StateTransition.Type.PUT_TASK, StateTransition.Type.MAKE_PENDING,
+                                          StateTransition.Type.MAKE_ACTIVE]
+    }
+
+    def "readers see consistent snapshots while writers are running"() {
+        given:
+        def state = new SchedulerState(null)
+        def taskIds = (0..<100).collect { addTask(state, "t" + it, small) }
+        def running = new AtomicBoolean(true)
+        def reads = new AtomicLong()
+        def writes = new AtomicLong()
+        def inconsistent = new AtomicLong()
+
+        def writers = (0..<2).collect { w ->
+            Thread.start {
+                def i = 0
+                while (running.get()) {
+                    def taskId = taskIds[i++ % taskIds.size()]
+                    state.makeTaskActive(taskId)
+                    state.makeTaskPending(taskId)
+                    writes.addAndGet(2)
+                }
+            }
+        }
+        def readers = (0..<4).collect {
+            Thread.start {
+                while (running.get()) {
+                    def snapshot = state.getSnapshot()
+                    def pending = snapshot.getPendingTasks()
+                    def active = snapshot.getActiveTasks()
+                    if (pending.size() + active.size() != taskIds.size()
+                            || snapshot.getPendingTasksForProfile(small.name) != pending
+                            || snapshot.getActiveTasksForProfile(small.name) != active) {
+                        inconsistent.incrementAndGet()
+                    }
+                    reads.incrementAndGet()
+                }
+            }
+        }
+
+        when:
+        Thread.sleep(500)
+        running.set(false)
+        (writers + readers)*.join()
+
+        then:
+        reads.get() > 0
+        writes.get() > 0
+        inconsistent.get() == 0
+        state.getPendingTaskIds().size() + state.getActiveTaskIds().size() == taskIds.size()
+    }
+
+    /**
+     * State store that blocks the first write until released.
+     */
+    static class BlockingStateStore implements MyriadStateStore {
+        def entered = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def transitions = []
+
+        @Override
+        StoreContext loadMyriadState() throws Exception {
+            null
+        }
+
+        @Override
+        void storeMyriadState(StoreContext storeContext) throws Exception {
+        }
+
+        @Override
+        void storeMyriadStateTransitions(List<StateTransition> transitions) throws Exception {
+            entered.countDown()
+            release.await(10, TimeUnit.SECONDS)
+            this.transitions.addAll(transitions)
+        }
+    }
+
+    /**
+     * State store that records the batches written, failing the first writes if asked to.
+     */
+    static class RecordingStateStore implements MyriadStateStore {
+        def batches = [].asSynchronized()
+        int failures
+
+        @Override
+        StoreContext loadMyriadState() throws Exception {
+            null
+        }
+
+        @Override
+        void storeMyriadState(StoreContext storeContext) throws Exception {
+        }
+
+        @Override
+        void storeMyriadStateTransitions(List<StateTransition> transitions) throws Exception {
+            if (failures > 0) {
+                failures--
+                throw new IOException("state store unavailable")
+            }
+            batches << new ArrayList(transitions)
+        }
+    }
+
+    private static Protos.TaskID addTask(SchedulerState state, String id, NMProfile profile) {
+        def taskId = Protos.TaskID.newBuilder().setValue(id).build()
+        state.addTask(taskId, new NodeTask(profile, null))
+        state.makeTaskPending(taskId)
+        taskId
+    }
+}
@@ -0,0 +1,154 @@
+package com.ebay.myriad.state.utils
+
+import com.ebay.myriad.scheduler.NMProfile
+import com.ebay.myriad.scheduler.constraints.LikeConstraint
+import com.ebay.myriad.state.NodeTask
+import com.ebay.myriad.state.StateTransition
+import org.apache.mesos.Protos
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+/**
+ *
+ * Tests for the binary format of the Myriad state
+ *
+ */
+class StoreContextSpec extends Specification {
+
+    def frameworkId = Protos.FrameworkID.newBuilder().setValue("framework").build()
+
+    def "binary format round trips every field"() {
+        given:
+        def taskId = taskId("t1")
+        def nodeTask = new NodeTask(new NMProfile("small", 1, 1024), new LikeConstraint("hostname", "host-[0-9]*.example.com"))
+        nodeTask.hostname = "host-1.example.com"
+        nodeTask.slaveId = Protos.SlaveID.newBuilder().setValue("slave-1").build()
+        nodeTask.taskStatus = Protos.TaskStatus.newBuilder().setTaskId(taskId).setState(Protos.TaskState.TASK_RUNNING).build()
+        nodeTask.executorInfo = Protos.ExecutorInfo.newBuilder()
+                .setExecutorId(Protos.ExecutorID.newBuilder().setValue("executor"))
+                .setCommand(Protos.CommandInfo.newBuilder().setValue("echo"))
+                .build()
+        def context = new StoreContext(frameworkId, [(taskId): nodeTask], [] as Set, [] as Set, [taskId] as Set, [] as Set, [] as Set)
+
+        when:
+        def decoded = StoreContext.fromSerializedBytes(encode(context))
+        def decodedTask = decoded.tasks[taskId]
+
+        then:
+        decoded.frameworkId == frameworkId
+        decoded.activeTasks == [taskId] as Set
+        decoded.pendingTasks.isEmpty()
+        decodedTask.profile.name == "small"
+        decodedTask.profile.cpus == 1
+        decodedTask.profile.memory == 1024
+        decodedTask.constraint == nodeTask.constraint
+        decodedTask.hostname == nodeTask.hostname
+        decodedTask.slaveId == nodeTask.slaveId
+        decodedTask.taskStatus == nodeTask.taskStatus
+        decodedTask.executorInfo == nodeTask.executorInfo
+    }
+
+    def "legacy layout is still read"() {
+        given:
+        def context = newContext(10)
+        def legacy = encodeLegacy(context)
+
+        when:
+        def decoded = StoreContext.fromSerializedBytes(legacy)
+        def checkpoint = StateCheckpoint.fromByteBuffer(ByteBuffer.wrap(legacy))
+
+        then:
+        decoded.frameworkId == frameworkId
+        decoded.tasks.keySet() == context.tasks.keySet()
+        decoded.tasks.values()*.hostname as Set == context.tasks.values()*.hostname as Set
+        decoded.pendingTasks == context.pendingTasks
+        decoded.activeTasks == context.activeTasks
+        checkpoint.getTaskCount() == 10
+        checkpoint.toStoreContext().activeTasks == context.activeTasks
+    }
+
+    def "checkpoints copy encoded tasks without decoding them"() {
+        given:
+        def context = newContext(10)
+        def checkpoint = StateCheckpoint.fromByteBuffer(ByteBuffer.wrap(encode(context)))
+        def removed = context.pendingTasks.iterator().next()
+        checkpoint.apply(StateTransition.removeTask(removed))
+
+        when:
+        def encoder = new StateEncoder()
+        checkpoint.writeTo(encoder)
+        def decoded = StoreContext.fromSerializedBytes(encoder.toByteArray())
+
+        then:
+        decoded.frameworkId == frameworkId
+        decoded.tasks.size() == 9
+        !decoded.tasks.containsKey(removed)
+        decoded.activeTasks == context.activeTasks
+        decoded.tasks.values()*.hostname as Set == (context.tasks.values()*.hostname as Set) - "host-${removed.value}".toString()
+    }
+
+    def "binary format is smaller than the legacy layout and decodes to the same 10k tasks"() {
+        given:
+        def context = newContext(10000)
+
+        when:
+        def legacy = encodeLegacy(context)
+        def binary = encode(context)
+        def fromLegacy = StoreContext.fromSerializedBytes(legacy)
+        def fromBinary = StoreContext.fromSerializedBytes(binary)
+
+        then:
+        binary.length < legacy.length
+        fromBinary.tasks.size() == 10000
+        fromBinary.tasks.keySet() == fromLegacy.tasks.keySet()
+        fromBinary.tasks.values()*.hostname as Set == fromLegacy.tasks.values()*.hostname as Set
+        fromBinary.pendingTasks == fromLegacy.pendingTasks
+        fromBinary.activeTasks == fromLegacy.activeTasks
+    }
+
+    private StoreContext newContext(int count) {
+        def tasks = [:]
+        def pending = [] as Set
+        def active = [] as Set
+        count.times { i ->
+            def id = taskId("task-${i}")
+            def nodeTask = new NodeTask(new NMProfile("medium", 2, 2048), null)
+            nodeTask.hostname = "host-task-${i}"
+            nodeTask.slaveId = Protos.SlaveID.newBuilder().setValue("slave-${i}").build()
+            tasks[id] = nodeTask
+            (i % 2 == 0 ? pending : active) << id
+        }
+        return new StoreContext(frameworkId, tasks, pending, [] as Set, active, [] as Set, [] as Set)
+    }
+
+    private static byte[] encode(StoreContext context) {
+        def encoder = StateEncoder.acquire()
+        context.writeTo(encoder)
+        return encoder.toByteArray()
+    }
+
+    /*
+     * Writes the layout of earlier versions, as they did.
+     */
+    private static byte[] encodeLegacy(StoreContext context) {
+        def bytes = new ByteArrayOutputStream()
+        def taskIds = []
+        def taskNodes = []
+        context.tasks.each { id, nodeTask ->
+            taskIds << ByteBufferSupport.toByteBuffer(id)
+            taskNodes << ByteBufferSupport.toByteBuffer(nodeTask)
+        }
+        ByteBufferSupport.addByteBuffer(ByteBufferSupport.toByteBuffer(context.frameworkId), bytes)
+        ByteBufferSupport.addByteBuffers(taskIds, bytes)
+        ByteBufferSupport.addByteBuffers(taskNodes, bytes)
+        [context.pendingTasks, context.stagingTasks, context.activeTasks, context.lostTasks, context.killableTasks].each { ids ->
+            ByteBufferSupport.addByteBuffers(ids.collect { ByteBufferSupport.toByteBuffer(it) }, bytes)
+        }
+        return bytes.toByteArray()
+    }
+
+    private static Protos.TaskID taskId(String value) {
+        Protos.TaskID.newBuilder().setValue(value).build()
+    }
+}
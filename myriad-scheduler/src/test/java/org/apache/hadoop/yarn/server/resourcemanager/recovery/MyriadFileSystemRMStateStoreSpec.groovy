@@ -0,0 +1,193 @@
+package org.apache.hadoop.yarn.server.resourcemanager.recovery
+
+import com.ebay.myriad.scheduler.NMProfile
+import com.ebay.myriad.state.NodeTask
+import com.ebay.myriad.state.SchedulerState
+import com.ebay.myriad.state.StateTransition
+import com.ebay.myriad.state.utils.StoreContext
+import org.apache.hadoop.fs.FileSystem
+import org.apache.hadoop.yarn.conf.YarnConfiguration
+import org.apache.mesos.Protos
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+/**
+ *
+ * Tests for the Myriad state journal and recovery of MyriadFileSystemRMStateStore
+ *
+ */
+class MyriadFileSystemRMStateStoreSpec extends Specification {
+
+    def profile = new NMProfile("small", 1, 1024)
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+    def stores = []
+
+    def cleanup() {
+        stores*.close()
+    }
+
+    def "10k transitions write a linear number of bytes"() {
+        given:
+        def store = newStore(64 * 1024)
+        def taskIds = (0..<5000).collect { taskId("nm.small." + UUID.randomUUID()) }
+        def bytesBefore = localBytesWritten()
+
+        when: "5000 NMs are flexed up one at a time, each one added and made pending"
+        taskIds.each {
+            store.storeMyriadStateTransitions([StateTransition.putTask(it, new NodeTask(profile, null))])
+            store.storeMyriadStateTransitions([StateTransition.makeTask(StateTransition.Type.MAKE_PENDING, it)])
+        }
+        waitForCompaction(store)
+        def bytesWritten = localBytesWritten() - bytesBefore
+
+        then: "rewriting the whole state on every transition would write gigabytes"
+        bytesWritten < 10000 * 1024
+
+        when:
+        def recovered = new SchedulerState(reopen(store))
+
+        then:
+        recovered.getPendingTaskIds() == taskIds as Set
+    }
+
+    def "recovery replays the journal on top of the checkpoint"() {
+        given:
+        def store = newStore(YarnConfiguration.DEFAULT_FS_RM_STATE_STORE_RETRY_INTERVAL_MS)
+        def state = new SchedulerState(store)
+        def frameworkId = Protos.FrameworkID.newBuilder().setValue("framework").build()
+        def first = taskId("t1")
+        def second = taskId("t2")
+        state.setFrameworkId(frameworkId)
+        state.addTask(first, new NodeTask(profile, null))
+        state.makeTaskPending(first)
+        state.commit().get()
+
+        when: "a checkpoint is written and more transitions are journaled"
+        store.compact()
+        state.makeTaskActive(first)
+        state.addTask(second, new NodeTask(profile, null))
+        state.makeTaskLost(second)
+        state.removeTask(second)
+        state.commit().get()
+        def recovered = new SchedulerState(reopen(store))
+
+        then:
+        recovered.getFrameworkID() == frameworkId
+        recovered.getActiveTaskIds() == [first] as Set
+        recovered.getPendingTaskIds().isEmpty()
+        recovered.getLostTaskIds().isEmpty()
+        !recovered.hasTask(second)
+        recovered.getTask(first).getProfile().getName() == "small"
+    }
+
+    def "replaying transitions twice and a torn tail are harmless"() {
+        given:
+        def store = newStore(YarnConfiguration.DEFAULT_FS_RM_STATE_STORE_RETRY_INTERVAL_MS)
+        def first = taskId("t1")
+        def transitions = [StateTransition.putTask(first, new NodeTask(profile, null)),
+                           StateTransition.makeTask(StateTransition.Type.MAKE_STAGING, first)]
+
+        when:
+        store.storeMyriadStateTransitions(transitions)
+        store.storeMyriadStateTransitions(transitions)
+        store.closeJournal()
+        def journalDir = new File(folder.root, "FSRMStateRoot/RMMyriadRoot")
+        new File(journalDir, "MyriadStateJournal") << (tail as byte[])
+        new File(journalDir, ".MyriadStateJournal.crc").delete()
+        def recovered = new SchedulerState(reopen(store))
+
+        then:
+        recovered.getStagingTaskIds() == [first] as Set
+        recovered.getTaskStatuses().isEmpty()
+        recovered.hasTask(first)
+
+        where:
+        tail << [[7, 0, 0, 0, 1], [0, 0, 0, 0, 0, 0, 0, 0], [-1, -1, -1, -1, 1], [-1, -1, -1, 127, 1], [1, 0]]
+    }
+
+    def "recovery restores and indexes up to 50k tasks"() {
+        given:
+        def store = newStore(MyriadFileSystemRMStateStore.DEFAULT_MYRIAD_JOURNAL_COMPACTION_MIN_BYTES)
+        def recovered = [:]
+
+        when:
+        [1000, 10000, 50000].each { count ->
+            store.storeMyriadState(newStoreContext(count))
+            store = reopen(store)
+            def state = new SchedulerState(store)
+            recovered[count] = [state.getActiveTaskIds().size(), state.getActiveTasksForHostname("host-0").size()]
+        }
+
+        then:
+        recovered == [1000: [1000, 1], 10000: [10000, 1], 50000: [50000, 1]]
+    }
+
+    def "recovered tasks are decoded once, on first access"() {
+        given:
+        def store = newStore(MyriadFileSystemRMStateStore.DEFAULT_MYRIAD_JOURNAL_COMPACTION_MIN_BYTES)
+        store.storeMyriadState(newStoreContext(10))
+        store = reopen(store)
+
+        when:
+        def tasks = store.loadMyriadState().getTasks()
+
+        then:
+        tasks.size() == 10
+        tasks.containsKey(taskId("task-3"))
+        tasks[taskId("task-3")].is(tasks[taskId("task-3")])
+        tasks[taskId("task-3")].hostname == "host-3"
+    }
+
+    private static StoreContext newStoreContext(int count) {
+        def tasks = [:]
+        count.times { i ->
+            def id = taskId("task-${i}")
+            def nodeTask = new NodeTask(new NMProfile("medium", 2, 2048), null)
+            nodeTask.hostname = "host-${i}"
+            nodeTask.slaveId = Protos.SlaveID.newBuilder().setValue("slave-${i}").build()
+            nodeTask.taskStatus = Protos.TaskStatus.newBuilder().setTaskId(id).setState(Protos.TaskState.TASK_RUNNING).build()
+            tasks[id] = nodeTask
+        }
+        new StoreContext(Protos.FrameworkID.newBuilder().setValue("framework").build(), tasks,
+                [] as Set, [] as Set, tasks.keySet(), [] as Set, [] as Set)
+    }
+
+    private MyriadFileSystemRMStateStore newStore(long compactionMinBytes) {
+        def conf = new YarnConfiguration()
+        conf.set(YarnConfiguration.FS_RM_STATE_STORE_URI, folder.root.toURI().toString())
+        conf.setLong(MyriadFileSystemRMStateStore.MYRIAD_JOURNAL_COMPACTION_MIN_BYTES, compactionMinBytes)
+        def store = new MyriadFileSystemRMStateStore()
+        store.init(conf)
+        store.start()
+        store.loadState()
+        stores << store
+        store
+    }
+
+    private MyriadFileSystemRMStateStore reopen(MyriadFileSystemRMStateStore store) {
+        store.close()
+        newStore(MyriadFileSystemRMStateStore.DEFAULT_MYRIAD_JOURNAL_COMPACTION_MIN_BYTES)
+    }
+
+    private static void waitForCompaction(MyriadFileSystemRMStateStore store) {
+        def deadline = System.currentTimeMillis() + 10000
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (store) {
+                if (!store.compacting) {
+                    return
+                }
+            }
+            Thread.sleep(10)
+        }
+    }
+
+    private static long localBytesWritten() {
+        FileSystem.getAllStatistics().findAll { it.scheme == "file" }.sum(0L) { it.bytesWritten }
+    }
+
+    private static Protos.TaskID taskId(String id) {
+        Protos.TaskID.newBuilder().setValue(id).build()
+    }
+}
@@ -0,0 +1,169 @@
+package org.apache.hadoop.yarn.server.resourcemanager.recovery
+
+import com.ebay.myriad.scheduler.NMProfile
+import com.ebay.myriad.state.NodeTask
+import com.ebay.myriad.state.SchedulerState
+import com.ebay.myriad.state.StateTransition
+import com.ebay.myriad.state.utils.StoreContext
+import org.apache.hadoop.yarn.conf.YarnConfiguration
+import org.apache.mesos.Protos
+import org.iq80.leveldb.DB
+import org.iq80.leveldb.DBException
+import org.iq80.leveldb.WriteBatch
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+/**
+ *
+ * Tests for MyriadLeveldbRMStateStore
+ *
+ */
+class MyriadLeveldbRMStateStoreSpec extends Specification {
+
+    def profile = new NMProfile("small", 1, 1024)
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+    def stores = []
+
+    def cleanup() {
+        stores*.close()
+    }
+
+    def "recovery scans the task and state keys"() {
+        given:
+        def store = newLeveldbStore()
+        def state = new SchedulerState(store)
+        def frameworkId = Protos.FrameworkID.newBuilder().setValue("framework").build()
+        def taskIds = (0..<100).collect { taskId("nm.small.${it}") }
+        state.setFrameworkId(frameworkId)
+        taskIds.each { state.addTask(it, new NodeTask(profile, null)) }
+        taskIds.each { state.makeTaskPending(it) }
+        taskIds[0..<50].each { state.makeTaskActive(it) }
+        state.makeTaskLost(taskIds[0])
+        state.removeTask(taskIds[1])
+        state.commit().get()
+
+        when:
+        def recovered = new SchedulerState(reopen(store))
+
+        then:
+        recovered.getFrameworkID() == frameworkId
+        recovered.getLostTaskIds() == [taskIds[0]] as Set
+        recovered.getActiveTaskIds() == taskIds[2..<50] as Set
+        recovered.getPendingTaskIds() == taskIds[50..<100] as Set
+        !recovered.hasTask(taskIds[1])
+        recovered.getTask(taskIds[2]).getProfile().getName() == "small"
+    }
+
+    def "storing the whole state replaces it"() {
+        given:
+        def store = newLeveldbStore()
+        store.storeMyriadStateTransitions([StateTransition.putTask(taskId("old"), new NodeTask(profile, null)),
+                                           StateTransition.makeTask(StateTransition.Type.MAKE_ACTIVE, taskId("old"))])
+        def replacement = new StoreContext(null, [(taskId("new")): new NodeTask(profile, null)],
+                [taskId("new")] as Set, [] as Set, [] as Set, [] as Set, [] as Set)
+
+        when:
+        store.storeMyriadState(replacement)
+        def recovered = reopen(store).loadMyriadState()
+
+        then:
+        recovered.getTasks().keySet() == [taskId("new")] as Set
+        recovered.getPendingTasks() == [taskId("new")] as Set
+        recovered.getActiveTasks().isEmpty()
+    }
+
+    def "a transition retried after a failed write leaves no stale state behind"() {
+        given:
+        def store = newLeveldbStore()
+        def db = store.@db
+        def failNextWrite = false
+        store.@db = [createWriteBatch: { db.createWriteBatch() },
+                     write: { WriteBatch updates ->
+                         if (failNextWrite) {
+                             failNextWrite = false
+                             throw new DBException("write failed")
+                         }
+                         db.write(updates)
+                     }] as DB
+        def task = taskId("nm.small.1")
+        store.storeMyriadStateTransitions([StateTransition.putTask(task, new NodeTask(profile, null)),
+                                           StateTransition.makeTask(StateTransition.Type.MAKE_PENDING, task)])
+
+        when:
+        failNextWrite = true
+        store.storeMyriadStateTransitions([StateTransition.makeTask(StateTransition.Type.MAKE_ACTIVE, task)])
+
+        then:
+        thrown(IOException)
+
+        when:
+        store.storeMyriadStateTransitions([StateTransition.makeTask(StateTransition.Type.MAKE_ACTIVE, task)])
+        store.@db = db
+        def recovered = reopen(store).loadMyriadState()
+
+        then:
+        recovered.getActiveTasks() == [task] as Set
+        recovered.getPendingTasks().isEmpty()
+    }
+
+    def "5000 tasks stored one transition at a time recover the same as from the file store"() {
+        given:
+        def stores = [leveldb: newLeveldbStore(), file: newFileStore()]
+        def taskIds = (0..<5000).collect { taskId("nm.small.${it}") }
+        def recovered = [:]
+
+        when: "each of 5000 tasks is added, made pending and made active on its own, then the state is recovered"
+        stores.each { name, store ->
+            taskIds.each {
+                store.storeMyriadStateTransitions([StateTransition.putTask(it, new NodeTask(profile, null))])
+                store.storeMyriadStateTransitions([StateTransition.makeTask(StateTransition.Type.MAKE_PENDING, it)])
+                store.storeMyriadStateTransitions([StateTransition.makeTask(StateTransition.Type.MAKE_ACTIVE, it)])
+            }
+            def state = new SchedulerState(name == "file" ? reopenFileStore(store) : reopen(store))
+            recovered[name] = [active: state.getActiveTaskIds(), pending: state.getPendingTaskIds()]
+        }
+
+        then:
+        recovered.leveldb.active == taskIds as Set
+        recovered.leveldb.pending.isEmpty()
+        recovered.leveldb == recovered.file
+    }
+
+    private MyriadLeveldbRMStateStore newLeveldbStore() {
+        def conf = new YarnConfiguration()
+        conf.set(YarnConfiguration.RM_LEVELDB_STORE_PATH, new File(folder.root, "leveldb").path)
+        def store = new MyriadLeveldbRMStateStore()
+        store.init(conf)
+        store.start()
+        store.loadState()
+        stores << store
+        store
+    }
+
+    private MyriadFileSystemRMStateStore newFileStore() {
+        def conf = new YarnConfiguration()
+        conf.set(YarnConfiguration.FS_RM_STATE_STORE_URI, new File(folder.root, "fs").toURI().toString())
+        def store = new MyriadFileSystemRMStateStore()
+        store.init(conf)
+        store.start()
+        store.loadState()
+        stores << store
+        store
+    }
+
+    private MyriadLeveldbRMStateStore reopen(MyriadLeveldbRMStateStore store) {
+        store.close()
+        newLeveldbStore()
+    }
+
+    private MyriadFileSystemRMStateStore reopenFileStore(MyriadFileSystemRMStateStore store) {
+        store.close()
+        newFileStore()
+    }
+
+    private static Protos.TaskID taskId(String id) {
+        Protos.TaskID.newBuilder().setValue(id).build()
+    }
+}
@@ -0,0 +1,207 @@
+package org.apache.hadoop.yarn.server.resourcemanager.recovery
+
+import com.ebay.myriad.scheduler.NMProfile
+import com.ebay.myriad.state.NodeTask
+import com.ebay.myriad.state.SchedulerState
+import com.ebay.myriad.state.StateTransition
+import org.apache.curator.framework.CuratorFramework
+import org.apache.curator.framework.CuratorFrameworkFactory
+import org.apache.curator.retry.RetryOneTime
+import org.apache.curator.test.TestingServer
+import org.apache.hadoop.yarn.conf.YarnConfiguration
+import org.apache.hadoop.yarn.event.AsyncDispatcher
+import org.apache.mesos.Protos
+import org.apache.zookeeper.KeeperException
+import org.apache.zookeeper.Op
+import org.apache.zookeeper.OpResult
+import org.apache.zookeeper.ZooKeeper
+import spock.lang.Specification
+
+/**
+ *
+ * Tests for MyriadZKRMStateStore
+ *
+ */
+class MyriadZKRMStateStoreSpec extends Specification {
+
+    static final String TASKS_PATH = "/rmstore/ZKRMStateRoot/RMMyriadRoot/Tasks"
+
+    def profile = new NMProfile("small", 1, 1024)
+    TestingServer server
+    CuratorFramework curator
+    def stores = []
+
+    def setup() {
+        server = new TestingServer()
+        curator = CuratorFrameworkFactory.newClient(server.connectString, new RetryOneTime(100))
+        curator.start()
+    }
+
+    def cleanup() {
+        stores*.close()
+        curator.close()
+        server.close()
+    }
+
+    def "each task is kept in its own znode and a transition is a single setData"() {
+        given:
+        def store = newStore()
+        def first = taskId("nm.small.1")
+        def second = taskId("nm.small.2")
+
+        when:
+        store.storeMyriadStateTransitions([StateTransition.putTask(first, new NodeTask(profile, null)),
+                                           StateTransition.makeTask(StateTransition.Type.MAKE_PENDING, first),
+                                           StateTransition.putTask(second, new NodeTask(profile, null)),
+                                           StateTransition.makeTask(StateTransition.Type.MAKE_PENDING, second)])
+        def version = curator.checkExists().forPath("${TASKS_PATH}/nm.small.1").version
+        store.storeMyriadStateTransitions([StateTransition.makeTask(StateTransition.Type.MAKE_ACTIVE, first)])
+
+        then:
+        curator.children.forPath(TASKS_PATH) as Set == ["nm.small.1", "nm.small.2"] as Set
+        curator.checkExists().forPath("${TASKS_PATH}/nm.small.1").version == version + 1
+        curator.checkExists().forPath("${TASKS_PATH}/nm.small.2").version == 0
+
+        when:
+        store.storeMyriadStateTransitions([StateTransition.removeTask(second)])
+
+        then:
+        curator.children.forPath(TASKS_PATH) == ["nm.small.1"]
+    }
+
+    def "recovery reads every task znode"() {
+        given:
+        def store = newStore()
+        def state = new SchedulerState(store)
+        def frameworkId = Protos.FrameworkID.newBuilder().setValue("framework").build()
+        def taskIds = (0..<2000).collect { taskId("nm.small.${it}") }
+        state.setFrameworkId(frameworkId)
+        taskIds.each { state.addTask(it, new NodeTask(profile, null)) }
+        taskIds.each { state.makeTaskActive(it) }
+        state.removeTask(taskIds[0])
+        state.commit().get()
+
+        when:
+        def recovered = new SchedulerState(reopen(store))
+
+        then:
+        recovered.getFrameworkID() == frameworkId
+        recovered.getActiveTaskIds() == (taskIds - taskIds[0]) as Set
+        recovered.getTask(taskIds[1]).getProfile().getName() == "small"
+    }
+
+    def "a resource manager fenced by another one can no longer store Myriad state"() {
+        given:
+        def rm1 = newStore(haConf("rm1"))
+        def task = taskId("nm.small.1")
+        rm1.storeMyriadStateTransitions([StateTransition.putTask(task, new NodeTask(profile, null))])
+
+        when: "rm2 becomes active"
+        def rm2 = newStore(haConf("rm2"))
+        rm1.storeMyriadStateTransitions([StateTransition.makeTask(StateTransition.Type.MAKE_ACTIVE, task)])
+
+        then:
+        thrown(StoreFencedException)
+
+        when:
+        rm2.storeMyriadStateTransitions([StateTransition.makeTask(StateTransition.Type.MAKE_LOST, task)])
+
+        then:
+        rm2.loadMyriadState().getLostTasks() == [task] as Set
+    }
+
+    def "a write committed before the connection dropped is not written again"() {
+        given:
+        def store = newStore()
+        def zk = new DroppingZooKeeper(server.connectString)
+        stores << zk
+        store.zkClient = zk
+        def first = taskId("nm.small.1")
+        def second = taskId("nm.small.2")
+
+        when: "the connection drops after the znodes are created"
+        zk.dropAfterMulti = true
+        store.storeMyriadStateTransitions([StateTransition.putTask(first, new NodeTask(profile, null)),
+                                           StateTransition.putTask(second, new NodeTask(profile, null))])
+        store.storeMyriadStateTransitions([StateTransition.makeTask(StateTransition.Type.MAKE_ACTIVE, first)])
+
+        then:
+        !zk.dropAfterMulti
+        curator.children.forPath(TASKS_PATH) as Set == ["nm.small.1", "nm.small.2"] as Set
+
+        when: "the connection drops after a znode is deleted"
+        zk.dropAfterMulti = true
+        store.storeMyriadStateTransitions([StateTransition.removeTask(second)])
+        store.storeMyriadStateTransitions([StateTransition.putTask(second, new NodeTask(profile, null))])
+
+        then:
+        !zk.dropAfterMulti
+        curator.children.forPath(TASKS_PATH) as Set == ["nm.small.1", "nm.small.2"] as Set
+        reopen(store).loadMyriadState().getActiveTasks() == [first] as Set
+    }
+
+    def "5000 tasks added one at a time and made active in one batch are all stored"() {
+        given:
+        def store = newStore()
+        def taskIds = (0..<5000).collect { taskId("nm.small.${it}") }
+
+        when: "each task is added on its own, then all of them are made active in a single batch"
+        taskIds.each { store.storeMyriadStateTransitions([StateTransition.putTask(it, new NodeTask(profile, null))]) }
+        store.storeMyriadStateTransitions(taskIds.collect { StateTransition.makeTask(StateTransition.Type.MAKE_ACTIVE, it) })
+
+        then: "the batch spans several multis"
+        curator.children.forPath(TASKS_PATH).size() == 5000
+        reopen(store).loadMyriadState().getActiveTasks() == taskIds as Set
+    }
+
+    private YarnConfiguration haConf(String rmId) {
+        def conf = new YarnConfiguration()
+        conf.setBoolean(YarnConfiguration.RM_HA_ENABLED, true)
+        conf.set(YarnConfiguration.RM_HA_IDS, "rm1,rm2")
+        conf.set(YarnConfiguration.RM_HA_ID, rmId)
+        ["rm1", "rm2"].each { conf.set("${YarnConfiguration.RM_HOSTNAME}.${it}", "localhost") }
+        conf
+    }
+
+    private MyriadZKRMStateStore newStore(YarnConfiguration conf = new YarnConfiguration()) {
+        conf.set(YarnConfiguration.RM_ZK_ADDRESS, server.connectString)
+        conf.set(YarnConfiguration.ZK_RM_STATE_STORE_PARENT_PATH, "/rmstore")
+        def store = new MyriadZKRMStateStore()
+        store.setRMDispatcher(new AsyncDispatcher())
+        store.init(conf)
+        store.start()
+        store.loadState()
+        stores << store
+        store
+    }
+
+    private MyriadZKRMStateStore reopen(MyriadZKRMStateStore store) {
+        store.close()
+        newStore()
+    }
+
+    /**
+     * Reports a connection loss once, after a multi has been committed.
+     */
+    static class DroppingZooKeeper extends ZooKeeper {
+        boolean dropAfterMulti
+
+        DroppingZooKeeper(String connectString) {
+            super(connectString, 10000, null)
+        }
+
+        @Override
+        List<OpResult> multi(Iterable<Op> ops) throws InterruptedException, KeeperException {
+            def results = super.multi(ops)
+            if (dropAfterMulti) {
+                dropAfterMulti = false
+                throw new KeeperException.ConnectionLossException()
+            }
+            results
+        }
+    }
+
+    private static Protos.TaskID taskId(String id) {
+        Protos.TaskID.newBuilder().setValue(id).build()
+    }
+}